@@ -13,13 +13,16 @@ import java.util.*;
 import org.systemsbiology.data.*;
 import org.systemsbiology.math.*;
 import org.systemsbiology.util.*;
-import cern.jet.random.*;
 
 /**
  * Used to simulate a chemical reaction containing a specified delay
  * time.  The reactant is immediately converted to a (hidden)
  * "intermediate species".  The reaction converting the intermediate
  * species to the product species occurs after the specified delay.
+ * For a stochastic simulation, this class only determines the delay
+ * of each molecule (fixed, or gamma-distributed for a multistep
+ * reaction); the completions are scheduled in the event calendar
+ * of the simulator.
  * This class is used by subclasses of the {@link Simulator} class.
  * The application developer will rarely need to work directly with 
  * an instance of this class.
@@ -33,6 +36,18 @@ public final class DelayedReactionSolver
     public static final int MIN_NUM_HISTORY_BINS = 10;
     public static final int DEFAULT_NUM_HISTORY_BINS = 400;
 
+    // number of kernel table entries per history bin; the kernel is interpolated
+    // between entries, for times that fall between the bins
+    private static final int KERNEL_TABLE_SUBDIVISIONS = 16;
+
+    // the kernel is computed directly (rather than interpolated) for table indices
+    // below this multiple of the number of steps, where it rises too steeply
+    private static final double KERNEL_TABLE_EXACT_INDEX_FACTOR = 4.0;
+
+    // the kernel table is extended, for a time that is ahead of the last history
+    // point by more than one bin, up to this multiple of the number of history bins
+    private static final int KERNEL_TABLE_MAX_EXTENSION_FACTOR = 4;
+
     private final Species mReactant;
     private final Species mIntermedSpecies;
     private final double mRate;
@@ -40,14 +55,17 @@ public final class DelayedReactionSolver
     private boolean mFirstTimePoint;
     private boolean mIsMultistep;
 
-    // used only for stochastic simulations
-    private final Queue mReactionTimes;
-    private final LinkedList mReactionTimesDoublePool;
-
     // used only for deterministic simulation
     private SlidingWindowTimeSeriesQueue mReactantHistory;
     private int mNumTimePoints;
 
+    // used only for deterministic simulation of a multistep reaction
+    private double []mKernelTable;             // convolution kernel, tabulated as a function of the bin offset
+    private double []mKernelSlopeTable;        // derivative of the kernel, with respect to the table index
+    private int mKernelTableNumOffsets;
+    private int mKernelTableMinInterpolatedIndex;
+    private double []mQuadratureWeights;       // quadrature weight of each history point
+
     private final boolean mIsStochasticSimulator;
 
     private final int mReactionIndex;
@@ -88,18 +106,14 @@ public final class DelayedReactionSolver
         mNumTimePoints = pNumHistoryBins;
         mTimeResolution = LAMBDA_MAX * mDelay / ((double) pNumHistoryBins);
 
-        if(mIsStochasticSimulator)
+        if(! mIsStochasticSimulator)
         {
-            mReactionTimesDoublePool.clear();
-            for(int ctr = 0; ctr < pNumHistoryBins; ++ctr)
+            mReactantHistory.initialize(mNumTimePoints);
+            if(mIsMultistep)
             {
-                mReactionTimesDoublePool.add(new MutableDouble(0.0));
+                initializeKernelTable();
             }
         }
-        else
-        {
-            mReactantHistory.initialize(mNumTimePoints);
-        }
     }
 
     public DelayedReactionSolver(Species pReactant,
@@ -127,28 +141,11 @@ public final class DelayedReactionSolver
 
         if(mIsStochasticSimulator)
         {
-            if(mIsMultistep)
-            {
-                mReactionTimes = new PriorityQueue( new AbstractComparator()
-                {
-                    public final int compare(Object p1, Object p2)
-                    {
-                        return(MutableDouble.compare((MutableDouble) p1, (MutableDouble) p2));
-                    }
-                });
-            }
-            else
-            {
-                mReactionTimes = new ListQueue();
-            }
-            mReactionTimesDoublePool = new LinkedList();
             mReactantHistory = null;
         }
         else
         {
             mReactantHistory = new SlidingWindowTimeSeriesQueue(1);
-            mReactionTimes = null;
-            mReactionTimesDoublePool = null;
         }
 
         setNumHistoryBins(DEFAULT_NUM_HISTORY_BINS);
@@ -159,64 +156,25 @@ public final class DelayedReactionSolver
         return(mReactionIndex);
     }
 
-    void addReactant(SymbolEvaluatorChem pSymbolEvaluator)
+    boolean isMultistep()
     {
-        MutableDouble newReactionTime = null;
-        double relTime;
-        if(mIsMultistep)
-        {
-            relTime = Gamma.staticNextDouble(mRate*mDelay, mRate);
-        }
-        else
-        {
-            relTime = mDelay;
-        }
-        double reactionTime = pSymbolEvaluator.getTime() + relTime;
-        LinkedList reactionTimesDoublePool = mReactionTimesDoublePool;
-
-        if(reactionTimesDoublePool.size() > 0)
-        {
-            newReactionTime = (MutableDouble) reactionTimesDoublePool.getLast();
-            reactionTimesDoublePool.removeLast();
-            newReactionTime.setValue(reactionTime);
-        }
-        else
-        {
-            newReactionTime = new MutableDouble(reactionTime);
-        }
-
-        mReactionTimes.add(newReactionTime);
+        return(mIsMultistep);
     }
 
-
-    double pollNextReactionTime() throws IllegalStateException
+    // used for stochastic simulator; returns the time from the conversion of a
+    // reactant molecule to the intermediate species, until the delayed reaction occurs
+    double chooseDelayTime(RandomNumberGenerator pRandomNumberGenerator)
     {
-        MutableDouble reactionTime = (MutableDouble) mReactionTimes.getNext();
-        if(null == reactionTime)
+        double delayTime = 0.0;
+        if(mIsMultistep)
         {
-            throw new IllegalStateException("no molecules are in the multistep reaction queue");
+            delayTime = pRandomNumberGenerator.nextGamma(mRate*mDelay, mRate);
         }
-        double nextReactionTime = reactionTime.getValue();
-        reactionTime.setValue(0.0);
-        mReactionTimesDoublePool.addLast(reactionTime);
-        return(nextReactionTime);
-    }
-
-    // used for stochastic simulator
-    boolean canHaveReaction() 
-    {
-        return(null != mReactionTimes.peekNext());
-    }
-
-    // used for stochastic simulator
-    double peekNextReactionTime() throws IllegalStateException
-    {
-        MutableDouble reactionTime = (MutableDouble) mReactionTimes.peekNext();
-        if(null == reactionTime)
+        else
         {
-            throw new IllegalStateException("no molecules are in the multistep reaction queue");
+            delayTime = mDelay;
         }
-        return(reactionTime.getValue());
+        return(delayTime);
     }
 
     double getEstimatedAverageFutureRate(SymbolEvaluator pSymbolEvaluator) throws DataNotFoundException
@@ -227,16 +185,7 @@ public final class DelayedReactionSolver
 
     void clear()
     {
-        if(mIsStochasticSimulator)
-        {
-            while(null != mReactionTimes.peekNext())
-            {
-                MutableDouble reactionTime = (MutableDouble) mReactionTimes.getNext();
-                reactionTime.setValue(0.0);
-                mReactionTimesDoublePool.addLast(reactionTime);
-            }
-        }
-        else
+        if(! mIsStochasticSimulator)
         {
             mReactantHistory.clear();
             mFirstTimePoint = true;
@@ -298,6 +247,36 @@ public final class DelayedReactionSolver
         }
     }
 
+    /**
+     * Returns the time of the next point to be added to the reactant
+     * history, or <code>pStartTime</code> if the history is empty.
+     * Used (with {@link #insertHistoryPoint(SymbolEvaluator, double)})
+     * by a deterministic simulator with dense output, to record the
+     * reactant value at each history point within a step, rather than
+     * the value at the end of the step.
+     */
+    double getNextHistoryTime(double pStartTime)
+    {
+        if(mFirstTimePoint)
+        {
+            return(pStartTime);
+        }
+        return(mReactantHistory.getLastTimePoint() + mTimeResolution);
+    }
+
+    /**
+     * Adds the current value of the reactant to the history, as the
+     * value at time <code>pTime</code>, which should be the time
+     * returned by {@link #getNextHistoryTime(double)}.
+     */
+    void insertHistoryPoint(SymbolEvaluator pSymbolEvaluator, double pTime) throws DataNotFoundException
+    {
+        double reactantValue = pSymbolEvaluator.getValue(mReactant.getSymbol());
+        assert (reactantValue >= 0.0) : "invalid value";
+        mReactantHistory.insertPoint(pTime, reactantValue);
+        mFirstTimePoint = false;
+    }
+
     public double computeRate(SymbolEvaluator pSymbolEvaluator) throws DataNotFoundException
     {
         if(! mIsStochasticSimulator)
@@ -336,12 +315,7 @@ public final class DelayedReactionSolver
 
        if(intermedSpeciesValue > 0.0)
        {
-           prodRate = computeIntegral(reactantSpeciesHistory,
-                                      mTimeResolution,
-                                      mNumTimePoints,
-                                      mDelay,
-                                      mRate,
-                                      currentTime);
+           prodRate = computeIntegralTabulated(currentTime);
        }
        else
        {
@@ -398,7 +372,153 @@ public final class DelayedReactionSolver
         return(prodRate);
     }
 
-    // keeping this around for historical purposes
+    /*
+     * Tabulates the convolution kernel of the multistep reaction (see computeIntegrandValue),
+     * as a function of the time between a history point and the current time, in steps of
+     * 1/KERNEL_TABLE_SUBDIVISIONS of the history bin width.  Since the history points are
+     * equally spaced, the kernel depends only on the bin offset of each history point and
+     * on the time elapsed since the last history point, so the transcendental functions
+     * need not be evaluated for most of the history points when the rate is computed.  Also computes the quadrature weights
+     * of the history points, which depend only on the position of the point in the history.
+     */
+    private void initializeKernelTable()
+    {
+        int numTimePoints = mNumTimePoints;
+        double timeResolution = mTimeResolution;
+        mQuadratureWeights = new double[numTimePoints];
+        for(int ctr = 0; ctr < numTimePoints; ++ctr)
+        {
+            double weight = 0.0;
+            if(ctr == 0 || ctr == numTimePoints - 1)
+            {
+                weight = 1.0/3.0;
+            }
+            else if((ctr % 2) == 1)
+            {
+                weight = 2.0/3.0;
+            }
+            else
+            {
+                weight = 4.0/3.0;
+            }
+            mQuadratureWeights[ctr] = timeResolution * weight;
+        }
+        mKernelTable = null;
+        mKernelSlopeTable = null;
+        mKernelTableNumOffsets = 0;
+        mKernelTableMinInterpolatedIndex = Math.max(KERNEL_TABLE_SUBDIVISIONS,
+                                                    (int) Math.ceil(KERNEL_TABLE_EXACT_INDEX_FACTOR * mDelay * mRate));
+        extendKernelTable(numTimePoints + 1);
+    }
+
+    // the kernel of the convolution integral, as a function of lambda = rate * (currentTime - timePoint)
+    private double computeKernelValue(double pLambda)
+    {
+        double numStepsCorrected = mDelay * mRate;
+        return(mRate * mRate *
+               Math.pow(pLambda * Math.E / numStepsCorrected, numStepsCorrected) /
+               (Math.exp(pLambda) * Math.sqrt(2.0 * Math.PI * numStepsCorrected)));
+    }
+
+    private void extendKernelTable(int pNumOffsets)
+    {
+        int numEntries = pNumOffsets * KERNEL_TABLE_SUBDIVISIONS + 1;
+        double []kernelTable = new double[numEntries];
+        double []kernelSlopeTable = new double[numEntries];
+        double numStepsCorrected = mDelay * mRate;
+        double lambdaStep = mRate * mTimeResolution / ((double) KERNEL_TABLE_SUBDIVISIONS);
+        int firstNewEntry = 0;
+        if(null != mKernelTable)
+        {
+            firstNewEntry = mKernelTable.length;
+            System.arraycopy(mKernelTable, 0, kernelTable, 0, firstNewEntry);
+            System.arraycopy(mKernelSlopeTable, 0, kernelSlopeTable, 0, firstNewEntry);
+        }
+        for(int i = firstNewEntry; i < numEntries; ++i)
+        {
+            double kernelValue = 0.0;
+            double kernelSlope = 0.0;
+            if(i > 0)
+            {
+                double lambda = lambdaStep * ((double) i);
+                kernelValue = computeKernelValue(lambda);
+                // the derivative of the kernel with respect to the table index
+                kernelSlope = kernelValue * (numStepsCorrected / ((double) i) - lambdaStep);
+            }
+            kernelTable[i] = kernelValue;
+            kernelSlopeTable[i] = kernelSlope;
+        }
+        mKernelTable = kernelTable;
+        mKernelSlopeTable = kernelSlopeTable;
+        mKernelTableNumOffsets = pNumOffsets;
+    }
+
+    /*
+     * Computes the same integral as computeIntegral, using the tabulated kernel.  Between
+     * the table entries, the kernel is interpolated with a cubic Hermite polynomial; since
+     * all of the history points share the same fractional table index, the coefficients of
+     * the polynomial need only be computed once per evaluation.  Near the origin the kernel
+     * rises too steeply (it goes as lambda to the power of the number of steps) for the
+     * interpolation to have a small relative error, so it is computed directly for the
+     * history points in that region.
+     */
+    private double computeIntegralTabulated(double pCurrentTime)
+    {
+        SlidingWindowTimeSeriesQueue history = mReactantHistory;
+        int numPoints = history.getNumStoredPoints();
+        double shift = (pCurrentTime - history.getLastTimePoint()) / mTimeResolution;
+        int shiftBins = (int) shift;
+        int maxOffset = numPoints + shiftBins;
+        if(shift < 0.0 || maxOffset > KERNEL_TABLE_MAX_EXTENSION_FACTOR * mNumTimePoints)
+        {
+            return(computeIntegral(history,
+                                   mTimeResolution,
+                                   mNumTimePoints,
+                                   mDelay,
+                                   mRate,
+                                   pCurrentTime));
+        }
+        if(maxOffset >= mKernelTableNumOffsets)
+        {
+            extendKernelTable(Math.max(maxOffset + 1, 2 * mKernelTableNumOffsets));
+        }
+        double subdivision = shift * ((double) KERNEL_TABLE_SUBDIVISIONS);
+        int kernelIndex = (int) subdivision;
+        double frac = subdivision - ((double) kernelIndex);
+        double fracSquared = frac * frac;
+        double fracCubed = fracSquared * frac;
+        double coeffLeft = 2.0 * fracCubed - 3.0 * fracSquared + 1.0;
+        double coeffRight = 1.0 - coeffLeft;
+        double coeffSlopeLeft = fracCubed - 2.0 * fracSquared + frac;
+        double coeffSlopeRight = fracCubed - fracSquared;
+
+        double []kernelTable = mKernelTable;
+        double []kernelSlopeTable = mKernelSlopeTable;
+        double []quadratureWeights = mQuadratureWeights;
+        int minInterpolatedIndex = mKernelTableMinInterpolatedIndex;
+        double lambdaStep = mRate * mTimeResolution / ((double) KERNEL_TABLE_SUBDIVISIONS);
+        double prodRate = 0.0;
+        for(int ctr = numPoints; --ctr >= 0; )
+        {
+            double kernelValue = 0.0;
+            if(kernelIndex >= minInterpolatedIndex)
+            {
+                kernelValue = coeffLeft * kernelTable[kernelIndex] +
+                              coeffRight * kernelTable[kernelIndex + 1] +
+                              coeffSlopeLeft * kernelSlopeTable[kernelIndex] +
+                              coeffSlopeRight * kernelSlopeTable[kernelIndex + 1];
+            }
+            else
+            {
+                kernelValue = computeKernelValue(lambdaStep * (((double) kernelIndex) + frac));
+            }
+            prodRate += quadratureWeights[ctr] * history.getValue(ctr) * kernelValue;
+            kernelIndex += KERNEL_TABLE_SUBDIVISIONS;
+        }
+        return(prodRate);
+    }
+
+    // the direct evaluation of the integral; used when the current time is outside the range of the kernel table
     private static double computeIntegral(SlidingWindowTimeSeriesQueue history,
                                           double timeResolution,
                                           int numTimePoints,
@@ -0,0 +1,33 @@
+package org.systemsbiology.chem;
+/*
+ * Copyright (C) 2003 by Institute for Systems Biology,
+ * Seattle, Washington, USA.  All rights reserved.
+ *
+ * This source code is distributed under the GNU Lesser
+ * General Public License, the text of which is available at:
+ *   http://www.gnu.org/copyleft/lesser.html
+ */
+
+import org.systemsbiology.util.DataNotFoundException;
+
+/**
+ * Represents a deterministic simulator that provides a continuous
+ * approximation to the solution over the step it has most recently
+ * taken (dense output).  A subclass of {@link SimulatorDeterministicBase}
+ * that implements this interface has the results time-points within each
+ * step, and the values recorded in the histories of the delayed reactions,
+ * interpolated rather than sampled at the end of the step, and has the
+ * discontinuities of its rate expressions located within each step.
+ *
+ * @author Stephen Ramsey
+ */
+public interface IDenseOutputSimulator
+{
+    /**
+     * Computes the species values at time <code>pTime</code>, which must
+     * be within the step most recently taken by the simulator, and stores
+     * them in <code>pValues</code>.  The current species values of the
+     * simulator may be overwritten.
+     */
+    public void interpolate(double pTime, double []pValues) throws DataNotFoundException;
+}
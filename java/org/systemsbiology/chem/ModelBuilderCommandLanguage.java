@@ -9,7 +9,6 @@ package org.systemsbiology.chem;
  */
 
 import java.io.*;
-import java.util.regex.*;
 import java.util.*;
 import java.nio.charset.*;
 
@@ -40,12 +39,13 @@ public class ModelBuilderCommandLanguage implements IModelBuilder, IAliasableCla
     private static final String STATEMENT_KEYWORD_DEFINE = "define";
     private static final String KEYWORD_LOOP = "loop";
     private static final String VALID_SYMBOL_REGEX = "^[a-zA-Z]([_a-zA-Z0-9])*$";
-    private static final Pattern VALID_SYMBOL_PATTERN = Pattern.compile(VALID_SYMBOL_REGEX);
     private static final String REQUIRED_CHAR_SET = "UTF-8";
     private static final String COMPARTMENT_NAME_DEFAULT = "univ";
     
 
     private String mNamespace;
+    private HashMap mParsedExpressions;
+    private int mNumStatements;
 
     private static final Charset sCharset;
     
@@ -158,25 +158,6 @@ public class ModelBuilderCommandLanguage implements IModelBuilder, IAliasableCla
         }
     }
 
-    private Pattern mSearchPatternMath;
-
-    private Pattern getSearchPatternMath()
-    {
-        return(mSearchPatternMath);
-    }
-
-    private void setSearchPatternMath(Pattern pSearchPatternMath)
-    {
-        mSearchPatternMath = pSearchPatternMath;
-    }
-    
-    private void initializeSearchPatternMath()
-    {
-        String searchRegex = "\\[([^\\[\\]]+)\\]";
-        Pattern searchPattern = Pattern.compile(searchRegex);
-        setSearchPatternMath(searchPattern);
-    }
-
     private void initializeDefaultModelSymbols()
     {
         mDefaultModelSymbols = new HashMap();
@@ -186,9 +167,21 @@ public class ModelBuilderCommandLanguage implements IModelBuilder, IAliasableCla
 
     public ModelBuilderCommandLanguage()
     {
-        initializeSearchPatternMath();
         initializeDefaultModelSymbols();
         mNamespace = null;
+        mParsedExpressions = new HashMap();
+        mNumStatements = 0;
+    }
+
+    /**
+     * Returns the number of statements that were executed during the
+     * most recent call to {@link #buildModel(InputStream, IncludeHandler)}.
+     * A statement within a loop or a macro definition is counted once for
+     * each time it is executed.
+     */
+    public int getNumStatements()
+    {
+        return(mNumStatements);
     }
 
     private Token getNextToken(ListIterator pTokenIter) throws InvalidInputException
@@ -219,33 +212,99 @@ public class ModelBuilderCommandLanguage implements IModelBuilder, IAliasableCla
         }
     }
 
-    private void tokenizeStatement(String pStatement, List pTokens, int pStartingLineNumber) 
+    private static final String TOKEN_DELIMITERS = "=\", \t[]{}()->+;@#$*/%^\n";
+    private static final Token.Code []TOKEN_CODES_BY_CHAR = new Token.Code[128];
+    private static final boolean []TOKEN_DELIMITER_CHARS = new boolean[128];
+
+    static
     {
-        StringTokenizer st = new StringTokenizer(pStatement, "=\", \t[]{}()->+;@#$*/%^\n", true);
+        int numDelimiters = TOKEN_DELIMITERS.length();
+        for(int i = 0; i < numDelimiters; ++i)
+        {
+            TOKEN_DELIMITER_CHARS[TOKEN_DELIMITERS.charAt(i)] = true;
+        }
+        TOKEN_CODES_BY_CHAR['='] = Token.Code.EQUALS;
+        TOKEN_CODES_BY_CHAR[','] = Token.Code.COMMA;
+        TOKEN_CODES_BY_CHAR['('] = Token.Code.PAREN_BEGIN;
+        TOKEN_CODES_BY_CHAR[')'] = Token.Code.PAREN_END;
+        TOKEN_CODES_BY_CHAR['['] = Token.Code.BRACKET_BEGIN;
+        TOKEN_CODES_BY_CHAR[']'] = Token.Code.BRACKET_END;
+        TOKEN_CODES_BY_CHAR['{'] = Token.Code.BRACE_BEGIN;
+        TOKEN_CODES_BY_CHAR['}'] = Token.Code.BRACE_END;
+        TOKEN_CODES_BY_CHAR['-'] = Token.Code.HYPHEN;
+        TOKEN_CODES_BY_CHAR['>'] = Token.Code.GREATER_THAN;
+        TOKEN_CODES_BY_CHAR['+'] = Token.Code.PLUS;
+        TOKEN_CODES_BY_CHAR[';'] = Token.Code.SEMICOLON;
+        TOKEN_CODES_BY_CHAR['@'] = Token.Code.ATSIGN;
+        TOKEN_CODES_BY_CHAR['#'] = Token.Code.POUNDSIGN;
+        TOKEN_CODES_BY_CHAR['$'] = Token.Code.DOLLAR;
+        TOKEN_CODES_BY_CHAR['/'] = Token.Code.RIGHT_SLASH;
+        TOKEN_CODES_BY_CHAR['*'] = Token.Code.ASTERISK;
+        TOKEN_CODES_BY_CHAR['%'] = Token.Code.PERCENT;
+        TOKEN_CODES_BY_CHAR['^'] = Token.Code.CARET;
+    }
+
+    private static boolean isTokenDelimiter(char pChar)
+    {
+        return(pChar < TOKEN_DELIMITER_CHARS.length && TOKEN_DELIMITER_CHARS[pChar]);
+    }
 
-        String tokenString = null;
+    // Scans the statement a single time, one character at a time.  Each
+    // delimiter character is its own token, and each maximal run of
+    // non-delimiter characters is a symbol token.  Everything between a
+    // pair of quotation marks is collected into a single symbol token.
+    private void tokenizeStatement(String pStatement, List pTokens, int pStartingLineNumber) 
+    {
         boolean inQuote = false;
         StringBuffer symbolTokenBuffer = new StringBuffer();
         int lineCtr = pStartingLineNumber;
+        char []statementChars = pStatement.toCharArray();
+        int length = statementChars.length;
+        int charCtr = 0;
 
-        while(st.hasMoreElements())
+        while(charCtr < length)
         {
-            tokenString = st.nextToken();
-
+            char tokenChar = statementChars[charCtr];
             Token token = null;
 
-
-            if(tokenString.equals("\n"))
+            if(! isTokenDelimiter(tokenChar))
             {
-                ++lineCtr;
+                int endCtr = charCtr + 1;
+                while(endCtr < length && ! isTokenDelimiter(statementChars[endCtr]))
+                {
+                    ++endCtr;
+                }
+                if(inQuote)
+                {
+                    // we are in a quoted environment; just save the token string
+                    symbolTokenBuffer.append(statementChars, charCtr, endCtr - charCtr);
+                }
+                else
+                {
+                    token = new Token(Token.Code.SYMBOL);
+                    token.mSymbol = new String(statementChars, charCtr, endCtr - charCtr);
+                }
+                charCtr = endCtr;
             }
             else
             {
-                if(tokenString.equals("\""))
+                ++charCtr;
+                if('\n' == tokenChar)
+                {
+                    ++lineCtr;
+                }
+                else if('\"' == tokenChar)
                 {
                     if(inQuote)
                     {
                         inQuote = false;
+                        if(symbolTokenBuffer.length() > 0)
+                        {
+                            Token symbolToken = new Token(Token.Code.SYMBOL);
+                            symbolToken.mSymbol = symbolTokenBuffer.toString();
+                            symbolTokenBuffer.setLength(0);
+                            pTokens.add(symbolToken);
+                        }
                     }
                     else
                     {
@@ -254,121 +313,18 @@ public class ModelBuilderCommandLanguage implements IModelBuilder, IAliasableCla
 
                     token = new Token(Token.Code.QUOTE);
                 }
-                else
+                else if(inQuote)
                 {
-                    if(! inQuote)
-                    {
-                        if(tokenString.equals("="))
-                        {
-                            token = new Token(Token.Code.EQUALS);
-                        }
-                        else if(tokenString.equals(","))
-                        {
-                            token = new Token(Token.Code.COMMA);
-                        }
-                        else if(tokenString.equals("="))
-                        {
-                            token = new Token(Token.Code.EQUALS);
-                        }
-                        else if(tokenString.equals(" "))
-                        {
-                            // this is whitespace, just ignore
-                        }
-                        else if(tokenString.equals("\t"))
-                        {
-                            // this is a tab character, just ignore
-                        }
-                        else if(tokenString.equals("("))
-                        {
-                            token = new Token(Token.Code.PAREN_BEGIN);
-                        }
-                        else if(tokenString.equals(")"))
-                        {
-                            token = new Token(Token.Code.PAREN_END);
-                        }
-                        else if(tokenString.equals("["))
-                        {
-                            token = new Token(Token.Code.BRACKET_BEGIN);
-                        }
-                        else if(tokenString.equals("]"))
-                        {
-                            token = new Token(Token.Code.BRACKET_END);
-                        }
-                        else if(tokenString.equals("{"))
-                        {
-                            token = new Token(Token.Code.BRACE_BEGIN);
-                        }
-                        else if(tokenString.equals("}"))
-                        {
-                            token = new Token(Token.Code.BRACE_END);
-                        }
-                        else if(tokenString.equals("-"))
-                        {
-                            token = new Token(Token.Code.HYPHEN);
-                        }
-                        else if(tokenString.equals(">"))
-                        {
-                            token = new Token(Token.Code.GREATER_THAN);
-                        }
-                        else if(tokenString.equals("+"))
-                        {
-                            token = new Token(Token.Code.PLUS);
-                        }
-                        else if(tokenString.equals(";"))
-                        {
-                            token = new Token(Token.Code.SEMICOLON);
-                        }
-                        else if(tokenString.equals("@"))
-                        {
-                            token = new Token(Token.Code.ATSIGN);
-                        }
-                        else if(tokenString.equals("#"))
-                        {
-                            token = new Token(Token.Code.POUNDSIGN);
-                        }
-                        else if(tokenString.equals("$"))
-                        {
-                            token = new Token(Token.Code.DOLLAR);
-                        }
-                        else if(tokenString.equals("/"))
-                        {
-                            token = new Token(Token.Code.RIGHT_SLASH);
-                        }
-                        else if(tokenString.equals("*"))
-                        {
-                            token = new Token(Token.Code.ASTERISK);
-                        }
-                        else if(tokenString.equals("%"))
-                        {
-                            token = new Token(Token.Code.PERCENT);
-                        }
-                        else if(tokenString.equals("^"))
-                        {
-                            token = new Token(Token.Code.CARET);
-                        }
-                        else
-                        {
-                            token = new Token(Token.Code.SYMBOL);
-                            token.mSymbol = tokenString;
-                        }
-                    }
-                    else
-                    {
-                        // we are in a quoted environment; just save the token string
-                        symbolTokenBuffer.append(tokenString);
-                    }
+                    // we are in a quoted environment; just save the delimiter
+                    symbolTokenBuffer.append(tokenChar);
                 }
-            }
-
-            if(tokenString.equals("\"") && (! inQuote))
-            {
-                String symbolTokenString = symbolTokenBuffer.toString();
-                if(symbolTokenString.length() > 0)
+                else if(' ' != tokenChar && '\t' != tokenChar)
+                {
+                    token = new Token(TOKEN_CODES_BY_CHAR[tokenChar]);
+                }
+                else
                 {
-                    Token symbolToken = new Token(Token.Code.SYMBOL);
-                    symbolToken.mSymbol = symbolTokenString;
-                    symbolTokenBuffer.delete(0, symbolTokenString.length());
-                    pTokens.add(symbolToken);
+                    // this is whitespace, just ignore
                 }
             }
 
@@ -376,11 +332,6 @@ public class ModelBuilderCommandLanguage implements IModelBuilder, IAliasableCla
             {
                 token.mLine = lineCtr;
                 pTokens.add(token);
-                token = null;
-            }
-            else
-            {
-                // do nothing
             }
         }
     }
@@ -508,24 +459,64 @@ public class ModelBuilderCommandLanguage implements IModelBuilder, IAliasableCla
         return(retVal);
     }
             
+    // Expressions are parsed once per distinct expression string, within
+    // a single model build; inside a loop or a macro, the same expression
+    // text is typically encountered once per iteration or reference.
+    private Expression getParsedExpression(String pExpressionString) throws IllegalArgumentException
+    {
+        Expression expression = (Expression) mParsedExpressions.get(pExpressionString);
+        if(null == expression)
+        {
+            expression = new Expression(pExpressionString);
+            mParsedExpressions.put(pExpressionString, expression);
+        }
+        return(expression);
+    }
+
     // Handle the occurrence of embedded mathematical expression(s)
     // within a quoted string; if an expression occurs, translate it
     // and truncate the resulting value to an integer, before embedding
     // the result into the string at the point where the expression occurs.
+    // The innermost bracketed expression that occurs first is translated
+    // first, so nested brackets are translated from the inside out.
     private String translateMathExpressionsInString(String pInputString, 
                                                     HashMap pSymbolMap) throws DataNotFoundException, IllegalArgumentException
     {
-        Pattern searchPatternMath = getSearchPatternMath();
-        Matcher matcher = searchPatternMath.matcher(pInputString);
-        while(matcher.find())
-        {
-            String matchedSubsequence = matcher.group(1);
-            Expression exp = new Expression(matchedSubsequence);
-            SymbolEvaluatorNamespaced evaluator = new SymbolEvaluatorNamespaced(pSymbolMap, mNamespace);
-            double value = exp.computeValue(evaluator);
-            String formattedExp = Long.toString((long) value);
-            pInputString = matcher.replaceFirst(formattedExp);
-            matcher = searchPatternMath.matcher(pInputString);
+        if(-1 == pInputString.indexOf('['))
+        {
+            return(pInputString);
+        }
+
+        SymbolEvaluatorNamespaced evaluator = null;
+        int charCtr = 0;
+        int bracketBeginIndex = -1;
+        while(charCtr < pInputString.length())
+        {
+            char inputChar = pInputString.charAt(charCtr);
+            if('[' == inputChar)
+            {
+                bracketBeginIndex = charCtr;
+            }
+            else if(']' == inputChar)
+            {
+                if(bracketBeginIndex >= 0 && charCtr > bracketBeginIndex + 1)
+                {
+                    String matchedSubsequence = pInputString.substring(bracketBeginIndex + 1, charCtr);
+                    Expression exp = getParsedExpression(matchedSubsequence);
+                    if(null == evaluator)
+                    {
+                        evaluator = new SymbolEvaluatorNamespaced(pSymbolMap, mNamespace);
+                    }
+                    double value = exp.computeValue(evaluator);
+                    String formattedExp = Long.toString((long) value);
+                    pInputString = pInputString.substring(0, bracketBeginIndex) + formattedExp + pInputString.substring(charCtr + 1);
+                    charCtr = 0;
+                    bracketBeginIndex = -1;
+                    continue;
+                }
+                bracketBeginIndex = -1;
+            }
+            ++charCtr;
         }
         return(pInputString);
     }
@@ -679,6 +670,15 @@ public class ModelBuilderCommandLanguage implements IModelBuilder, IAliasableCla
     private boolean isNumericLiteral(String pTokenString)
     {
         boolean retVal = false;
+        if(pTokenString.length() > 0)
+        {
+            // avoid the cost of a parse exception for the common case of a symbol name
+            char firstChar = pTokenString.charAt(0);
+            if(Character.isLetter(firstChar) && 'N' != firstChar && 'I' != firstChar)
+            {
+                return(retVal);
+            }
+        }
         try
         {
             Double.parseDouble(pTokenString);
@@ -878,7 +878,7 @@ public class ModelBuilderCommandLanguage implements IModelBuilder, IAliasableCla
         Expression expression = null;
         try
         {
-            expression = new Expression(expressionString);
+            expression = getParsedExpression(expressionString);
         }
         catch(IllegalArgumentException e)
         {
@@ -887,13 +887,14 @@ public class ModelBuilderCommandLanguage implements IModelBuilder, IAliasableCla
         Value value = null;
         if(deferredExpression)
         {
-            value = new Value(expression);
+            // the parsed expression is shared, so each deferred value gets its own copy
+            value = new Value((Expression) expression.clone());
         }
         else
         {
             try
             {
-                value = new Value(expression.computeValue(pSymbolMap));
+                value = new Value(expression.computeValue(new SymbolEvaluatorHashMap(pSymbolMap)));
             }
             catch(DataNotFoundException e)
             {
@@ -1640,12 +1641,14 @@ public class ModelBuilderCommandLanguage implements IModelBuilder, IAliasableCla
                     // if an "=" token is detected, this is definitely a symbol definition statement
                     handleStatementSymbolDefinition(tokenIterExec, pModel, pSymbolMap);
                     synchIterators(tokenIterExec, tokenIter);
+                    ++mNumStatements;
                 }
                 else if(token.mCode.equals(Token.Code.ATSIGN))
                 {
                     // if an "@" token is detected, this is definitely a compartment association statement
                     handleStatementAssociate(tokenIterExec, pModel, pSymbolMap);
                     synchIterators(tokenIterExec, tokenIter);
+                    ++mNumStatements;
                 }
                 else if(token.mCode.equals(Token.Code.GREATER_THAN))
                 {
@@ -1656,6 +1659,7 @@ public class ModelBuilderCommandLanguage implements IModelBuilder, IAliasableCla
                         {
                             handleStatementReaction(tokenIterExec, pModel, pSymbolMap, pNumReactions);
                             synchIterators(tokenIterExec, tokenIter);
+                            ++mNumStatements;
                         }
                         else
                         {
@@ -1674,21 +1678,25 @@ public class ModelBuilderCommandLanguage implements IModelBuilder, IAliasableCla
                     {
                         handleStatementInclude(tokenIterExec, pModel, pSymbolMap, pNumReactions, pIncludeHandler);
                         synchIterators(tokenIterExec, tokenIter);
+                        ++mNumStatements;
                     }
                     else if(token.mSymbol.equals(STATEMENT_KEYWORD_MODEL))
                     {
                         handleStatementModel(tokenIterExec, pModel, pSymbolMap);
                         synchIterators(tokenIterExec, tokenIter);
+                        ++mNumStatements;
                     }
                     else if(token.mSymbol.equals(STATEMENT_KEYWORD_DEFINE))
                     {
                         handleStatementMacroDefinition(tokenIterExec, pModel, pSymbolMap, pNumReactions);
                         synchIterators(tokenIterExec, tokenIter);
+                        ++mNumStatements;
                     }
                     else if(token.mSymbol.equals(STATEMENT_KEYWORD_REF))
                     {
                         handleStatementMacroReference(tokenIterExec, pModel, pIncludeHandler, pSymbolMap, pNumReactions);
                         synchIterators(tokenIterExec, tokenIter);
+                        ++mNumStatements;
                     }
                     else
                     {
@@ -1705,6 +1713,7 @@ public class ModelBuilderCommandLanguage implements IModelBuilder, IAliasableCla
                             {
                                 handleStatementLoop(tokenIterExec, pModel, pIncludeHandler, pSymbolMap, pNumReactions);
                                 synchIterators(tokenIterExec, tokenIter);
+                                ++mNumStatements;
                             }
                             else
                             {
@@ -2171,7 +2180,9 @@ public class ModelBuilderCommandLanguage implements IModelBuilder, IAliasableCla
             if(tokenType == '\"')
             {
                 String quotedString = streamTokenizer.sval;
-                statementBuffer.append("\"" + quotedString + "\"");
+                statementBuffer.append('\"');
+                statementBuffer.append(quotedString);
+                statementBuffer.append('\"');
             }
             else if(tokenType == StreamTokenizer.TT_EOL)
             {
@@ -2256,9 +2267,12 @@ public class ModelBuilderCommandLanguage implements IModelBuilder, IAliasableCla
         HashMap symbolMap = new HashMap();
         MutableInteger numReactions = new MutableInteger(0);
         mNamespace = null;
+        mParsedExpressions.clear();
+        mNumStatements = 0;
         boolean insideInclude = false;
         BufferedReader bufferedReader = getBufferedReader(pInputStream);
         parseModelDefinition(bufferedReader, model, pIncludeHandler, symbolMap, numReactions, insideInclude);
+        mParsedExpressions.clear();
         return(model);
     }
 
@@ -2292,9 +2306,28 @@ public class ModelBuilderCommandLanguage implements IModelBuilder, IAliasableCla
     }
     
     
+    private static boolean isSymbolLetter(char pChar)
+    {
+        return((pChar >= 'a' && pChar <= 'z') || (pChar >= 'A' && pChar <= 'Z'));
+    }
+
     public static boolean isValidSymbol(String pSymbolName)
     {
-        return(VALID_SYMBOL_PATTERN.matcher(pSymbolName).matches());
+        // equivalent to matching VALID_SYMBOL_REGEX, without the overhead of a regex match
+        int length = pSymbolName.length();
+        if(0 == length || ! isSymbolLetter(pSymbolName.charAt(0)))
+        {
+            return(false);
+        }
+        for(int charCtr = 1; charCtr < length; ++charCtr)
+        {
+            char symbolChar = pSymbolName.charAt(charCtr);
+            if(! isSymbolLetter(symbolChar) && ! (symbolChar >= '0' && symbolChar <= '9') && '_' != symbolChar)
+            {
+                return(false);
+            }
+        }
+        return(true);
     }
 
     public String getFileRegex()
@@ -27,6 +27,9 @@ public final class SimulationResults
     private double []mResultsTimeValues;
     private Object []mResultsSymbolValues;
     private double []mResultsFinalSymbolFluctuations;
+    private Object []mResultsSymbolStandardDeviations;
+    private double []mResultsQuantileProbabilities;
+    private Object []mResultsSymbolQuantiles;
     private Date mResultsDateTime;
     private String mModelName;
 
@@ -39,6 +42,9 @@ public final class SimulationResults
         mResultsTimeValues = null;
         mResultsSymbolValues = null;
         mResultsFinalSymbolFluctuations = null;
+        mResultsSymbolStandardDeviations = null;
+        mResultsQuantileProbabilities = null;
+        mResultsSymbolQuantiles = null;
         mModelName = null;
     }
 
@@ -62,6 +68,61 @@ public final class SimulationResults
         mResultsFinalSymbolFluctuations = pResultsFinalSymbolFluctuations;
     }
 
+    /**
+     * Returns the standard deviations, over the ensemble of realizations
+     * of a stochastic simulation, of the values of the symbols requested
+     * by the user, at each time point.  The array is indexed in the same
+     * way as the array returned by {@link #getResultsSymbolValues()}.
+     * Returns null if the simulator is deterministic, or if the ensemble
+     * contained fewer than two realizations.
+     */
+    public Object []getResultsSymbolStandardDeviations()
+    {
+        return(mResultsSymbolStandardDeviations);
+    }
+
+    public void setResultsSymbolStandardDeviations(Object []pResultsSymbolStandardDeviations)
+    {
+        mResultsSymbolStandardDeviations = pResultsSymbolStandardDeviations;
+    }
+
+    /**
+     * Returns the probabilities of the quantiles returned by
+     * {@link #getResultsSymbolQuantiles()}, or null if no quantiles
+     * were estimated.
+     */
+    public double []getResultsQuantileProbabilities()
+    {
+        return(mResultsQuantileProbabilities);
+    }
+
+    public void setResultsQuantileProbabilities(double []pResultsQuantileProbabilities)
+    {
+        mResultsQuantileProbabilities = pResultsQuantileProbabilities;
+    }
+
+    /**
+     * Returns the estimated quantiles, over the ensemble of realizations
+     * of a stochastic simulation, of the values of the symbols requested
+     * by the user, at each time point.  The first index identifies the
+     * quantile (in the array returned by {@link #getResultsQuantileProbabilities()}),
+     * and returns an array that is indexed in the same way as the array
+     * returned by {@link #getResultsSymbolValues()}; schematically:
+     * <code>
+     * value = ((double [])((Object []) resultsSymbolQuantiles[quantileIndex])[timeIndex])[symbolIndex]
+     * </code>
+     * Returns null if no quantiles were estimated.
+     */
+    public Object []getResultsSymbolQuantiles()
+    {
+        return(mResultsSymbolQuantiles);
+    }
+
+    public void setResultsSymbolQuantiles(Object []pResultsSymbolQuantiles)
+    {
+        mResultsSymbolQuantiles = pResultsSymbolQuantiles;
+    }
+
     public String getSimulatorAlias()
     {
         return(mSimulatorAlias);
@@ -29,8 +29,11 @@ public abstract class Simulator
     private static final int MIN_NUM_REACTION_STEPS_FOR_USING_DELAY_FUNCTION = 15;
     protected static final long DEFAULT_MIN_NUM_MILLISECONDS_FOR_UPDATE = 1000;
     protected static final int NULL_REACTION = -1;
+    private static final int NULL_EXPRESSION_NODE = -1;
     private static final long MAX_POPULATION_FOR_COMBINATORIC_EFFECTS = 100000;
     private static final boolean DEFAULT_USE_EXPRESSION_VALUE_CACHING = true;
+    // for a simulator with dense output, the minimum number of steps per delay of a delayed reaction
+    protected static final double MIN_NUM_STEPS_PER_DELAY = 10.0;
 
     protected String mModelName;
 
@@ -54,7 +57,7 @@ public abstract class Simulator
 
     // all arrays defined in the following block, are of length "mReactions.length"
     protected Reaction []mReactions;
-    protected Object []mDynamicSymbolAdjustmentVectors;
+    protected SparseMatrix mDynamicSymbolAdjustmentMatrix;  // row "j" is the net stoichiometry of reaction "j"
     protected double []mReactionProbabilities;
     protected Object []mReactionsReactantsSpecies;
     protected Object []mReactionsReactantsStoichiometries;
@@ -66,6 +69,10 @@ public abstract class Simulator
     protected Value []mReactionRates;
     protected DelayedReactionSolver []mReactionsDelayedReactionAssociations;
     protected Symbol []mReactionSymbols;
+    protected CompiledExpression []mCompiledReactionRates;
+    protected PostfixExpression []mPostfixReactionRates;
+    protected CommonSubexpressionEvaluator mReactionRatesEvaluator;
+    protected int []mReactionRatesEvaluatorNodes;
 
     protected boolean hasDelayedReactionSolvers()
     {
@@ -148,6 +155,37 @@ public abstract class Simulator
         }
     }
 
+    /**
+     * Compiles the rate expression of each (non-delayed) reaction whose
+     * rate is an expression, if the simulator parameters call for it;
+     * otherwise, discards any previously compiled rate expressions.
+     * The expressions are compiled anew for each simulation, because
+     * the compiled code embeds the current values of the parameters.
+     */
+    protected final void prepareCompiledReactionRates(SimulatorParameters pSimulatorParameters) throws DataNotFoundException
+    {
+        Boolean compileExpressionsObj = pSimulatorParameters.getCompileExpressions();
+        if(null == compileExpressionsObj || ! compileExpressionsObj.booleanValue())
+        {
+            mCompiledReactionRates = null;
+            return;
+        }
+        int numReactions = mReactions.length;
+        CompiledExpression []compiledReactionRates = new CompiledExpression[numReactions];
+        ExpressionCompiler compiler = new ExpressionCompiler(mDynamicSymbolValues, mSymbolEvaluator);
+        for(int reactionCtr = 0; reactionCtr < numReactions; ++reactionCtr)
+        {
+            Value rateValue = mReactionRates[reactionCtr];
+            if(rateValue.isExpression() &&
+               (null == mReactionsDelayedReactionAssociations || null == mReactionsDelayedReactionAssociations[reactionCtr]))
+            {
+                compiledReactionRates[reactionCtr] = compiler.compile(rateValue.getExpressionValue(),
+                                                                      mReactionSymbols[reactionCtr]);
+            }
+        }
+        mCompiledReactionRates = compiledReactionRates;
+    }
+
     protected final void prepareForSimulation(double pStartTime) 
     {
         // set initial values for dynamic symbols 
@@ -451,11 +489,17 @@ public abstract class Simulator
 
         mReactionRates = new Value[numReactions];
         mReactionSymbols = new Symbol[numReactions];
+        mPostfixReactionRates = new PostfixExpression[numReactions];
 
         for(int reactionCtr = 0; reactionCtr < numReactions; ++reactionCtr)
         {
             Reaction reaction = reactions[reactionCtr];
-            mReactionRates[reactionCtr] = reaction.getValue();
+            Value rateValue = reaction.getValue();
+            mReactionRates[reactionCtr] = rateValue;
+            if(rateValue.isExpression())
+            {
+                mPostfixReactionRates[reactionCtr] = new PostfixExpression(rateValue.getExpressionValue());
+            }
 
             int numReactants = reaction.getNumReactants();
 
@@ -512,7 +556,83 @@ public abstract class Simulator
         // create an array of doubles to hold the reaction probabilities
         mReactionProbabilities = new double[numReactions];
 
+        linkSymbols();
+
         checkReactionRates();
+
+        initializeReactionRatesEvaluator();
+    }
+
+    /**
+     * Merges the rate expressions of all of the (non-delayed) reactions
+     * into a single {@link CommonSubexpressionEvaluator}, so that
+     * {@link #computeReactionProbabilities()} computes each subexpression
+     * that is shared by several rate expressions only once, and so
+     * that the subexpressions that depend only on the parameters are
+     * computed once, at initialization.  This must be called after
+     * the symbols of the rate expressions have been bound to their values.
+     */
+    private final void initializeReactionRatesEvaluator()
+    {
+        mReactionRatesEvaluator = null;
+        mReactionRatesEvaluatorNodes = null;
+        if(null != mSymbolEvaluator.getSymbolEvaluationPostProcessor())
+        {
+            // the evaluator does not post-process symbol values
+            return;
+        }
+        int numReactions = mReactions.length;
+        CommonSubexpressionEvaluator evaluator = new CommonSubexpressionEvaluator();
+        int []evaluatorNodes = new int[numReactions];
+        boolean hasExpressionRates = false;
+        for(int reactionCtr = 0; reactionCtr < numReactions; ++reactionCtr)
+        {
+            evaluatorNodes[reactionCtr] = NULL_EXPRESSION_NODE;
+            if(null != mPostfixReactionRates[reactionCtr] &&
+               (null == mReactionsDelayedReactionAssociations || null == mReactionsDelayedReactionAssociations[reactionCtr]))
+            {
+                evaluatorNodes[reactionCtr] = evaluator.addExpression(mReactionRates[reactionCtr].getExpressionValue());
+                hasExpressionRates = true;
+            }
+        }
+        if(hasExpressionRates)
+        {
+            mReactionRatesEvaluator = evaluator;
+            mReactionRatesEvaluatorNodes = evaluatorNodes;
+        }
+    }
+
+    /**
+     * Rebuilds the evaluators of the reaction rate expressions, after the
+     * rate expressions (or the expressions of the symbols that they refer
+     * to) have been modified in place, and discards the cached values of
+     * the expressions of the symbols.  The symbols of any new elements of
+     * the expressions must already be bound to their values.
+     */
+    protected final void reinitializeReactionRatesEvaluators()
+    {
+        int numReactions = mReactions.length;
+        for(int reactionCtr = 0; reactionCtr < numReactions; ++reactionCtr)
+        {
+            Value rateValue = mReactionRates[reactionCtr];
+            if(rateValue.isExpression())
+            {
+                rateValue.clearExpressionValueCache();
+                mPostfixReactionRates[reactionCtr] = new PostfixExpression(rateValue.getExpressionValue());
+            }
+            Iterator localSymbolsIter = mReactionsLocalParamSymbolsMaps[reactionCtr].values().iterator();
+            while(localSymbolsIter.hasNext())
+            {
+                Symbol localSymbol = (Symbol) localSymbolsIter.next();
+                Value []localValues = localSymbol.getValueArray();
+                if(null != localValues)
+                {
+                    localValues[localSymbol.getArrayIndex()].clearExpressionValueCache();
+                }
+            }
+        }
+        clearExpressionValueCaches();
+        initializeReactionRatesEvaluator();
     }
 
     protected void setInitialized(boolean pInitialized)
@@ -535,6 +655,55 @@ public abstract class Simulator
         return(localSymbolsMap);
     }
 
+    /**
+     * Binds every symbol of the model's expressions (the values of the
+     * global symbols, the values of the reactions' local symbols, and the
+     * reaction rates) to the array in which its value is stored, resolving
+     * each reaction's local symbols before the global symbols.  Once this
+     * is done, evaluating a rate expression does not require any lookup
+     * of symbol names, or any switching of the local symbols map of the
+     * {@link SymbolEvaluatorChem}.
+     */
+    private final void linkSymbols() throws DataNotFoundException
+    {
+        SymbolEvaluatorChem symbolEvaluator = mSymbolEvaluator;
+        int numReactions = mReactions.length;
+        for(int reactionCtr = 0; reactionCtr < numReactions; ++reactionCtr)
+        {
+            HashMap localSymbolsMap = mReactionsLocalParamSymbolsMaps[reactionCtr];
+            Iterator localSymbolsIter = localSymbolsMap.values().iterator();
+            while(localSymbolsIter.hasNext())
+            {
+                symbolEvaluator.linkSymbol((Symbol) localSymbolsIter.next(), localSymbolsMap);
+            }
+            if(mReactionRates[reactionCtr].isExpression())
+            {
+                symbolEvaluator.linkSymbols(mReactionRates[reactionCtr].getExpressionValue(), localSymbolsMap);
+            }
+            // the reaction symbol is needed for post-processing the rate; its value (if it is
+            // a global symbol) can be the rate expression, which refers to the local symbols
+            Symbol reactionSymbol = mReactionSymbols[reactionCtr];
+            if(symbolEvaluator.hasValue(reactionSymbol))
+            {
+                Expression reactionSymbolExpression = symbolEvaluator.getExpressionValue(reactionSymbol);
+                if(null != reactionSymbolExpression)
+                {
+                    symbolEvaluator.linkSymbols(reactionSymbolExpression, localSymbolsMap);
+                }
+                symbolEvaluator.linkSymbol(reactionSymbol, null);
+            }
+        }
+        Value []nonDynamicSymbolValues = mNonDynamicSymbolValues;
+        int numNonDynamicSymbols = nonDynamicSymbolValues.length;
+        for(int ctr = 0; ctr < numNonDynamicSymbols; ++ctr)
+        {
+            if(nonDynamicSymbolValues[ctr].isExpression())
+            {
+                symbolEvaluator.linkSymbols(nonDynamicSymbolValues[ctr].getExpressionValue(), null);
+            }
+        }
+    }
+
     private final void checkReactionRates() throws DataNotFoundException
     {
         int numReactions = mReactions.length;
@@ -576,10 +745,14 @@ public abstract class Simulator
         mSimulationController = null;
         mDelayedReactionSolvers = null;
         mDynamicSymbols = null;
-        mDynamicSymbolAdjustmentVectors = null;
+        mDynamicSymbolAdjustmentMatrix = null;
         mReactionsDelayedReactionAssociations = null;
         mReactionSymbols = null;
         mReactionRates = null;
+        mCompiledReactionRates = null;
+        mPostfixReactionRates = null;
+        mReactionRatesEvaluator = null;
+        mReactionRatesEvaluatorNodes = null;
         mNonDynamicSymbolExpressionValues = null;
         mModelName = null;
     }
@@ -590,21 +763,104 @@ public abstract class Simulator
         setMinNumMillisecondsForUpdate(DEFAULT_MIN_NUM_MILLISECONDS_FOR_UPDATE);
     }
 
+    /**
+     * Builds the matrix of the net change in each dynamic species, for
+     * a single occurrence of each reaction, as a compressed sparse row
+     * matrix with one row per reaction and one column per dynamic species.
+     * Each reaction changes only a few species, so the matrix is built
+     * from the reactants and products of each reaction, and products with
+     * it cost time proportional to the number of nonzero elements.
+     */
     protected final void initializeDynamicSymbolAdjustmentVectors()
     {
-        Reaction []reactions = mReactions;
+        int numReactions = mReactions.length;
+        int numSymbols = mDynamicSymbols.length;
 
-        int numReactions = reactions.length;
-        Object []dynamicSymbolAdjustmentVectors = new Object[numReactions];
+        int []rowPointers = new int[numReactions + 1];
+        int maxNumNonzeros = 0;
+        for(int ctr = 0; ctr < numReactions; ++ctr)
+        {
+            maxNumNonzeros += ((Symbol []) mReactionsReactantsSpecies[ctr]).length + ((Symbol []) mReactionsProductsSpecies[ctr]).length;
+        }
+        int []columnIndices = new int[maxNumNonzeros];
+        double []values = new double[maxNumNonzeros];
+
+        double []netChange = new double[numSymbols];
+        int []changedSymbolIndices = new int[numSymbols];
+        int numNonzeros = 0;
 
         for(int ctr = 0; ctr < numReactions; ++ctr)
         {
-            Reaction reaction = reactions[ctr];
-            
-            dynamicSymbolAdjustmentVectors[ctr] = constructDynamicSymbolAdjustmentVector(ctr);
+            rowPointers[ctr] = numNonzeros;
+
+            int numChangedSymbols = addDynamicSymbolAdjustments((Symbol []) mReactionsReactantsSpecies[ctr],
+                                                                (int []) mReactionsReactantsStoichiometries[ctr],
+                                                                (boolean []) mReactionsReactantsDynamic[ctr],
+                                                                -1.0,
+                                                                netChange,
+                                                                changedSymbolIndices,
+                                                                0);
+            numChangedSymbols = addDynamicSymbolAdjustments((Symbol []) mReactionsProductsSpecies[ctr],
+                                                            (int []) mReactionsProductsStoichiometries[ctr],
+                                                            (boolean []) mReactionsProductsDynamic[ctr],
+                                                            1.0,
+                                                            netChange,
+                                                            changedSymbolIndices,
+                                                            numChangedSymbols);
+
+            Arrays.sort(changedSymbolIndices, 0, numChangedSymbols);
+            for(int k = 0; k < numChangedSymbols; ++k)
+            {
+                int symbolIndex = changedSymbolIndices[k];
+                double vecElement = netChange[symbolIndex];
+                netChange[symbolIndex] = 0.0;
+                if(0.0 != vecElement)
+                {
+                    columnIndices[numNonzeros] = symbolIndex;
+                    values[numNonzeros] = vecElement;
+                    ++numNonzeros;
+                }
+            }
         }
+        rowPointers[numReactions] = numNonzeros;
+
+        mDynamicSymbolAdjustmentMatrix = new SparseMatrix(numSymbols, rowPointers, columnIndices, values);
+    }
 
-        mDynamicSymbolAdjustmentVectors = dynamicSymbolAdjustmentVectors;
+    // Adds the signed stoichiometries of the dynamic species among the supplied
+    // reaction participants to "pNetChange", recording the index of each species
+    // not previously recorded; returns the new number of recorded species.
+    private static int addDynamicSymbolAdjustments(Symbol []pSpecies,
+                                                   int []pStoichiometries,
+                                                   boolean []pDynamic,
+                                                   double pSign,
+                                                   double []pNetChange,
+                                                   int []pChangedSymbolIndices,
+                                                   int pNumChangedSymbols)
+    {
+        int numSpecies = pSpecies.length;
+        for(int ctr = 0; ctr < numSpecies; ++ctr)
+        {
+            if(pDynamic[ctr])
+            {
+                int symbolIndex = pSpecies[ctr].getArrayIndex();
+                boolean recorded = false;
+                for(int k = 0; k < pNumChangedSymbols; ++k)
+                {
+                    if(pChangedSymbolIndices[k] == symbolIndex)
+                    {
+                        recorded = true;
+                        break;
+                    }
+                }
+                if(! recorded)
+                {
+                    pChangedSymbolIndices[pNumChangedSymbols++] = symbolIndex;
+                }
+                pNetChange[symbolIndex] += pSign * pStoichiometries[ctr];
+            }
+        }
+        return(pNumChangedSymbols);
     }
 
     public abstract String getAlias();
@@ -640,11 +896,6 @@ public abstract class Simulator
         int numTimePoints = pTimeValues.length;
         int numRequestedSymbolValues = pRequestedSymbols.length;
 
-        if(mUseExpressionValueCaching)
-        {
-            clearExpressionValueCaches();
-        }
-
         double saveTime = mSymbolEvaluator.getTime();
 
         int timeCtr = pLastTimeIndex;
@@ -754,16 +1005,33 @@ public abstract class Simulator
     {
         // loop through all reactions, and for each reaction, compute the reaction probability
         int numReactions = mReactions.length;
-        
-        if(mUseExpressionValueCaching)
+
+        CommonSubexpressionEvaluator reactionRatesEvaluator = mReactionRatesEvaluator;
+        if(null == reactionRatesEvaluator || null != mCompiledReactionRates)
         {
-            clearExpressionValueCaches();
+            for(int reactionCtr = numReactions; --reactionCtr >= 0; )
+            {
+                // store reaction probability
+                mReactionProbabilities[reactionCtr] = computeReactionRate(reactionCtr);
+            }
         }
-
-        for(int reactionCtr = numReactions; --reactionCtr >= 0; )
+        else
         {
-            // store reaction probability
-            mReactionProbabilities[reactionCtr] = computeReactionRate(reactionCtr);
+            // compute all of the rate expressions at once, sharing their common subexpressions
+            reactionRatesEvaluator.computeValues(mSymbolEvaluator);
+            int []reactionRatesEvaluatorNodes = mReactionRatesEvaluatorNodes;
+            for(int reactionCtr = numReactions; --reactionCtr >= 0; )
+            {
+                int node = reactionRatesEvaluatorNodes[reactionCtr];
+                if(NULL_EXPRESSION_NODE != node)
+                {
+                    mReactionProbabilities[reactionCtr] = reactionRatesEvaluator.getValue(node);
+                }
+                else
+                {
+                    mReactionProbabilities[reactionCtr] = computeReactionRate(reactionCtr);
+                }
+            }
         }
     }
 
@@ -781,7 +1049,13 @@ public abstract class Simulator
         return(compositeRate);
     }
 
-    protected final void clearExpressionValueCaches()
+    /*
+     * Discards the cached values of the expression-valued symbols, along with the
+     * array elements on which they were found to depend.  This is only needed at the
+     * start of a simulation; during a simulation, a cached value is recomputed
+     * whenever one of the species values (or the time) that it depends on changes.
+     */
+    private final void clearExpressionValueCaches()
     {
         Value []expressionValues = mNonDynamicSymbolExpressionValues;
         for(int ctr = expressionValues.length; --ctr >= 0; )
@@ -790,31 +1064,12 @@ public abstract class Simulator
         }
     }
 
-    protected final void computeDerivative(double []pTempDynamicSymbolValues,
-                                           double []pDynamicSymbolDerivatives) throws DataNotFoundException
+    protected final void computeDerivative(double []pDynamicSymbolDerivatives) throws DataNotFoundException
     {
         computeReactionProbabilities();
 
-        int numReactions = mReactions.length;
-        Reaction reaction = null;
-        double reactionRate = 0.0;
-
-        DoubleVector.zeroElements(pDynamicSymbolDerivatives);
-
-        Object []dynamicSymbolAdjustmentVectors = mDynamicSymbolAdjustmentVectors;
-
-        for(int reactionCtr = numReactions; --reactionCtr >= 0; )
-        {
-            reaction = mReactions[reactionCtr];
-            reactionRate = mReactionProbabilities[reactionCtr];
-
-            double []symbolAdjustmentVector = (double []) dynamicSymbolAdjustmentVectors[reactionCtr];
-            
-            // we want to multiply this vector by the reaction rate and add it to the derivative
-            DoubleVector.scalarMultiply(symbolAdjustmentVector, reactionRate, pTempDynamicSymbolValues);
-            
-            DoubleVector.add(pTempDynamicSymbolValues, pDynamicSymbolDerivatives, pDynamicSymbolDerivatives);
-        }
+        // the derivative is the sum over reactions of the reaction rate times the reaction's net stoichiometry
+        mDynamicSymbolAdjustmentMatrix.multiplyTranspose(mReactionProbabilities, pDynamicSymbolDerivatives);
     }
 
     public final void setProgressReporter(SimulationProgressReporter pSimulationProgressReporter)
@@ -864,10 +1119,10 @@ public abstract class Simulator
      * do not modify without profiling the code to assess the performance
      * impact of the change.
      */
-    private static double computeRateFactorForSpecies(double pSpeciesValue,
-                                                      int pStoichiometry,
-                                                      boolean pIsDynamic,
-                                                      boolean pIsStochastic)
+    static double computeRateFactorForSpecies(double pSpeciesValue,
+                                              int pStoichiometry,
+                                              boolean pIsDynamic,
+                                              boolean pIsStochastic)
     {
         if(pIsStochastic && pIsDynamic)
         {
@@ -964,9 +1219,21 @@ public abstract class Simulator
             }
             else
             {
-                mSymbolEvaluator.setLocalSymbolsMap(mReactionsLocalParamSymbolsMaps[pReactionCtr]);
-                double rate = mSymbolEvaluator.getValue(mReactionSymbols[pReactionCtr]);
-                mSymbolEvaluator.setLocalSymbolsMap(null);
+                if(null != mCompiledReactionRates)
+                {
+                    CompiledExpression compiledRate = mCompiledReactionRates[pReactionCtr];
+                    if(null != compiledRate)
+                    {
+                        return(compiledRate.computeValue(mDynamicSymbolValues, mSymbolEvaluator));
+                    }
+                }
+                SymbolEvaluatorChem symbolEvaluator = mSymbolEvaluator;
+                double rate = mPostfixReactionRates[pReactionCtr].computeValue(symbolEvaluator);
+                SymbolEvaluationPostProcessor symbolEvaluationPostProcessor = symbolEvaluator.getSymbolEvaluationPostProcessor();
+                if(null != symbolEvaluationPostProcessor)
+                {
+                    rate = symbolEvaluationPostProcessor.modifyResult(mReactionSymbols[pReactionCtr], symbolEvaluator, rate);
+                }
                 return(rate);
             }
         }
@@ -978,39 +1245,6 @@ public abstract class Simulator
         }
     }
 
-    private double []constructDynamicSymbolAdjustmentVector(int pReactionCtr)
-    {
-        int numSymbols = mDynamicSymbols.length;
-        double []dynamicSymbolVector = new double[numSymbols];
-
-        Reaction reaction = mReactions[pReactionCtr];
-        HashMap reactantsMap = reaction.getReactantsMap();
-        HashMap productsMap = reaction.getProductsMap();
-
-        for(int symbolCtr = 0; symbolCtr < numSymbols; ++symbolCtr)
-        {
-            SymbolValue symbolValue = mDynamicSymbols[symbolCtr];
-            Symbol symbol = symbolValue.getSymbol();
-            String symbolName = symbol.getName();
-            double vecElement = 0.0;
-            ReactionParticipant reactantParticipant = (ReactionParticipant) reactantsMap.get(symbolName);
-            if(null != reactantParticipant && reactantParticipant.mDynamic)
-            {
-                vecElement -= reactantParticipant.mStoichiometry;
-            }
-            ReactionParticipant productParticipant = (ReactionParticipant) productsMap.get(symbolName);
-            if(null != productParticipant && productParticipant.mDynamic)
-            {
-                vecElement += productParticipant.mStoichiometry;
-            }
-
-            dynamicSymbolVector[symbolCtr] = vecElement;
-        }
-
-        return(dynamicSymbolVector);
-    }
-
-
     public static Expression []getReactionRateExpressions(Reaction []pReactions) throws DataNotFoundException
     {
         int numReactions = pReactions.length;
@@ -1025,6 +1259,23 @@ public abstract class Simulator
 
     protected void checkSimulationParametersForDeterministicSimulator(SimulatorParameters pSimulatorParameters,
                                                                       int pNumResultsTimePoints)
+    {
+        checkSimulationParametersForDeterministicSimulator(pSimulatorParameters,
+                                                           pNumResultsTimePoints,
+                                                           false);
+    }
+
+    /**
+     * Validates the parameters of a deterministic simulation.  A simulator
+     * with dense output interpolates the results time-points, so its step
+     * size fraction need not be finer than the results granularity; it
+     * also interpolates the delayed-reaction histories, so its step size
+     * need only be short compared to the shortest delay, rather than to a
+     * history bin.
+     */
+    protected void checkSimulationParametersForDeterministicSimulator(SimulatorParameters pSimulatorParameters,
+                                                                      int pNumResultsTimePoints,
+                                                                      boolean pHasDenseOutput)
     {
         Boolean flagGetFinalSymbolFluctuations = pSimulatorParameters.getComputeFluctuations();
         if(null == flagGetFinalSymbolFluctuations)
@@ -1069,7 +1320,7 @@ public abstract class Simulator
             throw new IllegalArgumentException("no step size fraction defined, for deterministic simulator");
         }
 
-        if(stepSize > (1.0 / ((double) pNumResultsTimePoints)))
+        if(! pHasDenseOutput && stepSize > (1.0 / ((double) pNumResultsTimePoints)))
         {
             throw new IllegalArgumentException("step size is too large, given the granularity of the results requested; please either decrease the step size fraction, or decrease the number of requested results time points");
         }
@@ -1088,6 +1339,11 @@ public abstract class Simulator
                 throw new IllegalArgumentException("invalid number of history bins: " + numHistoryBins + "; minimum value is: " + DelayedReactionSolver.MIN_NUM_HISTORY_BINS);
             }
             double maxStepSizeDueToDelayedReactions = getMinDelayedReactionDelay()/((double) numHistoryBins);
+            if(pHasDenseOutput)
+            {
+                // the delay histories are interpolated, so the step need only be short compared to the delay
+                maxStepSizeDueToDelayedReactions = getMinDelayedReactionDelay()/MIN_NUM_STEPS_PER_DELAY;
+            }
             if(stepSize > maxStepSizeDueToDelayedReactions)
             {
                 throw new IllegalArgumentException("step size exceeds maximum allowed for a delayed reaction; please use a smaller step size fraction");
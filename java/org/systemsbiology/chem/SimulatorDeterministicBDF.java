@@ -0,0 +1,677 @@
+package org.systemsbiology.chem;
+/*
+ * Copyright (C) 2003 by Institute for Systems Biology,
+ * Seattle, Washington, USA.  All rights reserved.
+ *
+ * This source code is distributed under the GNU Lesser
+ * General Public License, the text of which is available at:
+ *   http://www.gnu.org/copyleft/lesser.html
+ */
+
+import org.systemsbiology.math.*;
+import org.systemsbiology.util.*;
+
+/**
+ * Simulates the dynamics of a set of coupled chemical reactions
+ * described by {@link Reaction} objects using a variable-order
+ * (one through five), variable step-size implicit integrator
+ * for stiff systems, based on the numerical differentiation
+ * formulas (NDF), which are a modification of the backward
+ * differentiation formulas (BDF) with improved stability.  The
+ * formulas are implemented in the fixed-leading-coefficient form,
+ * with the solution history stored as a table of backward
+ * differences.  The implicit equations for each step are solved
+ * using a simplified Newton iteration, in which the iteration
+ * matrix <code>I - h*gamma*J</code> is built from the partial
+ * derivatives of the reaction rate expressions with respect to the
+ * species, which are computed symbolically once, when the model
+ * is initialized.  The iteration matrix is stored in sparse form
+ * and factored with a sparse LU decomposition whose symbolic
+ * factorization (elimination order and fill-in) is computed
+ * once; each change of the step size or order requires only a
+ * numeric refactorization.  The Jacobian is re-evaluated only
+ * when the Newton iteration fails to converge quickly enough.
+ * The solution within each step is approximated by the
+ * interpolating polynomial defined by the backward differences,
+ * so the results time-points do not constrain the step size.
+ * See:  L. F. Shampine and M. W. Reichelt, "The MATLAB ODE suite",
+ * <em>SIAM J. Sci. Comput.</em> <b>18</b>, 1 (1997).
+ * The partial derivatives of the rates of delayed reactions are
+ * not included in the Jacobian.
+ *
+ * @author Stephen Ramsey
+ */
+public final class SimulatorDeterministicBDF extends SimulatorDeterministicBase implements IAliasableClass, ISimulator, IDenseOutputSimulator
+{
+    public static final String CLASS_ALIAS = "ODE-BDF-stiff";
+
+    private static final int MAX_ORDER = 5;
+    private static final int MAX_NEWTON_ITERATIONS = 4;
+    private static final double DOUBLE_EPSILON = 2.220446049250313e-16;
+
+    // the NDF coefficients "kappa" of Klopfenstein and Shampine; with all
+    // coefficients zero, the formulas are the backward differentiation formulas
+    private static final double []NDF_COEFFICIENTS = { -0.1850, -1.0/9.0, -0.0823, -0.0415, 0.0 };
+    private static final double []GAMMA = new double[MAX_ORDER];
+    private static final double []INVERSE_GAMMA = new double[MAX_ORDER];
+    private static final double []ERROR_CONSTANTS = new double[MAX_ORDER];
+
+    // the matrix that, multiplied by the step-size ratio matrix, rescales the backward differences
+    private static final double [][]DIFFERENCE_RESCALE = { { -1.0, -2.0, -3.0, -4.0, -5.0 },
+                                                            {  0.0,  1.0,  3.0,  6.0, 10.0 },
+                                                            {  0.0,  0.0, -1.0, -4.0,-10.0 },
+                                                            {  0.0,  0.0,  0.0,  1.0,  5.0 },
+                                                            {  0.0,  0.0,  0.0,  0.0, -1.0 } };
+
+    static
+    {
+        double gamma = 0.0;
+        for(int k = 0; k < MAX_ORDER; ++k)
+        {
+            gamma += 1.0 / ((double) (k + 1));
+            GAMMA[k] = gamma;
+            INVERSE_GAMMA[k] = 1.0 / (gamma * (1.0 - NDF_COEFFICIENTS[k]));
+            ERROR_CONSTANTS[k] = NDF_COEFFICIENTS[k] * gamma + 1.0 / ((double) (k + 2));
+        }
+    }
+
+    // integrator state
+    private double [][]mDifferences;
+    private double mDifferencesStepSize;
+    private int mOrder;
+    private int mNumStepsAtOrder;
+    private boolean mJacobianCurrent;
+    private boolean mHaveConvergenceRate;
+    private double mConvergenceRate;
+    private boolean mStarted;
+
+    // dense output over the last step taken, which ended at mDenseEndTime
+    private double []mDenseEndValues;
+    private double mDenseEndTime;
+    private int mDenseOrder;
+
+    // scratch space
+    private double []mSavedValues;
+    private double []mPredictedValues;
+    private double []mCorrection;
+    private double []mNewtonStep;
+    private double []mPsi;
+    private double []mDerivative;
+    private double []mInverseWeights;
+    private double [][]mRescaleMatrix;
+    private double []mRescaleScratch;
+
+    public void initialize(Model pModel) throws DataNotFoundException
+    {
+        super.initialize(pModel);
+        initializeJacobian();
+
+        int numSpecies = mDynamicSymbolValues.length;
+        mDifferences = new double[MAX_ORDER + 2][numSpecies];
+        mSavedValues = new double[numSpecies];
+        mDenseEndValues = new double[numSpecies];
+        mPredictedValues = new double[numSpecies];
+        mCorrection = new double[numSpecies];
+        mNewtonStep = new double[numSpecies];
+        mPsi = new double[numSpecies];
+        mDerivative = new double[numSpecies];
+        mInverseWeights = new double[numSpecies];
+        mRescaleMatrix = new double[MAX_ORDER][MAX_ORDER];
+        mRescaleScratch = new double[MAX_ORDER];
+    }
+
+    // forms and factors the Newton iteration matrix I - pCoefficient*J; returns false if it is singular
+    private boolean updateNewtonMatrix(double pCoefficient)
+    {
+        if(isIterationMatrixCurrent(pCoefficient))
+        {
+            return(true);
+        }
+        mHaveConvergenceRate = false;
+        return(factorIterationMatrix(pCoefficient));
+    }
+
+    // evaluates the Jacobian at the start of the current step
+    private void updateJacobian() throws DataNotFoundException
+    {
+        computeJacobian();
+        mJacobianCurrent = true;
+    }
+
+    // rescales the table of backward differences, for a change in the step size to pStepSize
+    private void rescaleDifferences(double pStepSize)
+    {
+        if(pStepSize == mDifferencesStepSize)
+        {
+            return;
+        }
+        double ratio = pStepSize / mDifferencesStepSize;
+        int order = mOrder;
+        double [][]rescaleMatrix = mRescaleMatrix;
+        double []scratch = mRescaleScratch;
+
+        // the step-size ratio matrix R, with R[i][j] = prod_{m=1..i+1} (m - 1 - (j+1)*ratio)/m
+        for(int j = 0; j < order; ++j)
+        {
+            double product = 1.0;
+            for(int i = 0; i < order; ++i)
+            {
+                product *= ((double) i - ((double) (j + 1)) * ratio) / ((double) (i + 1));
+                scratch[i] = product;
+            }
+            for(int i = 0; i < order; ++i)
+            {
+                rescaleMatrix[i][j] = scratch[i];
+            }
+        }
+
+        // replace R with the product R*U, in place, one row at a time
+        for(int i = 0; i < order; ++i)
+        {
+            double []row = rescaleMatrix[i];
+            for(int j = 0; j < order; ++j)
+            {
+                double sum = 0.0;
+                for(int m = 0; m <= j; ++m)
+                {
+                    sum += row[m] * DIFFERENCE_RESCALE[m][j];
+                }
+                scratch[j] = sum;
+            }
+            System.arraycopy(scratch, 0, row, 0, order);
+        }
+
+        double [][]differences = mDifferences;
+        for(int s = differences[0].length; --s >= 0; )
+        {
+            for(int j = 0; j < order; ++j)
+            {
+                double sum = 0.0;
+                for(int i = 0; i < order; ++i)
+                {
+                    sum += differences[i][s] * rescaleMatrix[i][j];
+                }
+                scratch[j] = sum;
+            }
+            for(int j = 0; j < order; ++j)
+            {
+                differences[j][s] = scratch[j];
+            }
+        }
+
+        mDifferencesStepSize = pStepSize;
+        mNumStepsAtOrder = 0;
+    }
+
+    private static double weightedNorm(double []pVector, double []pInverseWeights)
+    {
+        double norm = 0.0;
+        for(int i = pVector.length; --i >= 0; )
+        {
+            double value = Math.abs(pVector[i] * pInverseWeights[i]);
+            if(value > norm)
+            {
+                norm = value;
+            }
+        }
+        return(norm);
+    }
+
+    // computes the derivative of the species values pValues at time pTime, into mDerivative
+    private void computeDerivativeAt(double pTime, double []pValues) throws DataNotFoundException
+    {
+        System.arraycopy(pValues, 0, mDynamicSymbolValues, 0, pValues.length);
+        mSymbolEvaluator.setTime(pTime);
+        computeDerivative(mDerivative);
+    }
+
+    private void startIntegration(double pTime) throws DataNotFoundException
+    {
+        double []y = mDynamicSymbolValues;
+        int numSpecies = y.length;
+        double maxRelativeError = mRKScratchPad.maxRelativeError;
+        double threshold = mRKScratchPad.maxAbsoluteError / maxRelativeError;
+
+        computeDerivative(mDerivative);
+        double []derivative = mDerivative;
+        double rh = 0.0;
+        for(int i = numSpecies; --i >= 0; )
+        {
+            double value = Math.abs(derivative[i]) / Math.max(Math.abs(y[i]), threshold);
+            if(value > rh)
+            {
+                rh = value;
+            }
+        }
+        rh *= 1.25 / Math.sqrt(maxRelativeError);
+
+        double stepSize = Math.min(mRKScratchPad.maxStepSize, mRKScratchPad.stepSize);
+        if(stepSize * rh > 1.0)
+        {
+            stepSize = 1.0 / rh;
+        }
+        stepSize = Math.max(stepSize, 16.0 * DOUBLE_EPSILON * Math.abs(pTime));
+
+        double [][]differences = mDifferences;
+        for(int j = differences.length; --j >= 0; )
+        {
+            DoubleVector.zeroElements(differences[j]);
+        }
+        for(int i = numSpecies; --i >= 0; )
+        {
+            differences[0][i] = stepSize * derivative[i];
+        }
+        mDifferencesStepSize = stepSize;
+        mRKScratchPad.stepSize = stepSize;
+        mOrder = 1;
+        mNumStepsAtOrder = 0;
+        mHaveConvergenceRate = false;
+
+        updateJacobian();
+
+        mStarted = true;
+    }
+
+    /*
+     * Solves the implicit equations for the species values at time pNewTime, using the
+     * simplified Newton iteration, starting from the predicted values; on return, the
+     * new species values are in mPredictedValues + mCorrection.  Returns false if the
+     * iteration is not converging quickly enough.
+     */
+    private boolean solveCorrector(double pNewTime, double pCoefficient, double []pNewValues) throws DataNotFoundException
+    {
+        double maxRelativeError = mRKScratchPad.maxRelativeError;
+        double coefficient = pCoefficient;
+        double []predictedValues = mPredictedValues;
+        double []correction = mCorrection;
+        double []newtonStep = mNewtonStep;
+        double []psi = mPsi;
+        double []derivative = mDerivative;
+        double []inverseWeights = mInverseWeights;
+        int numSpecies = predictedValues.length;
+
+        DoubleVector.zeroElements(correction);
+        System.arraycopy(predictedValues, 0, pNewValues, 0, numSpecies);
+
+        double minNorm = 100.0 * DOUBLE_EPSILON * weightedNorm(pNewValues, inverseWeights);
+        double oldNorm = 0.0;
+
+        for(int iter = 1; iter <= MAX_NEWTON_ITERATIONS; ++iter)
+        {
+            computeDerivativeAt(pNewTime, pNewValues);
+            for(int i = numSpecies; --i >= 0; )
+            {
+                newtonStep[i] = coefficient * derivative[i] - (psi[i] + correction[i]);
+            }
+            solveIterationMatrix(newtonStep);
+            double newNorm = weightedNorm(newtonStep, inverseWeights);
+            for(int i = numSpecies; --i >= 0; )
+            {
+                correction[i] += newtonStep[i];
+                pNewValues[i] = predictedValues[i] + correction[i];
+            }
+
+            if(newNorm <= minNorm)
+            {
+                return(true);
+            }
+            else if(1 == iter)
+            {
+                if(mHaveConvergenceRate)
+                {
+                    double rate = mConvergenceRate;
+                    // more stringent, when using the rate from a previous step
+                    if(newNorm * rate / (1.0 - rate) <= 0.05 * maxRelativeError)
+                    {
+                        return(true);
+                    }
+                }
+                else
+                {
+                    mConvergenceRate = 0.0;
+                }
+            }
+            else if(! (newNorm <= 0.9 * oldNorm))
+            {
+                return(false);
+            }
+            else
+            {
+                double rate = Math.max(0.9 * mConvergenceRate, newNorm / oldNorm);
+                mConvergenceRate = rate;
+                mHaveConvergenceRate = true;
+                double iterationError = newNorm * rate / (1.0 - rate);
+                if(iterationError <= 0.5 * maxRelativeError)
+                {
+                    return(true);
+                }
+                else if(MAX_NEWTON_ITERATIONS == iter ||
+                        0.5 * maxRelativeError < iterationError * Math.pow(rate, MAX_NEWTON_ITERATIONS - iter))
+                {
+                    return(false);
+                }
+            }
+            oldNorm = newNorm;
+        }
+        return(false);
+    }
+
+    protected double iterate(double []pNewDynamicSymbolValues) throws DataNotFoundException, AccuracyException
+    {
+        SymbolEvaluatorChem symbolEvaluator = mSymbolEvaluator;
+        double time = symbolEvaluator.getTime();
+        if(! mStarted)
+        {
+            startIntegration(time);
+        }
+
+        double []y = mDynamicSymbolValues;
+        int numSpecies = y.length;
+        double []savedValues = mSavedValues;
+        System.arraycopy(y, 0, savedValues, 0, numSpecies);
+
+        RKScratchPad scratchPad = mRKScratchPad;
+        double maxRelativeError = scratchPad.maxRelativeError;
+        double threshold = scratchPad.maxAbsoluteError / maxRelativeError;
+        double maxStepSize = scratchPad.maxStepSize;
+        double minStepSize = 16.0 * DOUBLE_EPSILON * Math.abs(time);
+        double stepSize = scratchPad.stepSize;
+
+        double [][]differences = mDifferences;
+        double []predictedValues = mPredictedValues;
+        double []correction = mCorrection;
+        double []psi = mPsi;
+        double []inverseWeights = mInverseWeights;
+
+        int numFailures = 0;
+        double error = 0.0;
+        double newTime = time;
+
+        while(true)
+        {
+            stepSize = Math.min(maxStepSize, Math.max(minStepSize, stepSize));
+            rescaleDifferences(stepSize);
+            int order = mOrder;
+
+            double coefficient = stepSize * INVERSE_GAMMA[order - 1];
+            if(! updateNewtonMatrix(coefficient))
+            {
+                // the iteration matrix is singular; treat as a convergence failure
+                stepSize = handleConvergenceFailure(stepSize, minStepSize, time);
+                continue;
+            }
+
+            // predict the new species values, and compute the constant part of the corrector equations
+            double psiCoefficient = INVERSE_GAMMA[order - 1];
+            for(int i = numSpecies; --i >= 0; )
+            {
+                double predicted = y[i];
+                double psiValue = 0.0;
+                for(int j = 0; j < order; ++j)
+                {
+                    double difference = differences[j][i];
+                    predicted += difference;
+                    psiValue += difference * GAMMA[j];
+                }
+                predictedValues[i] = predicted;
+                psi[i] = psiValue * psiCoefficient;
+                inverseWeights[i] = 1.0 / Math.max(Math.max(Math.abs(y[i]), Math.abs(predicted)), threshold);
+            }
+
+            newTime = time + stepSize;
+            boolean converged = solveCorrector(newTime, coefficient, pNewDynamicSymbolValues);
+
+            // restore the species values and time at the start of the step
+            System.arraycopy(savedValues, 0, y, 0, numSpecies);
+            symbolEvaluator.setTime(time);
+
+            if(! converged)
+            {
+                ++numFailures;
+                stepSize = handleConvergenceFailure(stepSize, minStepSize, time);
+                continue;
+            }
+
+            error = weightedNorm(correction, inverseWeights) * ERROR_CONSTANTS[order - 1];
+            if(error <= maxRelativeError)
+            {
+                break;
+            }
+
+            // the error estimate is too large; reduce the step size, and possibly the order
+            if(stepSize <= minStepSize)
+            {
+                throw new AccuracyException("unable to meet the error tolerance with the minimum step size, at time: " + time);
+            }
+            ++numFailures;
+            if(1 == numFailures)
+            {
+                double newStepSize = stepSize * Math.max(0.1, 0.833 * Math.pow(maxRelativeError / error, 1.0 / ((double) (order + 1))));
+                if(order > 1)
+                {
+                    double []lastDifference = differences[order - 1];
+                    double errorLowerOrder = 0.0;
+                    for(int i = numSpecies; --i >= 0; )
+                    {
+                        double value = Math.abs((lastDifference[i] + correction[i]) * inverseWeights[i]);
+                        if(value > errorLowerOrder)
+                        {
+                            errorLowerOrder = value;
+                        }
+                    }
+                    errorLowerOrder *= ERROR_CONSTANTS[order - 2];
+                    double stepSizeLowerOrder = stepSize * Math.max(0.1, 0.769 * Math.pow(maxRelativeError / errorLowerOrder, 1.0 / ((double) order)));
+                    if(stepSizeLowerOrder > newStepSize)
+                    {
+                        newStepSize = Math.min(stepSize, stepSizeLowerOrder);
+                        mOrder = order - 1;
+                    }
+                }
+                stepSize = newStepSize;
+            }
+            else
+            {
+                stepSize *= 0.5;
+            }
+            stepSize = Math.max(minStepSize, stepSize);
+        }
+
+        int order = mOrder;
+
+        // clip negative species values, keeping the difference table consistent with the solution
+        for(int i = numSpecies; --i >= 0; )
+        {
+            double value = pNewDynamicSymbolValues[i];
+            if(value < 0.0)
+            {
+                correction[i] -= value;
+                pNewDynamicSymbolValues[i] = 0.0;
+            }
+        }
+
+        // update the table of backward differences
+        double []differenceOrder = differences[order];
+        double []differenceOrderPlusOne = differences[order + 1];
+        for(int i = numSpecies; --i >= 0; )
+        {
+            differenceOrderPlusOne[i] = correction[i] - differenceOrder[i];
+            differenceOrder[i] = correction[i];
+        }
+        for(int j = order; --j >= 0; )
+        {
+            double []difference = differences[j];
+            double []nextDifference = differences[j + 1];
+            for(int i = numSpecies; --i >= 0; )
+            {
+                difference[i] += nextDifference[i];
+            }
+        }
+
+        System.arraycopy(pNewDynamicSymbolValues, 0, mDenseEndValues, 0, numSpecies);
+        mDenseEndTime = newTime;
+        mDenseOrder = order;
+
+        mJacobianCurrent = false;
+        mNumStepsAtOrder = Math.min(mNumStepsAtOrder + 1, MAX_ORDER + 2);
+
+        // select the step size and order for the next step
+        double nextStepSize = stepSize;
+        if(mNumStepsAtOrder >= order + 2)
+        {
+            double temp = 1.2 * Math.pow(error / maxRelativeError, 1.0 / ((double) (order + 1)));
+            double optimalStepSize = (temp > 0.1) ? stepSize / temp : 10.0 * stepSize;
+            int optimalOrder = order;
+            if(order > 1)
+            {
+                double errorLowerOrder = weightedNorm(differences[order - 1], inverseWeights) * ERROR_CONSTANTS[order - 2];
+                temp = 1.3 * Math.pow(errorLowerOrder / maxRelativeError, 1.0 / ((double) order));
+                double stepSizeLowerOrder = (temp > 0.1) ? stepSize / temp : 10.0 * stepSize;
+                if(stepSizeLowerOrder > optimalStepSize)
+                {
+                    optimalStepSize = stepSizeLowerOrder;
+                    optimalOrder = order - 1;
+                }
+            }
+            if(order < MAX_ORDER)
+            {
+                double errorHigherOrder = weightedNorm(differences[order + 1], inverseWeights) * ERROR_CONSTANTS[order];
+                temp = 1.4 * Math.pow(errorHigherOrder / maxRelativeError, 1.0 / ((double) (order + 2)));
+                double stepSizeHigherOrder = (temp > 0.1) ? stepSize / temp : 10.0 * stepSize;
+                if(stepSizeHigherOrder > optimalStepSize)
+                {
+                    optimalStepSize = stepSizeHigherOrder;
+                    optimalOrder = order + 1;
+                }
+            }
+            if(optimalStepSize > stepSize)
+            {
+                nextStepSize = optimalStepSize;
+                if(optimalOrder != order)
+                {
+                    mOrder = optimalOrder;
+                    mNumStepsAtOrder = 0;
+                }
+            }
+        }
+        scratchPad.stepSize = nextStepSize;
+
+        symbolEvaluator.setTime(newTime);
+        return(newTime);
+    }
+
+    protected void restartIntegration()
+    {
+        // the difference table spans the discontinuity, so the integration is started anew at order one
+        mStarted = false;
+    }
+
+    public void interpolate(double pTime, double []pValues)
+    {
+        // the table of backward differences is rescaled for a new step size only at the start of the next step
+        double s = (pTime - mDenseEndTime) / mDifferencesStepSize;
+        double [][]differences = mDifferences;
+        double []endValues = mDenseEndValues;
+        int order = mDenseOrder;
+        System.arraycopy(endValues, 0, pValues, 0, endValues.length);
+        double product = 1.0;
+        for(int j = 0; j < order; ++j)
+        {
+            product *= (s + ((double) j)) / ((double) (j + 1));
+            double []difference = differences[j];
+            for(int i = pValues.length; --i >= 0; )
+            {
+                pValues[i] += product * difference[i];
+            }
+        }
+        for(int i = pValues.length; --i >= 0; )
+        {
+            if(pValues[i] < 0.0)
+            {
+                pValues[i] = 0.0;
+            }
+        }
+    }
+
+    // either refreshes the Jacobian or (if it is already current) reduces the step size; returns the new step size
+    private double handleConvergenceFailure(double pStepSize, double pMinStepSize, double pTime) throws DataNotFoundException, AccuracyException
+    {
+        if(! mJacobianCurrent)
+        {
+            updateJacobian();
+            return(pStepSize);
+        }
+        if(pStepSize <= pMinStepSize)
+        {
+            throw new AccuracyException("Newton iteration failed to converge with the minimum step size, at time: " + pTime);
+        }
+        return(Math.max(0.3 * pStepSize, pMinStepSize));
+    }
+
+    protected void setupErrorTolerances(SimulatorParameters pSimulatorParams,
+                                        RKScratchPad pRKScratchPad)
+    {
+        Double maxRelativeErrorObj = pSimulatorParams.getMaxAllowedRelativeError();
+        if(null != maxRelativeErrorObj)
+        {
+            pRKScratchPad.maxRelativeError = maxRelativeErrorObj.doubleValue();
+        }
+        else
+        {
+            throw new IllegalArgumentException("max fractional error must be specified");
+        }
+
+        Double maxAbsoluteErrorObj = pSimulatorParams.getMaxAllowedAbsoluteError();
+        if(null != maxAbsoluteErrorObj)
+        {
+            pRKScratchPad.maxAbsoluteError = maxAbsoluteErrorObj.doubleValue();
+        }
+        else
+        {
+            throw new IllegalArgumentException("max absolute error must be specified");
+        }
+    }
+
+    protected void setupImpl(double pDeltaTime,
+                             int pNumResultsTimePoints,
+                             SimulatorParameters pSimulatorParams,
+                             RKScratchPad pRKScratchPad)
+    {
+        // the results time-points are interpolated, so they do not constrain the step size
+        double maxStepSize = pDeltaTime;
+
+        if(hasDelayedReactionSolvers())
+        {
+            double maxStepSizeDueToDelayedReactions = getMaxStepSizeDueToDelayedReactions(pSimulatorParams);
+            if(maxStepSize > maxStepSizeDueToDelayedReactions)
+            {
+                maxStepSize = maxStepSizeDueToDelayedReactions;
+            }
+        }
+
+        pRKScratchPad.maxStepSize = maxStepSize;
+
+        // the integration is started (with a derivative evaluation) on the first iteration
+        mStarted = false;
+    }
+
+    public void checkSimulationParametersImpl(SimulatorParameters pSimulatorParameters,
+                                              int pNumResultsTimePoints)
+    {
+        if(null == pSimulatorParameters.getMaxAllowedAbsoluteError())
+        {
+            throw new IllegalArgumentException("missing max allowed absolute error");
+        }
+        if(null == pSimulatorParameters.getMaxAllowedRelativeError())
+        {
+            throw new IllegalArgumentException("missing max allowed relative error");
+        }
+        checkSimulationParametersForDeterministicSimulator(pSimulatorParameters,
+                                                           pNumResultsTimePoints,
+                                                           hasDenseOutput());
+    }
+
+    public String getAlias()
+    {
+        return(CLASS_ALIAS);
+    }
+}
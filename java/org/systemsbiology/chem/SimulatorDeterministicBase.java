@@ -11,6 +11,7 @@ package org.systemsbiology.chem;
 
 import org.systemsbiology.math.*;
 import org.systemsbiology.util.*;
+import java.util.*;
 
 /**
  * Simulates the dynamics of a set of coupled chemical reactions
@@ -26,6 +27,18 @@ public abstract class SimulatorDeterministicBase extends Simulator
     public static final double DEFAULT_MAX_ALLOWED_ABSOLUTE_ERROR = 0.01;
     public static final boolean DEFAULT_FLAG_GET_FINAL_SYMBOL_FLUCTUATIONS = false;
     protected static final int DEFAULT_NUM_HISTORY_BINS = 400;
+    private static final double NUMERIC_PARTIAL_DERIVATIVE_STEP = 1.0e-8;
+    // the precision (as a fraction of the step size) to which the time of a discontinuity is located
+    private static final double EVENT_TIME_TOLERANCE = 1.0e-10;
+    private static final int MAX_NUM_EVENT_ITERATIONS = 100;
+    // a step that goes past a discontinuity by more than this fraction of the distance to it is retaken
+    private static final double MAX_EVENT_OVERSHOOT_FRACTION = 0.01;
+    // the maximum number of consecutive discontinuities located at the very start of a step
+    private static final int MAX_NUM_IMMEDIATE_EVENTS = 100;
+    private static final double DOUBLE_EPSILON = 2.220446049250313e-16;
+
+    // this simulator, if it provides dense output; otherwise null
+    private final IDenseOutputSimulator mDenseOutput = (this instanceof IDenseOutputSimulator) ? (IDenseOutputSimulator) this : null;
 
     class RKScratchPad
     {
@@ -34,11 +47,12 @@ public abstract class SimulatorDeterministicBase extends Simulator
         double []k3;
         double []k4;
         double []ysav;
-        double []yscratch;
+        double []ystart;
         double []y1;
         double []y2;
         double []yscale;
         double []dydt;
+        double []ydense;
         double stepSize;
         double maxStepSize;
         double maxRelativeError;
@@ -54,11 +68,12 @@ public abstract class SimulatorDeterministicBase extends Simulator
             k3 = new double[pNumVariables];
             k4 = new double[pNumVariables];
             ysav = new double[pNumVariables];
-            yscratch = new double[pNumVariables];
+            ystart = new double[pNumVariables];
             y1 = new double[pNumVariables];
             y2 = new double[pNumVariables];
             yscale = new double[pNumVariables];
             dydt = new double[pNumVariables];
+            ydense = new double[pNumVariables];
             relativeError = new MutableDouble(0.0);
             absoluteError = new MutableDouble(0.0);
             clear();
@@ -71,11 +86,12 @@ public abstract class SimulatorDeterministicBase extends Simulator
             DoubleVector.zeroElements(k3);
             DoubleVector.zeroElements(k4);
             DoubleVector.zeroElements(ysav);
-            DoubleVector.zeroElements(yscratch);
+            DoubleVector.zeroElements(ystart);
             DoubleVector.zeroElements(y1);
             DoubleVector.zeroElements(y2);
             DoubleVector.zeroElements(yscale);
             DoubleVector.zeroElements(dydt);
+            DoubleVector.zeroElements(ydense);
             stepSize = 0.0;
             maxStepSize = 0.0;
             numIterations = 0;
@@ -88,10 +104,353 @@ public abstract class SimulatorDeterministicBase extends Simulator
 
     protected RKScratchPad mRKScratchPad;
 
+    // partial derivatives of the reaction rates with respect to the species; each is
+    // either an expression, or (if the expression is null) a constant value, or (for
+    // a rate expression that cannot be differentiated symbolically) a finite difference
+    private int []mPartialReactions;
+    private int []mPartialSpecies;
+    private PostfixExpression []mPartialExpressions;
+    private double []mPartialValues;
+    private boolean []mPartialNumeric;
+
+    // each contribution adds a stoichiometry times a partial derivative to an element of the Jacobian
+    private int []mContributionPartials;
+    private int []mContributionPositions;
+    private double []mContributionStoichiometries;
+
+    // the iteration matrix I - c*J of the implicit integrators, and the Jacobian J, share a sparsity pattern
+    private SparseMatrix mIterationMatrix;
+    private double []mJacobianValues;
+    private int []mIterationMatrixDiagonalPositions;
+    private SparseLUDecomposition mIterationMatrixDecomposition;
+
+    private double mIterationMatrixCoefficient;
+    private boolean mIterationMatrixCurrent;
+
+    // true if any reaction rate depends explicitly on the time
+    private boolean mRatesDependOnTime;
+
+    // the switching functions of the discontinuous functions (such as theta()) in the
+    // rate expressions, or null if there are none (or the simulator has no dense output)
+    private SwitchingFunctions mSwitchingFunctions;
+    private double []mSwitchingFunctionValues;
+    private int mNumImmediateEvents;
+    // the size of the step that was retaken to end just past a discontinuity
+    private double mStepSizeBeforeEvent;
+
 
 
     protected abstract double iterate(double []pNewDynamicSymbolValues) throws DataNotFoundException, AccuracyException;
 
+    /**
+     * Returns true if the simulator provides dense output, that is, if it
+     * implements {@link IDenseOutputSimulator}.
+     */
+    protected final boolean hasDenseOutput()
+    {
+        return(null != mDenseOutput);
+    }
+
+    /**
+     * Called when the integration has been stopped at a discontinuity
+     * of the rate expressions (for example, where the argument of a
+     * <code>theta()</code> function changes sign), and is about to be
+     * restarted on the other side of it.  A simulator that carries
+     * information from one step to the next (such as the derivative at
+     * the end of the previous step, or a table of differences) must
+     * discard that information here.
+     */
+    protected void restartIntegration()
+    {
+        // nothing to do
+    }
+
+    /*
+     * For a simulator with dense output, replaces each discontinuous function
+     * in the rate expressions (and in the expressions of the symbols) by a
+     * smooth function whose branch is selected by a mode, so that the rate
+     * expressions are smooth within each step; the crossings of the
+     * discontinuities are then located within the steps by root-finding on
+     * the dense output, and the integration is restarted at each crossing.
+     */
+    private void initializeSwitchingFunctions() throws DataNotFoundException
+    {
+        mSwitchingFunctions = null;
+        mSwitchingFunctionValues = null;
+        if(! hasDenseOutput())
+        {
+            return;
+        }
+        SwitchingFunctions switchingFunctions = new SwitchingFunctions();
+        int numReactions = mReactions.length;
+        for(int reactionCtr = 0; reactionCtr < numReactions; ++reactionCtr)
+        {
+            if(mReactionRates[reactionCtr].isExpression())
+            {
+                switchingFunctions.addExpression(mReactionRates[reactionCtr].getExpressionValue());
+            }
+            Iterator localSymbolsIter = mReactionsLocalParamSymbolsMaps[reactionCtr].values().iterator();
+            while(localSymbolsIter.hasNext())
+            {
+                Symbol localSymbol = (Symbol) localSymbolsIter.next();
+                Value []localValues = localSymbol.getValueArray();
+                if(null != localValues && localValues[localSymbol.getArrayIndex()].isExpression())
+                {
+                    switchingFunctions.addExpression(localValues[localSymbol.getArrayIndex()].getExpressionValue());
+                }
+            }
+        }
+        Value []expressionValues = mNonDynamicSymbolExpressionValues;
+        for(int ctr = 0; ctr < expressionValues.length; ++ctr)
+        {
+            switchingFunctions.addExpression(expressionValues[ctr].getExpressionValue());
+        }
+        int numSwitchingFunctions = switchingFunctions.getNumSwitchingFunctions();
+        if(0 == numSwitchingFunctions)
+        {
+            return;
+        }
+        reinitializeReactionRatesEvaluators();
+        mSwitchingFunctions = switchingFunctions;
+        mSwitchingFunctionValues = new double[numSwitchingFunctions];
+    }
+
+    // returns the value of the switching function pIndex at the time pTime within the most recent step
+    private double computeSwitchingFunctionAt(int pIndex, double pTime) throws DataNotFoundException
+    {
+        mDenseOutput.interpolate(pTime, mDynamicSymbolValues);
+        mSymbolEvaluator.setTime(pTime);
+        return(mSwitchingFunctions.computeValue(pIndex, mSymbolEvaluator));
+    }
+
+    /*
+     * Finds the time within (pStartTime, pEndTime] at which the switching function pIndex
+     * becomes negative, by the Illinois variant of the method of false position; the
+     * switching function is pStartValue >= 0 at pStartTime, and pEndValue < 0 at pEndTime.
+     * Returns a time, just past the crossing, at which the switching function is negative.
+     */
+    private double findSwitchingTime(int pIndex,
+                                     double pStartTime,
+                                     double pStartValue,
+                                     double pEndTime,
+                                     double pEndValue,
+                                     double pTolerance) throws DataNotFoundException
+    {
+        double lowTime = pStartTime;
+        double lowValue = pStartValue;
+        double highTime = pEndTime;
+        double highValue = pEndValue;
+        int lastSide = 0;
+        for(int iter = 0; iter < MAX_NUM_EVENT_ITERATIONS && highTime - lowTime > pTolerance; ++iter)
+        {
+            double time = highTime - highValue * (highTime - lowTime) / (highValue - lowValue);
+            if(! (time > lowTime && time < highTime))
+            {
+                time = 0.5 * (lowTime + highTime);
+            }
+            double value = computeSwitchingFunctionAt(pIndex, time);
+            if(value < 0.0)
+            {
+                highTime = time;
+                highValue = value;
+                if(-1 == lastSide)
+                {
+                    lowValue *= 0.5;
+                }
+                lastSide = -1;
+            }
+            else
+            {
+                lowTime = time;
+                lowValue = value;
+                if(1 == lastSide)
+                {
+                    highValue *= 0.5;
+                }
+                lastSide = 1;
+            }
+        }
+        return(highTime);
+    }
+
+    /*
+     * Checks whether any switching function has become negative over the step from
+     * pStartTime to pEndTime, whose end values are pNewValues.  If so, the step is
+     * truncated just past the earliest crossing (so pNewValues is overwritten with the
+     * values interpolated there), the modes of the switching functions are updated, and
+     * the integration is restarted.  If the step went well past the crossing, it is
+     * instead discarded (pNewValues is overwritten with the values at its start), and
+     * the next step is limited so as to end just past the crossing; the values computed
+     * on the wrong side of a discontinuity (which are clipped at zero if negative) and
+     * the dense output derived from them cannot be relied upon far from the crossing.
+     * Returns the time at which the step ends.
+     */
+    private double handleDiscontinuities(double pStartTime, double pEndTime, double []pNewValues) throws DataNotFoundException, AccuracyException
+    {
+        SwitchingFunctions switchingFunctions = mSwitchingFunctions;
+        SymbolEvaluatorChem symbolEvaluator = mSymbolEvaluator;
+        double []switchingFunctionValues = mSwitchingFunctionValues;
+        double []y = mDynamicSymbolValues;
+        double []ydense = mRKScratchPad.ydense;
+        int numVars = y.length;
+        System.arraycopy(y, 0, ydense, 0, numVars);
+
+        System.arraycopy(pNewValues, 0, y, 0, numVars);
+        symbolEvaluator.setTime(pEndTime);
+        int numSwitchingFunctions = switchingFunctionValues.length;
+        boolean crossed = false;
+        for(int k = numSwitchingFunctions; --k >= 0; )
+        {
+            double value = switchingFunctions.computeValue(k, symbolEvaluator);
+            switchingFunctionValues[k] = value;
+            if(value < 0.0)
+            {
+                crossed = true;
+            }
+        }
+
+        double time = pEndTime;
+        if(crossed)
+        {
+            double tolerance = Math.max(EVENT_TIME_TOLERANCE * (pEndTime - pStartTime),
+                                        4.0 * DOUBLE_EPSILON * Math.abs(pEndTime));
+            for(int k = 0; k < numSwitchingFunctions; ++k)
+            {
+                if(switchingFunctionValues[k] >= 0.0)
+                {
+                    continue;
+                }
+                // only a crossing before the earliest crossing found so far is of interest
+                double endValue = switchingFunctionValues[k];
+                if(time < pEndTime)
+                {
+                    endValue = computeSwitchingFunctionAt(k, time);
+                    if(endValue >= 0.0)
+                    {
+                        continue;
+                    }
+                }
+                double startValue = Math.max(computeSwitchingFunctionAt(k, pStartTime), 0.0);
+                time = findSwitchingTime(k, pStartTime, startValue, time, endValue, tolerance);
+            }
+
+            RKScratchPad scratchPad = mRKScratchPad;
+            boolean immediateEvent = (time - pStartTime <= 2.0 * tolerance);
+            if(! immediateEvent && pEndTime - time > MAX_EVENT_OVERSHOOT_FRACTION * (time - pStartTime))
+            {
+                mStepSizeBeforeEvent = Math.max(mStepSizeBeforeEvent, pEndTime - pStartTime);
+                scratchPad.stepSize = (1.0 + 0.5 * MAX_EVENT_OVERSHOOT_FRACTION) * (time - pStartTime);
+                System.arraycopy(ydense, 0, pNewValues, 0, numVars);
+                restartIntegration();
+                symbolEvaluator.setTime(pStartTime);
+                return(pStartTime);
+            }
+
+            if(time < pEndTime)
+            {
+                mDenseOutput.interpolate(time, pNewValues);
+            }
+            System.arraycopy(pNewValues, 0, y, 0, numVars);
+            symbolEvaluator.setTime(time);
+            switchingFunctions.updateModes(symbolEvaluator);
+            restartIntegration();
+
+            // the step size is not limited by the discontinuity that has been passed
+            if(scratchPad.stepSize < mStepSizeBeforeEvent)
+            {
+                scratchPad.stepSize = Math.min(mStepSizeBeforeEvent, scratchPad.maxStepSize);
+            }
+            mStepSizeBeforeEvent = 0.0;
+
+            if(immediateEvent)
+            {
+                ++mNumImmediateEvents;
+                if(mNumImmediateEvents > MAX_NUM_IMMEDIATE_EVENTS)
+                {
+                    throw new AccuracyException("a discontinuous function in the rate expressions is switching back and forth at time: " + time + "; the solution may not be defined past this time (for example, if the argument of a theta() function is driven back to zero from both sides)");
+                }
+            }
+            else
+            {
+                mNumImmediateEvents = 0;
+            }
+        }
+        else
+        {
+            mNumImmediateEvents = 0;
+        }
+
+        System.arraycopy(ydense, 0, y, 0, numVars);
+        symbolEvaluator.setTime(time);
+        return(time);
+    }
+
+    // adds the reactant values at each history point within the step from pStartTime to pEndTime,
+    // to the history of each delayed reaction
+    private void addInterpolatedHistoryPoints(double pStartTime, double pEndTime) throws DataNotFoundException
+    {
+        SymbolEvaluatorChem symbolEvaluator = mSymbolEvaluator;
+        DelayedReactionSolver []delayedReactionSolvers = mDelayedReactionSolvers;
+        double []y = mDynamicSymbolValues;
+        for(int ctr = delayedReactionSolvers.length; --ctr >= 0; )
+        {
+            DelayedReactionSolver solver = delayedReactionSolvers[ctr];
+            double historyTime = solver.getNextHistoryTime(pStartTime);
+            while(historyTime < pEndTime)
+            {
+                mDenseOutput.interpolate(historyTime, y);
+                symbolEvaluator.setTime(historyTime);
+                solver.insertHistoryPoint(symbolEvaluator, historyTime);
+                historyTime = solver.getNextHistoryTime(pStartTime);
+            }
+        }
+        symbolEvaluator.setTime(pEndTime);
+    }
+
+    /**
+     * Returns the maximum step size permitted by the delayed reactions.
+     * Without dense output, the history of a delayed reaction is sampled
+     * once per step, so each step must be no longer than a history bin;
+     * with dense output, each step need only be short compared to the
+     * shortest delay.
+     */
+    protected final double getMaxStepSizeDueToDelayedReactions(SimulatorParameters pSimulatorParams)
+    {
+        if(hasDenseOutput())
+        {
+            return(getMinDelayedReactionDelay() / MIN_NUM_STEPS_PER_DELAY);
+        }
+        int numHistoryBins = pSimulatorParams.getNumHistoryBins().intValue();
+        return(getMinDelayedReactionDelay() / ((double) numHistoryBins));
+    }
+
+    // adds the interpolated values of the requested symbols, for each results time-point up to pCurTime
+    private int addInterpolatedSymbolValues(double pCurTime,
+                                            int pLastTimeIndex,
+                                            Symbol []pRequestedSymbols,
+                                            double []pTimeValues,
+                                            Object []pRetSymbolValues) throws DataNotFoundException
+    {
+        double []y = mDynamicSymbolValues;
+        double []ydense = mRKScratchPad.ydense;
+        int numVars = y.length;
+        System.arraycopy(y, 0, ydense, 0, numVars);
+        int numTimePoints = pTimeValues.length;
+        int timeCtr = pLastTimeIndex;
+        while(timeCtr < numTimePoints && pTimeValues[timeCtr] <= pCurTime)
+        {
+            double timeValue = pTimeValues[timeCtr];
+            mDenseOutput.interpolate(timeValue, y);
+            timeCtr = addRequestedSymbolValues(timeValue,
+                                               timeCtr,
+                                               pRequestedSymbols,
+                                               pTimeValues,
+                                               pRetSymbolValues);
+        }
+        System.arraycopy(ydense, 0, y, 0, numVars);
+        return(timeCtr);
+    }
+
 
     protected final void rk4step(double pTimeStepSize,
                                  double []pNewDynamicSymbolValues) throws DataNotFoundException
@@ -103,7 +462,6 @@ public abstract class SimulatorDeterministicBase extends Simulator
 
         double []y = mDynamicSymbolValues;
         double []ysav = mRKScratchPad.ysav;
-        double []yscratch = mRKScratchPad.yscratch;
 
         double halfStep = pTimeStepSize / 2.0;
         double timePlusHalfStep = time + halfStep;
@@ -111,7 +469,7 @@ public abstract class SimulatorDeterministicBase extends Simulator
         // save a copy of the initial y values
         System.arraycopy(y, 0, ysav, 0, numVars);
 
-        computeDerivative(yscratch, k1);
+        computeDerivative(k1);
 ;
         DoubleVector.scalarMultiply(k1, halfStep, k1);
         // now, k1 contains  h * f'(t, y)/2.0
@@ -123,7 +481,7 @@ public abstract class SimulatorDeterministicBase extends Simulator
         mSymbolEvaluator.setTime(timePlusHalfStep);
 
         double []k2 = mRKScratchPad.k2;
-        computeDerivative(yscratch, k2);
+        computeDerivative(k2);
 
         DoubleVector.scalarMultiply(k2, halfStep, k2);
 
@@ -131,7 +489,7 @@ public abstract class SimulatorDeterministicBase extends Simulator
         // y now contains "y + k2"
 
         double []k3 = mRKScratchPad.k3;
-        computeDerivative(yscratch, k3);
+        computeDerivative(k3);
 
         DoubleVector.scalarMultiply(k3, pTimeStepSize, k3);
         // k3 now contains h * f'(t + h/2, y + k2)
@@ -146,7 +504,7 @@ public abstract class SimulatorDeterministicBase extends Simulator
         double pNextTime = time + pTimeStepSize;
         mSymbolEvaluator.setTime(pNextTime);
 
-        computeDerivative(yscratch, k4);
+        computeDerivative(k4);
 
         DoubleVector.scalarMultiply(k4, pTimeStepSize, k4);
         // k4 now contains h * f'(t + h, y + k3)
@@ -178,6 +536,7 @@ public abstract class SimulatorDeterministicBase extends Simulator
     public void initialize(Model pModel) throws DataNotFoundException
     {
         initializeSimulator(pModel);
+        initializeSwitchingFunctions();
         initializeDynamicSymbolAdjustmentVectors();
         resetScratchpad();
         setInitialized(true);
@@ -186,13 +545,12 @@ public abstract class SimulatorDeterministicBase extends Simulator
     protected final void computeScale(double pTimeStepSize,
                                       double []yscale) throws DataNotFoundException, AccuracyException
     {
-        double []yscratch = mRKScratchPad.yscratch;
         double []dydt = mRKScratchPad.dydt;
         int numDynamicSymbols = mDynamicSymbolValues.length;
         double dydtn = 0.0;
         double yn = 0.0;
 
-        computeDerivative(yscratch, dydt);
+        computeDerivative(dydt);
 
         double scale;
         boolean gotNonzero = false;
@@ -234,8 +592,9 @@ public abstract class SimulatorDeterministicBase extends Simulator
 
         rk4step(halfStepSize, y1);
         
-        double []ysav = mRKScratchPad.ysav;
-        System.arraycopy(mDynamicSymbolValues, 0, ysav, 0, numDynamicSymbols);
+        // rk4step() uses ysav as its own scratch array, so the starting values are saved separately
+        double []ystart = mRKScratchPad.ystart;
+        System.arraycopy(mDynamicSymbolValues, 0, ystart, 0, numDynamicSymbols);
         System.arraycopy(y1, 0, mDynamicSymbolValues, 0, numDynamicSymbols);
         
         mSymbolEvaluator.setTime(timePlusHalfStep);
@@ -244,7 +603,7 @@ public abstract class SimulatorDeterministicBase extends Simulator
 
         rk4step(halfStepSize, y2);
 
-        System.arraycopy(ysav, 0, mDynamicSymbolValues, 0, numDynamicSymbols);
+        System.arraycopy(ystart, 0, mDynamicSymbolValues, 0, numDynamicSymbols);
         mSymbolEvaluator.setTime(time);
 
         double aggregateRelativeError = 0.0;
@@ -276,6 +635,339 @@ public abstract class SimulatorDeterministicBase extends Simulator
         pRetAggregateAbsoluteError.setValue(aggregateAbsoluteError);
     }
 
+    class SpeciesDependencyGetter implements Expression.IVisitor
+    {
+        private HashMap mLocalSymbolsMap;
+        private TreeSet mSpeciesIndices;
+        private HashSet mVisitedSymbolNames;
+        private boolean mDependsOnTime;
+
+        public SpeciesDependencyGetter(TreeSet pSpeciesIndices)
+        {
+            mSpeciesIndices = pSpeciesIndices;
+            mVisitedSymbolNames = new HashSet();
+        }
+
+        public void addDependencies(Expression pExpression, HashMap pLocalSymbolsMap)
+        {
+            mVisitedSymbolNames.clear();
+            mLocalSymbolsMap = pLocalSymbolsMap;
+            pExpression.visit(this);
+        }
+
+        public void visit(Symbol pSymbol)
+        {
+            String symbolName = pSymbol.getName();
+            Symbol indexedSymbol = null;
+            if(null != mLocalSymbolsMap)
+            {
+                indexedSymbol = (Symbol) mLocalSymbolsMap.get(symbolName);
+            }
+            boolean isLocal = (null != indexedSymbol);
+            if(! isLocal)
+            {
+                indexedSymbol = (Symbol) mSymbolMap.get(symbolName);
+            }
+            if(null == indexedSymbol)
+            {
+                // a reserved symbol such as the time
+                if(symbolName.equals(ReservedSymbolMapperChemCommandLanguage.SYMBOL_TIME))
+                {
+                    mDependsOnTime = true;
+                }
+                return;
+            }
+            if(mDynamicSymbolValues == indexedSymbol.getDoubleArray())
+            {
+                mSpeciesIndices.add(new Integer(indexedSymbol.getArrayIndex()));
+            }
+            else if(null != indexedSymbol.getValueArray())
+            {
+                Value value = indexedSymbol.getValueArray()[indexedSymbol.getArrayIndex()];
+                if(null != value && value.isExpression() && mVisitedSymbolNames.add(symbolName))
+                {
+                    HashMap localSymbolsMap = mLocalSymbolsMap;
+                    if(! isLocal)
+                    {
+                        mLocalSymbolsMap = null;
+                    }
+                    value.getExpressionValue().visit(this);
+                    mLocalSymbolsMap = localSymbolsMap;
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes (symbolically) the partial derivatives of each reaction
+     * rate with respect to the species on which it depends, and the
+     * sparsity pattern of the Jacobian and of the iteration matrix
+     * <code>I - c*J</code>, for use by the implicit integrators.  The
+     * rate of a delayed reaction depends on the history of its reactant,
+     * rather than on the current species values, so it contributes nothing
+     * to the Jacobian; instead, its dependence on the history makes the
+     * rates depend explicitly on the time (see {@link #ratesDependOnTime()}).
+     */
+    protected final void initializeJacobian() throws DataNotFoundException
+    {
+        SymbolEvaluatorChem symbolEvaluator = mSymbolEvaluator;
+        int numSpecies = mDynamicSymbols.length;
+        int numReactions = mReactions.length;
+        Expression []a = Simulator.getReactionRateExpressions(mReactions);
+
+        int []vRowPointers = mDynamicSymbolAdjustmentMatrix.getRowPointers();
+        int []vColumnIndices = mDynamicSymbolAdjustmentMatrix.getColumnIndices();
+        double []vValues = mDynamicSymbolAdjustmentMatrix.getValues();
+
+        ArrayList partialReactions = new ArrayList();
+        ArrayList partialSpecies = new ArrayList();
+        ArrayList partialExpressions = new ArrayList();
+        ArrayList partialValues = new ArrayList();
+        ArrayList partialNumeric = new ArrayList();
+
+        TreeSet speciesIndices = new TreeSet();
+        SpeciesDependencyGetter dependencyGetter = new SpeciesDependencyGetter(speciesIndices);
+
+        for(int j = 0; j < numReactions; ++j)
+        {
+            if(vRowPointers[j] == vRowPointers[j + 1])
+            {
+                // the reaction does not change any dynamic species
+                continue;
+            }
+            if(null != mReactionsDelayedReactionAssociations && null != mReactionsDelayedReactionAssociations[j])
+            {
+                continue;
+            }
+            speciesIndices.clear();
+            dependencyGetter.addDependencies(a[j], mReactionsLocalParamSymbolsMaps[j]);
+            Iterator speciesIter = speciesIndices.iterator();
+            while(speciesIter.hasNext())
+            {
+                int i = ((Integer) speciesIter.next()).intValue();
+                Expression deriv = null;
+                try
+                {
+                    deriv = computeRatePartialDerivativeExpression(j, a[j], mDynamicSymbols[i], symbolEvaluator);
+                }
+                catch(IllegalArgumentException e)
+                {
+                    // the rate contains a function (such as theta()) that has no symbolic derivative
+                    deriv = null;
+                }
+                if(null == deriv)
+                {
+                    partialExpressions.add(null);
+                    partialValues.add(new Double(0.0));
+                    partialNumeric.add(Boolean.TRUE);
+                }
+                else if(deriv.isSimpleNumber())
+                {
+                    double derivValue = deriv.getSimpleNumberValue();
+                    if(0.0 == derivValue)
+                    {
+                        continue;
+                    }
+                    partialExpressions.add(null);
+                    partialValues.add(new Double(derivValue));
+                    partialNumeric.add(Boolean.FALSE);
+                }
+                else
+                {
+                    symbolEvaluator.linkSymbols(deriv, mReactionsLocalParamSymbolsMaps[j]);
+                    partialExpressions.add(deriv);
+                    partialValues.add(new Double(0.0));
+                    partialNumeric.add(Boolean.FALSE);
+                }
+                partialReactions.add(new Integer(j));
+                partialSpecies.add(new Integer(i));
+            }
+        }
+
+        int numPartials = partialReactions.size();
+        mPartialReactions = new int[numPartials];
+        mPartialSpecies = new int[numPartials];
+        mPartialExpressions = new PostfixExpression[numPartials];
+        mPartialValues = new double[numPartials];
+        mPartialNumeric = new boolean[numPartials];
+
+        // the partial derivative of reaction j with respect to species ip contributes
+        // to the Jacobian element (i, ip) for each species i changed by reaction j
+        HashSet []rowPatterns = new HashSet[numSpecies];
+        for(int i = 0; i < numSpecies; ++i)
+        {
+            rowPatterns[i] = new HashSet();
+            rowPatterns[i].add(new Integer(i));
+        }
+        int numContributions = 0;
+        for(int k = 0; k < numPartials; ++k)
+        {
+            Expression partialExpression = (Expression) partialExpressions.get(k);
+            if(null != partialExpression)
+            {
+                mPartialExpressions[k] = new PostfixExpression(partialExpression);
+            }
+            mPartialValues[k] = ((Double) partialValues.get(k)).doubleValue();
+            mPartialNumeric[k] = ((Boolean) partialNumeric.get(k)).booleanValue();
+            int j = ((Integer) partialReactions.get(k)).intValue();
+            Integer ip = (Integer) partialSpecies.get(k);
+            mPartialReactions[k] = j;
+            mPartialSpecies[k] = ip.intValue();
+            for(int kp = vRowPointers[j]; kp < vRowPointers[j + 1]; ++kp)
+            {
+                rowPatterns[vColumnIndices[kp]].add(ip);
+                ++numContributions;
+            }
+        }
+
+        int []rowPointers = new int[numSpecies + 1];
+        for(int i = 0; i < numSpecies; ++i)
+        {
+            rowPointers[i + 1] = rowPointers[i] + rowPatterns[i].size();
+        }
+        int []columnIndices = new int[rowPointers[numSpecies]];
+        for(int i = 0; i < numSpecies; ++i)
+        {
+            Iterator columnIter = rowPatterns[i].iterator();
+            int pos = rowPointers[i];
+            while(columnIter.hasNext())
+            {
+                columnIndices[pos++] = ((Integer) columnIter.next()).intValue();
+            }
+            Arrays.sort(columnIndices, rowPointers[i], rowPointers[i + 1]);
+        }
+        SparseMatrix iterationMatrix = new SparseMatrix(numSpecies, rowPointers, columnIndices, new double[columnIndices.length]);
+        mIterationMatrix = iterationMatrix;
+        mJacobianValues = new double[columnIndices.length];
+        mIterationMatrixDiagonalPositions = new int[numSpecies];
+        for(int i = 0; i < numSpecies; ++i)
+        {
+            mIterationMatrixDiagonalPositions[i] = iterationMatrix.getPosition(i, i);
+        }
+
+        mContributionPartials = new int[numContributions];
+        mContributionPositions = new int[numContributions];
+        mContributionStoichiometries = new double[numContributions];
+        int contributionCtr = 0;
+        for(int k = 0; k < numPartials; ++k)
+        {
+            int j = ((Integer) partialReactions.get(k)).intValue();
+            int ip = ((Integer) partialSpecies.get(k)).intValue();
+            for(int kp = vRowPointers[j]; kp < vRowPointers[j + 1]; ++kp)
+            {
+                mContributionPartials[contributionCtr] = k;
+                mContributionPositions[contributionCtr] = iterationMatrix.getPosition(vColumnIndices[kp], ip);
+                mContributionStoichiometries[contributionCtr] = vValues[kp];
+                ++contributionCtr;
+            }
+        }
+
+        mIterationMatrixDecomposition = new SparseLUDecomposition(iterationMatrix);
+        mIterationMatrixCurrent = false;
+        // the rate of a delayed reaction is a function of the time, through the reactant history
+        mRatesDependOnTime = dependencyGetter.mDependsOnTime || (null != mDelayedReactionSolvers);
+    }
+
+    /**
+     * Evaluates the Jacobian, for the species values and time currently
+     * in the symbol evaluator.
+     */
+    protected final void computeJacobian() throws DataNotFoundException
+    {
+        SymbolEvaluatorChem symbolEvaluator = mSymbolEvaluator;
+        PostfixExpression []partialExpressions = mPartialExpressions;
+        double []partialValues = mPartialValues;
+        boolean []partialNumeric = mPartialNumeric;
+        double []y = mDynamicSymbolValues;
+        for(int k = partialExpressions.length; --k >= 0; )
+        {
+            PostfixExpression partialExpression = partialExpressions[k];
+            if(null != partialExpression)
+            {
+                partialValues[k] = partialExpression.computeValue(symbolEvaluator);
+            }
+            else if(partialNumeric[k])
+            {
+                int j = mPartialReactions[k];
+                int i = mPartialSpecies[k];
+                double value = y[i];
+                double rate = computeReactionRate(j);
+                double delta = NUMERIC_PARTIAL_DERIVATIVE_STEP * Math.max(Math.abs(value), 1.0);
+                y[i] = value + delta;
+                partialValues[k] = (computeReactionRate(j) - rate) / delta;
+                y[i] = value;
+            }
+        }
+
+        double []jacobianValues = mJacobianValues;
+        int []contributionPartials = mContributionPartials;
+        int []contributionPositions = mContributionPositions;
+        double []contributionStoichiometries = mContributionStoichiometries;
+        DoubleVector.zeroElements(jacobianValues);
+        for(int c = contributionPartials.length; --c >= 0; )
+        {
+            jacobianValues[contributionPositions[c]] += contributionStoichiometries[c] * partialValues[contributionPartials[c]];
+        }
+
+        mIterationMatrixCurrent = false;
+    }
+
+    /**
+     * Returns true if the iteration matrix <code>I - pCoefficient*J</code>
+     * has been factored, for the current Jacobian.
+     */
+    protected final boolean isIterationMatrixCurrent(double pCoefficient)
+    {
+        return(mIterationMatrixCurrent && pCoefficient == mIterationMatrixCoefficient);
+    }
+
+    /**
+     * Forms and factors the iteration matrix <code>I - pCoefficient*J</code>,
+     * from the most recently computed Jacobian, unless it is already
+     * current.  Returns false if the matrix is singular.
+     */
+    protected final boolean factorIterationMatrix(double pCoefficient)
+    {
+        if(isIterationMatrixCurrent(pCoefficient))
+        {
+            return(true);
+        }
+        double []iterationMatrixValues = mIterationMatrix.getValues();
+        double []jacobianValues = mJacobianValues;
+        for(int k = iterationMatrixValues.length; --k >= 0; )
+        {
+            iterationMatrixValues[k] = -pCoefficient * jacobianValues[k];
+        }
+        int []diagonalPositions = mIterationMatrixDiagonalPositions;
+        for(int i = diagonalPositions.length; --i >= 0; )
+        {
+            iterationMatrixValues[diagonalPositions[i]] += 1.0;
+        }
+        mIterationMatrixCoefficient = pCoefficient;
+        mIterationMatrixCurrent = mIterationMatrixDecomposition.factor(iterationMatrixValues);
+        return(mIterationMatrixCurrent);
+    }
+
+    /**
+     * Solves <code>(I - c*J) x = b</code>, using the most recent
+     * factorization of the iteration matrix.  On entry <code>pVector</code>
+     * contains <code>b</code>; on exit, it contains <code>x</code>.
+     */
+    protected final void solveIterationMatrix(double []pVector)
+    {
+        mIterationMatrixDecomposition.solve(pVector);
+    }
+
+    /**
+     * Returns true if any reaction rate depends explicitly on the time
+     * (including, through the reactant history, the rate of any delayed
+     * reaction); only valid after {@link #initializeJacobian()}.
+     */
+    protected final boolean ratesDependOnTime()
+    {
+        return(mRatesDependOnTime);
+    }
+
     protected abstract void setupErrorTolerances(SimulatorParameters pSimulatorParams,
                                                  RKScratchPad pRKScratchPad);
     
@@ -298,6 +990,8 @@ public abstract class SimulatorDeterministicBase extends Simulator
             resizeDelayedReactionSolvers(numHistoryBins);
         }
 
+        prepareCompiledReactionRates(pSimulatorParameters);
+
         double []retTimeValues = new double[pNumResultsTimePoints];
         Object []retSymbolValues = new Object[pNumResultsTimePoints];
 
@@ -335,7 +1029,6 @@ public abstract class SimulatorDeterministicBase extends Simulator
         Reaction []reactions = mReactions;
         double []dynamicSymbolValues = mDynamicSymbolValues;        
         int numDynamicSymbolValues = dynamicSymbolValues.length;
-        Object []dynamicSymbolAdjustmentVectors = mDynamicSymbolAdjustmentVectors;
 
         Value []nonDynamicSymbolValues = mNonDynamicSymbolValues;
 
@@ -345,6 +1038,14 @@ public abstract class SimulatorDeterministicBase extends Simulator
 
         prepareForSimulation(time);
 
+        SwitchingFunctions switchingFunctions = mSwitchingFunctions;
+        if(null != switchingFunctions)
+        {
+            switchingFunctions.updateModes(symbolEvaluator);
+            mNumImmediateEvents = 0;
+            mStepSizeBeforeEvent = 0.0;
+        }
+
         // set "last" values for dynamic symbols to be same as initial values
         double []newSimulationSymbolValues = new double[numDynamicSymbolValues];
         System.arraycopy(dynamicSymbolValues, 0, newSimulationSymbolValues, 0, numDynamicSymbolValues);
@@ -378,25 +1079,48 @@ public abstract class SimulatorDeterministicBase extends Simulator
 
         long currentTimeMilliseconds = 0;
         double fractionComplete = 0.0;
+        boolean denseOutput = hasDenseOutput();
 
         while(pNumResultsTimePoints - timeCtr > 0)
         {
+            double lastTime = time;
             time = iterate(newSimulationSymbolValues);
 
+            if(null != switchingFunctions)
+            {
+                time = handleDiscontinuities(lastTime, time, newSimulationSymbolValues);
+            }
+
             ++(scratchPad.numIterations);
 
             if(time > timesArray[timeCtr])
             {
-                timeCtr = addRequestedSymbolValues(time,
-                                                   timeCtr,
-                                                   requestedSymbols,
-                                                   timesArray,
-                                                   retSymbolValues);
+                if(denseOutput)
+                {
+                    timeCtr = addInterpolatedSymbolValues(time,
+                                                          timeCtr,
+                                                          requestedSymbols,
+                                                          timesArray,
+                                                          retSymbolValues);
+                }
+                else
+                {
+                    timeCtr = addRequestedSymbolValues(time,
+                                                       timeCtr,
+                                                       requestedSymbols,
+                                                       timesArray,
+                                                       retSymbolValues);
+                }
+            }
+
+            if(null != delayedReactionSolvers && denseOutput)
+            {
+                addInterpolatedHistoryPoints(lastTime, time);
             }
 
             System.arraycopy(newSimulationSymbolValues, 0, dynamicSymbolValues, 0, numDynamicSymbolValues);
 
-            if(null != delayedReactionSolvers)
+            if(null != delayedReactionSolvers && ! denseOutput)
             {
                 // update delayed reaction solvers
                 for(int ctr = numDelayedReactions; --ctr >= 0; )
@@ -452,14 +1176,10 @@ public abstract class SimulatorDeterministicBase extends Simulator
             double []finalSpeciesFluctuations = null;
             if(estimateFinalSpeciesFluctuations)
             {
-                if(mUseExpressionValueCaching)
-                {
-                    clearExpressionValueCaches();
-                }
                 computeReactionProbabilities();
                 double []allFinalSpeciesFluctuations = SteadyStateAnalyzer.estimateSpeciesFluctuations(reactions,
                                                                                                        mDynamicSymbols,
-                                                                                                       mDynamicSymbolAdjustmentVectors,
+                                                                                                       mDynamicSymbolAdjustmentMatrix,
                                                                                                        mReactionProbabilities,
                                                                                                        symbolEvaluator);
                 if(null != allFinalSpeciesFluctuations)
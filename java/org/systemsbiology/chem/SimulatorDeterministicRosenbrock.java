@@ -0,0 +1,393 @@
+package org.systemsbiology.chem;
+/*
+ * Copyright (C) 2003 by Institute for Systems Biology,
+ * Seattle, Washington, USA.  All rights reserved.
+ *
+ * This source code is distributed under the GNU Lesser
+ * General Public License, the text of which is available at:
+ *   http://www.gnu.org/copyleft/lesser.html
+ */
+
+import org.systemsbiology.math.*;
+import org.systemsbiology.util.*;
+
+/**
+ * Simulates the dynamics of a set of coupled chemical reactions
+ * described by {@link Reaction} objects using a linearly implicit
+ * (Rosenbrock) integrator with adaptive step-size control, for
+ * moderately stiff systems.  The method is the four-stage,
+ * third-order, L-stable and stiffly accurate method "RODAS3",
+ * with an embedded second-order method for estimating the error.
+ * See:  A. Sandu <em>et al.</em>, "Benchmarking stiff ODE solvers
+ * for atmospheric chemistry problems II:  Rosenbrock solvers",
+ * <em>Atmos. Environ.</em> <b>31</b>, 3459 (1997).
+ * Each step requires one evaluation of the Jacobian (from the
+ * partial derivatives of the reaction rate expressions, which are
+ * computed symbolically when the model is initialized), one sparse
+ * LU factorization of the matrix <code>I - h*gamma*J</code>, and
+ * three evaluations of the derivative; no nonlinear iteration is
+ * needed.  The method is not a W-method, so it keeps its order only
+ * if the Jacobian and the partial derivative of the rates with respect
+ * to the time are accurate; the latter (which includes the dependence
+ * of the rates of delayed reactions on the reactant history) is
+ * approximated by a finite difference.  The solution within each step is approximated by
+ * cubic Hermite interpolation, so the results time-points do not
+ * constrain the step size.
+ *
+ * @author Stephen Ramsey
+ */
+public final class SimulatorDeterministicRosenbrock extends SimulatorDeterministicBase implements IAliasableClass, ISimulator, IDenseOutputSimulator
+{
+    public static final String CLASS_ALIAS = "ODE-RODAS3-stiff";
+
+    private static final double DOUBLE_EPSILON = 2.220446049250313e-16;
+    private static final double SAFETY = 0.9;
+    private static final double MIN_STEP_SIZE_FACTOR = 0.2;
+    private static final double MAX_STEP_SIZE_FACTOR = 5.0;
+    private static final int MAXSTEPS = 100;
+
+    // the coefficients of RODAS3, in the form of Hairer and Wanner (with stage variables
+    // U_i = h * sum_j gamma_ij k_j); the coefficients that are zero are omitted
+    private static final double GAMMA = 0.5;
+    private static final double A31 = 2.0;
+    private static final double A41 = 2.0;
+    private static final double A43 = 1.0;
+    private static final double C21 = 4.0;
+    private static final double C31 = 1.0;
+    private static final double C32 = -1.0;
+    private static final double C41 = 1.0;
+    private static final double C42 = -1.0;
+    private static final double C43 = -8.0/3.0;
+    private static final double GAMMA1 = 0.5;
+    private static final double GAMMA2 = 1.5;
+
+    // the derivative at the start of the step, and (after a step is taken) at its end
+    private double []mDerivative;
+    private double []mNewDerivative;
+    private boolean mHaveDerivative;
+    private double []mTimeDerivative;
+    private double []mStage1;
+    private double []mStage2;
+    private double []mStage3;
+    private double []mStage4;
+    private double []mSavedValues;
+
+    // dense output over the last step taken
+    private double []mDenseStartValues;
+    private double []mDenseEndValues;
+    private double []mDenseStartDerivative;
+    private double []mDenseEndDerivative;
+    private double mDenseStartTime;
+    private double mDenseStepSize;
+
+    public void initialize(Model pModel) throws DataNotFoundException
+    {
+        super.initialize(pModel);
+        initializeJacobian();
+
+        int numSpecies = mDynamicSymbolValues.length;
+        mDerivative = new double[numSpecies];
+        mNewDerivative = new double[numSpecies];
+        mTimeDerivative = new double[numSpecies];
+        mStage1 = new double[numSpecies];
+        mStage2 = new double[numSpecies];
+        mStage3 = new double[numSpecies];
+        mStage4 = new double[numSpecies];
+        mSavedValues = new double[numSpecies];
+        mDenseStartValues = new double[numSpecies];
+        mDenseEndValues = new double[numSpecies];
+        mDenseStartDerivative = new double[numSpecies];
+        mDenseEndDerivative = new double[numSpecies];
+    }
+
+    // approximates the partial derivative of the derivative with respect to the time, by a finite difference
+    private void computeTimeDerivative(double pTime, double pStepSize) throws DataNotFoundException
+    {
+        double []timeDerivative = mTimeDerivative;
+        if(! ratesDependOnTime())
+        {
+            DoubleVector.zeroElements(timeDerivative);
+            return;
+        }
+        double delta = Math.sqrt(DOUBLE_EPSILON) * Math.max(Math.abs(pTime), pStepSize);
+        mSymbolEvaluator.setTime(pTime + delta);
+        computeDerivative(timeDerivative);
+        mSymbolEvaluator.setTime(pTime);
+        double []derivative = mDerivative;
+        for(int i = timeDerivative.length; --i >= 0; )
+        {
+            timeDerivative[i] = (timeDerivative[i] - derivative[i]) / delta;
+        }
+    }
+
+    /*
+     * Computes the stages of a step of size pStepSize from the current species values
+     * and time, and stores the new species values in pNewValues.  Returns the ratio of
+     * the estimated error to the allowed error, or a negative number if the iteration
+     * matrix is singular.
+     */
+    private double step(double pTime, double pStepSize, double []pNewValues) throws DataNotFoundException
+    {
+        double stepSize = pStepSize;
+        if(! factorIterationMatrix(stepSize * GAMMA))
+        {
+            return(-1.0);
+        }
+
+        double []y = mDynamicSymbolValues;
+        double []savedValues = mSavedValues;
+        double []derivative = mDerivative;
+        double []timeDerivative = mTimeDerivative;
+        double []stageDerivative = mNewDerivative;
+        double []stage1 = mStage1;
+        double []stage2 = mStage2;
+        double []stage3 = mStage3;
+        double []stage4 = mStage4;
+        int numSpecies = y.length;
+        double hGamma = stepSize * GAMMA;
+        double inverseStepSize = 1.0 / stepSize;
+        double newTime = pTime + stepSize;
+
+        System.arraycopy(y, 0, savedValues, 0, numSpecies);
+
+        // each stage solves (I - h*gamma*J) U_i = h*gamma*(f(y + sum_j a_ij U_j) + sum_j c_ij U_j / h + gamma_i h f_t);
+        // the first two stages are evaluated at the start of the step, and the last two at its end
+        for(int i = numSpecies; --i >= 0; )
+        {
+            stage1[i] = hGamma * (derivative[i] + GAMMA1 * stepSize * timeDerivative[i]);
+        }
+        solveIterationMatrix(stage1);
+
+        for(int i = numSpecies; --i >= 0; )
+        {
+            stage2[i] = hGamma * (derivative[i] + C21 * inverseStepSize * stage1[i] + GAMMA2 * stepSize * timeDerivative[i]);
+        }
+        solveIterationMatrix(stage2);
+
+        for(int i = numSpecies; --i >= 0; )
+        {
+            y[i] = savedValues[i] + A31 * stage1[i];
+        }
+        mSymbolEvaluator.setTime(newTime);
+        computeDerivative(stageDerivative);
+        for(int i = numSpecies; --i >= 0; )
+        {
+            stage3[i] = hGamma * (stageDerivative[i] + (C31 * stage1[i] + C32 * stage2[i]) * inverseStepSize);
+        }
+        solveIterationMatrix(stage3);
+
+        for(int i = numSpecies; --i >= 0; )
+        {
+            y[i] = savedValues[i] + A41 * stage1[i] + A43 * stage3[i];
+        }
+        computeDerivative(stageDerivative);
+        for(int i = numSpecies; --i >= 0; )
+        {
+            stage4[i] = hGamma * (stageDerivative[i] + (C41 * stage1[i] + C42 * stage2[i] + C43 * stage3[i]) * inverseStepSize);
+        }
+        solveIterationMatrix(stage4);
+
+        System.arraycopy(savedValues, 0, y, 0, numSpecies);
+        mSymbolEvaluator.setTime(pTime);
+
+        RKScratchPad scratchPad = mRKScratchPad;
+        double maxRelativeError = scratchPad.maxRelativeError;
+        double threshold = scratchPad.maxAbsoluteError / maxRelativeError;
+        double error = 0.0;
+        for(int i = numSpecies; --i >= 0; )
+        {
+            double oldValue = savedValues[i];
+            // the method is stiffly accurate:  the new value is the argument of the last stage, plus U_4,
+            // and the difference between the third- and second-order solutions is just U_4
+            double newValue = oldValue + A41 * stage1[i] + A43 * stage3[i] + stage4[i];
+            pNewValues[i] = newValue;
+            double scale = Math.max(Math.max(Math.abs(oldValue), Math.abs(newValue)), threshold);
+            double value = Math.abs(stage4[i]) / scale;
+            if(value > error)
+            {
+                error = value;
+            }
+        }
+
+        return(error / maxRelativeError);
+    }
+
+    protected double iterate(double []pNewDynamicSymbolValues) throws DataNotFoundException, AccuracyException
+    {
+        SymbolEvaluatorChem symbolEvaluator = mSymbolEvaluator;
+        double time = symbolEvaluator.getTime();
+        double []y = mDynamicSymbolValues;
+        int numSpecies = y.length;
+
+        if(! mHaveDerivative)
+        {
+            computeDerivative(mDerivative);
+            mHaveDerivative = true;
+        }
+
+        RKScratchPad scratchPad = mRKScratchPad;
+        double maxStepSize = scratchPad.maxStepSize;
+        double minStepSize = 16.0 * DOUBLE_EPSILON * Math.abs(time);
+        double stepSize = Math.min(maxStepSize, Math.max(minStepSize, scratchPad.stepSize));
+
+        computeJacobian();
+        computeTimeDerivative(time, stepSize);
+
+        double errRatio = 0.0;
+        int numSteps = 0;
+        while(true)
+        {
+            errRatio = step(time, stepSize, pNewDynamicSymbolValues);
+            if(errRatio >= 0.0 && errRatio <= 1.0)
+            {
+                break;
+            }
+            if(stepSize <= minStepSize)
+            {
+                throw new AccuracyException("unable to meet the error tolerance with the minimum step size, at time: " + time);
+            }
+            if(errRatio < 0.0)
+            {
+                // the iteration matrix is singular
+                stepSize *= MIN_STEP_SIZE_FACTOR;
+            }
+            else
+            {
+                stepSize *= Math.max(MIN_STEP_SIZE_FACTOR, SAFETY * Math.pow(errRatio, -1.0/3.0));
+            }
+            stepSize = Math.max(minStepSize, stepSize);
+
+            ++numSteps;
+            if(numSteps > MAXSTEPS)
+            {
+                throw new AccuracyException("maximum number of time step subdivisions exceeded, at time: " + time);
+            }
+        }
+
+        DoubleVector.zeroNegativeElements(pNewDynamicSymbolValues);
+
+        // the derivative at the end of the step is needed for the dense output,
+        // and is also the derivative at the start of the next step
+        double newTime = time + stepSize;
+        double []newDerivative = mNewDerivative;
+        System.arraycopy(pNewDynamicSymbolValues, 0, y, 0, numSpecies);
+        symbolEvaluator.setTime(newTime);
+        computeDerivative(newDerivative);
+        System.arraycopy(mSavedValues, 0, y, 0, numSpecies);
+
+        System.arraycopy(mSavedValues, 0, mDenseStartValues, 0, numSpecies);
+        System.arraycopy(pNewDynamicSymbolValues, 0, mDenseEndValues, 0, numSpecies);
+        System.arraycopy(mDerivative, 0, mDenseStartDerivative, 0, numSpecies);
+        System.arraycopy(newDerivative, 0, mDenseEndDerivative, 0, numSpecies);
+        mDenseStartTime = time;
+        mDenseStepSize = stepSize;
+
+        mNewDerivative = mDerivative;
+        mDerivative = newDerivative;
+        // the rates of delayed reactions change when the delayed reaction solvers are updated
+        mHaveDerivative = ! hasDelayedReactionSolvers();
+
+        double nextStepSize = stepSize * MAX_STEP_SIZE_FACTOR;
+        if(errRatio > 0.0)
+        {
+            nextStepSize = stepSize * Math.min(MAX_STEP_SIZE_FACTOR, Math.max(MIN_STEP_SIZE_FACTOR, SAFETY * Math.pow(errRatio, -1.0/3.0)));
+        }
+        scratchPad.stepSize = Math.min(nextStepSize, maxStepSize);
+
+        return(newTime);
+    }
+
+    protected void restartIntegration()
+    {
+        // the derivative at the end of the step was computed on the other side of the discontinuity
+        mHaveDerivative = false;
+    }
+
+    public void interpolate(double pTime, double []pValues)
+    {
+        double stepSize = mDenseStepSize;
+        double theta = (pTime - mDenseStartTime) / stepSize;
+        double thetaMinusOne = theta - 1.0;
+        double []startValues = mDenseStartValues;
+        double []endValues = mDenseEndValues;
+        double []startDerivative = mDenseStartDerivative;
+        double []endDerivative = mDenseEndDerivative;
+        for(int i = pValues.length; --i >= 0; )
+        {
+            double startValue = startValues[i];
+            double endValue = endValues[i];
+            double value = startValue + theta * (endValue - startValue) +
+                theta * thetaMinusOne * ((1.0 - 2.0 * theta) * (endValue - startValue) +
+                                         stepSize * (thetaMinusOne * startDerivative[i] + theta * endDerivative[i]));
+            pValues[i] = (value > 0.0) ? value : 0.0;
+        }
+    }
+
+    protected void setupErrorTolerances(SimulatorParameters pSimulatorParams,
+                                        RKScratchPad pRKScratchPad)
+    {
+        Double maxRelativeErrorObj = pSimulatorParams.getMaxAllowedRelativeError();
+        if(null != maxRelativeErrorObj)
+        {
+            pRKScratchPad.maxRelativeError = maxRelativeErrorObj.doubleValue();
+        }
+        else
+        {
+            throw new IllegalArgumentException("max fractional error must be specified");
+        }
+
+        Double maxAbsoluteErrorObj = pSimulatorParams.getMaxAllowedAbsoluteError();
+        if(null != maxAbsoluteErrorObj)
+        {
+            pRKScratchPad.maxAbsoluteError = maxAbsoluteErrorObj.doubleValue();
+        }
+        else
+        {
+            throw new IllegalArgumentException("max absolute error must be specified");
+        }
+    }
+
+    protected void setupImpl(double pDeltaTime,
+                             int pNumResultsTimePoints,
+                             SimulatorParameters pSimulatorParams,
+                             RKScratchPad pRKScratchPad)
+    {
+        // the results time-points are interpolated, so they do not constrain the step size
+        double maxStepSize = pDeltaTime;
+
+        if(hasDelayedReactionSolvers())
+        {
+            double maxStepSizeDueToDelayedReactions = getMaxStepSizeDueToDelayedReactions(pSimulatorParams);
+            if(maxStepSize > maxStepSizeDueToDelayedReactions)
+            {
+                maxStepSize = maxStepSizeDueToDelayedReactions;
+            }
+        }
+
+        pRKScratchPad.maxStepSize = maxStepSize;
+
+        // the derivative at the start of the first step has not yet been computed
+        mHaveDerivative = false;
+    }
+
+    public void checkSimulationParametersImpl(SimulatorParameters pSimulatorParameters,
+                                              int pNumResultsTimePoints)
+    {
+        if(null == pSimulatorParameters.getMaxAllowedAbsoluteError())
+        {
+            throw new IllegalArgumentException("missing max allowed absolute error");
+        }
+        if(null == pSimulatorParameters.getMaxAllowedRelativeError())
+        {
+            throw new IllegalArgumentException("missing max allowed relative error");
+        }
+        checkSimulationParametersForDeterministicSimulator(pSimulatorParameters,
+                                                           pNumResultsTimePoints,
+                                                           hasDenseOutput());
+    }
+
+    public String getAlias()
+    {
+        return(CLASS_ALIAS);
+    }
+}
@@ -15,10 +15,15 @@ import org.systemsbiology.util.*;
  * Simulates the dynamics of a set of coupled chemical reactions
  * described by {@link Reaction} objects using the Runge-Kutta
  * algorithm (fifth order with adaptive step-size control).
+ * The solution within each step is approximated by a quartic
+ * polynomial that matches the values and derivatives at both ends
+ * of the step, and the value at the midpoint of the step (which is
+ * computed anyway by the step-doubling error estimate), so the
+ * results time-points do not constrain the step size.
  *
  * @author Stephen Ramsey
  */
-public final class SimulatorDeterministicRungeKuttaAdaptive extends SimulatorDeterministicBase implements IAliasableClass, ISimulator
+public final class SimulatorDeterministicRungeKuttaAdaptive extends SimulatorDeterministicBase implements IAliasableClass, ISimulator, IDenseOutputSimulator
 {
     public static final String CLASS_ALIAS = "ODE-RK5-adaptive";
 
@@ -28,6 +33,23 @@ public final class SimulatorDeterministicRungeKuttaAdaptive extends SimulatorDet
     private static final double ERRCON = 6.0e-4;
     private static final int MAXSTEPS = 100;
 
+    // dense output over the last step taken; the derivative at the start of the step
+    // is in mRKScratchPad.dydt, and the value at its midpoint is in mRKScratchPad.y1
+    private double []mDenseStartValues;
+    private double []mDenseEndValues;
+    private double []mDenseEndDerivative;
+    private boolean mDenseEndDerivativeCurrent;
+    private double mDenseStartTime;
+    private double mDenseStepSize;
+
+    public void initialize(Model pModel) throws DataNotFoundException
+    {
+        super.initialize(pModel);
+        int numSpecies = mDynamicSymbolValues.length;
+        mDenseStartValues = new double[numSpecies];
+        mDenseEndValues = new double[numSpecies];
+        mDenseEndDerivative = new double[numSpecies];
+    }
 
     protected double iterate(double []pNewDynamicSymbolValues) throws DataNotFoundException, AccuracyException
     {
@@ -114,7 +136,15 @@ public final class SimulatorDeterministicRungeKuttaAdaptive extends SimulatorDet
             }
         }
         while(true);
-        
+
+        int numSpecies = pNewDynamicSymbolValues.length;
+        System.arraycopy(mDynamicSymbolValues, 0, mDenseStartValues, 0, numSpecies);
+        System.arraycopy(pNewDynamicSymbolValues, 0, mDenseEndValues, 0, numSpecies);
+        mDenseStartTime = time;
+        mDenseStepSize = stepSize;
+        // the derivative at the end of the step is computed only if needed
+        mDenseEndDerivativeCurrent = false;
+
         mSymbolEvaluator.setTime(time + stepSize);
 
         double nextStepSize = 0.0;
@@ -137,20 +167,54 @@ public final class SimulatorDeterministicRungeKuttaAdaptive extends SimulatorDet
         return(nextStepSize);
     }
 
+    public void interpolate(double pTime, double []pValues) throws DataNotFoundException
+    {
+        double stepSize = mDenseStepSize;
+        double []startValues = mDenseStartValues;
+        double []endValues = mDenseEndValues;
+        double []endDerivative = mDenseEndDerivative;
+        if(! mDenseEndDerivativeCurrent)
+        {
+            SymbolEvaluatorChem symbolEvaluator = mSymbolEvaluator;
+            double saveTime = symbolEvaluator.getTime();
+            System.arraycopy(endValues, 0, mDynamicSymbolValues, 0, endValues.length);
+            symbolEvaluator.setTime(mDenseStartTime + stepSize);
+            computeDerivative(endDerivative);
+            symbolEvaluator.setTime(saveTime);
+            mDenseEndDerivativeCurrent = true;
+        }
+        double []startDerivative = mRKScratchPad.dydt;
+        double []midValues = mRKScratchPad.y1;
+
+        double theta = (pTime - mDenseStartTime) / stepSize;
+        double thetaMinusOne = theta - 1.0;
+        // weight of the quartic correction, that vanishes (with its derivative) at both ends of the step
+        double bubble = theta * theta * thetaMinusOne * thetaMinusOne;
+        for(int i = pValues.length; --i >= 0; )
+        {
+            double startValue = startValues[i];
+            double endValue = endValues[i];
+            double difference = endValue - startValue;
+            double hermiteValue = startValue + theta * difference +
+                theta * thetaMinusOne * ((1.0 - 2.0 * theta) * difference +
+                                         stepSize * (thetaMinusOne * startDerivative[i] + theta * endDerivative[i]));
+            double hermiteMidValue = 0.5 * (startValue + endValue) + 0.125 * stepSize * (startDerivative[i] - endDerivative[i]);
+            double value = hermiteValue + 16.0 * bubble * (midValues[i] - hermiteMidValue);
+            pValues[i] = (value > 0.0) ? value : 0.0;
+        }
+    }
+
     protected void setupImpl(double pDeltaTime,
                              int pNumResultsTimePoints,
                              SimulatorParameters pSimulatorParams,
                              RKScratchPad pRKScratchPad)
     {
-        // let the maximum step-size be constrained only by the number of results
-        // time-points requested 
-        double maxStepSize = pDeltaTime / ((double) pNumResultsTimePoints);
+        // the results time-points are interpolated, so they do not constrain the step size
+        double maxStepSize = pDeltaTime;
 
         if(hasDelayedReactionSolvers())
         {
-            int numHistoryBins = pSimulatorParams.getNumHistoryBins().intValue();
-
-            double maxStepSizeDueToDelayedReactions = getMinDelayedReactionDelay()/((double) numHistoryBins);
+            double maxStepSizeDueToDelayedReactions = getMaxStepSizeDueToDelayedReactions(pSimulatorParams);
             if(maxStepSize > maxStepSizeDueToDelayedReactions)
             {
                 maxStepSize = maxStepSizeDueToDelayedReactions;
@@ -172,7 +236,8 @@ public final class SimulatorDeterministicRungeKuttaAdaptive extends SimulatorDet
             throw new IllegalArgumentException("missing max allowed relative error");
         }        
         checkSimulationParametersForDeterministicSimulator(pSimulatorParameters,
-                pNumResultsTimePoints);
+                pNumResultsTimePoints,
+                hasDenseOutput());
     }
     
     public String getAlias()
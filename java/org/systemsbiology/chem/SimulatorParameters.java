@@ -16,6 +16,11 @@ public class SimulatorParameters
     private Double mStepSizeFraction;
     private Integer mNumHistoryBins;
     private Boolean mComputeFluctuations;
+    private Integer mNumThreads;
+    private Integer mNumLanes;
+    private double []mEnsembleQuantiles;
+    private Long mRandomNumberSeed;
+    private Boolean mCompileExpressions;
 
     public String toString()
     {
@@ -27,6 +32,27 @@ public class SimulatorParameters
         sb.append("stepSizeFraction: " + mStepSizeFraction + "\n");
         sb.append("numHistoryBins: " + mNumHistoryBins + "\n");
         sb.append("computeFluctuations: " + mComputeFluctuations + "\n");
+        sb.append("numThreads: " + mNumThreads + "\n");
+        sb.append("numLanes: " + mNumLanes + "\n");
+        sb.append("ensembleQuantiles: ");
+        if(null != mEnsembleQuantiles)
+        {
+            for(int ctr = 0; ctr < mEnsembleQuantiles.length; ++ctr)
+            {
+                if(ctr > 0)
+                {
+                    sb.append(", ");
+                }
+                sb.append(mEnsembleQuantiles[ctr]);
+            }
+        }
+        else
+        {
+            sb.append("null");
+        }
+        sb.append("\n");
+        sb.append("randomNumberSeed: " + mRandomNumberSeed + "\n");
+        sb.append("compileExpressions: " + mCompileExpressions + "\n");
 
         return(sb.toString());
     }
@@ -38,6 +64,28 @@ public class SimulatorParameters
         mComputeFluctuations = null;
         mNumHistoryBins = null;
         mStepSizeFraction = null;
+        mNumThreads = null;
+        mNumLanes = null;
+        mEnsembleQuantiles = null;
+        mRandomNumberSeed = null;
+        mCompileExpressions = null;
+    }
+
+    public Object clone()
+    {
+        SimulatorParameters sp = new SimulatorParameters();
+        sp.mEnsembleSize = mEnsembleSize;
+        sp.mMaxAllowedRelativeError = mMaxAllowedRelativeError;
+        sp.mMaxAllowedAbsoluteError = mMaxAllowedAbsoluteError;
+        sp.mStepSizeFraction = mStepSizeFraction;
+        sp.mNumHistoryBins = mNumHistoryBins;
+        sp.mComputeFluctuations = mComputeFluctuations;
+        sp.mNumThreads = mNumThreads;
+        sp.mNumLanes = mNumLanes;
+        sp.mEnsembleQuantiles = mEnsembleQuantiles;
+        sp.mRandomNumberSeed = mRandomNumberSeed;
+        sp.mCompileExpressions = mCompileExpressions;
+        return(sp);
     }
 
     public void setStepSizeFraction(Double pStepSizeFraction)
@@ -90,6 +138,48 @@ public class SimulatorParameters
         return(mEnsembleSize);
     }
 
+    /**
+     * Sets the number of worker threads among which the
+     * realizations of an ensemble are to be divided.  This
+     * parameter is only used by the stochastic simulators.
+     */
+    public void setNumThreads(Integer pNumThreads)
+    {
+        mNumThreads = pNumThreads;
+    }
+
+    public void setNumThreads(int pNumThreads)
+    {
+        mNumThreads = new Integer(pNumThreads);
+    }
+
+    public Integer getNumThreads()
+    {
+        return(mNumThreads);
+    }
+
+    /**
+     * Sets the maximum number of realizations of an ensemble that
+     * are to be simulated in lockstep, with the reaction rates of
+     * all of the realizations evaluated in a single batch.  This
+     * parameter is only used by the stochastic simulators that
+     * support lockstep ensembles.
+     */
+    public void setNumLanes(Integer pNumLanes)
+    {
+        mNumLanes = pNumLanes;
+    }
+
+    public void setNumLanes(int pNumLanes)
+    {
+        mNumLanes = new Integer(pNumLanes);
+    }
+
+    public Integer getNumLanes()
+    {
+        return(mNumLanes);
+    }
+
 
     public void setMaxAllowedRelativeError(Double pMaxAllowedRelativeError)
     {
@@ -120,4 +210,72 @@ public class SimulatorParameters
     {
         return(mMaxAllowedAbsoluteError);
     }
+
+    /**
+     * Sets the probabilities (each in the open interval (0,1)) of the
+     * quantiles of the ensemble distribution of each symbol value, that
+     * are to be estimated at each time point.  This parameter is only
+     * used by the stochastic simulators; it may be null, if no quantiles
+     * are to be estimated.
+     */
+    public void setEnsembleQuantiles(double []pEnsembleQuantiles)
+    {
+        mEnsembleQuantiles = pEnsembleQuantiles;
+    }
+
+    public double []getEnsembleQuantiles()
+    {
+        return(mEnsembleQuantiles);
+    }
+
+    /**
+     * Sets the seed of the random number generator.  Two
+     * simulations of the same model with the same parameters
+     * and the same seed will produce identical results.  For a
+     * multithreaded ensemble, each thread gets its own random number
+     * stream, split off from the seeded stream, and the statistics of
+     * the threads are combined in a fixed order; the results are thus
+     * identical for the same number of threads, but they change (within
+     * the sampling error of the ensemble) if the number of threads is
+     * changed.  This parameter is only used by the stochastic simulators;
+     * if it is null, a seed based on the system clock is used.
+     */
+    public void setRandomNumberSeed(Long pRandomNumberSeed)
+    {
+        mRandomNumberSeed = pRandomNumberSeed;
+    }
+
+    public void setRandomNumberSeed(long pRandomNumberSeed)
+    {
+        mRandomNumberSeed = new Long(pRandomNumberSeed);
+    }
+
+    public Long getRandomNumberSeed()
+    {
+        return(mRandomNumberSeed);
+    }
+
+    /**
+     * Sets whether the rate expressions of the reactions are to be
+     * compiled into JVM bytecode (using the {@link org.systemsbiology.math.ExpressionCompiler})
+     * at the start of each simulation, rather than interpreted.  Compiling
+     * the expressions takes a few milliseconds per reaction, but makes
+     * each evaluation of a rate expression several times faster; it
+     * does not change the results of the simulation.  If this parameter
+     * is null, the expressions are interpreted.
+     */
+    public void setCompileExpressions(Boolean pCompileExpressions)
+    {
+        mCompileExpressions = pCompileExpressions;
+    }
+
+    public void setCompileExpressions(boolean pCompileExpressions)
+    {
+        mCompileExpressions = new Boolean(pCompileExpressions);
+    }
+
+    public Boolean getCompileExpressions()
+    {
+        return(mCompileExpressions);
+    }
 }
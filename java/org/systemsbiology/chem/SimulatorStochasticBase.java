@@ -8,10 +8,10 @@ package org.systemsbiology.chem;
  *   http://www.gnu.org/copyleft/lesser.html
  */
 
+import java.util.*;
 import org.systemsbiology.util.*;
 import org.systemsbiology.math.*;
-import edu.cornell.lassp.houle.RngPack.*;
-import cern.jet.random.*;
+import org.systemsbiology.data.EventCalendar;
 
 /**
  * Base class for all stochastic simulators.
@@ -23,36 +23,121 @@ public abstract class SimulatorStochasticBase extends Simulator
     public static final int DEFAULT_ENSEMBLE_SIZE = 1;
     public static final boolean DEFAULT_FLAG_GET_FINAL_SYMBOL_FLUCTUATIONS = false;
     public static final int DEFAULT_NUM_HISTORY_BINS = 400;
+    public static final int DEFAULT_NUM_THREADS = 1;
+    public static final int DEFAULT_NUM_LANES = 1;
 
-    protected RandomElement mRandomNumberGenerator;
-    protected Poisson mPoissonEventGenerator;
+    protected RandomNumberGenerator mRandomNumberGenerator;
     protected DelayedReactionSolver []mDynamicSymbolDelayedReactionAssociations;
+    protected EventCalendar mDelayedReactionCalendar;   // pending delayed reactions, tagged by reaction index
+    protected Model mModel;
+    protected Object []mReactionDependencies;
+    protected Integer []mReactionsRecomputeAfterEachIteration;
+    protected Object []mSpeciesReactionDependencies;
+    protected Object []mReactionsChangedSpeciesIndices;          // Object[] of int[]
+    protected Object []mReactionsChangedSpeciesStoichiometries;  // Object[] of double[]
+    private StreamingStatistics []mEnsembleWorkerStatistics;    // non-null only for the simulator of an ensemble worker
+    private static long sRandomNumberSeedCounter = 0;
+
+    /**
+     * Runs a share of the realizations of an ensemble, on its own thread.
+     * Each worker has its own simulator instance (and thus its own copy 
+     * of the dynamic symbol values, reaction probabilities, and delayed 
+     * reaction solvers), and its own random number stream (split off
+     * from the stream of the parent simulator).  The
+     * symbol values of each completed realization are added to the
+     * worker's own ensemble statistics, which are merged (in the
+     * order of the workers) when all of the workers have finished.
+     */
+    class EnsembleWorker implements Runnable
+    {
+        final int mEnsembleSize;
+        final RandomNumberGenerator mRandomNumberGenerator;
+        final SimulatorParameters mSimulatorParameters;
+        final SimulationController mSimulationController;
+        final SimulationProgressReporter mSimulationProgressReporter;
+        final double mStartTime;
+        final double mEndTime;
+        final int mNumResultsTimePoints;
+        final String []mRequestedSymbolNames;
+        final StreamingStatistics []mEnsembleStatistics;
+        Throwable mException;
+
+        public EnsembleWorker(int pEnsembleSize,
+                              RandomNumberGenerator pRandomNumberGenerator,
+                              SimulatorParameters pSimulatorParameters,
+                              double pStartTime,
+                              double pEndTime,
+                              int pNumResultsTimePoints,
+                              String []pRequestedSymbolNames,
+                              StreamingStatistics []pEnsembleStatistics)
+        {
+            mEnsembleSize = pEnsembleSize;
+            mRandomNumberGenerator = pRandomNumberGenerator;
+            mSimulatorParameters = pSimulatorParameters;
+            mStartTime = pStartTime;
+            mEndTime = pEndTime;
+            mNumResultsTimePoints = pNumResultsTimePoints;
+            mRequestedSymbolNames = pRequestedSymbolNames;
+            mEnsembleStatistics = pEnsembleStatistics;
+            mSimulationController = new SimulationController();
+            mSimulationProgressReporter = new SimulationProgressReporter();
+            mException = null;
+        }
+
+        public void run()
+        {
+            try
+            {
+                SimulatorStochasticBase simulator = (SimulatorStochasticBase) SimulatorStochasticBase.this.getClass().newInstance();
+                ((ISimulator) simulator).initialize(mModel);
+                simulator.setRandomNumberGenerator(mRandomNumberGenerator);
+                simulator.setController(mSimulationController);
+                simulator.setProgressReporter(mSimulationProgressReporter);
+                simulator.setMinNumMillisecondsForUpdate(mMinNumMillisecondsForUpdate);
+                simulator.mEnsembleWorkerStatistics = mEnsembleStatistics;
+                simulator.simulate(mStartTime,
+                                   mEndTime,
+                                   mSimulatorParameters,
+                                   mNumResultsTimePoints,
+                                   mRequestedSymbolNames);
+            }
+            catch(Throwable e)
+            {
+                mException = e;
+            }
+        }
+    }
 
     protected abstract void modifyDefaultSimulatorParameters(SimulatorParameters pSimulatorParameters);
 
-    protected void setRandomNumberGenerator(RandomElement pRandomNumberGenerator)
+    protected void setRandomNumberGenerator(RandomNumberGenerator pRandomNumberGenerator)
     {
         mRandomNumberGenerator = pRandomNumberGenerator;
     }
 
-    protected RandomElement getRandomNumberGenerator()
+    protected RandomNumberGenerator getRandomNumberGenerator()
     {
         return(mRandomNumberGenerator);
     }
 
-    protected static final double getRandomNumberUniformInterval(RandomElement pRandomNumberGenerator)
+    protected static final double getRandomNumberUniformInterval(RandomNumberGenerator pRandomNumberGenerator)
     {
         return( 1.0 - pRandomNumberGenerator.raw() );
     }
 
-    protected void initializeRandomNumberGenerator()
+    /*
+     * Returns a seed based on the clock; the counter ensures that simulators
+     * that are initialized within the same millisecond get different seeds.
+     */
+    private static synchronized long createClockRandomNumberSeed()
     {
-        setRandomNumberGenerator(new Ranmar(System.currentTimeMillis()));
+        ++sRandomNumberSeedCounter;
+        return(System.currentTimeMillis() + sRandomNumberSeedCounter * 0x9e3779b97f4a7c15L);
     }
 
-    protected void initializePoissonEventGenerator()
+    protected void initializeRandomNumberGenerator()
     {
-        mPoissonEventGenerator = new Poisson(1.0, mRandomNumberGenerator);
+        setRandomNumberGenerator(new RandomNumberGeneratorXoroshiro(createClockRandomNumberSeed()));
     }
 
     protected void checkDynamicalSymbolsValues(boolean pSimulationIsRunning, SymbolEvaluatorChem pSymbolEvaluator) throws AccuracyException
@@ -77,25 +162,28 @@ public abstract class SimulatorStochasticBase extends Simulator
         }
     }    
     
-    protected static final int getNextDelayedReactionIndex(DelayedReactionSolver []pDelayedReactionSolvers)
+    /*
+     * Schedules the delayed reactions for pNumFirings molecules that were converted, at time
+     * pTime, to the intermediate species of the delayed reaction solver pSolver.  For a fixed
+     * delay, all of the molecules complete at the same time, so they are scheduled as a single event.
+     */
+    private final void scheduleDelayedReactions(DelayedReactionSolver pSolver, double pTime, long pNumFirings)
     {
-        int numDelayedReactions = pDelayedReactionSolvers.length;
-        int nextReactionSolver = -1;
-        double nextReactionTime = Double.POSITIVE_INFINITY;
-        for(int ctr = numDelayedReactions; --ctr >= 0; )
+        EventCalendar calendar = mDelayedReactionCalendar;
+        double time = pTime;
+        int reactionIndex = pSolver.getReactionIndex();
+        RandomNumberGenerator randomNumberGenerator = mRandomNumberGenerator;
+        if(pSolver.isMultistep())
         {
-            DelayedReactionSolver solver = pDelayedReactionSolvers[ctr];
-            if(solver.canHaveReaction())
+            for(long j = pNumFirings; --j >= 0; )
             {
-                double specReactionTime = solver.peekNextReactionTime();
-                if(specReactionTime < nextReactionTime)
-                {
-                    nextReactionTime = specReactionTime;
-                    nextReactionSolver = ctr;
-                }
+                calendar.add(time + pSolver.chooseDelayTime(randomNumberGenerator), reactionIndex, 1);
             }
         }
-        return(nextReactionSolver);
+        else
+        {
+            calendar.add(time + pSolver.chooseDelayTime(randomNumberGenerator), reactionIndex, pNumFirings);
+        }
     }
 
     protected final void updateSymbolValuesForReaction(int pReactionCtr,
@@ -134,28 +222,50 @@ public abstract class SimulatorStochasticBase extends Simulator
                 {
                     if(null != pDynamicSymbolDelayedReactionAssociations[speciesIndex])
                     {
-                        DelayedReactionSolver solver = pDynamicSymbolDelayedReactionAssociations[speciesIndex];
-
-                        for(long j = pNumberFirings; --j >= 0; )
-                        {
-//                            System.out.println("adding reactant \"" + mDynamicSymbols[speciesIndex].getName() + "\" for delayed reaction: " + mReactions[solver.getReactionIndex()].getName() + "\"");
-                            solver.addReactant(mSymbolEvaluator);
-                        }
+                        scheduleDelayedReactions(pDynamicSymbolDelayedReactionAssociations[speciesIndex],
+                                                 mSymbolEvaluator.getTime(),
+                                                 pNumberFirings);
                     }
                 }
             }
         }
     }
 
-    protected final double chooseDeltaTimeToNextReaction(double pReactionProbability)
+    /**
+     * Schedules the delayed reactions for <code>pNumberFirings</code> firings,
+     * at time <code>pTime</code>, of the reaction <code>pReactionCtr</code>,
+     * without changing the species populations.  This is used by simulators
+     * that apply the population changes of a batch of firings separately
+     * (such as the tau-leap simulators); it does nothing if the reaction
+     * produces no intermediate species of a delayed reaction.
+     */
+    protected final void scheduleDelayedReactionsForReaction(int pReactionCtr,
+                                                             double pTime,
+                                                             long pNumberFirings)
     {
-        double randomNumberUniformInterval = getRandomNumberUniformInterval(mRandomNumberGenerator);
-        double inverseRandomNumberUniformInterval = 1.0 / randomNumberUniformInterval;
-        double logInverseRandomNumberUniformInterval = Math.log(inverseRandomNumberUniformInterval);
-        double timeConstant = 1.0 / pReactionProbability;
+        DelayedReactionSolver []dynamicSymbolDelayedReactionAssociations = mDynamicSymbolDelayedReactionAssociations;
+        if(null == dynamicSymbolDelayedReactionAssociations)
+        {
+            return;
+        }
+        Symbol []speciesArray = (Symbol []) mReactionsProductsSpecies[pReactionCtr];
+        boolean []speciesDynamicFlagArray = (boolean []) mReactionsProductsDynamic[pReactionCtr];
+        for(int ctr = speciesArray.length; --ctr >= 0; )
+        {
+            if(speciesDynamicFlagArray[ctr])
+            {
+                DelayedReactionSolver solver = dynamicSymbolDelayedReactionAssociations[speciesArray[ctr].getArrayIndex()];
+                if(null != solver)
+                {
+                    scheduleDelayedReactions(solver, pTime, pNumberFirings);
+                }
+            }
+        }
+    }
 
-        double deltaTime = timeConstant * logInverseRandomNumberUniformInterval;
-        return(deltaTime);
+    protected final double chooseDeltaTimeToNextReaction(double pReactionProbability)
+    {
+        return(mRandomNumberGenerator.nextExponential() / pReactionProbability);
     }
 
     public boolean isStochasticSimulator()
@@ -169,30 +279,15 @@ public abstract class SimulatorStochasticBase extends Simulator
                                                            SimulatorParameters pSimulatorParameters) throws DataNotFoundException, IllegalArgumentException;
     
 
-    protected static final int getPoissonEvent(Poisson pPoissonEventGenerator,
-                                               double pMean)
+    protected static final long getPoissonEvent(RandomNumberGenerator pRandomNumberGenerator,
+                                                double pMean)
     {
-        boolean gotSuccessfulEvent = false;
-        int retVal = 0;
-        do
-        {
-            try
-            {
-                retVal = pPoissonEventGenerator.nextInt(pMean);
-                gotSuccessfulEvent = true;
-            }
-            catch(ArrayIndexOutOfBoundsException e)
-            {
-                System.err.println("internal bug in cern.jet.random.Poisson tripped; this is being handled");
-            }
-        }
-        while(! gotSuccessfulEvent);
-        return(retVal);
+        return(pRandomNumberGenerator.nextPoisson(pMean));
     }
 
     private static final void integerizeInitialData(double []pDynamicSymbolValues,
                                                     Species []pDynamicSymbols,
-                                                    RandomElement pRandomNumberGenerator)
+                                                    RandomNumberGenerator pRandomNumberGenerator)
     {
         int numSpecies = pDynamicSymbolValues.length;
         double speciesValue = 0.0;
@@ -210,7 +305,7 @@ public abstract class SimulatorStochasticBase extends Simulator
                     initialVal += 1.0;
                 }
                 pDynamicSymbolValues[i] = initialVal;
-//                pDynamicSymbolValues[i] = getPoissonEvent(pPoissonEventGenerator, speciesValue);
+//                pDynamicSymbolValues[i] = getPoissonEvent(pRandomNumberGenerator, speciesValue);
 //                System.out.println("setting initial value for species \"" + pDynamicSymbols[i].getName() + "\" to " + pDynamicSymbolValues[i]);
             }
         }
@@ -229,7 +324,7 @@ public abstract class SimulatorStochasticBase extends Simulator
             throw new InvalidInputException(e.getMessage(), e);
         }
         initializeRandomNumberGenerator();
-        initializePoissonEventGenerator();
+        mModel = pModel;
 
         if(null != mDelayedReactionSolvers)
         {
@@ -251,10 +346,12 @@ public abstract class SimulatorStochasticBase extends Simulator
                 int intermedSpeciesIndex = intermedSpeciesSymbol.getArrayIndex();
                 mDynamicSymbolDelayedReactionAssociations[intermedSpeciesIndex] = solver;
             }
+            mDelayedReactionCalendar = new EventCalendar();
         }
         else
         {
             mDynamicSymbolDelayedReactionAssociations = null;
+            mDelayedReactionCalendar = null;
         }
     }
 
@@ -287,6 +384,364 @@ public abstract class SimulatorStochasticBase extends Simulator
     }
 
    
+    class ExpressionDependencyGetter implements Expression.IVisitor
+    {
+        private Collection mDependentSymbols;
+        public ExpressionDependencyGetter(Collection pDependentSymbols)
+        {
+            setDependentSymbols(pDependentSymbols);
+        }
+        public void setDependentSymbols(Collection pDependentSymbols)
+        {
+            mDependentSymbols = pDependentSymbols;
+        }
+        public Collection getDependentSymbols()
+        {
+            return(mDependentSymbols);
+        }
+        public void visit(Symbol pSymbol)
+        {
+            Symbol indexedSymbol = (Symbol) mSymbolMap.get(pSymbol.getName());
+            if(null != indexedSymbol)
+            {
+                if(null != indexedSymbol.getValueArray())
+                {
+                    Value symbolValue = mNonDynamicSymbolValues[indexedSymbol.getArrayIndex()];
+                    if(symbolValue.isExpression())
+                    {
+                        symbolValue.getExpressionValue().visit(this);
+                    }
+                    else
+                    {
+                        // do nothing, it is a non-important dependence
+                    }
+                }
+                else
+                {
+                    mDependentSymbols.add(pSymbol.getName());
+                }
+            }
+            else
+            {
+                mDependentSymbols.add(pSymbol.getName());
+            }
+        }
+        
+    }
+
+    private void processExpressionDependencies(Collection pDependentSymbolNames,
+                                               HashMap pSpeciesReactions,
+                                               boolean pTimeSymbolAllowed,
+                                               HashSet pReactionsRecomputeAfterEachIteration,
+                                               Integer pReactionIndex)
+    {
+        Iterator dependentSymbolNames = pDependentSymbolNames.iterator();
+        HashSet speciesReactionDependencies = null;
+        while(dependentSymbolNames.hasNext())
+        {
+            String dependentSymbolName = (String) dependentSymbolNames.next();
+            speciesReactionDependencies = (HashSet) pSpeciesReactions.get(dependentSymbolName);
+            if(null != speciesReactionDependencies)
+            {
+                if(! pReactionsRecomputeAfterEachIteration.contains(pReactionIndex))
+                {
+                    speciesReactionDependencies.add(pReactionIndex);
+                }
+            }
+            else
+            {
+                if(pTimeSymbolAllowed && dependentSymbolName.equals(ReservedSymbolMapperChemCommandLanguage.SYMBOL_TIME))
+                {
+                    pReactionsRecomputeAfterEachIteration.add(pReactionIndex);
+                }
+                else
+                {
+                    // do nothing, since the symbol is not dynamical and not an expression, and not "time"
+                }
+            }
+        }        
+    }
+
+    /**
+     * Builds the reaction dependency graph.  For each reaction <code>j</code>,
+     * <code>mReactionDependencies[j]</code> is an array of <code>Integer</code>
+     * indices of the (other) reactions whose rates must be recomputed when
+     * reaction <code>j</code> occurs.  The indices of reactions whose rates
+     * depend on the reserved symbol <code>time</code> are stored in
+     * <code>mReactionsRecomputeAfterEachIteration</code>.  For each dynamic
+     * species <code>i</code>, <code>mSpeciesReactionDependencies[i]</code> is
+     * an array of the indices of the reactions whose rates depend on that species.
+     */
+    protected final void createDependencyGraph(Model pModel) throws DataNotFoundException
+    {
+        Reaction []reactions = mReactions;
+        int numReactions = reactions.length;
+
+        HashSet dependencySet = new HashSet();
+        ExpressionDependencyGetter dependencyGetter = new ExpressionDependencyGetter(dependencySet);
+        HashSet reactionsRecomputeAfterEachIteration = new HashSet();
+
+        // for each species, obtain the set of all reactions that contain the given species
+        // as a reactant
+        String []speciesArray = mDynamicSymbolNames;
+        int numSpecies = speciesArray.length;
+        HashMap speciesReactions = new HashMap();  // create a map between species names and the set of reactions
+                                                   // whose rates depend on this species
+        for(int ctr = 0; ctr < numSpecies; ++ctr)
+        {
+            String speciesName = speciesArray[ctr];
+            speciesReactions.put(speciesName, new HashSet());
+        }
+
+        ReservedSymbolMapper reservedSymbolMapper = mSymbolEvaluator.getReservedSymbolMapper();
+        boolean timeSymbolAllowed = (reservedSymbolMapper != null &&
+                                     (reservedSymbolMapper instanceof ReservedSymbolMapperChemCommandLanguage));
+
+        for(int j = 0; j < numReactions; ++j)
+        {
+            Reaction reaction = reactions[j];
+            Value reactionRate = reaction.getRate();
+            Integer reactionIndex = new Integer(j);
+            if(! reactionRate.isExpression())
+            {
+                Symbol []reactants = (Symbol []) mReactionsReactantsSpecies[j];
+                
+                int numReactants = reactants.length;
+                for(int k = 0; k < numReactants; ++k)
+                {
+                    Symbol reactant = reactants[k];
+                    String reactantName = reactant.getName();
+                    HashSet speciesReactionDependencies = (HashSet) speciesReactions.get(reactantName);
+                    if(null != speciesReactionDependencies)
+                    {
+                        if(! reactionsRecomputeAfterEachIteration.contains(reactionIndex))
+                        {
+                            speciesReactionDependencies.add(reactionIndex);
+                        }
+                    }
+                    else
+                    {
+                        Symbol indexedReactantSymbol = (Symbol) mSymbolMap.get(reactantName);
+                        if(null != indexedReactantSymbol)
+                        {
+                            if(null != indexedReactantSymbol.getValueArray())
+                            {
+                                Value indexedReactantValue = mNonDynamicSymbolValues[indexedReactantSymbol.getArrayIndex()];
+                                if(indexedReactantValue.isExpression())
+                                {
+                                    // need to find out all the other symbols it depends on
+                                    dependencySet.clear();
+                                    indexedReactantValue.getExpressionValue().visit(dependencyGetter);
+                                    processExpressionDependencies(dependencySet,
+                                                                  speciesReactions,
+                                                                  timeSymbolAllowed,
+                                                                  reactionsRecomputeAfterEachIteration,
+                                                                  reactionIndex);
+                                }
+                                else
+                                {
+                                    // do nothing, since the dependent symbol is not dynamical and not an expression
+                                }
+                            }
+                            else
+                            {
+                                throw new IllegalStateException("symbol has not been indexed: " + reactantName + " in reaction: " + reaction);
+                            }
+                        }
+                        else
+                        {
+                            throw new IllegalStateException("unrecognized symbol: " + reactantName + " in reaction: " + reaction.getName());
+                        }
+                    }
+                }
+            }
+            else
+            {
+                // need to find out all the other symbols it depends on
+                dependencySet.clear();
+                reactionRate.getExpressionValue().visit(dependencyGetter);
+                processExpressionDependencies(dependencySet,
+                                              speciesReactions,
+                                              timeSymbolAllowed,
+                                              reactionsRecomputeAfterEachIteration,
+                                              reactionIndex);
+            }
+        }
+
+        Integer []dummyArray = new Integer[0];
+        mReactionsRecomputeAfterEachIteration = (Integer []) reactionsRecomputeAfterEachIteration.toArray(dummyArray);
+
+        HashSet []reactionDependencies = new HashSet[numReactions];
+        for(int j = 0; j < numReactions; ++j)
+        {
+            Reaction reaction = reactions[j];
+            HashSet dependentReactions = new HashSet();
+
+            // go through the list of products for this reaction
+
+            Symbol []productsSpecies = (Symbol []) mReactionsProductsSpecies[j];
+            boolean []productsDynamic = (boolean []) mReactionsProductsDynamic[j];
+            int numProducts = productsSpecies.length;
+            for(int i = 0; i < numProducts; ++i)
+            {
+                if(productsDynamic[i])
+                {
+                    Symbol productSpecies = productsSpecies[i];
+                    String productSpeciesName = productSpecies.getName();
+                    HashSet speciesDependentReactions = (HashSet) speciesReactions.get(productSpeciesName);
+                    if(null != speciesDependentReactions)
+                    {
+                        dependentReactions.addAll(speciesDependentReactions);
+                    }
+
+                }
+            }
+
+            Symbol []reactantsSpecies = (Symbol []) mReactionsReactantsSpecies[j];
+            boolean []reactantsDynamic = (boolean []) mReactionsReactantsDynamic[j];
+
+            int numReactants = reactantsSpecies.length;
+            for(int i = 0; i < numReactants; ++i)
+            {
+                if(reactantsDynamic[i])
+                {
+                    Symbol reactantSpecies = reactantsSpecies[i];
+                    String reactantSpeciesName = reactantSpecies.getName();
+                    HashSet speciesDependentReactions = (HashSet) speciesReactions.get(reactantSpeciesName);
+                    if(null != speciesDependentReactions)
+                    {
+                        dependentReactions.addAll(speciesDependentReactions);
+                    }
+                }
+            }
+
+            reactionDependencies[j] = dependentReactions;
+        }
+
+        mReactionDependencies = new Object[numReactions];
+        for(int ctr = 0; ctr < numReactions; ++ctr)
+        {
+            HashSet dependentReactions = reactionDependencies[ctr];
+            Integer reactionCtr = new Integer(ctr);
+            if(dependentReactions.contains(reactionCtr))
+            {
+                dependentReactions.remove(reactionCtr);
+            }
+            Integer []fakeArray = new Integer[0];
+            mReactionDependencies[ctr] = (Integer []) dependentReactions.toArray(fakeArray);
+        }
+
+        mSpeciesReactionDependencies = new Object[numSpecies];
+        for(int i = 0; i < numSpecies; ++i)
+        {
+            HashSet speciesDependentReactions = (HashSet) speciesReactions.get(speciesArray[i]);
+            Integer []fakeArray = new Integer[0];
+            mSpeciesReactionDependencies[i] = (Integer []) speciesDependentReactions.toArray(fakeArray);
+        }
+    }
+
+    /**
+     * Builds a sparse representation of the net stoichiometry of each
+     * reaction.  For each reaction <code>j</code>,
+     * <code>mReactionsChangedSpeciesIndices[j]</code> is an array of the
+     * indices of the dynamic species whose populations are changed by the
+     * reaction, and <code>mReactionsChangedSpeciesStoichiometries[j]</code>
+     * is an array of the corresponding (nonzero) net changes in population,
+     * for a single occurrence of the reaction.  Species that appear as both
+     * reactant and product with the same stoichiometry are omitted.
+     */
+    protected final void initializeReactionsChangedSpecies() throws DataNotFoundException
+    {
+        int numReactions = mReactions.length;
+        double []netChange = new double[mDynamicSymbolValues.length];
+        Object []reactionsChangedSpeciesIndices = new Object[numReactions];
+        Object []reactionsChangedSpeciesStoichiometries = new Object[numReactions];
+        ArrayList changedSpeciesIndices = new ArrayList();
+
+        for(int j = 0; j < numReactions; ++j)
+        {
+            updateSymbolValuesForReaction(j, netChange, null, 1);
+
+            changedSpeciesIndices.clear();
+            addChangedSpeciesIndices((Symbol []) mReactionsReactantsSpecies[j],
+                                     (boolean []) mReactionsReactantsDynamic[j],
+                                     netChange,
+                                     changedSpeciesIndices);
+            addChangedSpeciesIndices((Symbol []) mReactionsProductsSpecies[j],
+                                     (boolean []) mReactionsProductsDynamic[j],
+                                     netChange,
+                                     changedSpeciesIndices);
+
+            int numChangedSpecies = changedSpeciesIndices.size();
+            int []indices = new int[numChangedSpecies];
+            double []stoichiometries = new double[numChangedSpecies];
+            for(int k = 0; k < numChangedSpecies; ++k)
+            {
+                int i = ((Integer) changedSpeciesIndices.get(k)).intValue();
+                indices[k] = i;
+                stoichiometries[k] = netChange[i];
+            }
+            // restore the scratch vector to zero, touching only the participating species
+            for(int k = 0; k < numChangedSpecies; ++k)
+            {
+                netChange[indices[k]] = 0.0;
+            }
+
+            reactionsChangedSpeciesIndices[j] = indices;
+            reactionsChangedSpeciesStoichiometries[j] = stoichiometries;
+        }
+
+        mReactionsChangedSpeciesIndices = reactionsChangedSpeciesIndices;
+        mReactionsChangedSpeciesStoichiometries = reactionsChangedSpeciesStoichiometries;
+    }
+
+    private static void addChangedSpeciesIndices(Symbol []pSpecies,
+                                                 boolean []pSpeciesDynamic,
+                                                 double []pNetChange,
+                                                 ArrayList pChangedSpeciesIndices)
+    {
+        for(int ctr = 0; ctr < pSpecies.length; ++ctr)
+        {
+            if(pSpeciesDynamic[ctr])
+            {
+                Integer speciesIndex = new Integer(pSpecies[ctr].getArrayIndex());
+                if(0.0 != pNetChange[speciesIndex.intValue()] && ! pChangedSpeciesIndices.contains(speciesIndex))
+                {
+                    pChangedSpeciesIndices.add(speciesIndex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Recomputes the reaction probability density of the reaction with
+     * index <code>pReactionIndex</code>, of all reactions whose rates
+     * depend on the species modified by that reaction (as given by the
+     * reaction dependency graph), and of all reactions whose rates depend
+     * on the reserved symbol <code>time</code>.  Requires that
+     * {@link #createDependencyGraph(Model)} has been called.
+     */
+    protected final void computeDependentReactionProbabilities(int pReactionIndex) throws DataNotFoundException
+    {
+        double []reactionProbabilities = mReactionProbabilities;
+
+        reactionProbabilities[pReactionIndex] = computeReactionRate(pReactionIndex);
+
+        Integer []reactionsRecomputeAfterEachIteration = mReactionsRecomputeAfterEachIteration;
+        for(int j = reactionsRecomputeAfterEachIteration.length; --j >= 0; )
+        {
+            int reactionCtr = reactionsRecomputeAfterEachIteration[j].intValue();
+            reactionProbabilities[reactionCtr] = computeReactionRate(reactionCtr);
+        }
+
+        Integer []dependentReactions = (Integer []) mReactionDependencies[pReactionIndex];
+        for(int ctr = dependentReactions.length; --ctr >= 0; )
+        {
+            int reactionCtr = dependentReactions[ctr].intValue();
+            reactionProbabilities[reactionCtr] = computeReactionRate(reactionCtr);
+        }
+    }
+
     public final SimulationResults simulate(double pStartTime, 
                                             double pEndTime,
                                             SimulatorParameters pSimulatorParameters,
@@ -298,6 +753,53 @@ public abstract class SimulatorStochasticBase extends Simulator
                                   pSimulatorParameters,
                                   pNumResultsTimePoints);
 
+        Long randomNumberSeed = pSimulatorParameters.getRandomNumberSeed();
+        if(null != randomNumberSeed && null == mEnsembleWorkerStatistics)
+        {
+            setRandomNumberGenerator(new RandomNumberGeneratorXoroshiro(randomNumberSeed.longValue()));
+        }
+
+        int numThreads = DEFAULT_NUM_THREADS;
+        Integer numThreadsObj = pSimulatorParameters.getNumThreads();
+        if(null != numThreadsObj)
+        {
+            numThreads = numThreadsObj.intValue();
+        }
+
+        if(numThreads > 1 && pSimulatorParameters.getEnsembleSize().intValue() > 1)
+        {
+            return(simulateEnsembleParallel(pStartTime,
+                                            pEndTime,
+                                            pSimulatorParameters,
+                                            pNumResultsTimePoints,
+                                            pRequestedSymbolNames,
+                                            numThreads));
+        }
+
+        int numLanes = DEFAULT_NUM_LANES;
+        Integer numLanesObj = pSimulatorParameters.getNumLanes();
+        if(null != numLanesObj)
+        {
+            numLanes = numLanesObj.intValue();
+        }
+
+        if(numLanes > 1 && pSimulatorParameters.getEnsembleSize().intValue() > 1 && supportsLockstepEnsemble())
+        {
+            double [][]laneArrays = createLaneArrays();
+            BatchedExpression []batchedReactionRates = createBatchedReactionRates(laneArrays);
+            if(null != batchedReactionRates)
+            {
+                return(simulateEnsembleLockstep(pStartTime,
+                                                pEndTime,
+                                                pSimulatorParameters,
+                                                pNumResultsTimePoints,
+                                                pRequestedSymbolNames,
+                                                numLanes,
+                                                laneArrays,
+                                                batchedReactionRates));
+            }
+        }
+
         // set the number of history bins for the delayed reaction solvers
         int numHistoryBins = pSimulatorParameters.getNumHistoryBins().intValue();
         if(null != mDelayedReactionSolvers)
@@ -305,6 +807,8 @@ public abstract class SimulatorStochasticBase extends Simulator
             resizeDelayedReactionSolvers(numHistoryBins);
         }
 
+        prepareCompiledReactionRates(pSimulatorParameters);
+
         double []retTimeValues = new double[pNumResultsTimePoints];
         Object []retSymbolValues = new Object[pNumResultsTimePoints];
         
@@ -347,8 +851,6 @@ public abstract class SimulatorStochasticBase extends Simulator
 
         Value []nonDynamicSymbolValues = mNonDynamicSymbolValues;
 
-        RandomElement randomNumberGenerator = mRandomNumberGenerator;
-        Poisson poissonEventGenerator = mPoissonEventGenerator;
         
         int ensembleSize = pSimulatorParameters.getEnsembleSize().intValue();
 
@@ -367,18 +869,18 @@ public abstract class SimulatorStochasticBase extends Simulator
 
         int simCtr = ensembleSize;
 
-        Boolean getFinalSymbolFluctuationsObj = pSimulatorParameters.getComputeFluctuations();
+        boolean computeFluctuations = pSimulatorParameters.getComputeFluctuations().booleanValue();
+        if(computeFluctuations && ensembleSize < 2)
+        {
+            throw new IllegalArgumentException("an ensemble size of greater than one is required, in order to compute the final species fluctuations");
+        }
 
-        Object []finalSymbolValues = null;
-        double []finalSymbolValuesElem = null;
-        if(true == getFinalSymbolFluctuationsObj.booleanValue())
+        StreamingStatistics []ensembleStatistics = mEnsembleWorkerStatistics;
+        if(null == ensembleStatistics)
         {
-            if(ensembleSize < 2)
-            {
-                throw new IllegalArgumentException("an ensemble size of greater than one is required, in order to compute the final species fluctuations");
-            }
-            
-            finalSymbolValues = new Object[ensembleSize];
+            ensembleStatistics = createEnsembleStatistics(pNumResultsTimePoints,
+                                                          numRequestedSymbols,
+                                                          pSimulatorParameters.getEnsembleQuantiles());
         }
 
         boolean simulationIsRunning = true;
@@ -388,15 +890,30 @@ public abstract class SimulatorStochasticBase extends Simulator
             // time point index must be re-set to zero
             timePointIndex = 0;
 
+            // the symbol values of each realization are accumulated from zero
+            for(int timePointCtr = pNumResultsTimePoints; --timePointCtr >= 0; )
+            {
+                double []symbolValues = (double []) retSymbolValues[timePointCtr];
+                if(null != symbolValues)
+                {
+                    DoubleVector.zeroElements(symbolValues);
+                }
+            }
+
             time = pStartTime;
 
             prepareForSimulation(pStartTime);
 
+            if(null != mDelayedReactionCalendar)
+            {
+                mDelayedReactionCalendar.clear();
+            }
+
             lastReactionIndex.setValue(NULL_REACTION);
 
             integerizeInitialData(dynamicSymbolValues,
                                   dynamicSymbols,
-                                  randomNumberGenerator);
+                                  mRandomNumberGenerator);
 
             prepareForStochasticSimulation(pStartTime,
                                            pSimulatorParameters);
@@ -454,14 +971,9 @@ public abstract class SimulatorStochasticBase extends Simulator
             }
             else
             {
-                if(null != finalSymbolValues)
+                for(int timePointCtr = pNumResultsTimePoints; --timePointCtr >= 0; )
                 {
-                    finalSymbolValuesElem = new double[numRequestedSymbols];
-                    finalSymbolValues[simCtr] = finalSymbolValuesElem;
-                    for(int i = numRequestedSymbols; --i >= 0; )
-                    {
-                        finalSymbolValuesElem[i] = symbolEvaluator.getValue(requestedSymbols[i]);
-                    }
+                    ensembleStatistics[timePointCtr].addObservations((double []) retSymbolValues[timePointCtr]);
                 }
             }
 
@@ -475,82 +987,745 @@ public abstract class SimulatorStochasticBase extends Simulator
 
         SimulationResults simulationResults = null;
 
-        if(! isCancelled)
+        // when this simulator is an ensemble worker, the results are obtained
+        // by the caller, from the merged ensemble statistics of the workers
+        if(! isCancelled && null == mEnsembleWorkerStatistics)
         {
-            // divide symbol values by ensemble size, to obtain ensemble average
-            for(int timePointCtr = timePointIndex; --timePointCtr >= 0; )
-            {
-                double []symbolValues = (double []) retSymbolValues[timePointCtr];
-                for(int symbolCtr = numRequestedSymbols; --symbolCtr >= 0; )
-                {
-                    symbolValues[symbolCtr] *= ensembleMult;
-                }
-            }
-            
-            double []retFinalSymbolFluctuations = null;
-            if(null != finalSymbolValues)
-            {
-                retFinalSymbolFluctuations = new double[numRequestedSymbols];
-                double []averageFinalSymbolValues = (double []) retSymbolValues[timePointIndex-1];
-                double avg = 0.0;
-                double stddev = 0.0;
-                finalSymbolValuesElem = null;
-                for(int i = 0; i < numRequestedSymbols; ++i)
-                {
-                    avg = averageFinalSymbolValues[i];
-                    stddev = 0.0;
-                    for(int j = 0; j < ensembleSize; ++j)
-                    {
-                        finalSymbolValuesElem = (double []) finalSymbolValues[j];
-                        stddev += Math.pow(avg - finalSymbolValuesElem[i], 2.0);
-                    }
-                    retFinalSymbolFluctuations[i] = Math.sqrt(stddev/((double) (ensembleSize-1)));
-                }
-            }
-            
-            simulationResults = createSimulationResults(pStartTime,
-                                                        pEndTime,
-                                                        pSimulatorParameters,
-                                                        pRequestedSymbolNames,
-                                                        timesArray,
-                                                        retSymbolValues,
-                                                        retFinalSymbolFluctuations);
+            simulationResults = createEnsembleSimulationResults(pStartTime,
+                                                                pEndTime,
+                                                                pSimulatorParameters,
+                                                                pRequestedSymbolNames,
+                                                                timesArray,
+                                                                ensembleStatistics,
+                                                                computeFluctuations);
         }
 
-
-
         return(simulationResults);
     }
 
-    public boolean allowsInterrupt()
+    private static StreamingStatistics []createEnsembleStatistics(int pNumTimePoints,
+                                                                  int pNumRequestedSymbols,
+                                                                  double []pEnsembleQuantiles)
     {
-        return(true);
+        StreamingStatistics []ensembleStatistics = new StreamingStatistics[pNumTimePoints];
+        for(int timePointCtr = 0; timePointCtr < pNumTimePoints; ++timePointCtr)
+        {
+            ensembleStatistics[timePointCtr] = new StreamingStatistics(pNumRequestedSymbols, pEnsembleQuantiles);
+        }
+        return(ensembleStatistics);
     }
 
-    protected void checkSimulationParametersImpl(SimulatorParameters pSimulatorParameters,
-                                                 int pNumResultsTimePoints)
+    /*
+     * Creates the simulation results from the per-time-point ensemble statistics:  the
+     * ensemble average and (for an ensemble of at least two realizations) standard deviation
+     * of each requested symbol, the requested quantiles, and the final symbol fluctuations.
+     */
+    private SimulationResults createEnsembleSimulationResults(double pStartTime,
+                                                              double pEndTime,
+                                                              SimulatorParameters pSimulatorParameters,
+                                                              String []pRequestedSymbolNames,
+                                                              double []pTimesArray,
+                                                              StreamingStatistics []pEnsembleStatistics,
+                                                              boolean pComputeFluctuations)
     {
-        Boolean flagGetFinalSymbolFluctuations = pSimulatorParameters.getComputeFluctuations();
-        if(null == flagGetFinalSymbolFluctuations)
-        {
-            throw new IllegalArgumentException("missing flag for whether to obtain the final symbol fluctuations");
-        }
+        int numTimePoints = pEnsembleStatistics.length;
+        int numRequestedSymbols = pRequestedSymbolNames.length;
+        boolean hasVariance = (pEnsembleStatistics[0].getNumObservations() > 1);
 
-        Integer ensembleSizeObj = pSimulatorParameters.getEnsembleSize();
-        if(null == ensembleSizeObj)
+        Object []retSymbolValues = new Object[numTimePoints];
+        Object []retSymbolStandardDeviations = null;
+        if(hasVariance)
         {
-            throw new IllegalArgumentException("missing ensemble size");
+            retSymbolStandardDeviations = new Object[numTimePoints];
         }
-        int ensembleSize = ensembleSizeObj.intValue();
-        if(ensembleSize <= 0)
+        double []quantileProbabilities = pEnsembleStatistics[0].getQuantileProbabilities();
+        int numQuantiles = quantileProbabilities.length;
+        Object []retSymbolQuantiles = null;
+        if(numQuantiles > 0)
         {
-            throw new IllegalStateException("illegal ensemble size: " + ensembleSize);
+            retSymbolQuantiles = new Object[numQuantiles];
+            for(int k = 0; k < numQuantiles; ++k)
+            {
+                retSymbolQuantiles[k] = new Object[numTimePoints];
+            }
         }
 
-        if(hasDelayedReactionSolvers())
+        for(int timePointCtr = 0; timePointCtr < numTimePoints; ++timePointCtr)
         {
-            // validate the number of requested history bins
-            Integer numHistoryBinsObj = pSimulatorParameters.getNumHistoryBins();
+            StreamingStatistics statistics = pEnsembleStatistics[timePointCtr];
+            double []symbolValues = new double[numRequestedSymbols];
+            for(int i = 0; i < numRequestedSymbols; ++i)
+            {
+                symbolValues[i] = statistics.getMean(i);
+            }
+            retSymbolValues[timePointCtr] = symbolValues;
+
+            if(hasVariance)
+            {
+                double []symbolStandardDeviations = new double[numRequestedSymbols];
+                for(int i = 0; i < numRequestedSymbols; ++i)
+                {
+                    symbolStandardDeviations[i] = statistics.getStandardDeviation(i);
+                }
+                retSymbolStandardDeviations[timePointCtr] = symbolStandardDeviations;
+            }
+
+            for(int k = 0; k < numQuantiles; ++k)
+            {
+                double []symbolQuantiles = new double[numRequestedSymbols];
+                for(int i = 0; i < numRequestedSymbols; ++i)
+                {
+                    symbolQuantiles[i] = statistics.getQuantile(i, k);
+                }
+                ((Object []) retSymbolQuantiles[k])[timePointCtr] = symbolQuantiles;
+            }
+        }
+
+        double []retFinalSymbolFluctuations = null;
+        if(pComputeFluctuations && hasVariance)
+        {
+            retFinalSymbolFluctuations = (double []) retSymbolStandardDeviations[numTimePoints - 1];
+        }
+
+        SimulationResults simulationResults = createSimulationResults(pStartTime,
+                                                                      pEndTime,
+                                                                      pSimulatorParameters,
+                                                                      pRequestedSymbolNames,
+                                                                      pTimesArray,
+                                                                      retSymbolValues,
+                                                                      retFinalSymbolFluctuations);
+        simulationResults.setResultsSymbolStandardDeviations(retSymbolStandardDeviations);
+        if(numQuantiles > 0)
+        {
+            simulationResults.setResultsQuantileProbabilities(quantileProbabilities);
+            simulationResults.setResultsSymbolQuantiles(retSymbolQuantiles);
+        }
+        return(simulationResults);
+    }
+
+    private static final void rethrowEnsembleWorkerException(Throwable pException) throws DataNotFoundException, AccuracyException
+    {
+        if(pException instanceof DataNotFoundException)
+        {
+            throw (DataNotFoundException) pException;
+        }
+        else if(pException instanceof AccuracyException)
+        {
+            throw (AccuracyException) pException;
+        }
+        else if(pException instanceof RuntimeException)
+        {
+            throw (RuntimeException) pException;
+        }
+        else if(pException instanceof Error)
+        {
+            throw (Error) pException;
+        }
+        else
+        {
+            throw new IllegalStateException("ensemble worker failed; the error message is: " + pException.toString());
+        }
+    }
+
+    /**
+     * Propagates a pause or cancellation request from the user's 
+     * {@link SimulationController} to the controllers of the ensemble workers.
+     * Returns true if the simulation has been cancelled.
+     */
+    private static final boolean handleEnsembleWorkersPauseOrCancel(SimulationController pSimulationController,
+                                                                    EnsembleWorker []pWorkers)
+    {
+        int numWorkers = pWorkers.length;
+        boolean isStopped = pSimulationController.getStopped();
+        if(isStopped)
+        {
+            for(int k = numWorkers; --k >= 0; )
+            {
+                pWorkers[k].mSimulationController.setStopped(true);
+            }
+        }
+        pSimulationController.handlePauseOrCancel();
+        boolean isCancelled = pSimulationController.getCancelled();
+        for(int k = numWorkers; --k >= 0; )
+        {
+            SimulationController workerController = pWorkers[k].mSimulationController;
+            if(isCancelled)
+            {
+                workerController.setCancelled(true);
+            }
+            else if(isStopped)
+            {
+                workerController.setStopped(false);
+            }
+        }
+        return(isCancelled);
+    }
+
+    private static final void updateEnsembleWorkersProgress(SimulationProgressReporter pSimulationProgressReporter,
+                                                            EnsembleWorker []pWorkers,
+                                                            int pEnsembleSize,
+                                                            boolean pSimulationFinished)
+    {
+        int numWorkers = pWorkers.length;
+        double fractionComplete = 0.0;
+        long iterationCounter = 0;
+        for(int k = numWorkers; --k >= 0; )
+        {
+            EnsembleWorker worker = pWorkers[k];
+            SimulationProgressReporter workerReporter = worker.mSimulationProgressReporter;
+            fractionComplete += workerReporter.getFractionComplete() * ((double) worker.mEnsembleSize);
+            iterationCounter += workerReporter.getIterationCounter();
+        }
+        fractionComplete /= (double) pEnsembleSize;
+        pSimulationProgressReporter.updateProgressStatistics(pSimulationFinished, fractionComplete, iterationCounter);
+    }
+
+    /**
+     * Divides the ensemble among <code>pNumThreads</code> workers, each
+     * of which runs its share of the realizations on a separate simulator
+     * instance with an independently seeded random number generator.  Each
+     * worker adds its realizations to its own per-time-point ensemble
+     * statistics; when all of the workers have finished, the statistics
+     * are merged in the order of the workers (not the order in which they
+     * finished), so that a seeded ensemble gives the same results in
+     * every run with the same number of threads.
+     */
+    private SimulationResults simulateEnsembleParallel(double pStartTime, 
+                                                       double pEndTime,
+                                                       SimulatorParameters pSimulatorParameters,
+                                                       int pNumResultsTimePoints,
+                                                       String []pRequestedSymbolNames,
+                                                       int pNumThreads) throws DataNotFoundException, AccuracyException
+    {
+        int ensembleSize = pSimulatorParameters.getEnsembleSize().intValue();
+        int numThreads = Math.min(pNumThreads, ensembleSize);
+        boolean computeFluctuations = pSimulatorParameters.getComputeFluctuations().booleanValue();
+
+        SimulationProgressReporter simulationProgressReporter = mSimulationProgressReporter;
+        SimulationController simulationController = mSimulationController;
+
+        if(null != simulationProgressReporter)
+        {
+            simulationProgressReporter.updateProgressStatistics(false, 0.0, 0);
+        }
+
+        EnsembleWorker []workers = new EnsembleWorker[numThreads];
+        Thread []threads = new Thread[numThreads];
+        for(int k = 0; k < numThreads; ++k)
+        {
+            int workerEnsembleSize = ensembleSize / numThreads;
+            if(k < ensembleSize % numThreads)
+            {
+                ++workerEnsembleSize;
+            }
+
+            // each worker gets its own random number stream, split off from this one
+            RandomNumberGenerator workerRandomNumberGenerator = mRandomNumberGenerator.split();
+
+            SimulatorParameters workerSimulatorParameters = (SimulatorParameters) pSimulatorParameters.clone();
+            workerSimulatorParameters.setEnsembleSize(workerEnsembleSize);
+            workerSimulatorParameters.setNumThreads(1);
+            workerSimulatorParameters.setComputeFluctuations(false);
+            workerSimulatorParameters.setRandomNumberSeed(null);
+
+            EnsembleWorker worker = new EnsembleWorker(workerEnsembleSize,
+                                                       workerRandomNumberGenerator,
+                                                       workerSimulatorParameters,
+                                                       pStartTime,
+                                                       pEndTime,
+                                                       pNumResultsTimePoints,
+                                                       pRequestedSymbolNames,
+                                                       createEnsembleStatistics(pNumResultsTimePoints,
+                                                                                pRequestedSymbolNames.length,
+                                                                                pSimulatorParameters.getEnsembleQuantiles()));
+            workers[k] = worker;
+            Thread thread = new Thread(worker);
+            thread.setDaemon(true);
+            threads[k] = thread;
+        }
+
+        for(int k = 0; k < numThreads; ++k)
+        {
+            threads[k].start();
+        }
+
+        boolean isCancelled = false;
+        long minNumMillisecondsForUpdate = mMinNumMillisecondsForUpdate;
+        for(int k = 0; k < numThreads; ++k)
+        {
+            Thread thread = threads[k];
+            while(thread.isAlive())
+            {
+                try
+                {
+                    thread.join(minNumMillisecondsForUpdate);
+                }
+                catch(InterruptedException e)
+                {
+                    // do nothing
+                }
+
+                if(null != simulationController && ! isCancelled)
+                {
+                    isCancelled = handleEnsembleWorkersPauseOrCancel(simulationController, workers);
+                }
+
+                if(null != simulationProgressReporter)
+                {
+                    updateEnsembleWorkersProgress(simulationProgressReporter, workers, ensembleSize, false);
+                }
+            }
+        }
+
+        if(null != simulationProgressReporter)
+        {
+            updateEnsembleWorkersProgress(simulationProgressReporter, workers, ensembleSize, true);
+        }
+
+        for(int k = 0; k < numThreads; ++k)
+        {
+            Throwable exception = workers[k].mException;
+            if(null != exception)
+            {
+                rethrowEnsembleWorkerException(exception);
+            }
+        }
+
+        SimulationResults simulationResults = null;
+
+        if(! isCancelled)
+        {
+            StreamingStatistics []ensembleStatistics = workers[0].mEnsembleStatistics;
+            for(int k = 1; k < numThreads; ++k)
+            {
+                StreamingStatistics []workerStatistics = workers[k].mEnsembleStatistics;
+                for(int timePointCtr = 0; timePointCtr < pNumResultsTimePoints; ++timePointCtr)
+                {
+                    ensembleStatistics[timePointCtr].merge(workerStatistics[timePointCtr]);
+                }
+            }
+
+            simulationResults = createEnsembleSimulationResults(pStartTime,
+                                                                pEndTime,
+                                                                pSimulatorParameters,
+                                                                pRequestedSymbolNames,
+                                                                createTimesArray(pStartTime, pEndTime, pNumResultsTimePoints),
+                                                                ensembleStatistics,
+                                                                computeFluctuations);
+        }
+
+        return(simulationResults);
+    }
+
+    /**
+     * Returns true if this simulator can simulate the realizations of an
+     * ensemble in lockstep (see {@link SimulatorParameters#setNumLanes(Integer)}).
+     * The lockstep ensemble uses the Gillespie direct method, so it should
+     * only be enabled by exact stochastic simulators.
+     */
+    protected boolean supportsLockstepEnsemble()
+    {
+        return(false);
+    }
+
+    /*
+     * Returns the arrays whose elements have a separate value in each realization
+     * of a lockstep ensemble:  the species values, followed (if the model has a
+     * reserved symbol mapper) by the reserved symbol values, which include the time.
+     */
+    private double [][]createLaneArrays()
+    {
+        Symbol timeSymbol = new Symbol(ReservedSymbolMapperChemCommandLanguage.SYMBOL_TIME);
+        try
+        {
+            mSymbolEvaluator.linkSymbol(timeSymbol, null);
+        }
+        catch(DataNotFoundException e)
+        {
+            return(new double[][] { mDynamicSymbolValues });
+        }
+        double []reservedSymbolValues = timeSymbol.getDoubleArray();
+        if(null == reservedSymbolValues || mDynamicSymbolValues == reservedSymbolValues)
+        {
+            return(new double[][] { mDynamicSymbolValues });
+        }
+        return(new double[][] { mDynamicSymbolValues, reservedSymbolValues });
+    }
+
+    /*
+     * Returns the batched form of each reaction rate expression (or null, for a
+     * reaction with a numeric rate constant), or null if the reaction rates of this
+     * model cannot be evaluated in lockstep.
+     */
+    private BatchedExpression []createBatchedReactionRates(double [][]pLaneArrays)
+    {
+        if(null != mDelayedReactionSolvers || null != mSymbolEvaluator.getSymbolEvaluationPostProcessor())
+        {
+            return(null);
+        }
+        int numReactions = mReactions.length;
+        BatchedExpression []batchedReactionRates = new BatchedExpression[numReactions];
+        try
+        {
+            for(int j = 0; j < numReactions; ++j)
+            {
+                if(mReactionRates[j].isExpression())
+                {
+                    batchedReactionRates[j] = new BatchedExpression(mReactionRates[j].getExpressionValue(), pLaneArrays);
+                }
+            }
+        }
+        catch(IllegalStateException e)
+        {
+            return(null);
+        }
+        return(batchedReactionRates);
+    }
+
+    /*
+     * Computes the reaction probability densities of the first pNumLanes realizations of
+     * a lockstep ensemble; row j of pRetLaneReactionProbabilities is for reaction j.
+     */
+    private void computeLaneReactionProbabilities(BatchedExpression []pBatchedReactionRates,
+                                                  double [][]pLaneValues,
+                                                  int pNumLanes,
+                                                  double [][]pRetLaneReactionProbabilities) throws DataNotFoundException
+    {
+        SymbolEvaluatorChem symbolEvaluator = mSymbolEvaluator;
+        for(int j = pBatchedReactionRates.length; --j >= 0; )
+        {
+            double []laneReactionProbabilities = pRetLaneReactionProbabilities[j];
+            BatchedExpression batchedReactionRate = pBatchedReactionRates[j];
+            if(null != batchedReactionRate)
+            {
+                batchedReactionRate.computeValues(pLaneValues, pNumLanes, symbolEvaluator, laneReactionProbabilities);
+            }
+            else
+            {
+                double rate = mReactionRates[j].getValue();
+                for(int i = 0; i < pNumLanes; ++i)
+                {
+                    laneReactionProbabilities[i] = rate;
+                }
+                Symbol []reactantsSpecies = (Symbol []) mReactionsReactantsSpecies[j];
+                int []reactantsStoichiometries = (int []) mReactionsReactantsStoichiometries[j];
+                boolean []reactantsDynamic = (boolean []) mReactionsReactantsDynamic[j];
+                for(int reactantCtr = reactantsSpecies.length; --reactantCtr >= 0; )
+                {
+                    int stoichiometry = reactantsStoichiometries[reactantCtr];
+                    if(reactantsDynamic[reactantCtr])
+                    {
+                        double []laneSpeciesValues = pLaneValues[reactantsSpecies[reactantCtr].getArrayIndex()];
+                        for(int i = 0; i < pNumLanes; ++i)
+                        {
+                            laneReactionProbabilities[i] *= computeRateFactorForSpecies(laneSpeciesValues[i], stoichiometry, true, true);
+                        }
+                    }
+                    else
+                    {
+                        double factor = computeRateFactorForSpecies(symbolEvaluator.getValue(reactantsSpecies[reactantCtr]), stoichiometry, false, true);
+                        for(int i = 0; i < pNumLanes; ++i)
+                        {
+                            laneReactionProbabilities[i] *= factor;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+     * Starts a new realization in lane pLane of a lockstep ensemble.
+     */
+    private void startLane(int pLane,
+                           double pStartTime,
+                           double [][]pLaneArrays,
+                           double [][]pLaneValues,
+                           double []pLaneTimes,
+                           int []pLaneTimePointIndices,
+                           Object [][]pLaneSymbolValues)
+    {
+        prepareForSimulation(pStartTime);
+        integerizeInitialData(mDynamicSymbolValues,
+                              mDynamicSymbols,
+                              mRandomNumberGenerator);
+        int row = 0;
+        for(int k = 0; k < pLaneArrays.length; ++k)
+        {
+            double []laneArray = pLaneArrays[k];
+            for(int ctr = 0; ctr < laneArray.length; ++ctr)
+            {
+                pLaneValues[row++][pLane] = laneArray[ctr];
+            }
+        }
+        pLaneTimes[pLane] = pStartTime;
+        pLaneTimePointIndices[pLane] = 0;
+        Object []symbolValues = pLaneSymbolValues[pLane];
+        for(int timePointCtr = symbolValues.length; --timePointCtr >= 0; )
+        {
+            if(null != symbolValues[timePointCtr])
+            {
+                DoubleVector.zeroElements((double []) symbolValues[timePointCtr]);
+            }
+        }
+    }
+
+    /**
+     * Simulates the realizations of the ensemble in lockstep, using the
+     * Gillespie direct method.  Up to <code>pNumLanes</code> realizations
+     * (the "lanes") are advanced together; in each step, the reaction
+     * probability densities of all of the lanes are computed in a single
+     * batch, using the {@link BatchedExpression} form of each reaction rate,
+     * and then each lane carries out one reaction event.  When a realization
+     * is complete, its symbol values are added to the ensemble statistics,
+     * and its lane is given the next realization of the ensemble.  Every
+     * reaction rate is recomputed in each step, so this is most effective
+     * for models with a small number of reactions.
+     */
+    private SimulationResults simulateEnsembleLockstep(double pStartTime, 
+                                                       double pEndTime,
+                                                       SimulatorParameters pSimulatorParameters,
+                                                       int pNumResultsTimePoints,
+                                                       String []pRequestedSymbolNames,
+                                                       int pNumLanes,
+                                                       double [][]pLaneArrays,
+                                                       BatchedExpression []pBatchedReactionRates) throws DataNotFoundException, AccuracyException
+    {
+        int ensembleSize = pSimulatorParameters.getEnsembleSize().intValue();
+        boolean computeFluctuations = pSimulatorParameters.getComputeFluctuations().booleanValue();
+
+        SimulationProgressReporter simulationProgressReporter = mSimulationProgressReporter;
+        SimulationController simulationController = mSimulationController;
+        boolean doUpdates = (null != simulationController || null != simulationProgressReporter);
+        long minNumMillisecondsForUpdate = mMinNumMillisecondsForUpdate;
+        long timeOfLastUpdateMilliseconds = System.currentTimeMillis();
+        long iterationCounter = 0;
+
+        if(null != simulationProgressReporter)
+        {
+            simulationProgressReporter.updateProgressStatistics(false, 0.0, iterationCounter);
+        }
+
+        double []timesArray = createTimesArray(pStartTime, 
+                                               pEndTime,
+                                               pNumResultsTimePoints);
+
+        Symbol []requestedSymbols = createRequestedSymbolArray(mSymbolMap,
+                                                               pRequestedSymbolNames);
+
+        StreamingStatistics []ensembleStatistics = mEnsembleWorkerStatistics;
+        if(null == ensembleStatistics)
+        {
+            ensembleStatistics = createEnsembleStatistics(pNumResultsTimePoints,
+                                                          requestedSymbols.length,
+                                                          pSimulatorParameters.getEnsembleQuantiles());
+        }
+
+        SymbolEvaluatorChem symbolEvaluator = mSymbolEvaluator;
+        double []dynamicSymbolValues = mDynamicSymbolValues;
+        int numDynamicSymbols = dynamicSymbolValues.length;
+        double []reactionProbabilities = mReactionProbabilities;
+        int numReactions = reactionProbabilities.length;
+        if(null == mReactionsChangedSpeciesIndices)
+        {
+            initializeReactionsChangedSpecies();
+        }
+        Object []reactionsChangedSpeciesIndices = mReactionsChangedSpeciesIndices;
+        Object []reactionsChangedSpeciesStoichiometries = mReactionsChangedSpeciesStoichiometries;
+
+        int numRows = 0;
+        for(int k = 0; k < pLaneArrays.length; ++k)
+        {
+            numRows += pLaneArrays[k].length;
+        }
+        // the time is element 0 of the reserved symbol values (see SymbolEvaluatorChem)
+        int timeRow = (pLaneArrays.length > 1 ? numDynamicSymbols : -1);
+
+        int numLanes = Math.min(pNumLanes, ensembleSize);
+        double [][]laneValues = new double[numRows][numLanes];
+        double [][]laneReactionProbabilities = new double[numReactions][numLanes];
+        double []laneTimes = new double[numLanes];
+        int []laneTimePointIndices = new int[numLanes];
+        Object [][]laneSymbolValues = new Object[numLanes][pNumResultsTimePoints];
+
+        for(int i = 0; i < numLanes; ++i)
+        {
+            startLane(i, pStartTime, pLaneArrays, laneValues, laneTimes, laneTimePointIndices, laneSymbolValues);
+        }
+        int numActiveLanes = numLanes;
+        int numStartedRealizations = numLanes;
+        int numCompletedRealizations = 0;
+        boolean isCancelled = false;
+
+        while(numActiveLanes > 0)
+        {
+            computeLaneReactionProbabilities(pBatchedReactionRates, laneValues, numActiveLanes, laneReactionProbabilities);
+
+            for(int i = numActiveLanes; --i >= 0; )
+            {
+                double aggregateReactionProbability = 0.0;
+                for(int j = 0; j < numReactions; ++j)
+                {
+                    double reactionProbability = laneReactionProbabilities[j][i];
+                    reactionProbabilities[j] = reactionProbability;
+                    aggregateReactionProbability += reactionProbability;
+                }
+
+                double time = Double.POSITIVE_INFINITY;
+                int reactionIndex = NULL_REACTION;
+                if(aggregateReactionProbability > 0.0)
+                {
+                    time = laneTimes[i] + chooseDeltaTimeToNextReaction(aggregateReactionProbability);
+                    reactionIndex = chooseIndexOfNextReaction(aggregateReactionProbability);
+                }
+                if(time > pEndTime)
+                {
+                    time = pEndTime;
+                }
+
+                int timePointIndex = laneTimePointIndices[i];
+                if(time >= timesArray[timePointIndex])
+                {
+                    // the requested symbols are evaluated in the (scalar) simulator state
+                    for(int ctr = 0; ctr < numDynamicSymbols; ++ctr)
+                    {
+                        dynamicSymbolValues[ctr] = laneValues[ctr][i];
+                    }
+                    symbolEvaluator.setTime(time);
+                    checkDynamicalSymbolsValues(true, symbolEvaluator);
+                    timePointIndex = addRequestedSymbolValues(time,
+                                                              timePointIndex,
+                                                              requestedSymbols,
+                                                              timesArray,
+                                                              laneSymbolValues[i]);
+                    laneTimePointIndices[i] = timePointIndex;
+                }
+
+                if(timePointIndex < pNumResultsTimePoints)
+                {
+                    int []changedSpeciesIndices = (int []) reactionsChangedSpeciesIndices[reactionIndex];
+                    double []changedSpeciesStoichiometries = (double []) reactionsChangedSpeciesStoichiometries[reactionIndex];
+                    for(int k = changedSpeciesIndices.length; --k >= 0; )
+                    {
+                        laneValues[changedSpeciesIndices[k]][i] += changedSpeciesStoichiometries[k];
+                    }
+                    laneTimes[i] = time;
+                    if(timeRow >= 0)
+                    {
+                        laneValues[timeRow][i] = time;
+                    }
+                }
+                else
+                {
+                    // this realization is complete
+                    Object []symbolValues = laneSymbolValues[i];
+                    for(int timePointCtr = pNumResultsTimePoints; --timePointCtr >= 0; )
+                    {
+                        ensembleStatistics[timePointCtr].addObservations((double []) symbolValues[timePointCtr]);
+                    }
+                    ++numCompletedRealizations;
+
+                    if(numStartedRealizations < ensembleSize)
+                    {
+                        startLane(i, pStartTime, pLaneArrays, laneValues, laneTimes, laneTimePointIndices, laneSymbolValues);
+                        ++numStartedRealizations;
+                    }
+                    else
+                    {
+                        // move the last active lane (which has already been advanced) into this one
+                        int lastLane = --numActiveLanes;
+                        for(int row = numRows; --row >= 0; )
+                        {
+                            laneValues[row][i] = laneValues[row][lastLane];
+                        }
+                        laneTimes[i] = laneTimes[lastLane];
+                        laneTimePointIndices[i] = laneTimePointIndices[lastLane];
+                        laneSymbolValues[i] = laneSymbolValues[lastLane];
+                        laneSymbolValues[lastLane] = symbolValues;
+                    }
+                }
+            }
+
+            iterationCounter += numActiveLanes;
+
+            if(doUpdates)
+            {
+                long currentTimeMilliseconds = System.currentTimeMillis();
+                if(currentTimeMilliseconds - timeOfLastUpdateMilliseconds >= minNumMillisecondsForUpdate)
+                {
+                    if(null != simulationController)
+                    {
+                        isCancelled = simulationController.handlePauseOrCancel();
+                        if(isCancelled)
+                        {
+                            break;
+                        }
+                    }
+
+                    if(null != simulationProgressReporter)
+                    {
+                        double fractionComplete = ((double) numCompletedRealizations) / ((double) ensembleSize);
+                        simulationProgressReporter.updateProgressStatistics(false, fractionComplete, iterationCounter);
+                    }
+
+                    timeOfLastUpdateMilliseconds = System.currentTimeMillis();
+                }
+            }
+        }
+
+        if(null != simulationProgressReporter)
+        {
+            double fractionComplete = ((double) numCompletedRealizations) / ((double) ensembleSize);
+            simulationProgressReporter.updateProgressStatistics(true, fractionComplete, iterationCounter);
+        }
+
+        SimulationResults simulationResults = null;
+
+        // when this simulator is an ensemble worker, the results are obtained
+        // by the caller, from the merged ensemble statistics of the workers
+        if(! isCancelled && null == mEnsembleWorkerStatistics)
+        {
+            simulationResults = createEnsembleSimulationResults(pStartTime,
+                                                                pEndTime,
+                                                                pSimulatorParameters,
+                                                                pRequestedSymbolNames,
+                                                                timesArray,
+                                                                ensembleStatistics,
+                                                                computeFluctuations);
+        }
+
+        return(simulationResults);
+    }
+
+    public boolean allowsInterrupt()
+    {
+        return(true);
+    }
+
+    protected void checkSimulationParametersImpl(SimulatorParameters pSimulatorParameters,
+                                                 int pNumResultsTimePoints)
+    {
+        Boolean flagGetFinalSymbolFluctuations = pSimulatorParameters.getComputeFluctuations();
+        if(null == flagGetFinalSymbolFluctuations)
+        {
+            throw new IllegalArgumentException("missing flag for whether to obtain the final symbol fluctuations");
+        }
+
+        Integer ensembleSizeObj = pSimulatorParameters.getEnsembleSize();
+        if(null == ensembleSizeObj)
+        {
+            throw new IllegalArgumentException("missing ensemble size");
+        }
+        int ensembleSize = ensembleSizeObj.intValue();
+        if(ensembleSize <= 0)
+        {
+            throw new IllegalStateException("illegal ensemble size: " + ensembleSize);
+        }
+
+        if(hasDelayedReactionSolvers())
+        {
+            // validate the number of requested history bins
+            Integer numHistoryBinsObj = pSimulatorParameters.getNumHistoryBins();
             if(null == numHistoryBinsObj)
             {
                 throw new IllegalArgumentException("no number of history bins defined");
@@ -561,6 +1736,39 @@ public abstract class SimulatorStochasticBase extends Simulator
                 throw new IllegalArgumentException("invalid number of history bins: " + numHistoryBins);
             }
         }
+
+        Integer numThreadsObj = pSimulatorParameters.getNumThreads();
+        if(null != numThreadsObj)
+        {
+            int numThreads = numThreadsObj.intValue();
+            if(numThreads <= 0)
+            {
+                throw new IllegalArgumentException("illegal number of threads: " + numThreads);
+            }
+        }
+
+        Integer numLanesObj = pSimulatorParameters.getNumLanes();
+        if(null != numLanesObj)
+        {
+            int numLanes = numLanesObj.intValue();
+            if(numLanes <= 0)
+            {
+                throw new IllegalArgumentException("illegal number of lanes: " + numLanes);
+            }
+        }
+
+        double []ensembleQuantiles = pSimulatorParameters.getEnsembleQuantiles();
+        if(null != ensembleQuantiles)
+        {
+            for(int k = 0; k < ensembleQuantiles.length; ++k)
+            {
+                double ensembleQuantile = ensembleQuantiles[k];
+                if(! (ensembleQuantile > 0.0 && ensembleQuantile < 1.0))
+                {
+                    throw new IllegalArgumentException("invalid ensemble quantile probability: " + ensembleQuantile);
+                }
+            }
+        }
     }
 
     public SimulatorParameters getDefaultSimulatorParameters()
@@ -569,6 +1777,8 @@ public abstract class SimulatorStochasticBase extends Simulator
         sp.setEnsembleSize(new Integer(DEFAULT_ENSEMBLE_SIZE));
         sp.setComputeFluctuations(DEFAULT_FLAG_GET_FINAL_SYMBOL_FLUCTUATIONS);
         sp.setNumHistoryBins(DEFAULT_NUM_HISTORY_BINS);
+        sp.setNumThreads(DEFAULT_NUM_THREADS);
+        sp.setNumLanes(DEFAULT_NUM_LANES);
         modifyDefaultSimulatorParameters(sp);
         return(sp);
     }
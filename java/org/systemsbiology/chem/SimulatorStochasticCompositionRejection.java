@@ -0,0 +1,399 @@
+package org.systemsbiology.chem;
+/*
+ * Copyright (C) 2003 by Institute for Systems Biology,
+ * Seattle, Washington, USA.  All rights reserved.
+ *
+ * This source code is distributed under the GNU Lesser
+ * General Public License, the text of which is available at:
+ *   http://www.gnu.org/copyleft/lesser.html
+ */
+
+import org.systemsbiology.math.*;
+import org.systemsbiology.util.*;
+
+/**
+ * Implementation of the "composition-rejection" variant of the
+ * Gillespie stochastic algorithm, as described in the article:
+ * A. Slepoy, A. P. Thompson, and S. J. Plimpton, "A constant-time
+ * kinetic Monte Carlo algorithm for simulation of large biochemical
+ * reaction networks", <em>J. Chem. Phys.</em> <b>128</b>, 205101 (2008).
+ *
+ * The reactions are partitioned into groups, such that all of the
+ * reactions in a given group have a reaction probability density
+ * within the same power-of-two interval <code>[2^e, 2^(e+1))</code>.
+ * A group is selected with a linear search over the (small number of)
+ * non-empty groups, and a reaction is then selected from within the
+ * group by rejection sampling, which requires on average fewer than
+ * two trials.  The cost of each iteration is therefore independent of
+ * the number of reactions in the model.  Only the reactions whose rates
+ * are affected by the last reaction event (as determined by the
+ * reaction dependency graph) are recomputed and moved between groups.
+ *
+ * @author Stephen Ramsey
+ */
+public final class SimulatorStochasticCompositionRejection extends SimulatorStochasticBase implements IAliasableClass, ISimulator
+{
+    public static final String CLASS_ALIAS = "composition-rejection";
+    private static final long NUMBER_FIRINGS = 1;
+
+    private static final int NUM_GROUPS = 2048;   // number of distinct (biased) IEEE-754 double exponents
+    private static final int NULL_GROUP = -1;
+    private static final int DEFAULT_GROUP_CAPACITY = 4;
+    private static final int NUM_UPDATES_PER_REACTION_BETWEEN_RESUMS = 16;
+
+    private int [][]mGroupMembers;
+    private int []mGroupSizes;
+    private double []mGroupSums;
+    private double []mGroupInverseUpperBounds;
+    private int mMinGroup;
+    private int mMaxGroup;
+
+    private int []mReactionGroups;
+    private int []mReactionGroupPositions;
+
+    private long mNumUpdatesSinceResum;
+    private long mNumUpdatesBetweenResums;
+
+    private int getGroup(int pReactionIndex, double pReactionProbability) throws IllegalStateException
+    {
+        // a reaction probability density that is not finite would belong to the group
+        // of biased exponent 2047, for which the rejection step could never accept
+        if(Double.isNaN(pReactionProbability) || Double.isInfinite(pReactionProbability))
+        {
+            throw new IllegalStateException("invalid reaction probability density: " + pReactionProbability + " for reaction: " + mReactions[pReactionIndex].getName());
+        }
+        int group = NULL_GROUP;
+        if(pReactionProbability > 0.0)
+        {
+            group = (int) ((Double.doubleToLongBits(pReactionProbability) >>> 52) & 0x7ffL);
+        }
+        return(group);
+    }
+
+    private void initializeGroups()
+    {
+        int numReactions = mReactions.length;
+        mGroupMembers = new int[NUM_GROUPS][];
+        mGroupSizes = new int[NUM_GROUPS];
+        mGroupSums = new double[NUM_GROUPS];
+        mGroupInverseUpperBounds = new double[NUM_GROUPS];
+        for(int group = 0; group < NUM_GROUPS - 1; ++group)
+        {
+            // the upper bound for the group is 2^(group + 1 - 1023), whose inverse is 2^(1022 - group);
+            // the inverse is stored, since the upper bound of the largest group overflows a double
+            mGroupInverseUpperBounds[group] = Math.scalb(1.0, 1022 - group);
+        }
+        mReactionGroups = new int[numReactions];
+        mReactionGroupPositions = new int[numReactions];
+        mNumUpdatesBetweenResums = NUM_UPDATES_PER_REACTION_BETWEEN_RESUMS * ((long) numReactions + 1);
+    }
+
+    private void clearGroups()
+    {
+        for(int group = NUM_GROUPS; --group >= 0; )
+        {
+            mGroupSizes[group] = 0;
+            mGroupSums[group] = 0.0;
+        }
+        mMinGroup = NUM_GROUPS;
+        mMaxGroup = NULL_GROUP;
+        mNumUpdatesSinceResum = 0;
+    }
+
+    private void addToGroup(int pReactionIndex, int pGroup)
+    {
+        int []members = mGroupMembers[pGroup];
+        int size = mGroupSizes[pGroup];
+        if(null == members)
+        {
+            members = new int[DEFAULT_GROUP_CAPACITY];
+            mGroupMembers[pGroup] = members;
+        }
+        else if(size == members.length)
+        {
+            int []newMembers = new int[2 * size];
+            System.arraycopy(members, 0, newMembers, 0, size);
+            members = newMembers;
+            mGroupMembers[pGroup] = members;
+        }
+        members[size] = pReactionIndex;
+        mGroupSizes[pGroup] = size + 1;
+        mReactionGroups[pReactionIndex] = pGroup;
+        mReactionGroupPositions[pReactionIndex] = size;
+        if(pGroup < mMinGroup)
+        {
+            mMinGroup = pGroup;
+        }
+        if(pGroup > mMaxGroup)
+        {
+            mMaxGroup = pGroup;
+        }
+    }
+
+    private void removeFromGroup(int pReactionIndex, int pGroup)
+    {
+        int []members = mGroupMembers[pGroup];
+        int lastPosition = mGroupSizes[pGroup] - 1;
+        int position = mReactionGroupPositions[pReactionIndex];
+        int lastReactionIndex = members[lastPosition];
+        members[position] = lastReactionIndex;
+        mReactionGroupPositions[lastReactionIndex] = position;
+        mGroupSizes[pGroup] = lastPosition;
+        mReactionGroups[pReactionIndex] = NULL_GROUP;
+
+        if(0 == lastPosition)
+        {
+            mGroupSums[pGroup] = 0.0;
+            int []groupSizes = mGroupSizes;
+            if(pGroup == mMaxGroup)
+            {
+                int maxGroup = pGroup;
+                while(maxGroup >= mMinGroup && 0 == groupSizes[maxGroup])
+                {
+                    --maxGroup;
+                }
+                mMaxGroup = maxGroup;
+            }
+            if(pGroup == mMinGroup)
+            {
+                int minGroup = pGroup;
+                while(minGroup <= mMaxGroup && 0 == groupSizes[minGroup])
+                {
+                    ++minGroup;
+                }
+                if(minGroup <= mMaxGroup)
+                {
+                    mMinGroup = minGroup;
+                }
+                else
+                {
+                    // all groups are empty
+                    mMinGroup = NUM_GROUPS;
+                    mMaxGroup = NULL_GROUP;
+                }
+            }
+        }
+    }
+
+    // recomputes the group sums from scratch, to discard accumulated round-off error
+    private void resumGroups()
+    {
+        double []reactionProbabilities = mReactionProbabilities;
+        for(int group = mMinGroup; group <= mMaxGroup; ++group)
+        {
+            int []members = mGroupMembers[group];
+            double sum = 0.0;
+            for(int ctr = mGroupSizes[group]; --ctr >= 0; )
+            {
+                sum += reactionProbabilities[members[ctr]];
+            }
+            mGroupSums[group] = sum;
+        }
+        mNumUpdatesSinceResum = 0;
+    }
+
+    private void updateReactionRate(int pReactionIndex) throws DataNotFoundException, IllegalStateException
+    {
+        double oldRate = mReactionProbabilities[pReactionIndex];
+        double newRate = computeReactionRate(pReactionIndex);
+        mReactionProbabilities[pReactionIndex] = newRate;
+
+        int oldGroup = mReactionGroups[pReactionIndex];
+        int newGroup = getGroup(pReactionIndex, newRate);
+        if(oldGroup != newGroup)
+        {
+            if(NULL_GROUP != oldGroup)
+            {
+                removeFromGroup(pReactionIndex, oldGroup);
+                if(0 != mGroupSizes[oldGroup])
+                {
+                    mGroupSums[oldGroup] -= oldRate;
+                }
+            }
+            if(NULL_GROUP != newGroup)
+            {
+                addToGroup(pReactionIndex, newGroup);
+                mGroupSums[newGroup] += newRate;
+            }
+        }
+        else if(NULL_GROUP != newGroup)
+        {
+            mGroupSums[newGroup] += (newRate - oldRate);
+        }
+
+        ++mNumUpdatesSinceResum;
+    }
+
+    private double computeAggregateReactionProbability()
+    {
+        double []groupSums = mGroupSums;
+        double aggregateReactionProbability = 0.0;
+        for(int group = mMaxGroup; group >= mMinGroup; --group)
+        {
+            aggregateReactionProbability += groupSums[group];
+        }
+        return(aggregateReactionProbability);
+    }
+
+    private int chooseIndexOfNextReactionCompositionRejection(double pAggregateReactionProbability)
+    {
+        double []groupSums = mGroupSums;
+        int []groupSizes = mGroupSizes;
+        double fractionOfAggregateReactionProbability = getRandomNumberUniformInterval(mRandomNumberGenerator) * pAggregateReactionProbability;
+
+        // composition step:  select a group, searching the groups with the largest
+        // reaction probabilities first
+        int selectedGroup = NULL_GROUP;
+        for(int group = mMaxGroup; group >= mMinGroup; --group)
+        {
+            if(0 != groupSizes[group])
+            {
+                selectedGroup = group;
+                double groupSum = groupSums[group];
+                if(fractionOfAggregateReactionProbability < groupSum)
+                {
+                    break;
+                }
+                fractionOfAggregateReactionProbability -= groupSum;
+            }
+        }
+
+        // rejection step:  select a reaction uniformly from within the group, and accept
+        // it with probability equal to its reaction probability density divided by the
+        // upper bound for the group
+        int []members = mGroupMembers[selectedGroup];
+        int groupSize = groupSizes[selectedGroup];
+        double inverseUpperBound = mGroupInverseUpperBounds[selectedGroup];
+        double []reactionProbabilities = mReactionProbabilities;
+        int reactionIndex = -1;
+        while(true)
+        {
+            double scaledRandom = getRandomNumberUniformInterval(mRandomNumberGenerator) * groupSize;
+            int position = (int) scaledRandom;
+            if(position >= groupSize)
+            {
+                position = groupSize - 1;
+            }
+            reactionIndex = members[position];
+            if(getRandomNumberUniformInterval(mRandomNumberGenerator) <= reactionProbabilities[reactionIndex] * inverseUpperBound)
+            {
+                break;
+            }
+        }
+        return(reactionIndex);
+    }
+
+    protected void prepareForStochasticSimulation(double pStartTime,
+                                                  SimulatorParameters pSimulatorParameters) throws DataNotFoundException, IllegalStateException
+    {
+        computeReactionProbabilities();
+
+        clearGroups();
+        double []reactionProbabilities = mReactionProbabilities;
+        int numReactions = reactionProbabilities.length;
+        for(int ctr = 0; ctr < numReactions; ++ctr)
+        {
+            double reactionProbability = reactionProbabilities[ctr];
+            int group = getGroup(ctr, reactionProbability);
+            mReactionGroups[ctr] = NULL_GROUP;
+            if(NULL_GROUP != group)
+            {
+                addToGroup(ctr, group);
+            }
+        }
+        resumGroups();
+    }
+
+    protected double iterate(MutableInteger pLastReactionIndex) throws DataNotFoundException, IllegalStateException
+    {
+        double time = mSymbolEvaluator.getTime();
+
+        int lastReactionIndex = pLastReactionIndex.getValue();
+        if(NULL_REACTION != lastReactionIndex)
+        {
+            updateSymbolValuesForReaction(lastReactionIndex,
+                                          mDynamicSymbolValues,
+                                          mDynamicSymbolDelayedReactionAssociations,
+                                          NUMBER_FIRINGS);
+
+            updateReactionRate(lastReactionIndex);
+
+            Integer []reactionsRecomputeAfterEachIteration = mReactionsRecomputeAfterEachIteration;
+            for(int j = reactionsRecomputeAfterEachIteration.length; --j >= 0; )
+            {
+                updateReactionRate(reactionsRecomputeAfterEachIteration[j].intValue());
+            }
+
+            Integer []dependentReactions = (Integer []) mReactionDependencies[lastReactionIndex];
+            for(int ctr = dependentReactions.length; --ctr >= 0; )
+            {
+                updateReactionRate(dependentReactions[ctr].intValue());
+            }
+
+            if(mNumUpdatesSinceResum > mNumUpdatesBetweenResums)
+            {
+                resumGroups();
+            }
+        }
+
+        double aggregateReactionProbability = computeAggregateReactionProbability();
+        double deltaTimeToNextReaction = Double.POSITIVE_INFINITY;
+
+        if(aggregateReactionProbability > 0.0)
+        {
+            deltaTimeToNextReaction = chooseDeltaTimeToNextReaction(aggregateReactionProbability);
+        }
+
+        int reactionIndex = -1;
+
+        if(null != mDelayedReactionCalendar)
+        {
+            double nextDelayedReactionTime = mDelayedReactionCalendar.peekTime();
+            if(nextDelayedReactionTime < time + deltaTimeToNextReaction)
+            {
+                // execute delayed reaction
+                deltaTimeToNextReaction = nextDelayedReactionTime - time;
+                reactionIndex = mDelayedReactionCalendar.pollOne();
+            }
+        }
+
+        if(-1 == reactionIndex && aggregateReactionProbability > 0.0)
+        {
+            reactionIndex = chooseIndexOfNextReactionCompositionRejection(aggregateReactionProbability);
+        }
+
+        if(-1 != reactionIndex)
+        {
+            pLastReactionIndex.setValue(reactionIndex);
+
+            time += deltaTimeToNextReaction;
+        }
+        else
+        {
+            time = Double.POSITIVE_INFINITY;
+        }
+
+        mSymbolEvaluator.setTime(time);
+
+        return(time);
+    }
+
+    public void initialize(Model pModel) throws DataNotFoundException, InvalidInputException
+    {
+        initializeSimulator(pModel);
+        initializeSimulatorStochastic(pModel);
+        createDependencyGraph(pModel);
+        initializeGroups();
+        setInitialized(true);
+    }
+
+    protected void modifyDefaultSimulatorParameters(SimulatorParameters pSimulatorParameters)
+    {
+        // do nothing
+    }
+
+    public String getAlias()
+    {
+        return(CLASS_ALIAS);
+    }
+}
@@ -10,10 +10,8 @@ package org.systemsbiology.chem;
 
 import java.util.*;
 import org.systemsbiology.util.*;
-import org.systemsbiology.data.AbstractComparator;
-import org.systemsbiology.data.IndexedPriorityQueue;
+import org.systemsbiology.data.IndexedDoubleMinHeap;
 import org.systemsbiology.math.*;
-import edu.cornell.lassp.houle.RngPack.*;
 
 /**
  * Implementation of the Gibson-Bruck "Next Reaction" algorithm.
@@ -30,265 +28,18 @@ public final class SimulatorStochasticGibsonBruck extends SimulatorStochasticBas
     public static final String CLASS_ALIAS = "gibson-bruck"; 
     private static final long NUMBER_FIRINGS = 1;
 
-    private Object []mReactionDependencies;
-    private Integer []mReactionsRecomputeAfterEachIteration;
-    private IndexedPriorityQueue mPutativeTimeToNextReactions;
+    private IndexedDoubleMinHeap mPutativeTimeToNextReactions;
 
 
     private void initializePutativeTimeToNextReactions()
     {
-        IndexedPriorityQueue putativeTimeToNextReactions = new IndexedPriorityQueue(new AbstractComparator() 
-                         {
-                             public int compare(Object p1, Object p2)
-                             {
-                                 return(MutableDouble.compare((MutableDouble) p1, (MutableDouble) p2));
-                             }
-                         } );
-        mPutativeTimeToNextReactions = putativeTimeToNextReactions;
-    }
-
-    class ExpressionDependencyGetter implements Expression.IVisitor
-    {
-        private Collection mDependentSymbols;
-        public ExpressionDependencyGetter(Collection pDependentSymbols)
-        {
-            setDependentSymbols(pDependentSymbols);
-        }
-        public void setDependentSymbols(Collection pDependentSymbols)
-        {
-            mDependentSymbols = pDependentSymbols;
-        }
-        public Collection getDependentSymbols()
-        {
-            return(mDependentSymbols);
-        }
-        public void visit(Symbol pSymbol)
-        {
-            Symbol indexedSymbol = (Symbol) mSymbolMap.get(pSymbol.getName());
-            if(null != indexedSymbol)
-            {
-                if(null != indexedSymbol.getValueArray())
-                {
-                    Value symbolValue = mNonDynamicSymbolValues[indexedSymbol.getArrayIndex()];
-                    if(symbolValue.isExpression())
-                    {
-                        symbolValue.getExpressionValue().visit(this);
-                    }
-                    else
-                    {
-                        // do nothing, it is a non-important dependence
-                    }
-                }
-                else
-                {
-                    mDependentSymbols.add(pSymbol.getName());
-                }
-            }
-            else
-            {
-                mDependentSymbols.add(pSymbol.getName());
-            }
-        }
-        
-    }
-
-    private void processExpressionDependencies(Collection pDependentSymbolNames,
-                                               HashMap pSpeciesReactions,
-                                               boolean pTimeSymbolAllowed,
-                                               HashSet pReactionsRecomputeAfterEachIteration,
-                                               Integer pReactionIndex)
-    {
-        Iterator dependentSymbolNames = pDependentSymbolNames.iterator();
-        HashSet speciesReactionDependencies = null;
-        while(dependentSymbolNames.hasNext())
-        {
-            String dependentSymbolName = (String) dependentSymbolNames.next();
-            speciesReactionDependencies = (HashSet) pSpeciesReactions.get(dependentSymbolName);
-            if(null != speciesReactionDependencies)
-            {
-                if(! pReactionsRecomputeAfterEachIteration.contains(pReactionIndex))
-                {
-                    speciesReactionDependencies.add(pReactionIndex);
-                }
-            }
-            else
-            {
-                if(pTimeSymbolAllowed && dependentSymbolName.equals(ReservedSymbolMapperChemCommandLanguage.SYMBOL_TIME))
-                {
-                    pReactionsRecomputeAfterEachIteration.add(pReactionIndex);
-                }
-                else
-                {
-                    // do nothing, since the symbol is not dynamical and not an expression, and not "time"
-                }
-            }
-        }        
-    }
-
-    private void createDependencyGraph(Model pModel) throws DataNotFoundException
-    {
-        Reaction []reactions = mReactions;
-        int numReactions = reactions.length;
-
-        HashSet dependencySet = new HashSet();
-        ExpressionDependencyGetter dependencyGetter = new ExpressionDependencyGetter(dependencySet);
-        HashSet reactionsRecomputeAfterEachIteration = new HashSet();
-
-        // for each species, obtain the set of all reactions that contain the given species
-        // as a reactant
-        String []speciesArray = mDynamicSymbolNames;
-        int numSpecies = speciesArray.length;
-        HashMap speciesReactions = new HashMap();  // create a map between species names and the set of reactions
-                                                   // whose rates depend on this species
-        for(int ctr = 0; ctr < numSpecies; ++ctr)
-        {
-            String speciesName = speciesArray[ctr];
-            speciesReactions.put(speciesName, new HashSet());
-        }
-
-        ReservedSymbolMapper reservedSymbolMapper = mSymbolEvaluator.getReservedSymbolMapper();
-        boolean timeSymbolAllowed = (reservedSymbolMapper != null &&
-                                     (reservedSymbolMapper instanceof ReservedSymbolMapperChemCommandLanguage));
-
-        for(int j = 0; j < numReactions; ++j)
-        {
-            Reaction reaction = reactions[j];
-            Value reactionRate = reaction.getRate();
-            Integer reactionIndex = new Integer(j);
-            if(! reactionRate.isExpression())
-            {
-                Symbol []reactants = (Symbol []) mReactionsReactantsSpecies[j];
-                
-                int numReactants = reactants.length;
-                for(int k = 0; k < numReactants; ++k)
-                {
-                    Symbol reactant = reactants[k];
-                    String reactantName = reactant.getName();
-                    HashSet speciesReactionDependencies = (HashSet) speciesReactions.get(reactantName);
-                    if(null != speciesReactionDependencies)
-                    {
-                        if(! reactionsRecomputeAfterEachIteration.contains(reactionIndex))
-                        {
-                            speciesReactionDependencies.add(reactionIndex);
-                        }
-                    }
-                    else
-                    {
-                        Symbol indexedReactantSymbol = (Symbol) mSymbolMap.get(reactantName);
-                        if(null != indexedReactantSymbol)
-                        {
-                            if(null != indexedReactantSymbol.getValueArray())
-                            {
-                                Value indexedReactantValue = mNonDynamicSymbolValues[indexedReactantSymbol.getArrayIndex()];
-                                if(indexedReactantValue.isExpression())
-                                {
-                                    // need to find out all the other symbols it depends on
-                                    dependencySet.clear();
-                                    indexedReactantValue.getExpressionValue().visit(dependencyGetter);
-                                    processExpressionDependencies(dependencySet,
-                                                                  speciesReactions,
-                                                                  timeSymbolAllowed,
-                                                                  reactionsRecomputeAfterEachIteration,
-                                                                  reactionIndex);
-                                }
-                                else
-                                {
-                                    // do nothing, since the dependent symbol is not dynamical and not an expression
-                                }
-                            }
-                            else
-                            {
-                                throw new IllegalStateException("symbol has not been indexed: " + reactantName + " in reaction: " + reaction);
-                            }
-                        }
-                        else
-                        {
-                            throw new IllegalStateException("unrecognized symbol: " + reactantName + " in reaction: " + reaction.getName());
-                        }
-                    }
-                }
-            }
-            else
-            {
-                // need to find out all the other symbols it depends on
-                dependencySet.clear();
-                reactionRate.getExpressionValue().visit(dependencyGetter);
-                processExpressionDependencies(dependencySet,
-                                              speciesReactions,
-                                              timeSymbolAllowed,
-                                              reactionsRecomputeAfterEachIteration,
-                                              reactionIndex);
-            }
-        }
-
-        Integer []dummyArray = new Integer[0];
-        mReactionsRecomputeAfterEachIteration = (Integer []) reactionsRecomputeAfterEachIteration.toArray(dummyArray);
-
-        HashSet []reactionDependencies = new HashSet[numReactions];
-        for(int j = 0; j < numReactions; ++j)
-        {
-            Reaction reaction = reactions[j];
-            HashSet dependentReactions = new HashSet();
-
-            // go through the list of products for this reaction
-
-            Symbol []productsSpecies = (Symbol []) mReactionsProductsSpecies[j];
-            boolean []productsDynamic = (boolean []) mReactionsProductsDynamic[j];
-            int numProducts = productsSpecies.length;
-            for(int i = 0; i < numProducts; ++i)
-            {
-                if(productsDynamic[i])
-                {
-                    Symbol productSpecies = productsSpecies[i];
-                    String productSpeciesName = productSpecies.getName();
-                    HashSet speciesDependentReactions = (HashSet) speciesReactions.get(productSpeciesName);
-                    if(null != speciesDependentReactions)
-                    {
-                        dependentReactions.addAll(speciesDependentReactions);
-                    }
-
-                }
-            }
-
-            Symbol []reactantsSpecies = (Symbol []) mReactionsReactantsSpecies[j];
-            boolean []reactantsDynamic = (boolean []) mReactionsReactantsDynamic[j];
-
-            int numReactants = reactantsSpecies.length;
-            for(int i = 0; i < numReactants; ++i)
-            {
-                if(reactantsDynamic[i])
-                {
-                    Symbol reactantSpecies = reactantsSpecies[i];
-                    String reactantSpeciesName = reactantSpecies.getName();
-                    HashSet speciesDependentReactions = (HashSet) speciesReactions.get(reactantSpeciesName);
-                    if(null != speciesDependentReactions)
-                    {
-                        dependentReactions.addAll(speciesDependentReactions);
-                    }
-                }
-            }
-
-            reactionDependencies[j] = dependentReactions;
-        }
-
-        mReactionDependencies = new Object[numReactions];
-        for(int ctr = 0; ctr < numReactions; ++ctr)
-        {
-            HashSet dependentReactions = reactionDependencies[ctr];
-            Integer reactionCtr = new Integer(ctr);
-            if(dependentReactions.contains(reactionCtr))
-            {
-                dependentReactions.remove(reactionCtr);
-            }
-            Integer []fakeArray = new Integer[0];
-            mReactionDependencies[ctr] = (Integer []) dependentReactions.toArray(fakeArray);
-        }
+        mPutativeTimeToNextReactions = new IndexedDoubleMinHeap(mReactions.length);
     }
 
     private double computeTimeToNextReaction(double []pReactionProbabilities,
                                              int pIndex,
                                              double pTime,
-                                             RandomElement pRandomNumberGenerator)
+                                             RandomNumberGenerator pRandomNumberGenerator)
     {
         double probRate = pReactionProbabilities[pIndex];
         double timeOfNextReaction = 0.0;
@@ -305,57 +56,55 @@ public final class SimulatorStochasticGibsonBruck extends SimulatorStochasticBas
     }
          
 
-    private void computePutativeTimeToNextReactions(RandomElement pRandomNumberGenerator,
+    private void computePutativeTimeToNextReactions(RandomNumberGenerator pRandomNumberGenerator,
                                                     double pStartTime,
                                                     double []pReactionProbabilities,
                                                     Reaction []pReactions)
     {
         int numReactions = pReactions.length;
-        IndexedPriorityQueue putativeTimeToNextReactions = mPutativeTimeToNextReactions;
-        putativeTimeToNextReactions.clear();
+        double []timesToNextReactions = new double[numReactions];
         for(int ctr = 0; ctr < numReactions; ++ctr)
         {
-            double timeToNextReaction = computeTimeToNextReaction(pReactionProbabilities,
+            timesToNextReactions[ctr] = computeTimeToNextReaction(pReactionProbabilities,
                                                                   ctr,
                                                                   pStartTime,
                                                                   pRandomNumberGenerator);
-            MutableDouble storeTimeToNextReaction = new MutableDouble(timeToNextReaction);
-            putativeTimeToNextReactions.add(storeTimeToNextReaction);
         }
+        mPutativeTimeToNextReactions.setValues(timesToNextReactions);
     }
 
     private void updateReactionRateAndTime(double pCurrentTime,
                                            int pReactionIndex,
                                            int pLastReactionIndex) throws DataNotFoundException
     {
-        MutableDouble timeOfNextReactionEventObj = (MutableDouble) mPutativeTimeToNextReactions.get(pReactionIndex);
+        double timeOfNextReactionEvent = mPutativeTimeToNextReactions.get(pReactionIndex);
         double newRate = computeReactionRate(pReactionIndex);
 
         if(pLastReactionIndex != pReactionIndex)
         {
             if(newRate > 0.0 && mReactionProbabilities[pReactionIndex] > 0.0)
             {
-                timeOfNextReactionEventObj.setValue(((timeOfNextReactionEventObj.getValue() - pCurrentTime)*
-                                                     mReactionProbabilities[pReactionIndex]/newRate) + pCurrentTime);
+                timeOfNextReactionEvent = ((timeOfNextReactionEvent - pCurrentTime)*
+                                           mReactionProbabilities[pReactionIndex]/newRate) + pCurrentTime;
             }
             else
             {
                 if(newRate > 0.0)
                 {
-                    timeOfNextReactionEventObj.setValue(pCurrentTime + chooseDeltaTimeToNextReaction(newRate));
+                    timeOfNextReactionEvent = pCurrentTime + chooseDeltaTimeToNextReaction(newRate);
                 }
                 else
                 {
-                    timeOfNextReactionEventObj.setValue(Double.POSITIVE_INFINITY);
+                    timeOfNextReactionEvent = Double.POSITIVE_INFINITY;
                 }
             }
         }
         else
         {
-            timeOfNextReactionEventObj.setValue(pCurrentTime + chooseDeltaTimeToNextReaction(newRate));
+            timeOfNextReactionEvent = pCurrentTime + chooseDeltaTimeToNextReaction(newRate);
         }
 
-        mPutativeTimeToNextReactions.update(pReactionIndex, timeOfNextReactionEventObj);
+        mPutativeTimeToNextReactions.update(pReactionIndex, timeOfNextReactionEvent);
         mReactionProbabilities[pReactionIndex] = newRate;
     }
                                                  
@@ -373,7 +122,7 @@ public final class SimulatorStochasticGibsonBruck extends SimulatorStochasticBas
 
     protected double iterate(MutableInteger pLastReactionIndex) throws DataNotFoundException, IllegalStateException
     {
-        IndexedPriorityQueue putativeTimeToNextReactions = mPutativeTimeToNextReactions;
+        IndexedDoubleMinHeap putativeTimeToNextReactions = mPutativeTimeToNextReactions;
         Object []reactionDependencies = mReactionDependencies;
 
         double time = mSymbolEvaluator.getTime();
@@ -385,10 +134,6 @@ public final class SimulatorStochasticGibsonBruck extends SimulatorStochasticBas
                                           mDynamicSymbolValues,
                                           mDynamicSymbolDelayedReactionAssociations,
                                           NUMBER_FIRINGS);
-            if(mUseExpressionValueCaching)
-            {
-                clearExpressionValueCaches();
-            }
                            
             updateReactionRateAndTime(time, lastReactionIndex, lastReactionIndex);
 
@@ -412,29 +157,16 @@ public final class SimulatorStochasticGibsonBruck extends SimulatorStochasticBas
         }
 
         int reactionIndex = putativeTimeToNextReactions.peekIndex();
-        MutableDouble timeOfNextReactionObj = (MutableDouble) putativeTimeToNextReactions.get(reactionIndex);
-        double timeOfNextReaction = timeOfNextReactionObj.getValue();
+        double timeOfNextReaction = putativeTimeToNextReactions.get(reactionIndex);
 
-        if(null == mDelayedReactionSolvers)
+        if(null != mDelayedReactionCalendar)
         {
-            // do nothing
-        }
-        else
-        {
-            int nextDelayedReactionIndex = getNextDelayedReactionIndex(mDelayedReactionSolvers);
-            if(nextDelayedReactionIndex >= 0)
+            double nextDelayedReactionTime = mDelayedReactionCalendar.peekTime();
+            if(nextDelayedReactionTime < timeOfNextReaction)
             {
-                DelayedReactionSolver solver = mDelayedReactionSolvers[nextDelayedReactionIndex];
-                double nextDelayedReactionTime = solver.peekNextReactionTime();
-//                System.out.println("next delayed reaction will occur at: " + nextDelayedReactionTime);
-                if(nextDelayedReactionTime < timeOfNextReaction)
-                {
-                    // execute delayed reaction
-                    timeOfNextReaction = nextDelayedReactionTime;
-                    reactionIndex = solver.getReactionIndex();
-//                    System.out.println("delayed reaction selected: " + mReactions[reactionIndex]);
-                    solver.pollNextReactionTime();
-                }
+                // execute delayed reaction
+                timeOfNextReaction = nextDelayedReactionTime;
+                reactionIndex = mDelayedReactionCalendar.pollOne();
             }
         }
 
@@ -14,7 +14,11 @@ import org.systemsbiology.util.*;
 /**
  * Simulates the dynamics of a set of coupled chemical reactions
  * described by {@link Reaction} objects using the Gillespie stochastic
- * algorithm, "direct method".
+ * algorithm, "direct method".  After each reaction event, only the
+ * rates of the reactions that depend on the species modified by that
+ * event (as determined by the reaction dependency graph) are recomputed.
+ * The realizations of an ensemble can be simulated in lockstep (see
+ * {@link SimulatorParameters#setNumLanes(Integer)}).
  *
  * @author Stephen Ramsey
  */
@@ -24,9 +28,9 @@ public final class SimulatorStochasticGillespie extends SimulatorStochasticBase
     private static final long NUMBER_FIRINGS = 1;
 
     protected void prepareForStochasticSimulation(double pStartTime,
-                                                  SimulatorParameters pSimulatorParameters)
+                                                  SimulatorParameters pSimulatorParameters) throws DataNotFoundException
     {
-        // nothing to do
+        computeReactionProbabilities();
     }
 
     protected double iterate(MutableInteger pLastReactionIndex) throws DataNotFoundException, IllegalStateException
@@ -40,10 +44,11 @@ public final class SimulatorStochasticGillespie extends SimulatorStochasticBase
                                           mDynamicSymbolValues,
                                           mDynamicSymbolDelayedReactionAssociations,
                                           NUMBER_FIRINGS);
+
+            // only recompute the rates of reactions affected by the last reaction
+            computeDependentReactionProbabilities(lastReactionIndex);
         }
 
-        computeReactionProbabilities();
-        
         double aggregateReactionProbability = DoubleVector.sumElements(mReactionProbabilities);
         double deltaTimeToNextReaction = Double.POSITIVE_INFINITY;
 
@@ -54,22 +59,14 @@ public final class SimulatorStochasticGillespie extends SimulatorStochasticBase
         
         int reactionIndex = -1;
 
-        if(null != mDelayedReactionSolvers)
+        if(null != mDelayedReactionCalendar)
         {
-            int nextDelayedReactionIndex = getNextDelayedReactionIndex(mDelayedReactionSolvers);
-            if(nextDelayedReactionIndex >= 0)
+            double nextDelayedReactionTime = mDelayedReactionCalendar.peekTime();
+            if(nextDelayedReactionTime < time + deltaTimeToNextReaction)
             {
-                DelayedReactionSolver solver = mDelayedReactionSolvers[nextDelayedReactionIndex];
-                double nextDelayedReactionTime = solver.peekNextReactionTime();
-//                System.out.println("next delayed reaction will occur at: " + nextDelayedReactionTime);
-                if(nextDelayedReactionTime < time + deltaTimeToNextReaction)
-                {
-                    // execute delayed reaction
-                    deltaTimeToNextReaction = nextDelayedReactionTime - time;
-                    reactionIndex = solver.getReactionIndex();
-//                    System.out.println("delayed reaction \"" + pReactions[reactionIndex] + "\" occurring at time: " + nextDelayedReactionTime );
-                    solver.pollNextReactionTime();
-                }
+                // execute delayed reaction
+                deltaTimeToNextReaction = nextDelayedReactionTime - time;
+                reactionIndex = mDelayedReactionCalendar.pollOne();
             }
         }
 
@@ -99,9 +96,15 @@ public final class SimulatorStochasticGillespie extends SimulatorStochasticBase
     {
         initializeSimulator(pModel);
         initializeSimulatorStochastic(pModel);
+        createDependencyGraph(pModel);
         setInitialized(true);
     }
 
+    protected boolean supportsLockstepEnsemble()
+    {
+        return(true);
+    }
+
     protected void modifyDefaultSimulatorParameters(SimulatorParameters pSimulatorParameters)
     {
         // do nothing
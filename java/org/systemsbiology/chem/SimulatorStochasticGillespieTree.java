@@ -0,0 +1,144 @@
+package org.systemsbiology.chem;
+/*
+ * Copyright (C) 2003 by Institute for Systems Biology,
+ * Seattle, Washington, USA.  All rights reserved.
+ *
+ * This source code is distributed under the GNU Lesser
+ * General Public License, the text of which is available at:
+ *   http://www.gnu.org/copyleft/lesser.html
+ */
+
+import org.systemsbiology.data.SumTree;
+import org.systemsbiology.math.*;
+import org.systemsbiology.util.*;
+
+/**
+ * Simulates the dynamics of a set of coupled chemical reactions
+ * described by {@link Reaction} objects using the Gillespie stochastic
+ * algorithm, "direct method".  The reaction probability densities are
+ * stored in a {@link SumTree}, which is updated after each reaction event
+ * only for the reactions whose rates are affected by that event (as
+ * determined by the reaction dependency graph).  The aggregate reaction
+ * probability density is therefore obtained in constant time, and the
+ * next reaction is selected in time proportional to the logarithm of
+ * the number of reactions.  This makes the simulator suitable for models
+ * with a large number of reactions.
+ *
+ * @author Stephen Ramsey
+ */
+public final class SimulatorStochasticGillespieTree extends SimulatorStochasticBase implements IAliasableClass, ISimulator
+{
+    public static final String CLASS_ALIAS = "gillespie-direct-tree";
+    private static final long NUMBER_FIRINGS = 1;
+
+    private SumTree mReactionProbabilitiesTree;
+
+    protected void prepareForStochasticSimulation(double pStartTime,
+                                                  SimulatorParameters pSimulatorParameters) throws DataNotFoundException
+    {
+        computeReactionProbabilities();
+        mReactionProbabilitiesTree.setValues(mReactionProbabilities);
+    }
+
+    private void updateReactionRate(int pReactionIndex) throws DataNotFoundException
+    {
+        double newRate = computeReactionRate(pReactionIndex);
+        mReactionProbabilities[pReactionIndex] = newRate;
+        mReactionProbabilitiesTree.setValue(pReactionIndex, newRate);
+    }
+
+    private int chooseIndexOfNextReactionFromTree(double pAggregateReactionProbabilityDensity)
+    {
+        double randomNumberUniformInterval = getRandomNumberUniformInterval(mRandomNumberGenerator);
+        return(mReactionProbabilitiesTree.findIndex(randomNumberUniformInterval * pAggregateReactionProbabilityDensity));
+    }
+
+    protected double iterate(MutableInteger pLastReactionIndex) throws DataNotFoundException, IllegalStateException
+    {
+        double time = mSymbolEvaluator.getTime();
+
+        int lastReactionIndex = pLastReactionIndex.getValue();
+        if(NULL_REACTION != lastReactionIndex)
+        {
+            updateSymbolValuesForReaction(lastReactionIndex,
+                                          mDynamicSymbolValues,
+                                          mDynamicSymbolDelayedReactionAssociations,
+                                          NUMBER_FIRINGS);
+
+            updateReactionRate(lastReactionIndex);
+
+            Integer []reactionsRecomputeAfterEachIteration = mReactionsRecomputeAfterEachIteration;
+            for(int j = reactionsRecomputeAfterEachIteration.length; --j >= 0; )
+            {
+                updateReactionRate(reactionsRecomputeAfterEachIteration[j].intValue());
+            }
+
+            Integer []dependentReactions = (Integer []) mReactionDependencies[lastReactionIndex];
+            for(int ctr = dependentReactions.length; --ctr >= 0; )
+            {
+                updateReactionRate(dependentReactions[ctr].intValue());
+            }
+        }
+
+        double aggregateReactionProbability = mReactionProbabilitiesTree.getTotal();
+        double deltaTimeToNextReaction = Double.POSITIVE_INFINITY;
+
+        if(aggregateReactionProbability > 0.0)
+        {
+            deltaTimeToNextReaction = chooseDeltaTimeToNextReaction(aggregateReactionProbability);
+        }
+
+        int reactionIndex = -1;
+
+        if(null != mDelayedReactionCalendar)
+        {
+            double nextDelayedReactionTime = mDelayedReactionCalendar.peekTime();
+            if(nextDelayedReactionTime < time + deltaTimeToNextReaction)
+            {
+                // execute delayed reaction
+                deltaTimeToNextReaction = nextDelayedReactionTime - time;
+                reactionIndex = mDelayedReactionCalendar.pollOne();
+            }
+        }
+
+        if(-1 == reactionIndex && aggregateReactionProbability > 0.0)
+        {
+            reactionIndex = chooseIndexOfNextReactionFromTree(aggregateReactionProbability);
+        }
+
+        if(-1 != reactionIndex)
+        {
+            pLastReactionIndex.setValue(reactionIndex);
+
+            time += deltaTimeToNextReaction;
+        }
+        else
+        {
+            time = Double.POSITIVE_INFINITY;
+        }
+
+        mSymbolEvaluator.setTime(time);
+
+        return(time);
+    }
+
+
+    public void initialize(Model pModel) throws DataNotFoundException, InvalidInputException
+    {
+        initializeSimulator(pModel);
+        initializeSimulatorStochastic(pModel);
+        createDependencyGraph(pModel);
+        mReactionProbabilitiesTree = new SumTree(mReactions.length);
+        setInitialized(true);
+    }
+
+    protected void modifyDefaultSimulatorParameters(SimulatorParameters pSimulatorParameters)
+    {
+        // do nothing
+    }
+
+    public String getAlias()
+    {
+        return(CLASS_ALIAS);
+    }
+}
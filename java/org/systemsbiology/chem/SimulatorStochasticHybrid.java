@@ -0,0 +1,517 @@
+package org.systemsbiology.chem;
+/*
+ * Copyright (C) 2003 by Institute for Systems Biology,
+ * Seattle, Washington, USA.  All rights reserved.
+ *
+ * This source code is distributed under the GNU Lesser
+ * General Public License, the text of which is available at:
+ *   http://www.gnu.org/copyleft/lesser.html
+ */
+
+import org.systemsbiology.math.*;
+import org.systemsbiology.util.*;
+
+/**
+ * Simulates the dynamics of a set of coupled chemical reactions
+ * described by {@link Reaction} objects using a hybrid
+ * stochastic/deterministic algorithm.  At each iteration, the reactions
+ * are partitioned into "fast" reactions (those that occur many times
+ * per time step, and that involve only species with large populations)
+ * and "slow" reactions.  The fast reactions are integrated as a set of
+ * ordinary differential equations using the fourth-order Runge-Kutta
+ * method, with a step size chosen so that no species changes by more
+ * than a fraction <code>maxAllowedRelativeError</code> of its population
+ * per step.  The slow reactions are simulated exactly, using the
+ * integrated reaction probability density of the slow reactions
+ * (which is integrated along with the fast reactions) to determine the
+ * time of the next slow reaction event.  Since the partitioning is
+ * recomputed at each iteration, reactions move between the fast and
+ * slow subsets as the species populations change.  If there are no
+ * fast reactions, the algorithm reduces to the Gillespie direct method.
+ * See:  H. Salis and Y. Kaznessis, "Accurate hybrid stochastic simulation
+ * of a system of coupled chemical or biochemical reactions",
+ * <em>J. Chem. Phys.</em> <b>122</b>, 054103 (2005).
+ *
+ * @author Stephen Ramsey
+ */
+public final class SimulatorStochasticHybrid extends SimulatorStochasticBase implements IAliasableClass, ISimulator
+{
+    public static final String CLASS_ALIAS = "hybrid-SSA-RK4";
+    private static final long NUMBER_FIRINGS = 1;
+    public static final double DEFAULT_MAX_ALLOWED_RELATIVE_ERROR = 0.01;
+    private static final double MIN_NUM_FIRINGS_PER_STEP_FOR_FAST_REACTION = 10.0;
+    private static final double MIN_POPULATION_FOR_FAST_REACTION = 100.0;
+
+    private double mMaxAllowedRelativeError;
+
+    // static (per-model) information about each reaction
+    private boolean []mReactionCanBeFast;
+
+    // the current partitioning
+    private boolean []mReactionIsFast;
+    private int []mFastReactions;
+    private int mNumFastReactions;
+    private double mStepSize;
+    private boolean mIsFirstIteration;
+
+    // state of the slow-reaction "clock"
+    private double mSlowIntegratedProbability;
+    private double mSlowTargetIntegratedProbability;
+
+    // scratch space for the Runge-Kutta integration
+    private double []mSpeciesGrossRates;
+    private double []mYSav;
+    private double []mK1;
+    private double []mK2;
+    private double []mK3;
+    private double []mK4;
+
+    private void initializeHybrid() throws DataNotFoundException
+    {
+        int numReactions = mReactions.length;
+        int numSpecies = mDynamicSymbolValues.length;
+
+        initializeReactionsChangedSpecies();
+
+        mReactionCanBeFast = new boolean[numReactions];
+        mReactionIsFast = new boolean[numReactions];
+        mFastReactions = new int[numReactions];
+
+        for(int j = 0; j < numReactions; ++j)
+        {
+            int []changedSpeciesIndices = (int []) mReactionsChangedSpeciesIndices[j];
+            int numChangedSpecies = changedSpeciesIndices.length;
+            boolean canBeFast = (numChangedSpecies > 0);
+            for(int k = 0; k < numChangedSpecies; ++k)
+            {
+                int i = changedSpeciesIndices[k];
+
+                // the intermediate species of a delayed reaction must be changed
+                // by discrete reaction events, so that each molecule is queued
+                if(null != mDynamicSymbolDelayedReactionAssociations &&
+                   null != mDynamicSymbolDelayedReactionAssociations[i])
+                {
+                    canBeFast = false;
+                }
+            }
+
+            if(null != mReactionsDelayedReactionAssociations && null != mReactionsDelayedReactionAssociations[j])
+            {
+                canBeFast = false;
+            }
+
+            mReactionCanBeFast[j] = canBeFast;
+        }
+
+        mSpeciesGrossRates = new double[numSpecies];
+        mYSav = new double[numSpecies];
+        mK1 = new double[numSpecies];
+        mK2 = new double[numSpecies];
+        mK3 = new double[numSpecies];
+        mK4 = new double[numSpecies];
+    }
+
+    /*
+     * Computes the largest step size for which no species is changed by more than
+     * a fraction mMaxAllowedRelativeError of its population, by the fast reactions.
+     */
+    private double computeStepSize()
+    {
+        double []speciesGrossRates = mSpeciesGrossRates;
+        double []reactionProbabilities = mReactionProbabilities;
+        DoubleVector.zeroElements(speciesGrossRates);
+        for(int ctr = mNumFastReactions; --ctr >= 0; )
+        {
+            int j = mFastReactions[ctr];
+            double rate = reactionProbabilities[j];
+            int []changedSpeciesIndices = (int []) mReactionsChangedSpeciesIndices[j];
+            double []changedSpeciesStoichiometries = (double []) mReactionsChangedSpeciesStoichiometries[j];
+            for(int k = changedSpeciesIndices.length; --k >= 0; )
+            {
+                speciesGrossRates[changedSpeciesIndices[k]] += Math.abs(changedSpeciesStoichiometries[k]) * rate;
+            }
+        }
+
+        double []dynamicSymbolValues = mDynamicSymbolValues;
+        double stepSize = Double.POSITIVE_INFINITY;
+        for(int i = speciesGrossRates.length; --i >= 0; )
+        {
+            double grossRate = speciesGrossRates[i];
+            if(grossRate > 0.0)
+            {
+                double speciesStepSize = mMaxAllowedRelativeError * dynamicSymbolValues[i] / grossRate;
+                if(speciesStepSize < stepSize)
+                {
+                    stepSize = speciesStepSize;
+                }
+            }
+        }
+        return(stepSize);
+    }
+
+    /*
+     * Partitions the reactions into fast and slow subsets, based on the reaction
+     * probability densities (which must be up to date), and the species populations.
+     * Returns the aggregate reaction probability density of the slow reactions.
+     */
+    private double partitionReactions()
+    {
+        int numReactions = mReactions.length;
+        double []reactionProbabilities = mReactionProbabilities;
+        double []dynamicSymbolValues = mDynamicSymbolValues;
+        boolean []reactionIsFast = mReactionIsFast;
+        int []fastReactions = mFastReactions;
+
+        // candidate fast reactions change only species with large populations
+        int numFastReactions = 0;
+        for(int j = 0; j < numReactions; ++j)
+        {
+            boolean isFast = false;
+            if(mReactionCanBeFast[j] && reactionProbabilities[j] > 0.0)
+            {
+                isFast = true;
+                int []changedSpeciesIndices = (int []) mReactionsChangedSpeciesIndices[j];
+                for(int k = changedSpeciesIndices.length; --k >= 0; )
+                {
+                    if(dynamicSymbolValues[changedSpeciesIndices[k]] < MIN_POPULATION_FOR_FAST_REACTION)
+                    {
+                        isFast = false;
+                        break;
+                    }
+                }
+            }
+            if(isFast)
+            {
+                fastReactions[numFastReactions++] = j;
+            }
+        }
+        mNumFastReactions = numFastReactions;
+
+        double stepSize = computeStepSize();
+
+        // fast reactions must also occur many times per time step
+        int numRetainedReactions = 0;
+        for(int ctr = 0; ctr < numFastReactions; ++ctr)
+        {
+            int j = fastReactions[ctr];
+            if(reactionProbabilities[j] * stepSize >= MIN_NUM_FIRINGS_PER_STEP_FOR_FAST_REACTION)
+            {
+                fastReactions[numRetainedReactions++] = j;
+            }
+        }
+        if(numRetainedReactions < numFastReactions)
+        {
+            mNumFastReactions = numRetainedReactions;
+            stepSize = computeStepSize();
+        }
+        mStepSize = stepSize;
+
+        for(int j = numReactions; --j >= 0; )
+        {
+            reactionIsFast[j] = false;
+        }
+        for(int ctr = mNumFastReactions; --ctr >= 0; )
+        {
+            reactionIsFast[fastReactions[ctr]] = true;
+        }
+
+        double slowReactionProbability = 0.0;
+        for(int j = numReactions; --j >= 0; )
+        {
+            if(! reactionIsFast[j])
+            {
+                slowReactionProbability += reactionProbabilities[j];
+            }
+        }
+        return(slowReactionProbability);
+    }
+
+    /*
+     * Computes the time derivative of the species values due to the fast
+     * reactions, and returns the aggregate reaction probability density of the
+     * slow reactions, at the current species values and time.
+     */
+    private double computeHybridDerivative(double []pDerivative) throws DataNotFoundException
+    {
+        computeReactionProbabilities();
+
+        DoubleVector.zeroElements(pDerivative);
+
+        double []reactionProbabilities = mReactionProbabilities;
+        boolean []reactionIsFast = mReactionIsFast;
+        double slowReactionProbability = 0.0;
+        for(int j = reactionProbabilities.length; --j >= 0; )
+        {
+            double rate = reactionProbabilities[j];
+            if(reactionIsFast[j])
+            {
+                int []changedSpeciesIndices = (int []) mReactionsChangedSpeciesIndices[j];
+                double []changedSpeciesStoichiometries = (double []) mReactionsChangedSpeciesStoichiometries[j];
+                for(int k = changedSpeciesIndices.length; --k >= 0; )
+                {
+                    pDerivative[changedSpeciesIndices[k]] += changedSpeciesStoichiometries[k] * rate;
+                }
+            }
+            else
+            {
+                slowReactionProbability += rate;
+            }
+        }
+        return(slowReactionProbability);
+    }
+
+    /*
+     * Advances the species values and time by one fourth-order Runge-Kutta step
+     * of size pStepSize, for the fast reactions.  The species values at the start
+     * of the step are saved in mYSav.  Returns the integral of the aggregate slow
+     * reaction probability density over the step.
+     */
+    private double rk4step(double pStepSize) throws DataNotFoundException
+    {
+        double time = mSymbolEvaluator.getTime();
+        double []y = mDynamicSymbolValues;
+        double []ysav = mYSav;
+        double []k1 = mK1;
+        double []k2 = mK2;
+        double []k3 = mK3;
+        double []k4 = mK4;
+        int numSpecies = y.length;
+        double halfStep = pStepSize / 2.0;
+
+        System.arraycopy(y, 0, ysav, 0, numSpecies);
+
+        double s1 = computeHybridDerivative(k1);
+
+        for(int i = numSpecies; --i >= 0; )
+        {
+            y[i] = ysav[i] + halfStep * k1[i];
+        }
+        mSymbolEvaluator.setTime(time + halfStep);
+        double s2 = computeHybridDerivative(k2);
+
+        for(int i = numSpecies; --i >= 0; )
+        {
+            y[i] = ysav[i] + halfStep * k2[i];
+        }
+        double s3 = computeHybridDerivative(k3);
+
+        for(int i = numSpecies; --i >= 0; )
+        {
+            y[i] = ysav[i] + pStepSize * k3[i];
+        }
+        mSymbolEvaluator.setTime(time + pStepSize);
+        double s4 = computeHybridDerivative(k4);
+
+        double stepSixth = pStepSize / 6.0;
+        for(int i = numSpecies; --i >= 0; )
+        {
+            y[i] = ysav[i] + stepSixth * (k1[i] + 2.0 * k2[i] + 2.0 * k3[i] + k4[i]);
+        }
+        DoubleVector.zeroNegativeElements(y);
+
+        return(stepSixth * (s1 + 2.0 * s2 + 2.0 * s3 + s4));
+    }
+
+    private void resetSlowReactionClock()
+    {
+        mSlowIntegratedProbability = 0.0;
+        mSlowTargetIntegratedProbability = mRandomNumberGenerator.nextExponential();
+    }
+
+    /*
+     * Selects a slow reaction, with probability proportional to its reaction
+     * probability density at the current species values and time.
+     */
+    private int chooseIndexOfNextSlowReaction() throws DataNotFoundException
+    {
+        double []reactionProbabilities = mReactionProbabilities;
+        boolean []reactionIsFast = mReactionIsFast;
+        int numReactions = reactionProbabilities.length;
+        double slowReactionProbability = 0.0;
+        for(int j = numReactions; --j >= 0; )
+        {
+            double rate = 0.0;
+            if(! reactionIsFast[j])
+            {
+                rate = computeReactionRate(j);
+                slowReactionProbability += rate;
+            }
+            reactionProbabilities[j] = rate;
+        }
+
+        int reactionIndex = -1;
+        if(slowReactionProbability > 0.0)
+        {
+            reactionIndex = chooseIndexOfNextReaction(slowReactionProbability);
+        }
+        return(reactionIndex);
+    }
+
+    protected void prepareForStochasticSimulation(double pStartTime,
+                                                  SimulatorParameters pSimulatorParameters) throws IllegalArgumentException
+    {
+        Double maxAllowedError = pSimulatorParameters.getMaxAllowedRelativeError();
+        if(null == maxAllowedError)
+        {
+            throw new IllegalArgumentException("required simulator parameter maxAllowedRelativeError was not specified");
+        }
+        mMaxAllowedRelativeError = maxAllowedError.doubleValue();
+        mStepSize = 0.0;
+        mIsFirstIteration = true;
+        resetSlowReactionClock();
+    }
+
+    protected double iterate(MutableInteger pLastReactionIndex) throws DataNotFoundException, IllegalStateException
+    {
+        double time = mSymbolEvaluator.getTime();
+
+        if(mIsFirstIteration)
+        {
+            // unlike a reaction event, an integration step changes the species values
+            // immediately; so return the initial time, so that the initial species
+            // values are recorded
+            mIsFirstIteration = false;
+            return(time);
+        }
+
+        int lastReactionIndex = pLastReactionIndex.getValue();
+        if(NULL_REACTION != lastReactionIndex)
+        {
+            updateSymbolValuesForReaction(lastReactionIndex,
+                                          mDynamicSymbolValues,
+                                          mDynamicSymbolDelayedReactionAssociations,
+                                          NUMBER_FIRINGS);
+            pLastReactionIndex.setValue(NULL_REACTION);
+            resetSlowReactionClock();
+        }
+
+        computeReactionProbabilities();
+        double slowReactionProbability = partitionReactions();
+
+        double nextDelayedReactionTime = Double.POSITIVE_INFINITY;
+        if(null != mDelayedReactionCalendar)
+        {
+            nextDelayedReactionTime = mDelayedReactionCalendar.peekTime();
+        }
+
+        double remainingSlowProbability = mSlowTargetIntegratedProbability - mSlowIntegratedProbability;
+        int reactionIndex = -1;
+
+        if(0 == mNumFastReactions)
+        {
+            // no fast reactions; the species values are constant until the next reaction event
+            double deltaTimeToNextReaction = Double.POSITIVE_INFINITY;
+            if(slowReactionProbability > 0.0)
+            {
+                deltaTimeToNextReaction = remainingSlowProbability / slowReactionProbability;
+            }
+
+            if(nextDelayedReactionTime < time + deltaTimeToNextReaction)
+            {
+                // execute delayed reaction
+                mSlowIntegratedProbability += slowReactionProbability * (nextDelayedReactionTime - time);
+                reactionIndex = mDelayedReactionCalendar.pollOne();
+                time = nextDelayedReactionTime;
+            }
+            else if(slowReactionProbability > 0.0)
+            {
+                reactionIndex = chooseIndexOfNextReaction(slowReactionProbability);
+                time += deltaTimeToNextReaction;
+            }
+            else
+            {
+                time = Double.POSITIVE_INFINITY;
+            }
+        }
+        else
+        {
+            double stepSize = mStepSize;
+            boolean reachedDelayedReaction = false;
+            if(nextDelayedReactionTime - time <= stepSize)
+            {
+                stepSize = nextDelayedReactionTime - time;
+                reachedDelayedReaction = true;
+            }
+
+            double slowIntegratedProbability = rk4step(stepSize);
+
+            if(slowIntegratedProbability > 0.0 && slowIntegratedProbability >= remainingSlowProbability)
+            {
+                // a slow reaction occurs during this step; re-take a shorter step that
+                // ends (approximately) at the time of the slow reaction event
+                System.arraycopy(mYSav, 0, mDynamicSymbolValues, 0, mYSav.length);
+                mSymbolEvaluator.setTime(time);
+                stepSize *= remainingSlowProbability / slowIntegratedProbability;
+                rk4step(stepSize);
+                time += stepSize;
+                reactionIndex = chooseIndexOfNextSlowReaction();
+            }
+            else
+            {
+                mSlowIntegratedProbability += slowIntegratedProbability;
+                if(reachedDelayedReaction)
+                {
+                    // execute delayed reaction
+                    reactionIndex = mDelayedReactionCalendar.pollOne();
+                    time = nextDelayedReactionTime;
+                }
+                else
+                {
+                    time += stepSize;
+                }
+            }
+        }
+
+        if(-1 != reactionIndex)
+        {
+            pLastReactionIndex.setValue(reactionIndex);
+        }
+
+        mSymbolEvaluator.setTime(time);
+
+        return(time);
+    }
+
+    protected void checkDynamicalSymbolsValues(boolean pSimulationIsRunning, SymbolEvaluatorChem pSymbolEvaluator) throws AccuracyException
+    {
+        // species with very large populations are handled by the deterministic
+        // integration of the fast reactions, so there is no upper limit on the
+        // species population for this simulator
+    }
+
+    public void initialize(Model pModel) throws DataNotFoundException, InvalidInputException
+    {
+        initializeSimulator(pModel);
+        initializeSimulatorStochastic(pModel);
+        initializeHybrid();
+        setInitialized(true);
+    }
+
+    protected void modifyDefaultSimulatorParameters(SimulatorParameters pSimulatorParameters)
+    {
+        pSimulatorParameters.setMaxAllowedRelativeError(new Double(DEFAULT_MAX_ALLOWED_RELATIVE_ERROR));
+    }
+
+    protected void checkSimulationParametersImpl(SimulatorParameters pSimulatorParameters,
+                                                 int pNumResultsTimePoints)
+    {
+        super.checkSimulationParametersImpl(pSimulatorParameters,
+                                            pNumResultsTimePoints);
+
+        Double maxAllowedRelativeErrorObj = pSimulatorParameters.getMaxAllowedRelativeError();
+        if(null == maxAllowedRelativeErrorObj)
+        {
+            throw new IllegalArgumentException("missing max allowed relative error");
+        }
+        double maxAllowedRelativeError = maxAllowedRelativeErrorObj.doubleValue();
+        if(maxAllowedRelativeError <= 0.0 || maxAllowedRelativeError >= 1.0)
+        {
+            throw new IllegalArgumentException("invalid max allowed relative error: " + maxAllowedRelativeError);
+        }
+    }
+
+    public String getAlias()
+    {
+        return(CLASS_ALIAS);
+    }
+}
@@ -8,13 +8,17 @@ package org.systemsbiology.chem;
  *   http://www.gnu.org/copyleft/lesser.html
  */
 
+import java.util.Arrays;
+
 import org.systemsbiology.math.*;
 import org.systemsbiology.util.*;
 
 /**
  * Simulates the dynamics of a set of coupled chemical reactions
  * described by {@link Reaction} objects using the Gillespie stochastic
- * algorithm, "tau-leap method".
+ * algorithm, "tau-leap method".  At each iteration, only the rates
+ * of the reactions that depend on the species modified during the previous
+ * iteration (as determined by the reaction dependency graph) are recomputed.
  *
  * @author Stephen Ramsey
  */
@@ -27,10 +31,22 @@ public abstract class SimulatorStochasticTauLeapBase extends SimulatorStochastic
     private static final int MAX_FAILED_LEAP_ATTEMPTS_BEFORE_ABORT = 40;
     private static final int NUM_EVALUATIONS_BEFORE_RECOMPUTE_FJJP = 10;
     private static final long MIN_NUM_MILLISECONDS_FOR_PROGRESS_UPDATE = 4000;
+    private static final double MAX_EXPECTED_FIRINGS_PER_LEAP = 1.0e6;
 
     private double []mEstimatedSpeciesChange;
+    private long []mLeapNumFirings;            // number of firings of each reaction, in the leap being attempted
+    private boolean []mReactionProbabilitiesStale;
+    private int []mStaleReactions;
+    private int mNumStaleReactions;
     protected boolean []mReactionHasLocalSymbolsFlags;
 
+    // for each species, the highest order of any reaction in which it is a reactant,
+    // and the largest stoichiometry of the species in a reaction of that order
+    private int []mSpeciesHighestReactionOrder;
+    private int []mSpeciesHighestOrderStoichiometry;
+    private double []mSpeciesMeanChange;
+    private double []mSpeciesVarianceChange;
+
     protected double mAllowedError;
     protected long mNumNonLeapIterationsSinceLastLeapCheck;
     protected boolean mLastIterationWasLeap;
@@ -39,7 +55,7 @@ public abstract class SimulatorStochasticTauLeapBase extends SimulatorStochastic
     public static final String CLASS_ALIAS = "gillespie-tauleap"; 
 
     protected void prepareForStochasticSimulation(double pStartTime,
-                                                  SimulatorParameters pSimulatorParameters) throws IllegalArgumentException
+                                                  SimulatorParameters pSimulatorParameters) throws DataNotFoundException, IllegalArgumentException
     {
         Double maxAllowedError = pSimulatorParameters.getMaxAllowedRelativeError();
         if(null == maxAllowedError)
@@ -57,6 +73,73 @@ public abstract class SimulatorStochasticTauLeapBase extends SimulatorStochastic
         mMinRatioOfLeapTimeToReactionTimeScale = (long) (1.0 / stepSizeFraction.doubleValue());
         mNumNonLeapIterationsSinceLastLeapCheck = 0;
         mLastIterationWasLeap = true;
+
+        clearStaleReactions();
+        computeReactionProbabilities();
+    }
+
+    private void clearStaleReactions()
+    {
+        boolean []reactionProbabilitiesStale = mReactionProbabilitiesStale;
+        int []staleReactions = mStaleReactions;
+        for(int ctr = mNumStaleReactions; --ctr >= 0; )
+        {
+            reactionProbabilitiesStale[staleReactions[ctr]] = false;
+        }
+        mNumStaleReactions = 0;
+    }
+
+    private void markReactionStale(int pReactionIndex)
+    {
+        if(! mReactionProbabilitiesStale[pReactionIndex])
+        {
+            mReactionProbabilitiesStale[pReactionIndex] = true;
+            mStaleReactions[mNumStaleReactions++] = pReactionIndex;
+        }
+    }
+
+    private void markReactionsStale(Integer []pReactionIndices)
+    {
+        for(int ctr = pReactionIndices.length; --ctr >= 0; )
+        {
+            markReactionStale(pReactionIndices[ctr].intValue());
+        }
+    }
+
+    // marks as stale the reaction pReactionIndex, and all reactions whose rates depend on it
+    private void markDependentReactionsStale(int pReactionIndex)
+    {
+        markReactionStale(pReactionIndex);
+        markReactionsStale((Integer []) mReactionDependencies[pReactionIndex]);
+    }
+
+    // marks as stale all reactions whose rates depend on a species whose value was changed by the leap
+    private void markLeapDependentReactionsStale(double []pSpeciesChange)
+    {
+        Object []speciesReactionDependencies = mSpeciesReactionDependencies;
+        for(int i = pSpeciesChange.length; --i >= 0; )
+        {
+            if(0.0 != pSpeciesChange[i])
+            {
+                markReactionsStale((Integer []) speciesReactionDependencies[i]);
+            }
+        }
+    }
+
+    // recomputes the rates of the stale reactions, and of the reactions that depend on time
+    private void computeStaleReactionProbabilities() throws DataNotFoundException
+    {
+        markReactionsStale(mReactionsRecomputeAfterEachIteration);
+
+        double []reactionProbabilities = mReactionProbabilities;
+        int []staleReactions = mStaleReactions;
+        for(int ctr = mNumStaleReactions; --ctr >= 0; )
+        {
+            int reactionIndex = staleReactions[ctr];
+            reactionProbabilities[reactionIndex] = computeReactionRate(reactionIndex);
+        }
+
+        clearStaleReactions();
     }
 
     protected double iterate(MutableInteger pLastReactionIndex) throws DataNotFoundException, IllegalStateException, AccuracyException
@@ -71,12 +154,14 @@ public abstract class SimulatorStochasticTauLeapBase extends SimulatorStochastic
                                           mDynamicSymbolValues,
                                           mDynamicSymbolDelayedReactionAssociations,
                                           NUM_FIRINGS_GILLESPIE);
+            markDependentReactionsStale(lastReactionIndex);
         }
 
         int numReactions = mReactions.length;
         int numSpecies = mDynamicSymbols.length;
 
-        computeReactionProbabilities();
+        // only recompute the rates of reactions affected by the last iteration
+        computeStaleReactionProbabilities();
 
         double aggregateReactionProbability = DoubleVector.sumElements(mReactionProbabilities);
 
@@ -120,26 +205,14 @@ public abstract class SimulatorStochasticTauLeapBase extends SimulatorStochastic
 
             int reactionIndex = -1;
 
-            if(null == mDelayedReactionSolvers)
+            if(null != mDelayedReactionCalendar)
             {
-                // do nothing
-            }
-            else
-            {
-                int nextDelayedReactionIndex = getNextDelayedReactionIndex(mDelayedReactionSolvers);
-                if(nextDelayedReactionIndex >= 0)
+                double nextDelayedReactionTime = mDelayedReactionCalendar.peekTime();
+                if(nextDelayedReactionTime < time + deltaTimeToNextReaction)
                 {
-                    DelayedReactionSolver solver = mDelayedReactionSolvers[nextDelayedReactionIndex];
-                    double nextDelayedReactionTime = solver.peekNextReactionTime();
-//                System.out.println("next delayed reaction will occur at: " + nextDelayedReactionTime);
-                    if(nextDelayedReactionTime < time + deltaTimeToNextReaction)
-                    {
-                        // execute delayed reaction
-                        deltaTimeToNextReaction = nextDelayedReactionTime - time;
-                        reactionIndex = solver.getReactionIndex();
-//                    System.out.println("delayed reaction selected: " + pReactions[reactionIndex]);
-                        solver.pollNextReactionTime();
-                    }
+                    // execute delayed reaction
+                    deltaTimeToNextReaction = nextDelayedReactionTime - time;
+                    reactionIndex = mDelayedReactionCalendar.pollOne();
                 }
             }
 
@@ -182,7 +255,8 @@ public abstract class SimulatorStochasticTauLeapBase extends SimulatorStochastic
             boolean successfulLeap = false;
             for(int failedLeaps = 0; failedLeaps < MAX_FAILED_LEAP_ATTEMPTS_BEFORE_ABORT; ++failedLeaps)
             {
-                successfulLeap = attemptLeap(leapTime);
+                Arrays.fill(mLeapNumFirings, 0);
+                successfulLeap = attemptLeap(leapTime, mEstimatedSpeciesChange);
                 if(successfulLeap)
                 {
                     break;
@@ -195,36 +269,35 @@ public abstract class SimulatorStochasticTauLeapBase extends SimulatorStochastic
             }
 
             DoubleVector.add(mEstimatedSpeciesChange, mDynamicSymbolValues, mDynamicSymbolValues);
+            markLeapDependentReactionsStale(mEstimatedSpeciesChange);
 
-            if(null != mDelayedReactionSolvers)
+            if(null != mDelayedReactionCalendar)
             {
-                double nextDelayedReactionTime = 0.0;
-
-                DelayedReactionSolver solver = null;
-                int nextDelayedReactionIndex = NULL_REACTION;
-
-                while(nextDelayedReactionTime <= time)
+                // schedule the delayed reactions for the firings of the leap; the firing times are
+                // uniformly distributed over the leap, so they are all assigned the midpoint of the leap
+                double leapMidpointTime = time - 0.5 * leapTime;
+                long []leapNumFirings = mLeapNumFirings;
+                for(int j = leapNumFirings.length; --j >= 0; )
                 {
-                    nextDelayedReactionIndex = getNextDelayedReactionIndex(mDelayedReactionSolvers);
-                    if(nextDelayedReactionIndex > NULL_REACTION)
-                    {
-                        solver = mDelayedReactionSolvers[nextDelayedReactionIndex];
-                        nextDelayedReactionTime = solver.peekNextReactionTime();
-                        if(nextDelayedReactionTime <= time)
-                        {
-                            updateSymbolValuesForReaction(solver.getReactionIndex(),
-                                                          mDynamicSymbolValues,
-                                                          mDynamicSymbolDelayedReactionAssociations,
-                                                          NUM_FIRINGS_GILLESPIE);
-                            solver.pollNextReactionTime();
-                        }
-                    }      
-                    else
+                    if(leapNumFirings[j] > 0)
                     {
-                        break;
+                        scheduleDelayedReactionsForReaction(j, leapMidpointTime, leapNumFirings[j]);
                     }
                 }
-            }            
+
+                // carry out all of the delayed reactions that were scheduled to occur during
+                // the leap; the molecules scheduled for the same time are handled as a batch
+                while(mDelayedReactionCalendar.peekTime() <= time)
+                {
+                    long numDelayedReactionFirings = mDelayedReactionCalendar.peekCount();
+                    int delayedReactionIndex = mDelayedReactionCalendar.poll();
+                    updateSymbolValuesForReaction(delayedReactionIndex,
+                                                  mDynamicSymbolValues,
+                                                  mDynamicSymbolDelayedReactionAssociations,
+                                                  numDelayedReactionFirings);
+                    markDependentReactionsStale(delayedReactionIndex);
+                }
+            }
 
             mSymbolEvaluator.setTime(time);
         }
@@ -234,9 +307,37 @@ public abstract class SimulatorStochasticTauLeapBase extends SimulatorStochastic
         return(time);
     }
 
-    private boolean attemptLeap(double pLeapTime) throws DataNotFoundException
+    /**
+     * Adds <code>pNumFirings</code> firings of the reaction <code>pReactionIndex</code>
+     * to the leap being attempted:  the population changes are added to
+     * <code>pSpeciesChange</code>, and the firings are recorded, so that the delayed
+     * reactions can be scheduled if the leap is accepted.
+     */
+    protected final void addLeapFirings(int pReactionIndex,
+                                        double []pSpeciesChange,
+                                        long pNumFirings) throws DataNotFoundException
+    {
+        updateSymbolValuesForReaction(pReactionIndex,
+                                      pSpeciesChange,
+                                      null,
+                                      pNumFirings);
+        mLeapNumFirings[pReactionIndex] += pNumFirings;
+    }
+
+    /**
+     * Computes, into the array <code>pSpeciesChange</code>, a random change in
+     * the dynamic species populations resulting from a leap of duration
+     * <code>pLeapTime</code>, using the current reaction probability densities.
+     * Each firing must be added with {@link #addLeapFirings(int, double[], long)}.
+     * Returns false if the leap would make any species population negative
+     * (in which case the caller may attempt the leap again).  The default
+     * implementation is the explicit tau-leap method, in which the number of
+     * firings of each reaction is Poisson-distributed with a mean equal to the
+     * product of its reaction probability density and the leap time.
+     */
+    protected boolean attemptLeap(double pLeapTime, double []pSpeciesChange) throws DataNotFoundException
     {
-        DoubleVector.zeroElements(mEstimatedSpeciesChange);
+        DoubleVector.zeroElements(pSpeciesChange);
 
         int numSpecies = mDynamicSymbolValues.length;
         int numReactions = mReactions.length;
@@ -249,25 +350,15 @@ public abstract class SimulatorStochasticTauLeapBase extends SimulatorStochastic
             lambda = pLeapTime * mReactionProbabilities[j];
             if(lambda > 0.0)
             {
-                if(1.0/Math.sqrt(lambda) > mAllowedError)
-                {
-                    numFirings = (long) getPoissonEvent(mPoissonEventGenerator, lambda);
-                }
-                else
-                {
-                    numFirings = Math.round(lambda);
-                }
-                updateSymbolValuesForReaction(j, 
-                                              mEstimatedSpeciesChange, 
-                                              null, 
-                                              numFirings);
+                numFirings = getNumLeapFirings(lambda);
+                addLeapFirings(j, pSpeciesChange, numFirings);
             }
         }
 
         boolean succeeded = true;
         for(int i = numSpecies; --i >= 0; )
         {
-            if(mEstimatedSpeciesChange[i] + mDynamicSymbolValues[i] < 0.0)
+            if(pSpeciesChange[i] + mDynamicSymbolValues[i] < 0.0)
             {
                 succeeded = false;
                 break;
@@ -277,6 +368,27 @@ public abstract class SimulatorStochasticTauLeapBase extends SimulatorStochastic
         return(succeeded);
     }
 
+    /**
+     * Returns a random number of firings, during a leap, of a reaction whose
+     * expected number of firings is <code>pLambda</code>.  The number is
+     * Poisson-distributed, unless the relative fluctuation in the number
+     * of firings is below the allowed error, in which case the expected
+     * number of firings is simply rounded.
+     */
+    protected final long getNumLeapFirings(double pLambda)
+    {
+        long numFirings = 0;
+        if(1.0/Math.sqrt(pLambda) > mAllowedError)
+        {
+            numFirings = getPoissonEvent(mRandomNumberGenerator, pLambda);
+        }
+        else
+        {
+            numFirings = Math.round(pLambda);
+        }
+        return(numFirings);
+    }
+
     protected abstract double computeLeapTime(double pSumReactionProbabilities) throws DataNotFoundException;
 
     private double getLargestJumpConsistentWithAllowedError(double pSumReactionProbabilities,
@@ -338,6 +450,180 @@ public abstract class SimulatorStochasticTauLeapBase extends SimulatorStochastic
         return(jumpTime);
     }
 
+    /*
+     * Returns the factor "g" of Cao, Gillespie, and Petzold, by which the
+     * allowed relative change in the population of a species is divided,
+     * to account for the order of the reactions in which it is a reactant.
+     */
+    private static double computeHighestOrderFactor(int pReactionOrder,
+                                                    int pStoichiometry,
+                                                    double pPopulation)
+    {
+        double factor = (double) pReactionOrder;
+        if(2 == pReactionOrder)
+        {
+            if(pStoichiometry >= 2 && pPopulation > 1.0)
+            {
+                factor = 2.0 + 1.0/(pPopulation - 1.0);
+            }
+        }
+        else if(3 == pReactionOrder)
+        {
+            if(2 == pStoichiometry && pPopulation > 1.0)
+            {
+                factor = 1.5*(2.0 + 1.0/(pPopulation - 1.0));
+            }
+            else if(pStoichiometry >= 3 && pPopulation > 2.0)
+            {
+                factor = 3.0 + 1.0/(pPopulation - 1.0) + 2.0/(pPopulation - 2.0);
+            }
+        }
+        return(factor);
+    }
+
+    /**
+     * Computes the leap time using the species-based criterion of Cao, Gillespie,
+     * and Petzold, in which the leap time is chosen so that the expected change,
+     * and the standard deviation of the change, in the population of each reactant
+     * species is bounded by a fraction of its population.  The reactions whose
+     * elements in the array <code>pExcludedReactions</code> are true, are ignored.
+     * The cost is proportional to the number of species plus the number of nonzero
+     * elements of the stoichiometry matrix.  The leap time is also limited so that
+     * the expected number of firings of any reaction is finite.  Before calling
+     * this method, {@link #initializeSpeciesBasedLeapTime()} must have been called.
+     * See:  Y. Cao, D. Gillespie, and L. Petzold, "Efficient step size selection
+     * for the tau-leaping simulation method", <em>J. Chem. Phys.</em> <b>124</b>,
+     * 044109 (2006).
+     */
+    protected final double computeSpeciesBasedLeapTime(boolean []pExcludedReactions)
+    {
+        int numReactions = mReactionProbabilities.length;
+        int numSpecies = mDynamicSymbolValues.length;
+
+        double []meanChange = mSpeciesMeanChange;
+        double []varianceChange = mSpeciesVarianceChange;
+        DoubleVector.zeroElements(meanChange);
+        DoubleVector.zeroElements(varianceChange);
+
+        double []reactionProbabilities = mReactionProbabilities;
+        Object []reactionsChangedSpeciesIndices = mReactionsChangedSpeciesIndices;
+        Object []reactionsChangedSpeciesStoichiometries = mReactionsChangedSpeciesStoichiometries;
+        double maxRate = 0.0;
+
+        for(int j = numReactions; --j >= 0; )
+        {
+            double rate = reactionProbabilities[j];
+            if(rate <= 0.0)
+            {
+                continue;
+            }
+            if(rate > maxRate)
+            {
+                maxRate = rate;
+            }
+            if(pExcludedReactions[j])
+            {
+                continue;
+            }
+            int []changedSpeciesIndices = (int []) reactionsChangedSpeciesIndices[j];
+            double []changedSpeciesStoichiometries = (double []) reactionsChangedSpeciesStoichiometries[j];
+            for(int k = changedSpeciesIndices.length; --k >= 0; )
+            {
+                int i = changedSpeciesIndices[k];
+                double vij = changedSpeciesStoichiometries[k];
+                meanChange[i] += vij * rate;
+                varianceChange[i] += vij * vij * rate;
+            }
+        }
+
+        double leapTime = Double.MAX_VALUE;
+        double allowedError = mAllowedError;
+        double []speciesValues = mDynamicSymbolValues;
+        int []speciesHighestReactionOrder = mSpeciesHighestReactionOrder;
+
+        for(int i = numSpecies; --i >= 0; )
+        {
+            int order = speciesHighestReactionOrder[i];
+            if(0 == order)
+            {
+                // species is not a reactant in any reaction
+                continue;
+            }
+            double population = speciesValues[i];
+            double allowedChange = allowedError * population / computeHighestOrderFactor(order,
+                                                                                           mSpeciesHighestOrderStoichiometry[i],
+                                                                                           population);
+            if(allowedChange < 1.0)
+            {
+                allowedChange = 1.0;
+            }
+            double mean = Math.abs(meanChange[i]);
+            if(mean > 0.0 && allowedChange / mean < leapTime)
+            {
+                leapTime = allowedChange / mean;
+            }
+            double variance = varianceChange[i];
+            if(variance > 0.0 && allowedChange * allowedChange / variance < leapTime)
+            {
+                leapTime = allowedChange * allowedChange / variance;
+            }
+        }
+
+        if(maxRate > 0.0 && MAX_EXPECTED_FIRINGS_PER_LEAP / maxRate < leapTime)
+        {
+            leapTime = MAX_EXPECTED_FIRINGS_PER_LEAP / maxRate;
+        }
+
+        return(leapTime);
+    }
+
+    /**
+     * Allocates the storage needed by {@link #computeSpeciesBasedLeapTime(boolean[])},
+     * and determines the highest order of the reactions in which each species is
+     * a reactant.  The storage required is linear in the number of species.
+     */
+    protected final void initializeSpeciesBasedLeapTime()
+    {
+        int numReactions = mReactions.length;
+        int numSpecies = mDynamicSymbolValues.length;
+        mSpeciesHighestReactionOrder = new int[numSpecies];
+        mSpeciesHighestOrderStoichiometry = new int[numSpecies];
+        for(int j = 0; j < numReactions; ++j)
+        {
+            Symbol []reactantsSpecies = (Symbol []) mReactionsReactantsSpecies[j];
+            int []reactantsStoichiometries = (int []) mReactionsReactantsStoichiometries[j];
+            boolean []reactantsDynamic = (boolean []) mReactionsReactantsDynamic[j];
+            int numReactants = reactantsSpecies.length;
+            int order = 0;
+            for(int ctr = 0; ctr < numReactants; ++ctr)
+            {
+                if(reactantsDynamic[ctr])
+                {
+                    order += reactantsStoichiometries[ctr];
+                }
+            }
+            for(int ctr = 0; ctr < numReactants; ++ctr)
+            {
+                if(reactantsDynamic[ctr])
+                {
+                    int i = reactantsSpecies[ctr].getArrayIndex();
+                    int stoichiometry = reactantsStoichiometries[ctr];
+                    if(order > mSpeciesHighestReactionOrder[i])
+                    {
+                        mSpeciesHighestReactionOrder[i] = order;
+                        mSpeciesHighestOrderStoichiometry[i] = stoichiometry;
+                    }
+                    else if(order == mSpeciesHighestReactionOrder[i] && stoichiometry > mSpeciesHighestOrderStoichiometry[i])
+                    {
+                        mSpeciesHighestOrderStoichiometry[i] = stoichiometry;
+                    }
+                }
+            }
+        }
+        mSpeciesMeanChange = new double[numSpecies];
+        mSpeciesVarianceChange = new double[numSpecies];
+    }
+
     protected abstract void initializeTauLeap(SymbolEvaluatorChem pSymbolEvaluator) throws DataNotFoundException, InvalidInputException;
 
 
@@ -356,10 +642,15 @@ public abstract class SimulatorStochasticTauLeapBase extends SimulatorStochastic
     {
         initializeSimulator(pModel);
         initializeSimulatorStochastic(pModel);
-        initializeDynamicSymbolAdjustmentVectors();
+        createDependencyGraph(pModel);
+        initializeReactionsChangedSpecies();
         initializeReactionHasLocalSymbolsFlags();
         initializeTauLeap(mSymbolEvaluator);
         mEstimatedSpeciesChange = new double[mDynamicSymbolValues.length];
+        mLeapNumFirings = new long[mReactions.length];
+        mReactionProbabilitiesStale = new boolean[mReactions.length];
+        mStaleReactions = new int[mReactions.length];
+        mNumStaleReactions = 0;
         mMinNumMillisecondsForUpdate = MIN_NUM_MILLISECONDS_FOR_PROGRESS_UPDATE;
         setInitialized(true);
     }
@@ -29,7 +29,7 @@ public class SimulatorStochasticTauLeapComplex extends SimulatorStochasticTauLea
 
     private int []mJexpCols;
     private int []mJexpRows;
-    private Expression []mJexp;
+    private PostfixExpression []mJexp;
     
     private double []mAdjVecVals;
     private int []mAdjVecRows;
@@ -60,13 +60,13 @@ public class SimulatorStochasticTauLeapComplex extends SimulatorStochasticTauLea
 
         SymbolEvaluatorChem symbolEvaluator = mSymbolEvaluator;
 
-        Expression derivExp = null;
+        PostfixExpression derivExp = null;
         double derivVal = 0.0;
         double vijp = 0.0;
 
         int []jexpRows = mJexpRows;
         int []jexpCols = mJexpCols;
-        Expression []jexp = mJexp;
+        PostfixExpression []jexp = mJexp;
 
         int []adjVecCols = mAdjVecCols;
         int []adjVecRows = mAdjVecRows;
@@ -75,7 +75,6 @@ public class SimulatorStochasticTauLeapComplex extends SimulatorStochasticTauLea
         Reaction reaction = null;
         double []Fj;
         Reaction []reactions = mReactions;
-        boolean []reactionHasLocalSymbolsFlags = mReactionHasLocalSymbolsFlags;
 
         // Compute the values of all of the partial derivatives that are non-invariant
         // (have expressions instead of static floating-point values); this method of calculation is
@@ -86,16 +85,7 @@ public class SimulatorStochasticTauLeapComplex extends SimulatorStochasticTauLea
             j = jexpRows[k];
             i = jexpCols[k];
             derivExp = jexp[k];
-            if(! reactionHasLocalSymbolsFlags[j])
-            {
-                derivVal = derivExp.computeValue(symbolEvaluator);
-            }
-            else
-            {
-                symbolEvaluator.setLocalSymbolsMap(mReactionsLocalParamSymbolsMaps[j]);
-                derivVal = derivExp.computeValue(symbolEvaluator);
-                symbolEvaluator.setLocalSymbolsMap(null);
-            }
+            derivVal = derivExp.computeValue(symbolEvaluator);
 
             Fj = (double []) F[j];
             
@@ -155,7 +145,8 @@ public class SimulatorStochasticTauLeapComplex extends SimulatorStochasticTauLea
         int numReactions = mReactions.length;
         int numSpecies = mDynamicSymbols.length;
 
-        Object []v = mDynamicSymbolAdjustmentVectors;
+        initializeDynamicSymbolAdjustmentVectors();
+        Object []v = mDynamicSymbolAdjustmentMatrix.getDenseRows();
 
         ArrayList adjVecValues = new ArrayList();
         ArrayList adjVecRows = new ArrayList();
@@ -219,6 +210,7 @@ public class SimulatorStochasticTauLeapComplex extends SimulatorStochasticTauLea
                 deriv = computeRatePartialDerivativeExpression(j, reactionRate, species, pSymbolEvaluator);
                 if(! deriv.isSimpleNumber())
                 {
+                    pSymbolEvaluator.linkSymbols(deriv, mReactionsLocalParamSymbolsMaps[j]);
                     partialDerivExpressions.add(deriv);
                     partialDerivRows.add(new Integer(j));
                     partialDerivCols.add(new Integer(i));
@@ -239,12 +231,12 @@ public class SimulatorStochasticTauLeapComplex extends SimulatorStochasticTauLea
         }
 
         int numPartials = partialDerivExpressions.size();
-        mJexp = new Expression[numPartials];
+        mJexp = new PostfixExpression[numPartials];
         mJexpRows = new int[numPartials];
         mJexpCols = new int[numPartials];
         for(int k = 0; k < numPartials; ++k)
         {
-            mJexp[k] = (Expression) partialDerivExpressions.get(k);
+            mJexp[k] = new PostfixExpression((Expression) partialDerivExpressions.get(k));
             mJexpRows[k] = ((Integer) partialDerivRows.get(k)).intValue();
             mJexpCols[k] = ((Integer) partialDerivCols.get(k)).intValue();
         }
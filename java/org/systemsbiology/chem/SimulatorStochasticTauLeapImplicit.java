@@ -0,0 +1,414 @@
+package org.systemsbiology.chem;
+/*
+ * Copyright (C) 2003 by Institute for Systems Biology,
+ * Seattle, Washington, USA.  All rights reserved.
+ *
+ * This source code is distributed under the GNU Lesser
+ * General Public License, the text of which is available at:
+ *   http://www.gnu.org/copyleft/lesser.html
+ */
+
+import org.systemsbiology.util.*;
+import org.systemsbiology.math.*;
+import cern.colt.matrix.*;
+import cern.colt.matrix.impl.*;
+import cern.colt.matrix.linalg.*;
+import java.util.*;
+
+/**
+ * Implementation of the "implicit tau-leap" simulator, for
+ * stochastic models that are stiff (models containing fast
+ * reactions that rapidly reach a partial equilibrium, and
+ * slow reactions).  The leap time is selected using the
+ * species-based criterion of Cao, Gillespie, and Petzold,
+ * from which reversible reaction pairs that are in partial
+ * equilibrium are excluded, so that the leap time is limited
+ * by the slow dynamics of the system rather than by the fast
+ * reactions.  The new species populations are obtained by
+ * solving the (nonlinear) implicit tau-leap equations using
+ * Newton's method, with a Jacobian computed from the partial
+ * derivatives of the reaction rate expressions, and the number
+ * of firings of each reaction is then rounded to an integer.
+ * As with any implicit leaping method, the fluctuations of the
+ * species changed by reactions in partial equilibrium are
+ * underestimated (the mean populations, and the fluctuations of
+ * the species changed by the slow reactions, are not affected).
+ * See:  M. Rathinam, L. Petzold, Y. Cao, and D. Gillespie,
+ * "Stiffness in stochastic chemically reacting systems:  the
+ * implicit tau-leaping method", <em>J. Chem. Phys.</em> <b>119</b>,
+ * 12784 (2003); and Y. Cao, D. Gillespie, and L. Petzold,
+ * "The adaptive explicit-implicit tau-leaping method with automatic
+ * tau selection", <em>J. Chem. Phys.</em> <b>126</b>, 224101 (2007).
+ * Since the Newton iteration solves a dense linear system in the
+ * species populations, this simulator is intended for models with
+ * a modest number of species.
+ *
+ * @author Stephen Ramsey
+ */
+public class SimulatorStochasticTauLeapImplicit extends SimulatorStochasticTauLeapBase implements IAliasableClass, ISimulator
+{
+    public static final String CLASS_ALIAS = "tauleap-implicit";
+
+    private static final double PARTIAL_EQUILIBRIUM_TOLERANCE = 0.05;
+    private static final int MAX_NEWTON_ITERATIONS = 20;
+    private static final double NEWTON_RELATIVE_TOLERANCE = 1.0e-6;
+    private static final double NEWTON_ABSOLUTE_TOLERANCE = 1.0e-3;
+
+    // index of the reaction whose net stoichiometry is the negative of that
+    // of the given reaction, or NULL_REACTION if there is no such reaction
+    private int []mReversibleReactionPartners;
+
+    private boolean []mReactionsInPartialEquilibrium;
+
+    // sparse matrix of the partial derivatives of the reaction rates with
+    // respect to the species populations; each element is either an expression,
+    // or (if the expression is null) a constant value
+    private int []mJacReactions;
+    private int []mJacSpecies;
+    private PostfixExpression []mJacExpressions;
+    private double []mJacValues;
+
+    // scratch space for the Newton iteration
+    private double []mSavedSpeciesValues;
+    private double []mLeapFiringsNoise;
+    private double []mImplicitReactionRates;
+    private double []mNewtonConstant;
+    private DoubleMatrix2D mNewtonMatrix;
+    private DoubleMatrix1D mNewtonStep;
+    private LUDecompositionQuick mNewtonMatrixDecomposition;
+
+    // returns true if the reaction pReactionIndex, and its reverse reaction, are in partial equilibrium
+    private boolean reactionIsInPartialEquilibrium(int pReactionIndex)
+    {
+        boolean inEquilibrium = false;
+        int partnerIndex = mReversibleReactionPartners[pReactionIndex];
+        if(NULL_REACTION != partnerIndex)
+        {
+            double rate = mReactionProbabilities[pReactionIndex];
+            double partnerRate = mReactionProbabilities[partnerIndex];
+            inEquilibrium = (Math.abs(rate - partnerRate) <= PARTIAL_EQUILIBRIUM_TOLERANCE * Math.min(rate, partnerRate));
+        }
+        return(inEquilibrium);
+    }
+
+    protected double computeLeapTime(double pSumReactionProbabilities) throws DataNotFoundException
+    {
+        // the fast reactions that are in partial equilibrium do not constrain the leap time
+        boolean []reactionsInPartialEquilibrium = mReactionsInPartialEquilibrium;
+        for(int j = reactionsInPartialEquilibrium.length; --j >= 0; )
+        {
+            reactionsInPartialEquilibrium[j] = reactionIsInPartialEquilibrium(j);
+        }
+        return(computeSpeciesBasedLeapTime(reactionsInPartialEquilibrium));
+    }
+
+    // computes the rates of all reactions, for the species values currently in mDynamicSymbolValues
+    private void computeImplicitReactionRates(double []pReactionRates) throws DataNotFoundException
+    {
+        for(int j = pReactionRates.length; --j >= 0; )
+        {
+            pReactionRates[j] = computeReactionRate(j);
+        }
+    }
+
+    // sets mNewtonMatrix to the Jacobian of the implicit tau-leap equations, I - tau*sum_j v_j * grad(a_j)
+    private void computeNewtonMatrix(double pLeapTime) throws DataNotFoundException
+    {
+        DoubleMatrix2D newtonMatrix = mNewtonMatrix;
+        int numSpecies = mDynamicSymbolValues.length;
+        newtonMatrix.assign(0.0);
+        for(int i = numSpecies; --i >= 0; )
+        {
+            newtonMatrix.setQuick(i, i, 1.0);
+        }
+
+        SymbolEvaluatorChem symbolEvaluator = mSymbolEvaluator;
+        Object []reactionsChangedSpeciesIndices = mReactionsChangedSpeciesIndices;
+        Object []reactionsChangedSpeciesStoichiometries = mReactionsChangedSpeciesStoichiometries;
+        int []jacReactions = mJacReactions;
+        int []jacSpecies = mJacSpecies;
+        PostfixExpression []jacExpressions = mJacExpressions;
+        double []jacValues = mJacValues;
+
+        for(int k = jacReactions.length; --k >= 0; )
+        {
+            int j = jacReactions[k];
+            int ip = jacSpecies[k];
+            PostfixExpression derivExp = jacExpressions[k];
+            double derivVal = 0.0;
+            if(null == derivExp)
+            {
+                derivVal = jacValues[k];
+            }
+            else
+            {
+                derivVal = derivExp.computeValue(symbolEvaluator);
+            }
+            if(0.0 == derivVal)
+            {
+                continue;
+            }
+            int []changedSpeciesIndices = (int []) reactionsChangedSpeciesIndices[j];
+            double []changedSpeciesStoichiometries = (double []) reactionsChangedSpeciesStoichiometries[j];
+            for(int kp = changedSpeciesIndices.length; --kp >= 0; )
+            {
+                int i = changedSpeciesIndices[kp];
+                newtonMatrix.setQuick(i, ip, newtonMatrix.getQuick(i, ip) - pLeapTime * changedSpeciesStoichiometries[kp] * derivVal);
+            }
+        }
+    }
+
+    /*
+     * Solves for the species populations y at the end of the leap, from the implicit
+     * tau-leap equation y = x + sum_j v_j*(P_j - tau*a_j(x)) + tau*sum_j v_j*a_j(y),
+     * where P_j is a Poisson random number with mean tau*a_j(x).  The number of
+     * firings of reaction j is then the rounded value of P_j - tau*a_j(x) + tau*a_j(y).
+     */
+    protected boolean attemptLeap(double pLeapTime, double []pSpeciesChange) throws DataNotFoundException
+    {
+        int numReactions = mReactions.length;
+        int numSpecies = mDynamicSymbolValues.length;
+
+        double []speciesValues = mDynamicSymbolValues;
+        double []reactionProbabilities = mReactionProbabilities;
+        double []noise = mLeapFiringsNoise;
+        double []implicitRates = mImplicitReactionRates;
+        double []newtonConstant = mNewtonConstant;
+        Object []reactionsChangedSpeciesIndices = mReactionsChangedSpeciesIndices;
+        Object []reactionsChangedSpeciesStoichiometries = mReactionsChangedSpeciesStoichiometries;
+
+        System.arraycopy(speciesValues, 0, mSavedSpeciesValues, 0, numSpecies);
+        System.arraycopy(speciesValues, 0, newtonConstant, 0, numSpecies);
+
+        for(int j = numReactions; --j >= 0; )
+        {
+            double lambda = pLeapTime * reactionProbabilities[j];
+            double noisej = 0.0;
+            if(lambda > 0.0)
+            {
+                noisej = ((double) getNumLeapFirings(lambda)) - lambda;
+                if(0.0 != noisej)
+                {
+                    int []changedSpeciesIndices = (int []) reactionsChangedSpeciesIndices[j];
+                    double []changedSpeciesStoichiometries = (double []) reactionsChangedSpeciesStoichiometries[j];
+                    for(int k = changedSpeciesIndices.length; --k >= 0; )
+                    {
+                        newtonConstant[changedSpeciesIndices[k]] += changedSpeciesStoichiometries[k] * noisej;
+                    }
+                }
+            }
+            noise[j] = noisej;
+        }
+
+        // Newton iteration, starting from the current species populations
+        DoubleMatrix1D newtonStep = mNewtonStep;
+        boolean converged = false;
+        boolean singular = false;
+        for(int iterationCtr = 0; ; ++iterationCtr)
+        {
+            computeImplicitReactionRates(implicitRates);
+            if(converged || singular || iterationCtr >= MAX_NEWTON_ITERATIONS)
+            {
+                break;
+            }
+
+            // compute the (negative of the) residual of the implicit equations
+            for(int i = numSpecies; --i >= 0; )
+            {
+                newtonStep.setQuick(i, newtonConstant[i] - speciesValues[i]);
+            }
+            for(int j = numReactions; --j >= 0; )
+            {
+                double rate = implicitRates[j];
+                if(0.0 != rate)
+                {
+                    int []changedSpeciesIndices = (int []) reactionsChangedSpeciesIndices[j];
+                    double []changedSpeciesStoichiometries = (double []) reactionsChangedSpeciesStoichiometries[j];
+                    for(int k = changedSpeciesIndices.length; --k >= 0; )
+                    {
+                        int i = changedSpeciesIndices[k];
+                        newtonStep.setQuick(i, newtonStep.getQuick(i) + pLeapTime * changedSpeciesStoichiometries[k] * rate);
+                    }
+                }
+            }
+
+            computeNewtonMatrix(pLeapTime);
+            mNewtonMatrixDecomposition.decompose(mNewtonMatrix);
+            if(! mNewtonMatrixDecomposition.isNonsingular())
+            {
+                singular = true;
+                continue;
+            }
+            mNewtonMatrixDecomposition.solve(newtonStep);
+
+            converged = true;
+            for(int i = numSpecies; --i >= 0; )
+            {
+                double delta = newtonStep.getQuick(i);
+                double newValue = speciesValues[i] + delta;
+                if(Math.abs(delta) > NEWTON_RELATIVE_TOLERANCE * Math.abs(newValue) + NEWTON_ABSOLUTE_TOLERANCE)
+                {
+                    converged = false;
+                }
+                speciesValues[i] = newValue;
+            }
+        }
+
+        System.arraycopy(mSavedSpeciesValues, 0, speciesValues, 0, numSpecies);
+
+        if(! converged)
+        {
+            return(false);
+        }
+
+        DoubleVector.zeroElements(pSpeciesChange);
+        for(int j = numReactions; --j >= 0; )
+        {
+            long numFirings = Math.round(noise[j] + pLeapTime * implicitRates[j]);
+            if(numFirings > 0)
+            {
+                addLeapFirings(j, pSpeciesChange, numFirings);
+            }
+        }
+
+        boolean succeeded = true;
+        for(int i = numSpecies; --i >= 0; )
+        {
+            if(pSpeciesChange[i] + speciesValues[i] < 0.0)
+            {
+                succeeded = false;
+                break;
+            }
+        }
+
+        return(succeeded);
+    }
+
+    // returns a string that uniquely identifies the net stoichiometry of a reaction (multiplied by pSign)
+    private static String getStoichiometryKey(int []pChangedSpeciesIndices,
+                                              double []pChangedSpeciesStoichiometries,
+                                              double pSign)
+    {
+        TreeMap sortedStoichiometry = new TreeMap();
+        for(int k = 0; k < pChangedSpeciesIndices.length; ++k)
+        {
+            sortedStoichiometry.put(new Integer(pChangedSpeciesIndices[k]),
+                                    new Double(pSign * pChangedSpeciesStoichiometries[k]));
+        }
+        return(sortedStoichiometry.toString());
+    }
+
+    private void initializeReversibleReactionPartners()
+    {
+        int numReactions = mReactions.length;
+        mReversibleReactionPartners = new int[numReactions];
+        HashMap reactionsByStoichiometry = new HashMap();
+        for(int j = 0; j < numReactions; ++j)
+        {
+            mReversibleReactionPartners[j] = NULL_REACTION;
+            int []changedSpeciesIndices = (int []) mReactionsChangedSpeciesIndices[j];
+            if(0 == changedSpeciesIndices.length)
+            {
+                continue;
+            }
+            double []changedSpeciesStoichiometries = (double []) mReactionsChangedSpeciesStoichiometries[j];
+            String reverseKey = getStoichiometryKey(changedSpeciesIndices, changedSpeciesStoichiometries, -1.0);
+            Integer partnerIndexObj = (Integer) reactionsByStoichiometry.remove(reverseKey);
+            if(null != partnerIndexObj)
+            {
+                int partnerIndex = partnerIndexObj.intValue();
+                mReversibleReactionPartners[j] = partnerIndex;
+                mReversibleReactionPartners[partnerIndex] = j;
+            }
+            else
+            {
+                String key = getStoichiometryKey(changedSpeciesIndices, changedSpeciesStoichiometries, 1.0);
+                if(! reactionsByStoichiometry.containsKey(key))
+                {
+                    reactionsByStoichiometry.put(key, new Integer(j));
+                }
+            }
+        }
+    }
+
+    // computes the partial derivatives of each reaction rate, with respect to the species on which it depends
+    private void initializeJacobian(SymbolEvaluatorChem pSymbolEvaluator) throws DataNotFoundException
+    {
+        int numSpecies = mDynamicSymbols.length;
+        Expression []a = Simulator.getReactionRateExpressions(mReactions);
+
+        ArrayList jacReactions = new ArrayList();
+        ArrayList jacSpecies = new ArrayList();
+        ArrayList jacExpressions = new ArrayList();
+        ArrayList jacValues = new ArrayList();
+
+        for(int i = 0; i < numSpecies; ++i)
+        {
+            Integer []dependentReactions = (Integer []) mSpeciesReactionDependencies[i];
+            for(int ctr = 0; ctr < dependentReactions.length; ++ctr)
+            {
+                int j = dependentReactions[ctr].intValue();
+                Expression deriv = computeRatePartialDerivativeExpression(j, a[j], mDynamicSymbols[i], pSymbolEvaluator);
+                if(deriv.isSimpleNumber())
+                {
+                    double derivValue = deriv.getSimpleNumberValue();
+                    if(0.0 == derivValue)
+                    {
+                        continue;
+                    }
+                    jacExpressions.add(null);
+                    jacValues.add(new Double(derivValue));
+                }
+                else
+                {
+                    pSymbolEvaluator.linkSymbols(deriv, mReactionsLocalParamSymbolsMaps[j]);
+                    jacExpressions.add(deriv);
+                    jacValues.add(new Double(0.0));
+                }
+                jacReactions.add(new Integer(j));
+                jacSpecies.add(new Integer(i));
+            }
+        }
+
+        int numPartials = jacReactions.size();
+        mJacReactions = new int[numPartials];
+        mJacSpecies = new int[numPartials];
+        mJacExpressions = new PostfixExpression[numPartials];
+        mJacValues = new double[numPartials];
+        for(int k = 0; k < numPartials; ++k)
+        {
+            mJacReactions[k] = ((Integer) jacReactions.get(k)).intValue();
+            mJacSpecies[k] = ((Integer) jacSpecies.get(k)).intValue();
+            Expression jacExpression = (Expression) jacExpressions.get(k);
+            if(null != jacExpression)
+            {
+                mJacExpressions[k] = new PostfixExpression(jacExpression);
+            }
+            mJacValues[k] = ((Double) jacValues.get(k)).doubleValue();
+        }
+    }
+
+    protected void initializeTauLeap(SymbolEvaluatorChem pSymbolEvaluator) throws DataNotFoundException
+    {
+        int numReactions = mReactions.length;
+        int numSpecies = mDynamicSymbols.length;
+
+        initializeReversibleReactionPartners();
+        initializeSpeciesBasedLeapTime();
+        initializeJacobian(pSymbolEvaluator);
+
+        mReactionsInPartialEquilibrium = new boolean[numReactions];
+        mSavedSpeciesValues = new double[numSpecies];
+        mLeapFiringsNoise = new double[numReactions];
+        mImplicitReactionRates = new double[numReactions];
+        mNewtonConstant = new double[numSpecies];
+        mNewtonMatrix = new DenseDoubleMatrix2D(numSpecies, numSpecies);
+        mNewtonStep = new DenseDoubleMatrix1D(numSpecies);
+        mNewtonMatrixDecomposition = new LUDecompositionQuick();
+    }
+
+    public String getAlias()
+    {
+        return(CLASS_ALIAS);
+    }
+}
@@ -69,7 +69,8 @@ public class SimulatorStochasticTauLeapSimple extends SimulatorStochasticTauLeap
         int numReactions = mReactions.length;
         int numSpecies = mDynamicSymbols.length;
 
-        Object []v = mDynamicSymbolAdjustmentVectors;
+        initializeDynamicSymbolAdjustmentVectors();
+        Object []v = mDynamicSymbolAdjustmentMatrix.getDenseRows();
 
         Expression []a = Simulator.getReactionRateExpressions(mReactions);
         Species species = null;
@@ -110,20 +111,21 @@ public class SimulatorStochasticTauLeapSimple extends SimulatorStochasticTauLeap
             {
                 species = mDynamicSymbols[i];
                 deriv = computeRatePartialDerivativeExpression(j, reactionRate, species, pSymbolEvaluator);
+                if(deriv.isZero())
+                {
+                    continue;
+                }
 
                 for(int jp = 0; jp < numReactions; ++jp)
                 {
-                    if(! deriv.isSimpleNumber() || 0.0 != deriv.getSimpleNumberValue())
+                    vjpi = ((double []) v[jp])[i];
+                    if(vjpi != 0.0)
                     {
-                        vjpi = ((double []) v[jp])[i];
-                        if(vjpi != 0.0)
+                        if(null == fj[jp])
                         {
-                            if(null == fj[jp])
-                            {
-                                fj[jp] = new Expression(0.0);
-                            }
-                            fj[jp] = Expression.add(Expression.multiply(new Expression(vjpi), deriv), fj[jp]);
+                            fj[jp] = new Expression(0.0);
                         }
+                        fj[jp] = Expression.add(Expression.multiply(new Expression(vjpi), deriv), fj[jp]);
                     }
                 }
             }
@@ -0,0 +1,192 @@
+package org.systemsbiology.chem;
+/*
+ * Copyright (C) 2003 by Institute for Systems Biology,
+ * Seattle, Washington, USA.  All rights reserved.
+ *
+ * This source code is distributed under the GNU Lesser
+ * General Public License, the text of which is available at:
+ *   http://www.gnu.org/copyleft/lesser.html
+ */
+
+import org.systemsbiology.util.*;
+import org.systemsbiology.math.*;
+
+/**
+ * Implementation of Gillespie's "Tau-Leap" simulator that
+ * is optimized for models with large numbers of species and
+ * reactions.  The leap time is selected using the species-based
+ * criterion of Cao, Gillespie, and Petzold, whose cost is linear
+ * in the number of species plus the number of reactions (no
+ * partial derivatives of the reaction rates are required).
+ * A reaction is "critical" if it is within a few firings of
+ * exhausting one of its reactants.  The critical reactions
+ * are excluded from the leap time selection, and are instead
+ * simulated as in the Gillespie direct method:  during a leap,
+ * at most one critical reaction can occur, so that the species
+ * populations cannot become negative as a result of the critical
+ * reactions.  See:  Y. Cao, D. Gillespie, and L. Petzold,
+ * "Efficient step size selection for the tau-leaping simulation
+ * method", <em>J. Chem. Phys.</em> <b>124</b>, 044109 (2006).
+ *
+ * @author Stephen Ramsey
+ */
+public class SimulatorStochasticTauLeapSpecies extends SimulatorStochasticTauLeapBase implements IAliasableClass, ISimulator
+{
+    public static final String CLASS_ALIAS = "tauleap-species";
+
+    private static final double MIN_NUM_FIRINGS_FOR_NONCRITICAL_REACTION = 10.0;
+
+    private boolean []mReactionIsCritical;
+    private double mCriticalReactionsAggregateProbability;
+    private double mCriticalReactionTime;
+
+    // marks as critical each reaction that can fire fewer than MIN_NUM_FIRINGS_FOR_NONCRITICAL_REACTION
+    // times before exhausting one of its reactants, and returns the sum of their probability densities
+    private double markCriticalReactions()
+    {
+        double []reactionProbabilities = mReactionProbabilities;
+        double []speciesValues = mDynamicSymbolValues;
+        Object []reactionsChangedSpeciesIndices = mReactionsChangedSpeciesIndices;
+        Object []reactionsChangedSpeciesStoichiometries = mReactionsChangedSpeciesStoichiometries;
+        boolean []reactionIsCritical = mReactionIsCritical;
+        double aggregateProbability = 0.0;
+
+        for(int j = reactionProbabilities.length; --j >= 0; )
+        {
+            boolean critical = false;
+            double rate = reactionProbabilities[j];
+            if(rate > 0.0)
+            {
+                int []changedSpeciesIndices = (int []) reactionsChangedSpeciesIndices[j];
+                double []changedSpeciesStoichiometries = (double []) reactionsChangedSpeciesStoichiometries[j];
+                for(int k = changedSpeciesIndices.length; --k >= 0; )
+                {
+                    double vij = changedSpeciesStoichiometries[k];
+                    if(vij < 0.0 && Math.floor(speciesValues[changedSpeciesIndices[k]] / -vij) < MIN_NUM_FIRINGS_FOR_NONCRITICAL_REACTION)
+                    {
+                        critical = true;
+                        break;
+                    }
+                }
+                if(critical)
+                {
+                    aggregateProbability += rate;
+                }
+            }
+            reactionIsCritical[j] = critical;
+        }
+
+        return(aggregateProbability);
+    }
+
+    /*
+     * The leap time is the smaller of the leap time selected for the noncritical
+     * reactions, and a random time to the next occurrence of a critical reaction.
+     */
+    protected double computeLeapTime(double pSumReactionProbabilities) throws DataNotFoundException
+    {
+        double criticalAggregateProbability = markCriticalReactions();
+        mCriticalReactionsAggregateProbability = criticalAggregateProbability;
+
+        double leapTime = computeSpeciesBasedLeapTime(mReactionIsCritical);
+
+        double criticalReactionTime = Double.POSITIVE_INFINITY;
+        if(criticalAggregateProbability > 0.0)
+        {
+            criticalReactionTime = chooseDeltaTimeToNextReaction(criticalAggregateProbability);
+            if(criticalReactionTime < leapTime)
+            {
+                leapTime = criticalReactionTime;
+            }
+        }
+        mCriticalReactionTime = criticalReactionTime;
+
+        return(leapTime);
+    }
+
+    private int chooseIndexOfNextCriticalReaction()
+    {
+        double []reactionProbabilities = mReactionProbabilities;
+        boolean []reactionIsCritical = mReactionIsCritical;
+        double fractionOfAggregateProbability = mCriticalReactionsAggregateProbability * mRandomNumberGenerator.raw();
+        double cumulativeProbability = 0.0;
+        int reactionIndex = NULL_REACTION;
+        int numReactions = reactionProbabilities.length;
+        for(int j = 0; j < numReactions; ++j)
+        {
+            if(reactionIsCritical[j])
+            {
+                reactionIndex = j;
+                cumulativeProbability += reactionProbabilities[j];
+                if(cumulativeProbability > fractionOfAggregateProbability)
+                {
+                    break;
+                }
+            }
+        }
+        return(reactionIndex);
+    }
+
+    /*
+     * The noncritical reactions fire a Poisson-distributed number of times;
+     * if the leap extends to the time of the next critical reaction, exactly
+     * one critical reaction (chosen as in the Gillespie direct method) fires.
+     */
+    protected boolean attemptLeap(double pLeapTime, double []pSpeciesChange) throws DataNotFoundException
+    {
+        DoubleVector.zeroElements(pSpeciesChange);
+
+        double []reactionProbabilities = mReactionProbabilities;
+        boolean []reactionIsCritical = mReactionIsCritical;
+        int numReactions = reactionProbabilities.length;
+
+        for(int j = numReactions; --j >= 0; )
+        {
+            if(! reactionIsCritical[j])
+            {
+                double lambda = pLeapTime * reactionProbabilities[j];
+                if(lambda > 0.0)
+                {
+                    long numFirings = getNumLeapFirings(lambda);
+                    if(numFirings > 0)
+                    {
+                        addLeapFirings(j, pSpeciesChange, numFirings);
+                    }
+                }
+            }
+        }
+
+        if(pLeapTime >= mCriticalReactionTime)
+        {
+            int criticalReactionIndex = chooseIndexOfNextCriticalReaction();
+            if(NULL_REACTION != criticalReactionIndex)
+            {
+                addLeapFirings(criticalReactionIndex, pSpeciesChange, 1);
+            }
+        }
+
+        boolean succeeded = true;
+        double []speciesValues = mDynamicSymbolValues;
+        for(int i = speciesValues.length; --i >= 0; )
+        {
+            if(pSpeciesChange[i] + speciesValues[i] < 0.0)
+            {
+                succeeded = false;
+                break;
+            }
+        }
+
+        return(succeeded);
+    }
+
+    protected void initializeTauLeap(SymbolEvaluatorChem pSymbolEvaluator) throws DataNotFoundException
+    {
+        initializeSpeciesBasedLeapTime();
+        mReactionIsCritical = new boolean[mReactions.length];
+    }
+
+    public String getAlias()
+    {
+        return(CLASS_ALIAS);
+    }
+}
@@ -39,11 +39,13 @@ public final class SteadyStateAnalyzer
     public static Object []computeJacobian(Expression []pReactionRateExpressions,
                                            Reaction []pReactions,
                                            Species []pSpecies,
-                                           Object []pReactionSpeciesAdjustmentVectors,
+                                           SparseMatrix pReactionSpeciesAdjustmentMatrix,
                                            SymbolEvaluatorChem pSymbolEvaluator) throws DataNotFoundException
     {
         int numReactions = pReactions.length;
-        Object []v = pReactionSpeciesAdjustmentVectors;
+        int []vRowPointers = pReactionSpeciesAdjustmentMatrix.getRowPointers();
+        int []vColumnIndices = pReactionSpeciesAdjustmentMatrix.getColumnIndices();
+        double []vValues = pReactionSpeciesAdjustmentMatrix.getValues();
 
         int numSpecies = pSpecies.length;
 
@@ -57,37 +59,58 @@ public final class SteadyStateAnalyzer
             localSymbolsMaps[j] = Simulator.createLocalSymbolsMap(pReactions[j]);
         }
 
+        // the reactions whose rates have a nonzero partial derivative with respect to each species
+        Object []nonzeroPartials = new Object[numSpecies];
+
         for(int i = 0; i < numSpecies; ++i)
         {
             Species species = pSpecies[i];
-            Symbol speciesSymbol = species.getSymbol();
             double []partialsi = new double[numReactions];
             partials[i] = partialsi;
+            int []nonzeroPartialsi = new int[numReactions];
+            int numNonzeroPartials = 0;
             for(int j = 0; j < numReactions; ++j)
             {
-                Reaction reaction = pReactions[j];
                 Expression reactionRateExpression = pReactionRateExpressions[j];
-                partialsi[j] = Simulator.computeRatePartialDerivativeExpression(reactionRateExpression,
-                                                                                species,
-                                                                                pSymbolEvaluator,
-                                                                                localSymbolsMaps[j]).computeValue(pSymbolEvaluator);
+                Expression partialExpression = Simulator.computeRatePartialDerivativeExpression(reactionRateExpression,
+                                                                                                species,
+                                                                                                pSymbolEvaluator,
+                                                                                                localSymbolsMaps[j]);
+                if(partialExpression.isZero())
+                {
+                    continue;
+                }
+                pSymbolEvaluator.linkSymbols(partialExpression, localSymbolsMaps[j]);
+                partialsi[j] = partialExpression.computeValue(pSymbolEvaluator);
+                nonzeroPartialsi[numNonzeroPartials++] = j;
             }
+            int []nonzeroPartialsiTrimmed = new int[numNonzeroPartials];
+            System.arraycopy(nonzeroPartialsi, 0, nonzeroPartialsiTrimmed, 0, numNonzeroPartials);
+            nonzeroPartials[i] = nonzeroPartialsiTrimmed;
         }
 
         for(int i = 0; i < numSpecies; ++i)
         {
-            double []jaci = new double[numSpecies];
-            jac[i] = jaci;
-            for(int ip = 0; ip < numSpecies; ++ip)
+            jac[i] = new double[numSpecies];
+        }
+
+        // jac[i][ip] is the sum over reactions "j" of v[j][i] times the partial
+        // derivative of the rate of reaction "j" with respect to species "ip"; only
+        // the nonzero elements of each (sparse) row v[j] contribute to the sum
+        for(int ip = 0; ip < numSpecies; ++ip)
+        {
+            double []partialsip = (double []) partials[ip];
+            int []nonzeroPartialsip = (int []) nonzeroPartials[ip];
+            int numNonzeroPartials = nonzeroPartialsip.length;
+            for(int k = 0; k < numNonzeroPartials; ++k)
             {
-                double []partialsip = (double []) partials[ip];
-                double sum = 0.0;
-                for(int j = 0; j < numReactions; ++j)
+                int j = nonzeroPartialsip[k];
+                double partialsipj = partialsip[j];
+                int rowEnd = vRowPointers[j + 1];
+                for(int kp = vRowPointers[j]; kp < rowEnd; ++kp)
                 {
-                    double []vj = (double []) v[j];
-                    sum += vj[i] * partialsip[j];
+                    ((double []) jac[vColumnIndices[kp]])[ip] += vValues[kp] * partialsipj;
                 }
-                jaci[ip] = sum;
             }
         }
 
@@ -102,7 +125,7 @@ public final class SteadyStateAnalyzer
      */
     public static double []estimateSpeciesFluctuations(Reaction []pReactions,
                                                        Species []pSpecies,
-                                                       Object []pReactionSpeciesAdjustmentVectors,
+                                                       SparseMatrix pReactionSpeciesAdjustmentMatrix,
                                                        double []pReactionProbabilities,
                                                        SymbolEvaluatorChem pSymbolEvaluator) throws DataNotFoundException
     {
@@ -110,7 +133,7 @@ public final class SteadyStateAnalyzer
         int numSpecies = pSpecies.length;
         
         Expression []a = Simulator.getReactionRateExpressions(pReactions);
-        Object []Jdbl = computeJacobian(a, pReactions, pSpecies, pReactionSpeciesAdjustmentVectors, pSymbolEvaluator);
+        Object []Jdbl = computeJacobian(a, pReactions, pSpecies, pReactionSpeciesAdjustmentMatrix, pSymbolEvaluator);
         Algebra algebra = new Algebra();
 
         // allocate storage for the matrix J
@@ -160,22 +183,25 @@ public final class SteadyStateAnalyzer
         
         DoubleMatrix2D Q = algebra.mult(PT, Pinv);
 
-        Object []v = pReactionSpeciesAdjustmentVectors;
+        int []vRowPointers = pReactionSpeciesAdjustmentMatrix.getRowPointers();
+        int []vColumnIndices = pReactionSpeciesAdjustmentMatrix.getColumnIndices();
+        double []vValues = pReactionSpeciesAdjustmentMatrix.getValues();
         
         DoubleMatrix2D r = df.make(numSpecies, numReactions);
 
         for(int j = 0; j < numReactions; ++j)
         {
-            double []vj = (double []) v[j];
+            int rowStart = vRowPointers[j];
+            int rowEnd = vRowPointers[j + 1];
             double sum = 0.0;
-            for(int i = 0; i < numSpecies; ++i)
+            for(int k = rowStart; k < rowEnd; ++k)
             {
-                sum += Math.abs(vj[i]);
+                sum += Math.abs(vValues[k]);
             }
             double norm = 1.0 / Math.sqrt(sum);
-            for(int i = 0; i < numSpecies; ++i)
+            for(int k = rowStart; k < rowEnd; ++k)
             {
-                r.set(i, j, vj[i] * norm);
+                r.set(vColumnIndices[k], j, vValues[k] * norm);
             }
         }
         
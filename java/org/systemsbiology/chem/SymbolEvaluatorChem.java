@@ -15,15 +15,32 @@ import java.util.*;
 
 /**
  * Symbol Evaluator class used for chemical simulations.
+ * <p>
+ * A {@link Symbol} that is not yet bound to the array in which its
+ * value is stored is bound the first time its value is requested,
+ * by looking up its name in the local symbols map (if any), and then
+ * in the global symbols map.  Alternatively, all of the symbols of an
+ * expression can be bound in advance, with
+ * {@link #linkSymbols(Expression, HashMap)}; this also binds the
+ * reserved symbols (such as the time) to storage slots owned by this
+ * object, so that evaluating a linked expression requires no
+ * symbol-name lookups and no local symbols map.
  * 
  * @author Stephen Ramsey
  */
 public final class SymbolEvaluatorChem extends SymbolEvaluator
 {
+    private static final int TIME_INDEX = 0;
+
     private final HashMap mSymbolsMap;
-    private double mTime;
     private HashMap mLocalSymbolsMap;
     private final ReservedSymbolMapper mReservedSymbolMapper;
+    // values of the reserved symbols; the time is stored at TIME_INDEX
+    private final double []mReservedSymbolValues;
+    // maps the name of each reserved symbol to its index in mReservedSymbolValues
+    private final HashMap mReservedSymbolIndices;
+    // expressions whose symbols have been linked
+    private final IdentityHashMap mLinkedExpressions;
 
     public SymbolEvaluatorChem(boolean pUseExpressionValueCaching,
                                SymbolEvaluationPostProcessor pSymbolEvaluationPostProcessor,
@@ -33,6 +50,22 @@ public final class SymbolEvaluatorChem extends SymbolEvaluator
         super(pUseExpressionValueCaching, pSymbolEvaluationPostProcessor);
         mReservedSymbolMapper = pReservedSymbolMapper;
         mSymbolsMap = pSymbolsMap;
+        mReservedSymbolIndices = new HashMap();
+        mReservedSymbolIndices.put(ReservedSymbolMapperChemCommandLanguage.SYMBOL_TIME, new Integer(TIME_INDEX));
+        if(null != pReservedSymbolMapper)
+        {
+            Iterator reservedSymbolNamesIter = pReservedSymbolMapper.getReservedSymbolNames().iterator();
+            while(reservedSymbolNamesIter.hasNext())
+            {
+                String reservedSymbolName = (String) reservedSymbolNamesIter.next();
+                if(! mReservedSymbolIndices.containsKey(reservedSymbolName))
+                {
+                    mReservedSymbolIndices.put(reservedSymbolName, new Integer(mReservedSymbolIndices.size()));
+                }
+            }
+        }
+        mReservedSymbolValues = new double[mReservedSymbolIndices.size()];
+        mLinkedExpressions = new IdentityHashMap();
     }
 
     public ReservedSymbolMapper getReservedSymbolMapper()
@@ -47,12 +80,12 @@ public final class SymbolEvaluatorChem extends SymbolEvaluator
 
     public void setTime(double pTime)
     {
-        mTime = pTime;
+        mReservedSymbolValues[TIME_INDEX] = pTime;
     }
 
     public double getTime()
     {
-        return(mTime);
+        return(mReservedSymbolValues[TIME_INDEX]);
     }
 
     HashMap getSymbolsMap()
@@ -64,12 +97,24 @@ public final class SymbolEvaluatorChem extends SymbolEvaluator
     {
         Expression retVal = null;
         String symbolName = pSymbol.getName();
-        Symbol symbol = (Symbol) mSymbolsMap.get(symbolName);
-        if(null == symbol)
+        Symbol symbol = pSymbol;
+        if(NULL_ARRAY_INDEX == pSymbol.getArrayIndex())
         {
-            symbol = (Symbol) mLocalSymbolsMap.get(symbolName);
+            symbol = null;
+            if(null != mLocalSymbolsMap)
+            {
+                symbol = (Symbol) mLocalSymbolsMap.get(symbolName);
+            }
+            if(null == symbol)
+            {
+                symbol = (Symbol) mSymbolsMap.get(symbolName);
+            }
             if(null == symbol)
             {
+                if(null != mReservedSymbolMapper && mReservedSymbolMapper.isReservedSymbol(pSymbol))
+                {
+                    return(null);
+                }
                 throw new DataNotFoundException("unable to find symbol in symbol map, symbol is \"" + symbolName + "\"");
             }
         }
@@ -94,6 +139,97 @@ public final class SymbolEvaluatorChem extends SymbolEvaluator
         return(retVal);
     }    
 
+    /**
+     * Binds each symbol of <code>pExpression</code> to the array in
+     * which its value is stored, using the local symbols map
+     * <code>pLocalSymbolsMap</code> (which may be null) before the
+     * global symbols map.  A reserved symbol is bound to a storage slot
+     * of this object; the value of a reserved symbol other than the time
+     * is obtained from the {@link ReservedSymbolMapper} when it is linked,
+     * and so must be constant.  The expressions that are the values of
+     * (global) symbols referenced by <code>pExpression</code> are linked
+     * as well, using the global symbols map.  A symbol that is already
+     * bound is left unchanged.
+     */
+    public void linkSymbols(Expression pExpression, HashMap pLocalSymbolsMap) throws DataNotFoundException
+    {
+        if(mLinkedExpressions.containsKey(pExpression))
+        {
+            return;
+        }
+        mLinkedExpressions.put(pExpression, pExpression);
+        final ArrayList symbols = new ArrayList();
+        pExpression.visit(new Expression.IVisitor()
+        {
+            public void visit(Symbol pSymbol)
+            {
+                symbols.add(pSymbol);
+            }
+        });
+        int numSymbols = symbols.size();
+        for(int ctr = 0; ctr < numSymbols; ++ctr)
+        {
+            linkSymbol((Symbol) symbols.get(ctr), pLocalSymbolsMap);
+        }
+    }
+
+    /**
+     * Binds the symbol <code>pSymbol</code> as described in
+     * {@link #linkSymbols(Expression, HashMap)}.
+     */
+    public void linkSymbol(Symbol pSymbol, HashMap pLocalSymbolsMap) throws DataNotFoundException
+    {
+        if(NULL_ARRAY_INDEX == pSymbol.getArrayIndex())
+        {
+            String symbolName = pSymbol.getName();
+            if(null != mReservedSymbolMapper && mReservedSymbolMapper.isReservedSymbol(pSymbol))
+            {
+                int reservedSymbolIndex = ((Integer) mReservedSymbolIndices.get(symbolName)).intValue();
+                if(TIME_INDEX != reservedSymbolIndex)
+                {
+                    mReservedSymbolValues[reservedSymbolIndex] = mReservedSymbolMapper.getReservedSymbolValue(pSymbol, this);
+                }
+                pSymbol.setArray(mReservedSymbolValues);
+                pSymbol.setArrayIndex(reservedSymbolIndex);
+                return;
+            }
+            Symbol indexedSymbol = null;
+            if(null != pLocalSymbolsMap)
+            {
+                indexedSymbol = (Symbol) pLocalSymbolsMap.get(symbolName);
+            }
+            if(null == indexedSymbol)
+            {
+                indexedSymbol = (Symbol) mSymbolsMap.get(symbolName);
+            }
+            if(null == indexedSymbol)
+            {
+                throw new DataNotFoundException("unable to obtain value for symbol: " + symbolName);
+            }
+            pSymbol.copyIndexInfo(indexedSymbol);
+        }
+        Value []valueArray = pSymbol.getValueArray();
+        if(null != valueArray)
+        {
+            Value value = valueArray[pSymbol.getArrayIndex()];
+            if(null != value && value.isExpression())
+            {
+                // the value of a local symbol may refer to the other local symbols of the reaction;
+                // the value of a global symbol may refer only to global symbols
+                HashMap localSymbolsMap = null;
+                if(null != pLocalSymbolsMap)
+                {
+                    Symbol localSymbol = (Symbol) pLocalSymbolsMap.get(pSymbol.getName());
+                    if(null != localSymbol && localSymbol.getValueArray() == valueArray)
+                    {
+                        localSymbolsMap = pLocalSymbolsMap;
+                    }
+                }
+                linkSymbols(value.getExpressionValue(), localSymbolsMap);
+            }
+        }
+    }
+
     public double getUnindexedValue(Symbol pSymbol) throws DataNotFoundException, IllegalStateException
     {
         
@@ -39,6 +39,9 @@ public class SimulationLauncherCommandLine extends CommandLineApp
     private static final int DEFAULT_NUM_SAMPLES = 100;
 
     private static final String ENSEMBLE_SIZE_ARG = "-ensembleSize";
+    private static final String NUM_THREADS_ARG = "-numThreads";
+    private static final String NUM_LANES_ARG = "-numLanes";
+    private static final String SEED_ARG = "-seed";
     private static final String REL_TOLERANCE_ARG = "-relativeTolerance";
     private static final String ABS_TOLERANCE_ARG = "-absoluteTolerance";
     private static final String STEP_SIZE_FRACTION_ARG = "-stepSizeFraction";
@@ -52,6 +55,9 @@ public class SimulationLauncherCommandLine extends CommandLineApp
     private static final String STATUS_SECONDS_ARG = "-statusSeconds";
     private static final String COMPUTE_FLUCTUATIONS_ARG = "-computeFluctuations";
     private static final String PRINT_PARAMETERS_ARG = "-printParameters";
+    private static final String PRINT_STANDARD_DEVIATIONS_ARG = "-printStandardDeviations";
+    private static final String ENSEMBLE_QUANTILES_ARG = "-ensembleQuantiles";
+    private static final String COMPILE_EXPRESSIONS_ARG = "-compileExpressions";
 
     private static final Double DEFAULT_ERROR_TOLERANCE_RELATIVE = new Double(1e-6);
 
@@ -70,6 +76,9 @@ public class SimulationLauncherCommandLine extends CommandLineApp
     private Double mStopTime;
     private Integer mNumSamples;
     private Integer mEnsembleSize;
+    private Integer mNumThreads;
+    private Integer mNumLanes;
+    private Long mRandomNumberSeed;
     private Double mRelativeTolerance;
     private Double mAbsoluteTolerance;
     private boolean mNullRelativeTolerance;
@@ -81,6 +90,9 @@ public class SimulationLauncherCommandLine extends CommandLineApp
     private TimeSeriesOutputFormat mOutputFileFormat;
     private SimulationProgressReporter mSimulationProgressReporter;
     private boolean mComputeFluctuations;
+    private boolean mCompileExpressions;
+    private boolean mPrintStandardDeviations;
+    private double []mEnsembleQuantiles;
     private SignificantDigitsCalculator mSignificantDigitsCalculator;
     private ScientificNumberFormat mScientificNumberFormat;
 
@@ -187,13 +199,22 @@ public class SimulationLauncherCommandLine extends CommandLineApp
     protected void printUsage(OutputStream pOutputStream)
     {
         PrintWriter pw = new PrintWriter(pOutputStream);
-        pw.println("usage:    java " + getClass().getName() + " [-debug] [-parser <parserAlias>] [-startTime <startTime_float>] -stopTime <stopTime_float> [-numSamples <numSamples_int>] [-ensembleSize <ensembleSize_int>] [-relativeTolerance <tolerance_float>] [-absoluteTolerance <tolerance_float>] [-stepSizeFraction <numHistoryBins_double>] [-numHistoryBins <numHistoryBins_int>] -simulator <simulatorAlias> -modelFile <modelFile> [-outputFile <outputFile>] [-outputFormat <formatAlias>] [-printStatus [-statusSeconds <intervalSeconds>]] [-computeFluctuations] [-testOnly] [-printParameters]");
+        pw.println("usage:    java " + getClass().getName() + " [-debug] [-parser <parserAlias>] [-startTime <startTime_float>] -stopTime <stopTime_float> [-numSamples <numSamples_int>] [-ensembleSize <ensembleSize_int>] [-numThreads <numThreads_int>] [-numLanes <numLanes_int>] [-seed <seed_long>] [-relativeTolerance <tolerance_float>] [-absoluteTolerance <tolerance_float>] [-stepSizeFraction <numHistoryBins_double>] [-numHistoryBins <numHistoryBins_int>] -simulator <simulatorAlias> -modelFile <modelFile> [-outputFile <outputFile>] [-outputFormat <formatAlias>] [-printStatus [-statusSeconds <intervalSeconds>]] [-computeFluctuations] [-compileExpressions] [-printStandardDeviations] [-ensembleQuantiles <quantile_float>[,<quantile_float>...]] [-testOnly] [-printParameters]");
         pw.println("  <parserAlias>:   the alias of the class implementing the interface ");
         pw.println("                   org.systemsbiology.chem.IModelBuilder (default is determined");
         pw.println("                   by file extension");
         pw.println("  <modelFile>:     the full filename of the model definition file to be loaded");
         pw.println("[-testOnly]:       do not run an actual simulation; just parse the command-line and exit");
         pw.println("[-debug]:          print out debugging information, including all of the simulator parameter values]");
+        pw.println("[-seed]:           for a stochastic simulator, the seed of the random number generator;");
+        pw.println("                   if not specified, a seed based on the system clock is used");
+        pw.println("[-compileExpressions]:  compile the rate expressions of the reactions into Java bytecode,");
+        pw.println("                   for faster evaluation; this does not change the simulation results");
+        pw.println("[-printStandardDeviations]:  for a stochastic simulator, print the ensemble standard deviation");
+        pw.println("                   of each symbol at each sampled time, after the ensemble mean");
+        pw.println("[-ensembleQuantiles]:  for a stochastic simulator, print the ensemble quantiles with the");
+        pw.println("                   specified comma-separated probabilities (e.g., \"0.05,0.5,0.95\"),");
+        pw.println("                   of each symbol at each sampled time, after the ensemble mean");
         pw.println("\nThe list of allowed values for the \"-parser\" argument is:    ");
         pw.print(getParserAliasesList());
         pw.println("(If you do not specify a parser, the file suffix is used to select one)\n");
@@ -257,6 +278,9 @@ public class SimulationLauncherCommandLine extends CommandLineApp
         mOutputFileFormat = DEFAULT_OUTPUT_FORMAT;
         mPrintStatusSeconds = null;
         mComputeFluctuations = false;
+        mCompileExpressions = false;
+        mPrintStandardDeviations = false;
+        mEnsembleQuantiles = null;
         boolean testOnly = false;
         boolean printParameters = false;
         mNullAbsoluteTolerance = false;
@@ -318,6 +342,34 @@ public class SimulationLauncherCommandLine extends CommandLineApp
             {
                 mEnsembleSize = getRequiredIntegerArgumentModifier(ENSEMBLE_SIZE_ARG, pArgs, ++argCtr);
             }
+            else if(arg.equals(NUM_THREADS_ARG))
+            {
+                mNumThreads = getRequiredIntegerArgumentModifier(NUM_THREADS_ARG, pArgs, ++argCtr);
+                if(mNumThreads.intValue() <= 0)
+                {
+                    handleCommandLineError("number of threads must be a positive integer: " + mNumThreads);
+                }
+            }
+            else if(arg.equals(NUM_LANES_ARG))
+            {
+                mNumLanes = getRequiredIntegerArgumentModifier(NUM_LANES_ARG, pArgs, ++argCtr);
+                if(mNumLanes.intValue() <= 0)
+                {
+                    handleCommandLineError("number of lanes must be a positive integer: " + mNumLanes);
+                }
+            }
+            else if(arg.equals(SEED_ARG))
+            {
+                String seedString = getRequiredArgumentModifier(SEED_ARG, pArgs, ++argCtr);
+                try
+                {
+                    mRandomNumberSeed = new Long(Long.parseLong(seedString));
+                }
+                catch(NumberFormatException e)
+                {
+                    handleCommandLineError("invalid random number seed: " + seedString);
+                }
+            }
             else if(arg.equals(REL_TOLERANCE_ARG))
             {
                 mRelativeTolerance = getRequiredDoubleArgumentModifier(REL_TOLERANCE_ARG, pArgs, ++argCtr);
@@ -359,6 +411,39 @@ public class SimulationLauncherCommandLine extends CommandLineApp
             {
                 mComputeFluctuations = true;
             }
+            else if(arg.equals(COMPILE_EXPRESSIONS_ARG))
+            {
+                mCompileExpressions = true;
+            }
+            else if(arg.equals(PRINT_STANDARD_DEVIATIONS_ARG))
+            {
+                mPrintStandardDeviations = true;
+            }
+            else if(arg.equals(ENSEMBLE_QUANTILES_ARG))
+            {
+                String quantilesList = getRequiredArgumentModifier(ENSEMBLE_QUANTILES_ARG, pArgs, ++argCtr);
+                String []quantileStrings = quantilesList.split(",");
+                int numQuantiles = quantileStrings.length;
+                double []ensembleQuantiles = new double[numQuantiles];
+                for(int k = 0; k < numQuantiles; ++k)
+                {
+                    double ensembleQuantile = 0.0;
+                    try
+                    {
+                        ensembleQuantile = Double.parseDouble(quantileStrings[k].trim());
+                    }
+                    catch(NumberFormatException e)
+                    {
+                        handleCommandLineError("invalid ensemble quantile: " + quantileStrings[k]);
+                    }
+                    if(! (ensembleQuantile > 0.0 && ensembleQuantile < 1.0))
+                    {
+                        handleCommandLineError("ensemble quantile must be between 0 and 1: " + quantileStrings[k]);
+                    }
+                    ensembleQuantiles[k] = ensembleQuantile;
+                }
+                mEnsembleQuantiles = ensembleQuantiles;
+            }
             else if(arg.equals(STATUS_SECONDS_ARG))
             {
                 mPrintStatusSeconds = getRequiredDoubleArgumentModifier(STATUS_SECONDS_ARG, pArgs, ++argCtr);
@@ -403,6 +488,21 @@ public class SimulationLauncherCommandLine extends CommandLineApp
             mSimulatorParameters.setEnsembleSize(mEnsembleSize);
         }
 
+        if(null != mNumThreads)
+        {
+            mSimulatorParameters.setNumThreads(mNumThreads);
+        }
+
+        if(null != mNumLanes)
+        {
+            mSimulatorParameters.setNumLanes(mNumLanes);
+        }
+
+        if(null != mRandomNumberSeed)
+        {
+            mSimulatorParameters.setRandomNumberSeed(mRandomNumberSeed);
+        }
+
         if(null != mRelativeTolerance || mNullRelativeTolerance)
         {
             mSimulatorParameters.setMaxAllowedRelativeError(mRelativeTolerance);
@@ -414,6 +514,18 @@ public class SimulationLauncherCommandLine extends CommandLineApp
         }
 
         mSimulatorParameters.setComputeFluctuations(mComputeFluctuations);
+        mSimulatorParameters.setCompileExpressions(mCompileExpressions);
+
+        if(null != mEnsembleQuantiles)
+        {
+            mSimulatorParameters.setEnsembleQuantiles(mEnsembleQuantiles);
+        }
+
+        if((mPrintStandardDeviations || null != mEnsembleQuantiles) &&
+           ! (mSimulator instanceof org.systemsbiology.chem.SimulatorStochasticBase))
+        {
+            handleCommandLineError("ensemble statistics can only be printed for a stochastic simulator");
+        }
         if(mComputeFluctuations && (mSimulator instanceof org.systemsbiology.chem.SimulatorStochasticBase)
             && null != mEnsembleSize 
             && mEnsembleSize.intValue() <= 1)
@@ -505,6 +617,27 @@ public class SimulationLauncherCommandLine extends CommandLineApp
         }
     }
 
+    private void printLoadMetrics(IModelBuilder pModelBuilder, Model pModel, long pLoadTimeMillis)
+    {
+        double loadTimeSeconds = ((double) pLoadTimeMillis)/MILLISECONDS_PER_SECOND;
+        int numReactions = pModel.getReactions().size();
+        StringBuffer message = new StringBuffer("elapsed time to load the model: " + loadTimeSeconds + " seconds; reactions: " + numReactions);
+        if(pModelBuilder instanceof ModelBuilderCommandLanguage)
+        {
+            int numStatements = ((ModelBuilderCommandLanguage) pModelBuilder).getNumStatements();
+            message.append("; statements: " + numStatements);
+            if(pLoadTimeMillis > 0)
+            {
+                message.append("; statements per second: " + (long) (numStatements / loadTimeSeconds));
+            }
+        }
+        if(pLoadTimeMillis > 0)
+        {
+            message.append("; reactions per second: " + (long) (numReactions / loadTimeSeconds));
+        }
+        System.err.println(message.toString());
+    }
+
     private void run(String []pArgs)
     {
         try
@@ -524,7 +657,13 @@ public class SimulationLauncherCommandLine extends CommandLineApp
             IncludeHandler includeHandler = new IncludeHandler();
             File fileDir = mModelFile.getParentFile();
             includeHandler.setDirectory(fileDir);
+            long loadTimeStart = System.currentTimeMillis();
             Model model = modelBuilder.buildModel(inputStream, includeHandler);
+            long loadTimeEnd = System.currentTimeMillis();
+            if(mPrintStatus || getDebug())
+            {
+                printLoadMetrics(modelBuilder, model, loadTimeEnd - loadTimeStart);
+            }
             if(getDebug())
             {
                 System.err.println("script build process complete; model is: \n");
@@ -612,6 +751,42 @@ public class SimulationLauncherCommandLine extends CommandLineApp
                                                                         mScientificNumberFormat,
                                                                         mOutputFileFormat);
 
+            if(mPrintStandardDeviations)
+            {
+                Object []resultsSymbolStandardDeviations = simulationResults.getResultsSymbolStandardDeviations();
+                if(null != resultsSymbolStandardDeviations)
+                {
+                    mOutputFilePrintWriter.println("# ensemble standard deviation");
+                    TimeSeriesSymbolValuesReporter.reportTimeSeriesSymbolValues(mOutputFilePrintWriter,
+                                                                                globalSymbolsArray,
+                                                                                resultsTimeValues,
+                                                                                resultsSymbolStandardDeviations,
+                                                                                mScientificNumberFormat,
+                                                                                mOutputFileFormat);
+                }
+                else
+                {
+                    mOutputFilePrintWriter.println("unable to compute the ensemble standard deviation; an ensemble size of greater than one is required");
+                }
+            }
+
+            Object []resultsSymbolQuantiles = simulationResults.getResultsSymbolQuantiles();
+            if(null != resultsSymbolQuantiles)
+            {
+                double []quantileProbabilities = simulationResults.getResultsQuantileProbabilities();
+                int numQuantiles = quantileProbabilities.length;
+                for(int k = 0; k < numQuantiles; ++k)
+                {
+                    mOutputFilePrintWriter.println("# ensemble quantile " + quantileProbabilities[k]);
+                    TimeSeriesSymbolValuesReporter.reportTimeSeriesSymbolValues(mOutputFilePrintWriter,
+                                                                                globalSymbolsArray,
+                                                                                resultsTimeValues,
+                                                                                (Object []) resultsSymbolQuantiles[k],
+                                                                                mScientificNumberFormat,
+                                                                                mOutputFileFormat);
+                }
+            }
+
             if(mComputeFluctuations)
             {
                 double []finalSymbolFluctuations = simulationResults.getResultsFinalSymbolFluctuations();
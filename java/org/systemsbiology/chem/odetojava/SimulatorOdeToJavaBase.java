@@ -26,7 +26,6 @@ public abstract class SimulatorOdeToJavaBase extends Simulator implements ODE, O
 
     private long mIterationCounter;
     private double []mDerivative;
-    private double []mScratch;
     private boolean mSimulationCancelled;
     private double mTimeRangeMult;
     private long mTimeOfLastUpdateMilliseconds;
@@ -59,6 +58,8 @@ public abstract class SimulatorOdeToJavaBase extends Simulator implements ODE, O
             resizeDelayedReactionSolvers(numHistoryBins);
         }
 
+        prepareCompiledReactionRates(pSimulatorParameters);
+
         double []retTimeValues = new double[pNumResultsTimePoints];
         Object []retSymbolValues = new Object[pNumResultsTimePoints];
 
@@ -172,15 +173,11 @@ public abstract class SimulatorOdeToJavaBase extends Simulator implements ODE, O
             }
             if(estimateFinalSpeciesFluctuations)
             {
-                if(mUseExpressionValueCaching)
-                {
-                    clearExpressionValueCaches();
-                }
                 computeReactionProbabilities();
 
                 double []allFinalSpeciesFluctuations = SteadyStateAnalyzer.estimateSpeciesFluctuations(mReactions,
                                                                                                        mDynamicSymbols,
-                                                                                                       mDynamicSymbolAdjustmentVectors,
+                                                                                                       mDynamicSymbolAdjustmentMatrix,
                                                                                                        mReactionProbabilities,
                                                                                                        mSymbolEvaluator);
                 if(null != allFinalSpeciesFluctuations)
@@ -301,12 +298,7 @@ public abstract class SimulatorOdeToJavaBase extends Simulator implements ODE, O
 
         try
         {
-            if(mUseExpressionValueCaching)
-            {
-                clearExpressionValueCaches();
-            }
-            computeDerivative(mScratch,
-                              mDerivative);
+            computeDerivative(mDerivative);
         }
         catch(DataNotFoundException e)
         {
@@ -398,7 +390,6 @@ public abstract class SimulatorOdeToJavaBase extends Simulator implements ODE, O
         initializeDynamicSymbolAdjustmentVectors();
         int numSpecies = mDynamicSymbolValues.length;
         mDerivative = new double[numSpecies];
-        mScratch = new double[numSpecies];
         mSimulationCancelled = false;
         mSimulationCancelledEventNegReturnFlag = false;
         setInitialized(true);
@@ -13,31 +13,48 @@ import org.systemsbiology.math.*;
 import org.systemsbiology.util.*;
 import java.util.*;
 
+/**
+ * Post-processor that converts the values of symbols from the units
+ * used in the simulator (molecules, and molecules per unit time) to the
+ * units used in an SBML model (substance per unit volume, and substance
+ * per unit time).  The kind of each symbol (reaction, species in a
+ * compartment, or other) is determined from its name the first time the
+ * symbol's storage slot is encountered, and is then recorded by the
+ * index of the slot, so that post-processing a value does not require
+ * any lookup of the symbol name.
+ */
 public final class SymbolEvaluationPostProcessorChemMarkupLanguage extends SymbolEvaluationPostProcessor
 {
     private static final int NULL_ARRAY_INDEX = Symbol.NULL_ARRAY_INDEX;
+
+    private static final byte SYMBOL_KIND_UNKNOWN = 0;
+    private static final byte SYMBOL_KIND_OTHER = 1;
+    private static final byte SYMBOL_KIND_REACTION = 2;
+    private static final byte SYMBOL_KIND_SPECIES = 3;
     
     private final HashMap mSpeciesCompartmentMap;        // maps species names to compartment names; provided by user
     private final HashSet mReactionSet;
     private double mConvertSubstanceToMolecules;
-    private Symbol []mDynamicalSpeciesCompartmentSymbolsMap;
-    private Symbol []mNonDynamicalSpeciesCompartmentSymbolsMap;
-    private boolean []mDynamicalSpeciesCompartmentSymbolsInitialized;
-    private boolean []mNonDynamicalSpeciesCompartmentSymbolsInitialized;
+    private boolean mGlobalSymbolsArraysInitialized;
     private double []mGlobalSymbolsDoubleArray;
     private Value []mGlobalSymbolsValuesArray;
+    private byte []mDynamicalSymbolsKinds;
+    private byte []mNonDynamicalSymbolsKinds;
+    private Symbol []mDynamicalSpeciesCompartmentSymbolsMap;
+    private Symbol []mNonDynamicalSpeciesCompartmentSymbolsMap;
 
     public SymbolEvaluationPostProcessorChemMarkupLanguage(HashMap pSpeciesCompartmentMap, HashSet pReactionSet, double pConvertSubstanceToMolecules)
     {
         mConvertSubstanceToMolecules = pConvertSubstanceToMolecules;
         mSpeciesCompartmentMap = pSpeciesCompartmentMap;
         mReactionSet = pReactionSet;
-        mDynamicalSpeciesCompartmentSymbolsMap = null;
-        mNonDynamicalSpeciesCompartmentSymbolsMap = null;
-        mDynamicalSpeciesCompartmentSymbolsInitialized = null;
-        mNonDynamicalSpeciesCompartmentSymbolsInitialized = null;
+        mGlobalSymbolsArraysInitialized = false;
         mGlobalSymbolsDoubleArray = null;
         mGlobalSymbolsValuesArray = null;
+        mDynamicalSymbolsKinds = null;
+        mNonDynamicalSymbolsKinds = null;
+        mDynamicalSpeciesCompartmentSymbolsMap = null;
+        mNonDynamicalSpeciesCompartmentSymbolsMap = null;
     }
 
     public Object clone()
@@ -45,29 +62,60 @@ public final class SymbolEvaluationPostProcessorChemMarkupLanguage extends Symbo
         SymbolEvaluationPostProcessorChemMarkupLanguage processor = new SymbolEvaluationPostProcessorChemMarkupLanguage(mSpeciesCompartmentMap, mReactionSet, mConvertSubstanceToMolecules);
         return(processor);
     }
-    
 
-    private void initializeDynamicSymbolsArrays(int pNumDynamicSymbols)
+    // finds the arrays in which the global symbols are stored, by looking up the species and reactions
+    private void initializeGlobalSymbolsArrays(SymbolEvaluatorChem pSymbolEvaluator)
     {
-        mDynamicalSpeciesCompartmentSymbolsMap = new Symbol[pNumDynamicSymbols];
-        mDynamicalSpeciesCompartmentSymbolsInitialized = new boolean[pNumDynamicSymbols];
-        for(int i = 0; i < pNumDynamicSymbols; ++i)
+        ArrayList symbolNames = new ArrayList(mSpeciesCompartmentMap.keySet());
+        symbolNames.addAll(mReactionSet);
+        int numSymbolNames = symbolNames.size();
+        for(int ctr = 0; ctr < numSymbolNames; ++ctr)
         {
-            mDynamicalSpeciesCompartmentSymbolsMap[i] = null;
-            mDynamicalSpeciesCompartmentSymbolsInitialized[i] = false;
+            Symbol symbol = pSymbolEvaluator.getSymbol((String) symbolNames.get(ctr));
+            if(null == symbol || NULL_ARRAY_INDEX == symbol.getArrayIndex())
+            {
+                continue;
+            }
+            double []doubleArray = symbol.getDoubleArray();
+            if(null != doubleArray && null == mGlobalSymbolsDoubleArray)
+            {
+                mGlobalSymbolsDoubleArray = doubleArray;
+                mDynamicalSymbolsKinds = new byte[doubleArray.length];
+                mDynamicalSpeciesCompartmentSymbolsMap = new Symbol[doubleArray.length];
+            }
+            Value []valueArray = symbol.getValueArray();
+            if(null != valueArray && null == mGlobalSymbolsValuesArray)
+            {
+                mGlobalSymbolsValuesArray = valueArray;
+                mNonDynamicalSymbolsKinds = new byte[valueArray.length];
+                mNonDynamicalSpeciesCompartmentSymbolsMap = new Symbol[valueArray.length];
+            }
         }
+        mGlobalSymbolsArraysInitialized = true;
     }
 
-    private void initializeNonDynamicSymbolsArrays(int pNumNonDynamicSymbols)
+    private byte getSymbolKind(String pSymbolName, 
+                               int pArrayIndex, 
+                               byte []pSymbolsKinds, 
+                               Symbol []pCompartmentSymbols, 
+                               SymbolEvaluatorChem pSymbolEvaluator) throws DataNotFoundException
     {
-
-        mNonDynamicalSpeciesCompartmentSymbolsMap = new Symbol[pNumNonDynamicSymbols];
-        mNonDynamicalSpeciesCompartmentSymbolsInitialized = new boolean[pNumNonDynamicSymbols];
-        for(int i = 0; i < pNumNonDynamicSymbols; ++i)
+        byte kind = SYMBOL_KIND_OTHER;
+        if(mReactionSet.contains(pSymbolName))
         {
-            mNonDynamicalSpeciesCompartmentSymbolsMap[i] = null;
-            mNonDynamicalSpeciesCompartmentSymbolsInitialized[i] = false;
-        }        
+            kind = SYMBOL_KIND_REACTION;
+        }
+        else
+        {
+            Symbol compartmentSymbol = getCompartmentSymbolForSpeciesSymbol(pSymbolName, pSymbolEvaluator);
+            if(null != compartmentSymbol)
+            {
+                pCompartmentSymbols[pArrayIndex] = compartmentSymbol;
+                kind = SYMBOL_KIND_SPECIES;
+            }
+        }
+        pSymbolsKinds[pArrayIndex] = kind;
+        return(kind);
     }
 
     public double getConvertSubstanceToMolecules()
@@ -120,102 +168,60 @@ public final class SymbolEvaluationPostProcessorChemMarkupLanguage extends Symbo
                                double pSymbolValue) throws DataNotFoundException
     {
         int arrayIndex = pSymbol.getArrayIndex();
-        Symbol compartmentSymbol = null;
-        String symbolName = pSymbol.getName();
-        if(NULL_ARRAY_INDEX != arrayIndex)
+        if(NULL_ARRAY_INDEX == arrayIndex)
+        {
+            throw new IllegalStateException("unindexed symbol: " + pSymbol.getName());
+        }
+        if(! mGlobalSymbolsArraysInitialized)
         {
-            if(mReactionSet.contains(symbolName))
+            initializeGlobalSymbolsArrays((SymbolEvaluatorChem) pSymbolEvaluator);
+        }
+        byte []symbolsKinds = null;
+        Symbol []compartmentSymbols = null;
+        double []doubleArray = pSymbol.getDoubleArray();
+        if(null != doubleArray)
+        {
+            if(doubleArray != mGlobalSymbolsDoubleArray)
             {
-                // if the symbol is a reaction symbol, its value is in "substance/time", which we need to
-                // convert to "molecules/time".
-                double rate = pSymbolValue * mConvertSubstanceToMolecules;
-                return(rate);
+                // it is a local symbol (or a reserved symbol), which cannot be a species
+                return(pSymbolValue);
             }
-            double []doubleArray = pSymbol.getDoubleArray();
-            if(null != doubleArray)
+            symbolsKinds = mDynamicalSymbolsKinds;
+            compartmentSymbols = mDynamicalSpeciesCompartmentSymbolsMap;
+        }
+        else
+        {
+            Value []valueArray = pSymbol.getValueArray();
+            if(null == valueArray)
             {
-                if(null == mDynamicalSpeciesCompartmentSymbolsInitialized)
-                {
-                    if(null != ((SymbolEvaluatorChem) pSymbolEvaluator).getSymbol(symbolName))
-                    {
-                        // it is a global symbol
-                        initializeDynamicSymbolsArrays(doubleArray.length);
-                        mGlobalSymbolsDoubleArray = doubleArray;
-                    }
-                    else
-                    {
-                        // it is a local symbol, which cannot be a species
-                        return(pSymbolValue);
-                    }
-                }
-                if(! doubleArray.equals(mGlobalSymbolsDoubleArray))
-                {
-                    return(pSymbolValue);
-                }
-                if(mDynamicalSpeciesCompartmentSymbolsInitialized[arrayIndex])
-                {
-                    compartmentSymbol = mDynamicalSpeciesCompartmentSymbolsMap[arrayIndex];
-                }
-                else
-                {
-                    compartmentSymbol = getCompartmentSymbolForSpeciesSymbol(symbolName, (SymbolEvaluatorChem) pSymbolEvaluator);
-                    mDynamicalSpeciesCompartmentSymbolsMap[arrayIndex] = compartmentSymbol;
-                    mDynamicalSpeciesCompartmentSymbolsInitialized[arrayIndex] = true;
-                }
+                throw new IllegalStateException("both the double array and value array are null, for the indexed symbol \"" + pSymbol.getName() + "\"");
             }
-            else
+            if(valueArray != mGlobalSymbolsValuesArray)
             {
-                Value []valueArray = pSymbol.getValueArray();
-                if(null != valueArray)
-                {
-                    
-                    if(null == mNonDynamicalSpeciesCompartmentSymbolsInitialized)
-                    {
-                        if(null != ((SymbolEvaluatorChem) pSymbolEvaluator).getSymbol(symbolName))
-                        {
-                            // it is a global symbol
-                            initializeNonDynamicSymbolsArrays(valueArray.length);
-                            mGlobalSymbolsValuesArray = valueArray;
-                        }
-                        else
-                        {
-                            // it is a local symbol, which cannot be a species
-                            return(pSymbolValue);
-                        }
-                    }
-                    if(! valueArray.equals(mGlobalSymbolsValuesArray))
-                    {
-                        return(pSymbolValue);
-                    }
-                    if(mNonDynamicalSpeciesCompartmentSymbolsInitialized[arrayIndex])
-                    {
-                        compartmentSymbol = mNonDynamicalSpeciesCompartmentSymbolsMap[arrayIndex];
-                    }
-                    else
-                    {
-                        compartmentSymbol = getCompartmentSymbolForSpeciesSymbol(symbolName, (SymbolEvaluatorChem) pSymbolEvaluator);
-                        mNonDynamicalSpeciesCompartmentSymbolsMap[arrayIndex] = compartmentSymbol;
-                        mNonDynamicalSpeciesCompartmentSymbolsInitialized[arrayIndex] = true;
-                    }
-                }
-                else
-                {
-                    throw new IllegalStateException("both the double array and value array are null, for the indexed symbol \"" + symbolName + "\"");
-                }
+                // it is a local symbol, which cannot be a species
+                return(pSymbolValue);
             }
+            symbolsKinds = mNonDynamicalSymbolsKinds;
+            compartmentSymbols = mNonDynamicalSpeciesCompartmentSymbolsMap;
         }
-        else
+        byte kind = symbolsKinds[arrayIndex];
+        if(SYMBOL_KIND_UNKNOWN == kind)
         {
-            throw new IllegalStateException("unindexed symbol: " + pSymbol.getName());
+            kind = getSymbolKind(pSymbol.getName(), arrayIndex, symbolsKinds, compartmentSymbols, (SymbolEvaluatorChem) pSymbolEvaluator);
         }
-        if(null != compartmentSymbol)
+        switch(kind)
         {
-            // the species value is in "molecules", which we need to convert to "substance/volume"
-            pSymbolValue /= (mConvertSubstanceToMolecules * pSymbolEvaluator.getValue(compartmentSymbol));
-        }
-        return(pSymbolValue);
-    }
-
+            case SYMBOL_KIND_REACTION:
+                // if the symbol is a reaction symbol, its value is in "substance/time", which we need to
+                // convert to "molecules/time".
+                return(pSymbolValue * mConvertSubstanceToMolecules);
 
+            case SYMBOL_KIND_SPECIES:
+                // the species value is in "molecules", which we need to convert to "substance/volume"
+                return(pSymbolValue / (mConvertSubstanceToMolecules * pSymbolEvaluator.getValue(compartmentSymbols[arrayIndex])));
 
+            default:
+                return(pSymbolValue);
+        }
+    }
 }
@@ -0,0 +1,164 @@
+package org.systemsbiology.chem.tp;
+/*
+ * Copyright (C) 2003 by Institute for Systems Biology,
+ * Seattle, Washington, USA.  All rights reserved.
+ *
+ * This source code is distributed under the GNU Lesser
+ * General Public License, the text of which is available at:
+ *   http://www.gnu.org/copyleft/lesser.html
+ */
+
+import org.systemsbiology.chem.*;
+
+/**
+ * Checks the {@link SimulatorDeterministicBDF} simulator against the
+ * analytic solution of the decay <code>A -> B</code>, and against
+ * reference values for the stiff Robertson model (E. Hairer and
+ * G. Wanner, <em>Solving Ordinary Differential Equations II</em>,
+ * 2nd ed., Springer, 1996, section IV.10).  The absolute error
+ * tolerance for the Robertson model must be small compared to the
+ * concentration of its intermediate species (about 1e-5), so the
+ * tolerances are set for each model rather than taken from the defaults.
+ */
+public class TestBDF
+{
+    private static final int NUM_TIME_POINTS = 21;
+    private static final double DECAY_END_TIME = 10.0;
+    private static final double DECAY_RATE = 1.0;
+    private static final double DECAY_INITIAL_VALUE = 100.0;
+    private static final double DECAY_MAX_ALLOWED_RELATIVE_ERROR = 1.0e-6;
+    private static final double DECAY_MAX_ALLOWED_ABSOLUTE_ERROR = 1.0e-6;
+    private static final double DECAY_MAX_ERROR = 1.0e-3;
+
+    private static final double ROBERTSON_END_TIME = 40.0;
+    private static final double []ROBERTSON_FINAL_VALUES = { 0.7158270687, 9.185534764e-6, 0.2841637457 };
+    private static final double ROBERTSON_MAX_ALLOWED_RELATIVE_ERROR = 1.0e-5;
+    private static final double ROBERTSON_MAX_ALLOWED_ABSOLUTE_ERROR = 1.0e-11;
+    private static final double ROBERTSON_MAX_RELATIVE_ERROR = 1.0e-3;
+
+    private static Object []simulate(Model pModel,
+                                     double pEndTime,
+                                     String []pRequestedSymbolNames,
+                                     double pMaxAllowedRelativeError,
+                                     double pMaxAllowedAbsoluteError) throws Exception
+    {
+        SimulatorDeterministicBDF simulator = new SimulatorDeterministicBDF();
+        simulator.initialize(pModel);
+        SimulatorParameters simParams = simulator.getDefaultSimulatorParameters();
+        simParams.setMaxAllowedRelativeError(pMaxAllowedRelativeError);
+        simParams.setMaxAllowedAbsoluteError(pMaxAllowedAbsoluteError);
+        SimulationResults simulationResults = simulator.simulate(0.0,
+                                                                 pEndTime,
+                                                                 simParams,
+                                                                 NUM_TIME_POINTS,
+                                                                 pRequestedSymbolNames);
+        return(new Object[] { simulationResults.getResultsTimeValues(), simulationResults.getResultsSymbolValues() });
+    }
+
+    private static boolean checkDecay() throws Exception
+    {
+        Compartment compartment = new Compartment("univ");
+        Species speciesA = new Species("A", compartment);
+        speciesA.setSpeciesPopulation(DECAY_INITIAL_VALUE);
+        Species speciesB = new Species("B", compartment);
+        speciesB.setSpeciesPopulation(0.0);
+        Reaction reactionX = new Reaction("X");
+        reactionX.addReactant(speciesA, 1);
+        reactionX.addProduct(speciesB, 1);
+        reactionX.setRate(DECAY_RATE);
+        Model model = new Model("decay");
+        model.addReaction(reactionX);
+        model.setReservedSymbolMapper(new ReservedSymbolMapperChemCommandLanguage());
+
+        String []requestedSymbolNames = { "A", "B" };
+        Object []results = simulate(model,
+                                    DECAY_END_TIME,
+                                    requestedSymbolNames,
+                                    DECAY_MAX_ALLOWED_RELATIVE_ERROR,
+                                    DECAY_MAX_ALLOWED_ABSOLUTE_ERROR);
+        double []timeValues = (double []) results[0];
+        Object []symbolValues = (Object []) results[1];
+        boolean passed = true;
+        for(int timePointCtr = 0; timePointCtr < NUM_TIME_POINTS; ++timePointCtr)
+        {
+            double time = timeValues[timePointCtr];
+            double []values = (double []) symbolValues[timePointCtr];
+            double expectedValue = DECAY_INITIAL_VALUE * Math.exp(-DECAY_RATE * time);
+            boolean accurate = (Math.abs(values[0] - expectedValue) <= DECAY_MAX_ERROR &&
+                                Math.abs(values[1] - (DECAY_INITIAL_VALUE - expectedValue)) <= DECAY_MAX_ERROR);
+            System.out.println("decay; time: " + time + "; A: " + values[0] + " (expected: " + expectedValue + "); B: " + values[1] +
+                               (accurate ? "" : "  INACCURATE"));
+            passed &= accurate;
+        }
+        return(passed);
+    }
+
+    private static boolean checkRobertson() throws Exception
+    {
+        Compartment compartment = new Compartment("univ");
+        Species speciesA = new Species("A", compartment);
+        speciesA.setSpeciesPopulation(1.0);
+        Species speciesB = new Species("B", compartment);
+        speciesB.setSpeciesPopulation(0.0);
+        Species speciesC = new Species("C", compartment);
+        speciesC.setSpeciesPopulation(0.0);
+        Reaction reaction1 = new Reaction("r1");
+        reaction1.addReactant(speciesA, 1);
+        reaction1.addProduct(speciesB, 1);
+        reaction1.setRate(0.04);
+        Reaction reaction2 = new Reaction("r2");
+        reaction2.addReactant(speciesB, 2);
+        reaction2.addProduct(speciesB, 1);
+        reaction2.addProduct(speciesC, 1);
+        reaction2.setRate(3.0e7);
+        Reaction reaction3 = new Reaction("r3");
+        reaction3.addReactant(speciesB, 1);
+        reaction3.addReactant(speciesC, 1);
+        reaction3.addProduct(speciesA, 1);
+        reaction3.addProduct(speciesC, 1);
+        reaction3.setRate(1.0e4);
+        Model model = new Model("robertson");
+        model.addReaction(reaction1);
+        model.addReaction(reaction2);
+        model.addReaction(reaction3);
+        model.setReservedSymbolMapper(new ReservedSymbolMapperChemCommandLanguage());
+
+        String []requestedSymbolNames = { "A", "B", "C" };
+        Object []results = simulate(model,
+                                    ROBERTSON_END_TIME,
+                                    requestedSymbolNames,
+                                    ROBERTSON_MAX_ALLOWED_RELATIVE_ERROR,
+                                    ROBERTSON_MAX_ALLOWED_ABSOLUTE_ERROR);
+        Object []symbolValues = (Object []) results[1];
+        double []finalValues = (double []) symbolValues[NUM_TIME_POINTS - 1];
+        boolean passed = true;
+        for(int i = 0; i < requestedSymbolNames.length; ++i)
+        {
+            double expectedValue = ROBERTSON_FINAL_VALUES[i];
+            boolean accurate = (Math.abs(finalValues[i] - expectedValue) <= ROBERTSON_MAX_RELATIVE_ERROR * expectedValue);
+            System.out.println("Robertson; time: " + ROBERTSON_END_TIME + "; " + requestedSymbolNames[i] + ": " + finalValues[i] +
+                               " (expected: " + expectedValue + ")" + (accurate ? "" : "  INACCURATE"));
+            passed &= accurate;
+        }
+        return(passed);
+    }
+
+    public static final void main(String []pArgs)
+    {
+        try
+        {
+            boolean passed = checkDecay();
+            passed &= checkRobertson();
+            if(! passed)
+            {
+                throw new IllegalStateException("the BDF simulator does not agree with the expected solution");
+            }
+            System.out.println("test passed");
+        }
+
+        catch(Exception e)
+        {
+            e.printStackTrace(System.err);
+        }
+    }
+}
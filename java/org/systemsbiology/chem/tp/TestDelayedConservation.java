@@ -0,0 +1,100 @@
+package org.systemsbiology.chem.tp;
+/*
+ * Copyright (C) 2003 by Institute for Systems Biology,
+ * Seattle, Washington, USA.  All rights reserved.
+ *
+ * This source code is distributed under the GNU Lesser
+ * General Public License, the text of which is available at:
+ *   http://www.gnu.org/copyleft/lesser.html
+ */
+
+import org.systemsbiology.chem.*;
+
+/**
+ * Checks that the adaptive ODE simulators conserve mass in a model
+ * with the delayed reaction <code>A -> B</code> (with delay 2.0), with
+ * their default parameters:  since some molecules are always in transit,
+ * the sum of the populations of A and B must never exceed the initial
+ * population of A.  The population of B is also compared against its
+ * exact value.
+ */
+public class TestDelayedConservation
+{
+    private static final int NUM_TIME_POINTS = 21;
+    private static final double END_TIME = 10.0;
+    private static final double DELAY = 2.0;
+    private static final double INITIAL_POPULATION = 100000.0;
+    private static final double MAX_RELATIVE_ERROR = 1.0e-3;
+
+    public static final void main(String []pArgs)
+    {
+        try
+        {
+            Compartment compartment = new Compartment("univ");
+            Species speciesA = new Species("A", compartment);
+            speciesA.setSpeciesPopulation(INITIAL_POPULATION);
+            Species speciesB = new Species("B", compartment);
+            speciesB.setSpeciesPopulation(0.0);
+            Reaction reactionX = new Reaction("X");
+            reactionX.addReactant(speciesA, 1);
+            reactionX.addProduct(speciesB, 1);
+            reactionX.setRate(1.0);
+            reactionX.setDelay(DELAY);
+            Model model = new Model("model");
+            model.addReaction(reactionX);
+            model.setReservedSymbolMapper(new ReservedSymbolMapperChemCommandLanguage());
+
+            ISimulator []simulators = { new SimulatorDeterministicRungeKuttaAdaptive(),
+                                        new SimulatorDeterministicBDF(),
+                                        new SimulatorDeterministicRosenbrock() };
+            String []requestedSymbolNames = { "A", "B" };
+            boolean passed = true;
+            for(int k = 0; k < simulators.length; ++k)
+            {
+                ISimulator simulator = simulators[k];
+                simulator.initialize(model);
+                SimulatorParameters simParams = simulator.getDefaultSimulatorParameters();
+                SimulationResults simulationResults = simulator.simulate(0.0,
+                                                                         END_TIME,
+                                                                         simParams,
+                                                                         NUM_TIME_POINTS,
+                                                                         requestedSymbolNames);
+                double []timeValues = simulationResults.getResultsTimeValues();
+                Object []symbolValues = simulationResults.getResultsSymbolValues();
+                for(int timePointCtr = 0; timePointCtr < NUM_TIME_POINTS; ++timePointCtr)
+                {
+                    double time = timeValues[timePointCtr];
+                    double []values = (double []) symbolValues[timePointCtr];
+                    double total = values[0] + values[1];
+                    double expectedPopulation = 0.0;
+                    if(time > DELAY)
+                    {
+                        expectedPopulation = INITIAL_POPULATION * (1.0 - Math.exp(-(time - DELAY)));
+                    }
+                    boolean conserved = (total <= INITIAL_POPULATION * (1.0 + MAX_RELATIVE_ERROR * MAX_RELATIVE_ERROR));
+                    boolean accurate = (Math.abs(values[1] - expectedPopulation) <= MAX_RELATIVE_ERROR * INITIAL_POPULATION);
+                    if(! conserved || ! accurate)
+                    {
+                        System.out.println(simulator.getAlias() + "; time: " + time + "; A + B: " + total +
+                                           "; B: " + values[1] + " (expected: " + expectedPopulation + ")" +
+                                           (conserved ? "" : "  NOT CONSERVED") +
+                                           (accurate ? "" : "  INACCURATE"));
+                        passed = false;
+                    }
+                }
+                double []finalValues = (double []) symbolValues[NUM_TIME_POINTS - 1];
+                System.out.println(simulator.getAlias() + "; final A: " + finalValues[0] + "; final B: " + finalValues[1]);
+            }
+            if(! passed)
+            {
+                throw new IllegalStateException("a simulator does not conserve mass, or is inaccurate, for a delayed reaction");
+            }
+            System.out.println("test passed");
+        }
+
+        catch(Exception e)
+        {
+            e.printStackTrace(System.err);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package org.systemsbiology.chem.tp;
+/*
+ * Copyright (C) 2003 by Institute for Systems Biology,
+ * Seattle, Washington, USA.  All rights reserved.
+ *
+ * This source code is distributed under the GNU Lesser
+ * General Public License, the text of which is available at:
+ *   http://www.gnu.org/copyleft/lesser.html
+ */
+
+import org.systemsbiology.chem.*;
+
+/**
+ * Checks that the simulators with dense output accept a step size
+ * that is short compared to the delay of a delayed reaction but longer
+ * than a history bin, and that they remain accurate with it, using the
+ * delayed reaction <code>A -> B</code> (with delay 0.5).  A simulator
+ * without dense output must still reject that step size.
+ */
+public class TestDelayedStepSize
+{
+    private static final int NUM_TIME_POINTS = 11;
+    private static final double END_TIME = 5.0;
+    private static final double DELAY = 0.5;
+    private static final double INITIAL_POPULATION = 1000.0;
+    // larger than DELAY/numHistoryBins, but smaller than DELAY/10, as a fraction of END_TIME
+    private static final double STEP_SIZE_FRACTION = 0.005;
+    private static final double MAX_RELATIVE_ERROR = 1.0e-3;
+
+    public static final void main(String []pArgs)
+    {
+        try
+        {
+            Compartment compartment = new Compartment("univ");
+            Species speciesA = new Species("A", compartment);
+            speciesA.setSpeciesPopulation(INITIAL_POPULATION);
+            Species speciesB = new Species("B", compartment);
+            speciesB.setSpeciesPopulation(0.0);
+            Reaction reactionX = new Reaction("X");
+            reactionX.addReactant(speciesA, 1);
+            reactionX.addProduct(speciesB, 1);
+            reactionX.setRate(1.0);
+            reactionX.setDelay(DELAY);
+            Model model = new Model("model");
+            model.addReaction(reactionX);
+            model.setReservedSymbolMapper(new ReservedSymbolMapperChemCommandLanguage());
+
+            ISimulator []simulators = { new SimulatorDeterministicRungeKuttaAdaptive(),
+                                        new SimulatorDeterministicBDF(),
+                                        new SimulatorDeterministicRosenbrock() };
+            String []requestedSymbolNames = { "B" };
+            boolean passed = true;
+            for(int k = 0; k < simulators.length; ++k)
+            {
+                ISimulator simulator = simulators[k];
+                simulator.initialize(model);
+                SimulatorParameters simParams = simulator.getDefaultSimulatorParameters();
+                simParams.setStepSizeFraction(STEP_SIZE_FRACTION);
+                SimulationResults simulationResults = simulator.simulate(0.0,
+                                                                         END_TIME,
+                                                                         simParams,
+                                                                         NUM_TIME_POINTS,
+                                                                         requestedSymbolNames);
+                double []timeValues = simulationResults.getResultsTimeValues();
+                Object []symbolValues = simulationResults.getResultsSymbolValues();
+                for(int timePointCtr = 0; timePointCtr < NUM_TIME_POINTS; ++timePointCtr)
+                {
+                    double time = timeValues[timePointCtr];
+                    double population = ((double []) symbolValues[timePointCtr])[0];
+                    double expectedPopulation = 0.0;
+                    if(time > DELAY)
+                    {
+                        expectedPopulation = INITIAL_POPULATION * (1.0 - Math.exp(-(time - DELAY)));
+                    }
+                    if(Math.abs(population - expectedPopulation) > MAX_RELATIVE_ERROR * INITIAL_POPULATION)
+                    {
+                        System.out.println(simulator.getAlias() + "; time: " + time + "; B: " + population +
+                                           " (expected: " + expectedPopulation + ")  INACCURATE");
+                        passed = false;
+                    }
+                }
+                double finalPopulation = ((double []) symbolValues[NUM_TIME_POINTS - 1])[0];
+                System.out.println(simulator.getAlias() + "; final B: " + finalPopulation);
+            }
+
+            ISimulator fixedSimulator = new SimulatorDeterministicRungeKuttaFixed();
+            fixedSimulator.initialize(model);
+            SimulatorParameters fixedSimParams = fixedSimulator.getDefaultSimulatorParameters();
+            fixedSimParams.setStepSizeFraction(STEP_SIZE_FRACTION);
+            try
+            {
+                fixedSimulator.simulate(0.0, END_TIME, fixedSimParams, NUM_TIME_POINTS, requestedSymbolNames);
+                System.out.println(fixedSimulator.getAlias() + "; step size was accepted  UNEXPECTED");
+                passed = false;
+            }
+            catch(IllegalArgumentException e)
+            {
+                System.out.println(fixedSimulator.getAlias() + "; step size was rejected: " + e.getMessage());
+            }
+
+            if(! passed)
+            {
+                throw new IllegalStateException("the step size permitted for a delayed reaction is not correctly validated");
+            }
+            System.out.println("test passed");
+        }
+
+        catch(Exception e)
+        {
+            e.printStackTrace(System.err);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package org.systemsbiology.chem.tp;
+/*
+ * Copyright (C) 2003 by Institute for Systems Biology,
+ * Seattle, Washington, USA.  All rights reserved.
+ *
+ * This source code is distributed under the GNU Lesser
+ * General Public License, the text of which is available at:
+ *   http://www.gnu.org/copyleft/lesser.html
+ */
+
+import org.systemsbiology.chem.*;
+import org.systemsbiology.math.Expression;
+
+/**
+ * Checks that the deterministic simulators with dense output locate the
+ * discontinuities of the rate expressions, by comparing the simulated
+ * species values with their closed-form values, for rate expressions
+ * that use <code>theta()</code>, <code>min()</code>, <code>max()</code>,
+ * <code>abs()</code>, <code>floor()</code> and <code>ceil()</code>,
+ * including a <code>theta()</code> nested within the argument of
+ * <code>max()</code>, and an <code>abs()</code> nested within the argument
+ * of <code>theta()</code>.  The species A grows as
+ * <code>dA/dt = A*theta(time - 1) + 10*theta(50 - A)</code>, so its
+ * rate switches at a time that depends on the solution; that time is
+ * recovered from the simulated values of two species and compared with
+ * its closed-form value.
+ */
+public class TestDiscontinuities
+{
+    private static final int NUM_TIME_POINTS = 10;
+    private static final double END_TIME = 4.5;
+    private static final double MAX_ALLOWED_RELATIVE_ERROR = 1.0e-8;
+    private static final double MAX_ALLOWED_ABSOLUTE_ERROR = 1.0e-8;
+    private static final double MAX_RELATIVE_ERROR = 1.0e-5;
+    private static final double MAX_CROSSING_TIME_ERROR = 1.0e-5;
+
+    private static final String []SPECIES_NAMES = { "A", "B", "D", "E", "F", "G", "H", "I" };
+    // each species X (initially zero) is produced by a reaction "-> X" with the corresponding rate expression
+    private static final String []RATE_EXPRESSIONS = { "A * theta(time - 1) + 10 * theta(50 - A)",
+                                                       "theta(A - 50)",
+                                                       "max(1.5, theta(time - 2) * time)",
+                                                       "abs(time - 3)",
+                                                       "min(A, 20)",
+                                                       "floor(time)",
+                                                       "ceil(time)",
+                                                       "theta(abs(time - 3) - 1)" };
+
+    // the time at which A reaches 50:  A = 10*time until time 1, then A = 20*exp(time - 1) - 10
+    private static final double CROSSING_TIME = 1.0 + Math.log(3.0);
+    // the time at which A reaches 20
+    private static final double MIN_CROSSING_TIME = 1.0 + Math.log(1.5);
+
+    private static double getExpectedValue(String pSpeciesName, double pTime)
+    {
+        double t = pTime;
+        if(pSpeciesName.equals("A"))
+        {
+            if(t <= 1.0)
+            {
+                return(10.0 * t);
+            }
+            else if(t <= CROSSING_TIME)
+            {
+                return(20.0 * Math.exp(t - 1.0) - 10.0);
+            }
+            return(50.0 * Math.exp(t - CROSSING_TIME));
+        }
+        else if(pSpeciesName.equals("B"))
+        {
+            return(Math.max(0.0, t - CROSSING_TIME));
+        }
+        else if(pSpeciesName.equals("D"))
+        {
+            return((t <= 2.0) ? 1.5 * t : 3.0 + 0.5 * (t * t - 4.0));
+        }
+        else if(pSpeciesName.equals("E"))
+        {
+            return((t <= 3.0) ? 3.0 * t - 0.5 * t * t : 4.5 + 0.5 * (t - 3.0) * (t - 3.0));
+        }
+        else if(pSpeciesName.equals("F"))
+        {
+            if(t <= 1.0)
+            {
+                return(5.0 * t * t);
+            }
+            else if(t <= MIN_CROSSING_TIME)
+            {
+                return(5.0 + 20.0 * (Math.exp(t - 1.0) - 1.0) - 10.0 * (t - 1.0));
+            }
+            return(15.0 - 10.0 * Math.log(1.5) + 20.0 * (t - MIN_CROSSING_TIME));
+        }
+        else if(pSpeciesName.equals("G"))
+        {
+            double n = Math.floor(t);
+            return(0.5 * n * (n - 1.0) + n * (t - n));
+        }
+        else if(pSpeciesName.equals("H"))
+        {
+            double n = Math.floor(t);
+            return(0.5 * n * (n + 1.0) + (n + 1.0) * (t - n));
+        }
+        else if(pSpeciesName.equals("I"))
+        {
+            return(Math.min(t, 2.0) + Math.max(0.0, t - 4.0));
+        }
+        throw new IllegalArgumentException("unknown species: " + pSpeciesName);
+    }
+
+    private static Model createModel()
+    {
+        Compartment compartment = new Compartment("univ");
+        Model model = new Model("discontinuities");
+        for(int i = 0; i < SPECIES_NAMES.length; ++i)
+        {
+            Species species = new Species(SPECIES_NAMES[i], compartment);
+            species.setSpeciesPopulation(0.0);
+            Reaction reaction = new Reaction("r" + SPECIES_NAMES[i]);
+            reaction.addProduct(species, 1);
+            reaction.setRate(new Expression(RATE_EXPRESSIONS[i]));
+            model.addReaction(reaction);
+        }
+        model.setReservedSymbolMapper(new ReservedSymbolMapperChemCommandLanguage());
+        return(model);
+    }
+
+    public static final void main(String []pArgs)
+    {
+        try
+        {
+            ISimulator []simulators = { new SimulatorDeterministicRungeKuttaAdaptive(),
+                                        new SimulatorDeterministicBDF(),
+                                        new SimulatorDeterministicRosenbrock() };
+            boolean passed = true;
+            for(int k = 0; k < simulators.length; ++k)
+            {
+                ISimulator simulator = simulators[k];
+                simulator.initialize(createModel());
+                SimulatorParameters simParams = simulator.getDefaultSimulatorParameters();
+                simParams.setMaxAllowedRelativeError(MAX_ALLOWED_RELATIVE_ERROR);
+                simParams.setMaxAllowedAbsoluteError(MAX_ALLOWED_ABSOLUTE_ERROR);
+                SimulationResults simulationResults = simulator.simulate(0.0,
+                                                                         END_TIME,
+                                                                         simParams,
+                                                                         NUM_TIME_POINTS,
+                                                                         SPECIES_NAMES);
+                double []timeValues = simulationResults.getResultsTimeValues();
+                Object []symbolValues = simulationResults.getResultsSymbolValues();
+                for(int timePointCtr = 0; timePointCtr < NUM_TIME_POINTS; ++timePointCtr)
+                {
+                    double time = timeValues[timePointCtr];
+                    double []values = (double []) symbolValues[timePointCtr];
+                    for(int i = 0; i < SPECIES_NAMES.length; ++i)
+                    {
+                        double expectedValue = getExpectedValue(SPECIES_NAMES[i], time);
+                        if(Math.abs(values[i] - expectedValue) > MAX_RELATIVE_ERROR * Math.max(1.0, Math.abs(expectedValue)))
+                        {
+                            System.out.println(simulator.getAlias() + "; time: " + time + "; " + SPECIES_NAMES[i] + ": " + values[i] +
+                                               " (expected: " + expectedValue + ")  INACCURATE");
+                            passed = false;
+                        }
+                    }
+                }
+
+                // A grows exponentially after the crossing, and B is the time elapsed since it
+                double []finalValues = (double []) symbolValues[NUM_TIME_POINTS - 1];
+                double crossingTimeFromA = END_TIME - Math.log(finalValues[0] / 50.0);
+                double crossingTimeFromB = END_TIME - finalValues[1];
+                boolean crossingTimesAccurate = (Math.abs(crossingTimeFromA - CROSSING_TIME) <= MAX_CROSSING_TIME_ERROR &&
+                                                 Math.abs(crossingTimeFromB - CROSSING_TIME) <= MAX_CROSSING_TIME_ERROR);
+                System.out.println(simulator.getAlias() + "; crossing time of A = 50, from A: " + crossingTimeFromA +
+                                   "; from B: " + crossingTimeFromB + " (expected: " + CROSSING_TIME + ")" +
+                                   (crossingTimesAccurate ? "" : "  INACCURATE"));
+                passed &= crossingTimesAccurate;
+            }
+            if(! passed)
+            {
+                throw new IllegalStateException("a simulator did not correctly locate the discontinuities of the rate expressions");
+            }
+            System.out.println("test passed");
+        }
+
+        catch(Exception e)
+        {
+            e.printStackTrace(System.err);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package org.systemsbiology.chem.tp;
+/*
+ * Copyright (C) 2003 by Institute for Systems Biology,
+ * Seattle, Washington, USA.  All rights reserved.
+ *
+ * This source code is distributed under the GNU Lesser
+ * General Public License, the text of which is available at:
+ *   http://www.gnu.org/copyleft/lesser.html
+ */
+
+import java.util.HashMap;
+import java.util.Random;
+
+import org.systemsbiology.chem.*;
+import org.systemsbiology.math.Expression;
+import org.systemsbiology.math.ReservedSymbolMapper;
+import org.systemsbiology.math.Symbol;
+import org.systemsbiology.math.Value;
+
+/**
+ * Checks that the cached values of expressions (see
+ * {@link Value#getValueWithCaching(org.systemsbiology.math.SymbolEvaluator)})
+ * are never stale.  The symbols of a set of rate expressions are bound as
+ * a simulator binds them:  the species to an array of species values, the
+ * parameters to an array of {@link Value} objects (some of which are
+ * expressions that refer to other expression-valued parameters, to the
+ * species, and to the time), a local parameter of a reaction to its own
+ * array, and the time to a slot of the {@link SymbolEvaluatorChem}.
+ * Reactions are then fired at random and the time is advanced, in
+ * various combinations (including firings that are undone, and steps
+ * in which nothing changes), and after each step the value of every
+ * expression computed with caching is compared with its value computed
+ * afresh by an evaluator that does not cache.
+ * Usage:  <code>TestExpressionValueCaching [numSteps]</code>
+ */
+public class TestExpressionValueCaching
+{
+    private static final int DEFAULT_NUM_STEPS = 100000;
+    private static final double MAX_RELATIVE_DIFFERENCE = 1.0e-12;
+
+    private static final String []SPECIES_NAMES = { "S1", "S2", "S3" };
+    private static final double []INITIAL_SPECIES_VALUES = { 100.0, 50.0, 20.0 };
+    // the change in each species value for each reaction
+    private static final int [][]STOICHIOMETRIES = { { -1, 1, 0 },
+                                                     { 0, -1, 1 },
+                                                     { 1, 0, -1 },
+                                                     { 0, 0, 1 } };
+
+    private static final String []PARAMETER_NAMES = { "k1", "k2", "g", "f", "h" };
+    private static final String []PARAMETER_EXPRESSIONS = { null,
+                                                            null,
+                                                            "k1 * S1 + time",
+                                                            "S2 / (g + 1)",
+                                                            "f * f + theta(time - 5) * k2" };
+    private static final double []PARAMETER_VALUES = { 0.5, 3.0, 0.0, 0.0, 0.0 };
+
+    private static final String LOCAL_PARAMETER_NAME = "kl";
+    private static final String LOCAL_PARAMETER_EXPRESSION = "2 * f + time";
+
+    private static final String []RATE_EXPRESSIONS = { "k1 * S1 * S2",
+                                                       "f * S3",
+                                                       "h + g",
+                                                       "exp(-time) * S1 + kl * S3" };
+
+    private static boolean valuesAgree(double pCachedValue, double pFreshValue)
+    {
+        return(Math.abs(pCachedValue - pFreshValue) <= MAX_RELATIVE_DIFFERENCE * Math.max(1.0, Math.abs(pFreshValue)));
+    }
+
+    private static Symbol createSymbol(String pName, Object pArray, int pIndex)
+    {
+        Symbol symbol = new Symbol(pName);
+        if(pArray instanceof double [])
+        {
+            symbol.setArray((double []) pArray);
+        }
+        else
+        {
+            symbol.setArray((Value []) pArray);
+        }
+        symbol.setArrayIndex(pIndex);
+        return(symbol);
+    }
+
+    public static final void main(String []pArgs)
+    {
+        try
+        {
+            int numSteps = DEFAULT_NUM_STEPS;
+            if(pArgs.length > 0)
+            {
+                numSteps = Integer.parseInt(pArgs[0]);
+            }
+
+            HashMap symbolsMap = new HashMap();
+            int numSpecies = SPECIES_NAMES.length;
+            double []speciesValues = (double []) INITIAL_SPECIES_VALUES.clone();
+            for(int i = 0; i < numSpecies; ++i)
+            {
+                symbolsMap.put(SPECIES_NAMES[i], createSymbol(SPECIES_NAMES[i], speciesValues, i));
+            }
+            int numParameters = PARAMETER_NAMES.length;
+            Value []parameterValues = new Value[numParameters];
+            for(int i = 0; i < numParameters; ++i)
+            {
+                if(null != PARAMETER_EXPRESSIONS[i])
+                {
+                    parameterValues[i] = new Value(new Expression(PARAMETER_EXPRESSIONS[i]));
+                }
+                else
+                {
+                    parameterValues[i] = new Value(PARAMETER_VALUES[i]);
+                }
+                symbolsMap.put(PARAMETER_NAMES[i], createSymbol(PARAMETER_NAMES[i], parameterValues, i));
+            }
+            Value []localParameterValues = { new Value(new Expression(LOCAL_PARAMETER_EXPRESSION)) };
+            HashMap localSymbolsMap = new HashMap();
+            localSymbolsMap.put(LOCAL_PARAMETER_NAME, createSymbol(LOCAL_PARAMETER_NAME, localParameterValues, 0));
+
+            ReservedSymbolMapper reservedSymbolMapper = new ReservedSymbolMapperChemCommandLanguage();
+            SymbolEvaluatorChem cachingEvaluator = new SymbolEvaluatorChem(true, null, reservedSymbolMapper, symbolsMap);
+            // the symbols are bound to the time slot of the caching evaluator, so this evaluator reads the same time
+            SymbolEvaluatorChem freshEvaluator = new SymbolEvaluatorChem(false, null, reservedSymbolMapper, symbolsMap);
+
+            int numRates = RATE_EXPRESSIONS.length;
+            Expression []rateExpressions = new Expression[numRates];
+            for(int j = 0; j < numRates; ++j)
+            {
+                rateExpressions[j] = new Expression(RATE_EXPRESSIONS[j]);
+                cachingEvaluator.linkSymbols(rateExpressions[j], localSymbolsMap);
+            }
+            // all of the expression values, including the nested ones and the local parameter
+            Value []expressionValues = { parameterValues[2], parameterValues[3], parameterValues[4], localParameterValues[0] };
+
+            Random random = new Random(1);
+            double time = 0.0;
+            int numReactions = STOICHIOMETRIES.length;
+            for(int stepCtr = 0; stepCtr < numSteps; ++stepCtr)
+            {
+                int stepType = random.nextInt(4);
+                int reactionIndex = random.nextInt(numReactions);
+                int []stoichiometry = STOICHIOMETRIES[reactionIndex];
+                if(0 == stepType || 1 == stepType)
+                {
+                    // fire a reaction (keeping the species values positive)
+                    for(int i = 0; i < numSpecies; ++i)
+                    {
+                        speciesValues[i] += stoichiometry[i];
+                        if(speciesValues[i] < 1.0)
+                        {
+                            speciesValues[i] = INITIAL_SPECIES_VALUES[i];
+                        }
+                    }
+                }
+                if(1 == stepType || 2 == stepType)
+                {
+                    time += -Math.log(1.0 - random.nextDouble()) * 0.01;
+                    cachingEvaluator.setTime(time);
+                    freshEvaluator.setTime(time);
+                }
+                // for step type 3, nothing changes
+
+                for(int passCtr = 0; passCtr < 2; ++passCtr)
+                {
+                    for(int k = 0; k < expressionValues.length; ++k)
+                    {
+                        double cachedValue = expressionValues[k].getValueWithCaching(cachingEvaluator);
+                        double freshValue = expressionValues[k].getValue(freshEvaluator);
+                        if(! valuesAgree(cachedValue, freshValue))
+                        {
+                            throw new IllegalStateException("at step " + stepCtr + ", the cached value " + cachedValue + " of expression " +
+                                                            expressionValues[k].getExpressionString() + " differs from its value " + freshValue);
+                        }
+                    }
+                    cachingEvaluator.setLocalSymbolsMap(localSymbolsMap);
+                    freshEvaluator.setLocalSymbolsMap(localSymbolsMap);
+                    for(int j = 0; j < numRates; ++j)
+                    {
+                        double cachedValue = rateExpressions[j].computeValue(cachingEvaluator);
+                        double freshValue = rateExpressions[j].computeValue(freshEvaluator);
+                        if(! valuesAgree(cachedValue, freshValue))
+                        {
+                            throw new IllegalStateException("at step " + stepCtr + ", the value " + cachedValue + " of rate expression " +
+                                                            RATE_EXPRESSIONS[j] + " computed with caching differs from its value " + freshValue);
+                        }
+                    }
+                    cachingEvaluator.setLocalSymbolsMap(null);
+                    freshEvaluator.setLocalSymbolsMap(null);
+
+                    if(0 == passCtr && 0 == stepType)
+                    {
+                        // undo the firing, so that the species values return to those of the previous step
+                        for(int i = 0; i < numSpecies; ++i)
+                        {
+                            speciesValues[i] -= stoichiometry[i];
+                            if(speciesValues[i] < 1.0)
+                            {
+                                speciesValues[i] = INITIAL_SPECIES_VALUES[i];
+                            }
+                        }
+                    }
+                }
+            }
+            System.out.println("expression value caching check passed; steps: " + numSteps + "; final time: " + time);
+        }
+        catch(Exception e)
+        {
+            e.printStackTrace(System.err);
+        }
+    }
+}
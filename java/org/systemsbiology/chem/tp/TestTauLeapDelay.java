@@ -0,0 +1,109 @@
+package org.systemsbiology.chem.tp;
+/*
+ * Copyright (C) 2003 by Institute for Systems Biology,
+ * Seattle, Washington, USA.  All rights reserved.
+ *
+ * This source code is distributed under the GNU Lesser
+ * General Public License, the text of which is available at:
+ *   http://www.gnu.org/copyleft/lesser.html
+ */
+
+import org.systemsbiology.chem.*;
+
+/**
+ * Checks that the tau-leap simulators carry out the delayed reactions
+ * of a model, by comparing the product population of the delayed
+ * reaction <code>A -> B</code> (with delay 2.0) against the Gillespie
+ * direct method, and against the exact expected value.
+ */
+public class TestTauLeapDelay
+{
+    // the time points are chosen so that none coincides with the delay, at which the product population jumps
+    private static final int NUM_TIME_POINTS = 9;
+    private static final double END_TIME = 10.0;
+    private static final double DELAY = 2.0;
+    private static final double INITIAL_POPULATION = 100000.0;
+    private static final long RANDOM_NUMBER_SEED = 1;
+    private static final double MAX_RELATIVE_DIFFERENCE = 0.02;
+
+    private static double []simulateProductPopulations(ISimulator pSimulator, Model pModel) throws Exception
+    {
+        pSimulator.initialize(pModel);
+        SimulatorParameters simParams = pSimulator.getDefaultSimulatorParameters();
+        simParams.setEnsembleSize(1);
+        simParams.setRandomNumberSeed(RANDOM_NUMBER_SEED);
+        String []requestedSymbolNames = { "B" };
+        SimulationResults simulationResults = pSimulator.simulate(0.0,
+                                                                  END_TIME,
+                                                                  simParams,
+                                                                  NUM_TIME_POINTS,
+                                                                  requestedSymbolNames);
+        Object []symbolValues = simulationResults.getResultsSymbolValues();
+        double []productPopulations = new double[NUM_TIME_POINTS];
+        for(int timePointCtr = 0; timePointCtr < NUM_TIME_POINTS; ++timePointCtr)
+        {
+            productPopulations[timePointCtr] = ((double []) symbolValues[timePointCtr])[0];
+        }
+        return(productPopulations);
+    }
+
+    public static final void main(String []pArgs)
+    {
+        try
+        {
+            Compartment compartment = new Compartment("univ");
+            Species speciesA = new Species("A", compartment);
+            speciesA.setSpeciesPopulation(INITIAL_POPULATION);
+            Species speciesB = new Species("B", compartment);
+            speciesB.setSpeciesPopulation(0.0);
+            Reaction reactionX = new Reaction("X");
+            reactionX.addReactant(speciesA, 1);
+            reactionX.addProduct(speciesB, 1);
+            reactionX.setRate(1.0);
+            reactionX.setDelay(DELAY);
+            Model model = new Model("model");
+            model.addReaction(reactionX);
+            model.setReservedSymbolMapper(new ReservedSymbolMapperChemCommandLanguage());
+
+            double []referencePopulations = simulateProductPopulations(new SimulatorStochasticGillespie(), model);
+
+            ISimulator []simulators = { new SimulatorStochasticTauLeapSimple(),
+                                        new SimulatorStochasticTauLeapComplex(),
+                                        new SimulatorStochasticTauLeapSpecies(),
+                                        new SimulatorStochasticTauLeapImplicit() };
+            boolean passed = true;
+            for(int k = 0; k < simulators.length; ++k)
+            {
+                ISimulator simulator = simulators[k];
+                double []productPopulations = simulateProductPopulations(simulator, model);
+                for(int timePointCtr = 0; timePointCtr < NUM_TIME_POINTS; ++timePointCtr)
+                {
+                    double time = END_TIME * ((double) timePointCtr) / ((double) (NUM_TIME_POINTS - 1));
+                    double expectedPopulation = 0.0;
+                    if(time > DELAY)
+                    {
+                        expectedPopulation = INITIAL_POPULATION * (1.0 - Math.exp(-(time - DELAY)));
+                    }
+                    double referencePopulation = referencePopulations[timePointCtr];
+                    double productPopulation = productPopulations[timePointCtr];
+                    boolean agrees = (Math.abs(productPopulation - referencePopulation) <=
+                                      MAX_RELATIVE_DIFFERENCE * Math.max(referencePopulation, INITIAL_POPULATION * MAX_RELATIVE_DIFFERENCE));
+                    System.out.println(simulator.getClass().getName() + "; time: " + time + "; B: " + productPopulation +
+                                       " (Gillespie: " + referencePopulation + "; expected: " + expectedPopulation + ")" +
+                                       (agrees ? "" : "  MISMATCH"));
+                    passed &= agrees;
+                }
+            }
+            if(! passed)
+            {
+                throw new IllegalStateException("tau-leap results for a delayed reaction do not agree with the Gillespie direct method");
+            }
+            System.out.println("test passed");
+        }
+
+        catch(Exception e)
+        {
+            e.printStackTrace(System.err);
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package org.systemsbiology.data;
+/*
+ * Copyright (C) 2003 by Institute for Systems Biology,
+ * Seattle, Washington, USA.  All rights reserved.
+ *
+ * This source code is distributed under the GNU Lesser
+ * General Public License, the text of which is available at:
+ *   http://www.gnu.org/copyleft/lesser.html
+ */
+
+/**
+ * A calendar of future events, implemented as a binary min-heap keyed
+ * by the event time, and stored entirely in primitive arrays.  Each
+ * event carries an integer tag (identifying the kind of event) and
+ * a count of the number of occurrences that are scheduled for that
+ * time, so that a batch of identical events at the same time costs
+ * no more to schedule than a single event.  Adding and removing an
+ * event take time proportional to the logarithm of the number of
+ * events in the calendar; no objects are allocated, except when the
+ * arrays must grow.
+ *
+ * @author Stephen Ramsey
+ */
+public final class EventCalendar
+{
+    private static final int DEFAULT_INITIAL_CAPACITY = 64;
+
+    private double []mTimes;
+    private int []mTags;
+    private long []mCounts;
+    private int mSize;
+
+    public EventCalendar()
+    {
+        this(DEFAULT_INITIAL_CAPACITY);
+    }
+
+    public EventCalendar(int pInitialCapacity)
+    {
+        if(pInitialCapacity <= 0)
+        {
+            throw new IllegalArgumentException("invalid initial capacity: " + pInitialCapacity);
+        }
+        mTimes = new double[pInitialCapacity];
+        mTags = new int[pInitialCapacity];
+        mCounts = new long[pInitialCapacity];
+        mSize = 0;
+    }
+
+    /**
+     * Returns the number of events in the calendar (a batch of
+     * occurrences scheduled with a single call to {@link #add(double, int, long)}
+     * counts as one event).
+     */
+    public int size()
+    {
+        return(mSize);
+    }
+
+    public void clear()
+    {
+        mSize = 0;
+    }
+
+    /**
+     * Returns the time of the earliest event, or positive infinity
+     * if the calendar is empty.
+     */
+    public double peekTime()
+    {
+        double retTime = Double.POSITIVE_INFINITY;
+        if(mSize > 0)
+        {
+            retTime = mTimes[0];
+        }
+        return(retTime);
+    }
+
+    /**
+     * Returns the tag of the earliest event; the calendar must not be empty.
+     */
+    public int peekTag()
+    {
+        if(0 == mSize)
+        {
+            throw new IllegalStateException("the event calendar is empty");
+        }
+        return(mTags[0]);
+    }
+
+    /**
+     * Returns the number of occurrences of the earliest event; the
+     * calendar must not be empty.
+     */
+    public long peekCount()
+    {
+        if(0 == mSize)
+        {
+            throw new IllegalStateException("the event calendar is empty");
+        }
+        return(mCounts[0]);
+    }
+
+    /**
+     * Schedules <code>pCount</code> occurrences of the event with
+     * tag <code>pTag</code>, at time <code>pTime</code>.
+     */
+    public void add(double pTime, int pTag, long pCount)
+    {
+        if(pCount <= 0)
+        {
+            throw new IllegalArgumentException("invalid event count: " + pCount);
+        }
+        int size = mSize;
+        if(size == mTimes.length)
+        {
+            grow();
+        }
+        double []times = mTimes;
+        int []tags = mTags;
+        long []counts = mCounts;
+        int pos = size;
+        while(pos > 0)
+        {
+            int parent = (pos - 1) >> 1;
+            if(times[parent] <= pTime)
+            {
+                break;
+            }
+            times[pos] = times[parent];
+            tags[pos] = tags[parent];
+            counts[pos] = counts[parent];
+            pos = parent;
+        }
+        times[pos] = pTime;
+        tags[pos] = pTag;
+        counts[pos] = pCount;
+        mSize = size + 1;
+    }
+
+    /**
+     * Removes one occurrence of the earliest event, and returns its tag;
+     * the event is removed from the calendar when no occurrences remain.
+     */
+    public int pollOne()
+    {
+        int tag = peekTag();
+        long count = mCounts[0] - 1;
+        if(count > 0)
+        {
+            mCounts[0] = count;
+        }
+        else
+        {
+            removeFirst();
+        }
+        return(tag);
+    }
+
+    /**
+     * Removes the earliest event (with all of its occurrences), and returns its tag.
+     */
+    public int poll()
+    {
+        int tag = peekTag();
+        removeFirst();
+        return(tag);
+    }
+
+    private void removeFirst()
+    {
+        int size = mSize - 1;
+        mSize = size;
+        if(0 == size)
+        {
+            return;
+        }
+        double []times = mTimes;
+        int []tags = mTags;
+        long []counts = mCounts;
+        double time = times[size];
+        int tag = tags[size];
+        long count = counts[size];
+        int pos = 0;
+        int child = 1;
+        while(child < size)
+        {
+            if(child + 1 < size && times[child + 1] < times[child])
+            {
+                ++child;
+            }
+            if(time <= times[child])
+            {
+                break;
+            }
+            times[pos] = times[child];
+            tags[pos] = tags[child];
+            counts[pos] = counts[child];
+            pos = child;
+            child = 2 * pos + 1;
+        }
+        times[pos] = time;
+        tags[pos] = tag;
+        counts[pos] = count;
+    }
+
+    private void grow()
+    {
+        int capacity = 2 * mTimes.length;
+        double []times = new double[capacity];
+        int []tags = new int[capacity];
+        long []counts = new long[capacity];
+        System.arraycopy(mTimes, 0, times, 0, mSize);
+        System.arraycopy(mTags, 0, tags, 0, mSize);
+        System.arraycopy(mCounts, 0, counts, 0, mSize);
+        mTimes = times;
+        mTags = tags;
+        mCounts = counts;
+    }
+}
@@ -0,0 +1,203 @@
+package org.systemsbiology.data;
+/*
+ * Copyright (C) 2003 by Institute for Systems Biology,
+ * Seattle, Washington, USA.  All rights reserved.
+ *
+ * This source code is distributed under the GNU Lesser
+ * General Public License, the text of which is available at:
+ *   http://www.gnu.org/copyleft/lesser.html
+ */
+
+/**
+ * Implements an indexed binary min-heap of floating-point keys,
+ * stored entirely in primitive arrays.  Each element is identified by
+ * a fixed integer index in the range <code>[0, size)</code>.  The key of
+ * any element can be changed in time proportional to the logarithm
+ * of the number of elements, and the index of the element with the
+ * smallest key can be obtained in constant time.  Unlike the
+ * {@link IndexedPriorityQueue}, no objects are allocated, and no
+ * comparator is invoked, when keys are updated.
+ *
+ * @author Stephen Ramsey
+ */
+public final class IndexedDoubleMinHeap
+{
+    private final int mNumElements;
+    private final double []mKeys;        // key of each element, by element index
+    private final int []mHeap;           // element index at each heap position
+    private final int []mPositions;      // heap position of each element, by element index
+
+    public IndexedDoubleMinHeap(int pNumElements)
+    {
+        if(pNumElements < 0)
+        {
+            throw new IllegalArgumentException("invalid number of elements: " + pNumElements);
+        }
+        mNumElements = pNumElements;
+        mKeys = new double[pNumElements];
+        mHeap = new int[pNumElements];
+        mPositions = new int[pNumElements];
+        for(int ctr = 0; ctr < pNumElements; ++ctr)
+        {
+            mHeap[ctr] = ctr;
+            mPositions[ctr] = ctr;
+        }
+    }
+
+    public int size()
+    {
+        return(mNumElements);
+    }
+
+    public double get(int pIndex)
+    {
+        return(mKeys[pIndex]);
+    }
+
+    /**
+     * Returns the index of the element with the smallest key,
+     * or -1 if the heap has no elements.
+     */
+    public int peekIndex()
+    {
+        int retIndex = -1;
+        if(mNumElements > 0)
+        {
+            retIndex = mHeap[0];
+        }
+        return(retIndex);
+    }
+
+    /**
+     * Returns the smallest key in the heap.
+     */
+    public double peekValue()
+    {
+        return(mKeys[mHeap[0]]);
+    }
+
+    /**
+     * Sets the keys of all elements from the array <code>pKeys</code>
+     * (which must have the same size as this heap), rebuilding the
+     * heap in linear time.
+     */
+    public void setValues(double []pKeys)
+    {
+        int numElements = mNumElements;
+        if(pKeys.length != numElements)
+        {
+            throw new IllegalArgumentException("invalid array size: " + pKeys.length);
+        }
+        System.arraycopy(pKeys, 0, mKeys, 0, numElements);
+        int []heap = mHeap;
+        int []positions = mPositions;
+        for(int ctr = 0; ctr < numElements; ++ctr)
+        {
+            heap[ctr] = ctr;
+            positions[ctr] = ctr;
+        }
+        for(int pos = (numElements >> 1); --pos >= 0; )
+        {
+            siftDown(pos);
+        }
+    }
+
+    /**
+     * Changes the key of the element with index <code>pIndex</code>
+     * to <code>pKey</code>, and restores the heap property.
+     */
+    public void update(int pIndex, double pKey)
+    {
+        double oldKey = mKeys[pIndex];
+        mKeys[pIndex] = pKey;
+        int pos = mPositions[pIndex];
+        if(pKey < oldKey)
+        {
+            siftUp(pos);
+        }
+        else if(pKey > oldKey)
+        {
+            siftDown(pos);
+        }
+    }
+
+    private void siftUp(int pPosition)
+    {
+        double []keys = mKeys;
+        int []heap = mHeap;
+        int []positions = mPositions;
+        int pos = pPosition;
+        int index = heap[pos];
+        double key = keys[index];
+        while(pos > 0)
+        {
+            int parentPos = (pos - 1) >> 1;
+            int parentIndex = heap[parentPos];
+            if(keys[parentIndex] <= key)
+            {
+                break;
+            }
+            heap[pos] = parentIndex;
+            positions[parentIndex] = pos;
+            pos = parentPos;
+        }
+        heap[pos] = index;
+        positions[index] = pos;
+    }
+
+    private void siftDown(int pPosition)
+    {
+        double []keys = mKeys;
+        int []heap = mHeap;
+        int []positions = mPositions;
+        int numElements = mNumElements;
+        int pos = pPosition;
+        int index = heap[pos];
+        double key = keys[index];
+        int childPos = (pos << 1) + 1;
+        while(childPos < numElements)
+        {
+            int childIndex = heap[childPos];
+            double childKey = keys[childIndex];
+            int rightPos = childPos + 1;
+            if(rightPos < numElements)
+            {
+                int rightIndex = heap[rightPos];
+                double rightKey = keys[rightIndex];
+                if(rightKey < childKey)
+                {
+                    childPos = rightPos;
+                    childIndex = rightIndex;
+                    childKey = rightKey;
+                }
+            }
+            if(key <= childKey)
+            {
+                break;
+            }
+            heap[pos] = childIndex;
+            positions[childIndex] = pos;
+            pos = childPos;
+            childPos = (pos << 1) + 1;
+        }
+        heap[pos] = index;
+        positions[index] = pos;
+    }
+
+    public String toString()
+    {
+        StringBuffer sb = new StringBuffer();
+        sb.append("[");
+        for(int pos = 0; pos < mNumElements; ++pos)
+        {
+            if(pos > 0)
+            {
+                sb.append(", ");
+            }
+            int index = mHeap[pos];
+            sb.append(index + ":" + mKeys[index]);
+        }
+        sb.append("]");
+        return(sb.toString());
+    }
+}
@@ -0,0 +1,137 @@
+package org.systemsbiology.data;
+/*
+ * Copyright (C) 2003 by Institute for Systems Biology,
+ * Seattle, Washington, USA.  All rights reserved.
+ *
+ * This source code is distributed under the GNU Lesser
+ * General Public License, the text of which is available at:
+ *   http://www.gnu.org/copyleft/lesser.html
+ */
+
+/**
+ * Implements a complete binary tree of partial sums over
+ * a fixed-size array of non-negative floating-point values.
+ * The sum of all elements is available in constant time.
+ * Changing the value of an element, and finding the element
+ * at which the cumulative sum first exceeds a given value,
+ * both require time proportional to the logarithm of the
+ * number of elements.  Each internal node is recomputed
+ * from its two children (rather than adjusted by a difference),
+ * so round-off error does not accumulate as elements are
+ * repeatedly updated.
+ *
+ * @author Stephen Ramsey
+ */
+public final class SumTree
+{
+    private final int mNumElements;
+    private final int mNumLeaves;
+    private final double []mTree;
+
+    public SumTree(int pNumElements)
+    {
+        if(pNumElements < 0)
+        {
+            throw new IllegalArgumentException("invalid number of elements: " + pNumElements);
+        }
+        mNumElements = pNumElements;
+        int numLeaves = 1;
+        while(numLeaves < pNumElements)
+        {
+            numLeaves <<= 1;
+        }
+        mNumLeaves = numLeaves;
+        mTree = new double[2 * numLeaves];
+    }
+
+    public int size()
+    {
+        return(mNumElements);
+    }
+
+    public double getTotal()
+    {
+        return(mTree[1]);
+    }
+
+    public double getValue(int pIndex)
+    {
+        return(mTree[mNumLeaves + pIndex]);
+    }
+
+    /**
+     * Sets the value of the element at index <code>pIndex</code>,
+     * and updates the partial sums of all of its ancestors.
+     */
+    public void setValue(int pIndex, double pValue)
+    {
+        double []tree = mTree;
+        int node = mNumLeaves + pIndex;
+        tree[node] = pValue;
+        while(node > 1)
+        {
+            node >>= 1;
+            int left = node << 1;
+            tree[node] = tree[left] + tree[left + 1];
+        }
+    }
+
+    /**
+     * Sets the values of all elements from the array <code>pValues</code>
+     * (which must have the same size as this tree), rebuilding all of
+     * the partial sums in linear time.
+     */
+    public void setValues(double []pValues)
+    {
+        if(pValues.length != mNumElements)
+        {
+            throw new IllegalArgumentException("invalid array size: " + pValues.length);
+        }
+        double []tree = mTree;
+        int numLeaves = mNumLeaves;
+        System.arraycopy(pValues, 0, tree, numLeaves, mNumElements);
+        for(int node = numLeaves + mNumElements; node < 2 * numLeaves; ++node)
+        {
+            tree[node] = 0.0;
+        }
+        for(int node = numLeaves; --node >= 1; )
+        {
+            int left = node << 1;
+            tree[node] = tree[left] + tree[left + 1];
+        }
+    }
+
+    /**
+     * Returns the smallest index <code>i</code> such that the sum of the
+     * elements <code>0</code> through <code>i</code> exceeds <code>pValue</code>,
+     * where <code>pValue</code> should be in the interval [0, total).
+     * Elements whose value is zero are never selected, even when
+     * round-off error places <code>pValue</code> at or beyond the total.
+     */
+    public int findIndex(double pValue)
+    {
+        double []tree = mTree;
+        int numLeaves = mNumLeaves;
+        if(tree[1] <= 0.0)
+        {
+            throw new IllegalStateException("sum of elements is not positive: " + tree[1]);
+        }
+        int node = 1;
+        double value = pValue;
+        while(node < numLeaves)
+        {
+            int left = node << 1;
+            double leftSum = tree[left];
+            if(value < leftSum || tree[left + 1] <= 0.0)
+            {
+                node = left;
+            }
+            else
+            {
+                value -= leftSum;
+                node = left + 1;
+            }
+        }
+        return(node - numLeaves);
+    }
+}
@@ -0,0 +1,102 @@
+package org.systemsbiology.data.tp;
+/*
+ * Copyright (C) 2003 by Institute for Systems Biology,
+ * Seattle, Washington, USA.  All rights reserved.
+ *
+ * This source code is distributed under the GNU Lesser
+ * General Public License, the text of which is available at:
+ *   http://www.gnu.org/copyleft/lesser.html
+ */
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.systemsbiology.data.EventCalendar;
+
+/**
+ * Checks that the {@link EventCalendar} returns its events in time order,
+ * with the correct tags and counts, when additions and removals are
+ * interleaved as in a delayed-reaction stochastic simulation.
+ * Usage:  <code>TestEventCalendar [numEvents]</code>
+ */
+public class TestEventCalendar
+{
+    private static final int DEFAULT_NUM_EVENTS = 100000;
+    private static final int NUM_TAGS = 17;
+
+    public static final void main(String []pArgs)
+    {
+        try
+        {
+            int numEvents = DEFAULT_NUM_EVENTS;
+            if(pArgs.length > 0)
+            {
+                numEvents = Integer.parseInt(pArgs[0]);
+            }
+
+            Random random = new Random(1);
+            EventCalendar calendar = new EventCalendar(1);
+            double []times = new double[numEvents];
+            long totalCount = 0;
+            double time = 0.0;
+            int numAdded = 0;
+            int numPolled = 0;
+            while(numPolled < numEvents)
+            {
+                if(numAdded < numEvents && (0 == calendar.size() || random.nextBoolean()))
+                {
+                    // the tag is a function of the time, so that it can be checked when the event is polled
+                    double eventTime = time + random.nextDouble();
+                    times[numAdded] = eventTime;
+                    long count = 1 + random.nextInt(3);
+                    calendar.add(eventTime, ((int) (eventTime * 1.0e6)) % NUM_TAGS, count);
+                    totalCount += count;
+                    ++numAdded;
+                }
+                else
+                {
+                    double eventTime = calendar.peekTime();
+                    if(eventTime < time)
+                    {
+                        throw new IllegalStateException("event out of order at time: " + eventTime);
+                    }
+                    time = eventTime;
+                    long count = calendar.peekCount();
+                    int tag = 0;
+                    if(random.nextBoolean())
+                    {
+                        tag = calendar.poll();
+                        totalCount -= count;
+                    }
+                    else
+                    {
+                        for(long ctr = count; --ctr >= 0; )
+                        {
+                            tag = calendar.pollOne();
+                            --totalCount;
+                        }
+                    }
+                    if(tag != ((int) (eventTime * 1.0e6)) % NUM_TAGS)
+                    {
+                        throw new IllegalStateException("incorrect tag for event at time: " + eventTime);
+                    }
+                    ++numPolled;
+                }
+            }
+            if(0 != calendar.size() || 0 != totalCount || calendar.peekTime() != Double.POSITIVE_INFINITY)
+            {
+                throw new IllegalStateException("calendar is not empty after all events were polled");
+            }
+            Arrays.sort(times);
+            if(times[numEvents - 1] != time)
+            {
+                throw new IllegalStateException("last event polled was not the latest event");
+            }
+            System.out.println("event calendar check passed; events: " + numEvents);
+        }
+        catch(Exception e)
+        {
+            e.printStackTrace(System.err);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package org.systemsbiology.data.tp;
+/*
+ * Copyright (C) 2003 by Institute for Systems Biology,
+ * Seattle, Washington, USA.  All rights reserved.
+ *
+ * This source code is distributed under the GNU Lesser
+ * General Public License, the text of which is available at:
+ *   http://www.gnu.org/copyleft/lesser.html
+ */
+
+import java.util.Random;
+
+import org.systemsbiology.data.AbstractComparator;
+import org.systemsbiology.data.IndexedDoubleMinHeap;
+import org.systemsbiology.data.IndexedPriorityQueue;
+import org.systemsbiology.math.MutableDouble;
+
+/**
+ * Checks the {@link IndexedDoubleMinHeap} against a linear search,
+ * and compares its speed with that of the {@link IndexedPriorityQueue},
+ * using the access pattern of the Gibson-Bruck simulator (repeatedly
+ * reschedule the earliest element, and a few other elements).
+ * Usage:  <code>TestIndexedDoubleMinHeap [numUpdates]</code>
+ */
+public class TestIndexedDoubleMinHeap
+{
+    private static final int NUM_DEPENDENT_UPDATES = 3;
+    private static final int DEFAULT_NUM_UPDATES = 1000000;
+    private static final int []SIZES = { 10000, 100000, 1000000 };
+
+    private static void checkCorrectness(Random pRandom, int pNumElements, int pNumUpdates)
+    {
+        IndexedDoubleMinHeap heap = new IndexedDoubleMinHeap(pNumElements);
+        double []keys = new double[pNumElements];
+        for(int ctr = 0; ctr < pNumElements; ++ctr)
+        {
+            keys[ctr] = pRandom.nextDouble();
+        }
+        heap.setValues(keys);
+        for(int updateCtr = 0; updateCtr < pNumUpdates; ++updateCtr)
+        {
+            int minIndex = 0;
+            for(int ctr = 1; ctr < pNumElements; ++ctr)
+            {
+                if(keys[ctr] < keys[minIndex])
+                {
+                    minIndex = ctr;
+                }
+            }
+            if(keys[heap.peekIndex()] != keys[minIndex])
+            {
+                throw new IllegalStateException("heap minimum is incorrect, after update: " + updateCtr);
+            }
+            int index = pRandom.nextInt(pNumElements);
+            double key = (pRandom.nextInt(10) == 0 ? Double.POSITIVE_INFINITY : pRandom.nextDouble());
+            keys[index] = key;
+            heap.update(index, key);
+        }
+    }
+
+    private static long timeIndexedDoubleMinHeap(Random pRandom, int pNumElements, int pNumUpdates)
+    {
+        long startTime = System.currentTimeMillis();
+        IndexedDoubleMinHeap heap = new IndexedDoubleMinHeap(pNumElements);
+        double []keys = new double[pNumElements];
+        for(int ctr = 0; ctr < pNumElements; ++ctr)
+        {
+            keys[ctr] = -Math.log(pRandom.nextDouble());
+        }
+        heap.setValues(keys);
+        for(int updateCtr = 0; updateCtr < pNumUpdates; ++updateCtr)
+        {
+            int index = heap.peekIndex();
+            double time = heap.get(index);
+            heap.update(index, time - Math.log(pRandom.nextDouble()));
+            for(int depCtr = NUM_DEPENDENT_UPDATES; --depCtr >= 0; )
+            {
+                int depIndex = pRandom.nextInt(pNumElements);
+                heap.update(depIndex, time + (heap.get(depIndex) - time) * (0.5 + pRandom.nextDouble()));
+            }
+        }
+        return(System.currentTimeMillis() - startTime);
+    }
+
+    private static long timeIndexedPriorityQueue(Random pRandom, int pNumElements, int pNumUpdates) throws Exception
+    {
+        long startTime = System.currentTimeMillis();
+        IndexedPriorityQueue queue = new IndexedPriorityQueue(new AbstractComparator()
+        {
+            public int compare(Object p1, Object p2)
+            {
+                return(MutableDouble.compare((MutableDouble) p1, (MutableDouble) p2));
+            }
+        });
+        for(int ctr = 0; ctr < pNumElements; ++ctr)
+        {
+            queue.add(new MutableDouble(-Math.log(pRandom.nextDouble())));
+        }
+        for(int updateCtr = 0; updateCtr < pNumUpdates; ++updateCtr)
+        {
+            int index = queue.peekIndex();
+            MutableDouble timeObj = (MutableDouble) queue.get(index);
+            double time = timeObj.getValue();
+            timeObj.setValue(time - Math.log(pRandom.nextDouble()));
+            queue.update(index, timeObj);
+            for(int depCtr = NUM_DEPENDENT_UPDATES; --depCtr >= 0; )
+            {
+                int depIndex = pRandom.nextInt(pNumElements);
+                MutableDouble depTimeObj = (MutableDouble) queue.get(depIndex);
+                depTimeObj.setValue(time + (depTimeObj.getValue() - time) * (0.5 + pRandom.nextDouble()));
+                queue.update(depIndex, depTimeObj);
+            }
+        }
+        return(System.currentTimeMillis() - startTime);
+    }
+
+    public static final void main(String []pArgs)
+    {
+        try
+        {
+            int numUpdates = DEFAULT_NUM_UPDATES;
+            if(pArgs.length > 0)
+            {
+                numUpdates = Integer.parseInt(pArgs[0]);
+            }
+
+            checkCorrectness(new Random(1), 1000, 10000);
+            System.out.println("correctness check passed");
+
+            for(int ctr = 0; ctr < SIZES.length; ++ctr)
+            {
+                int numElements = SIZES[ctr];
+                long heapTime = timeIndexedDoubleMinHeap(new Random(ctr), numElements, numUpdates);
+                long queueTime = timeIndexedPriorityQueue(new Random(ctr), numElements, numUpdates);
+                System.out.println("elements: " + numElements + "; updates: " + numUpdates +
+                                   "; IndexedDoubleMinHeap: " + heapTime + " ms; IndexedPriorityQueue: " + queueTime + " ms");
+            }
+        }
+        catch(Exception e)
+        {
+            e.printStackTrace(System.err);
+        }
+    }
+}
@@ -0,0 +1,505 @@
+package org.systemsbiology.math;
+/*
+ * Copyright (C) 2003 by Institute for Systems Biology,
+ * Seattle, Washington, USA.  All rights reserved.
+ *
+ * This source code is distributed under the GNU Lesser
+ * General Public License, the text of which is available at:
+ *   http://www.gnu.org/copyleft/lesser.html
+ */
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+import org.systemsbiology.util.DataNotFoundException;
+
+/**
+ * A form of an {@link Expression} that computes the value of the
+ * expression for many independent states at once (a "batch" of
+ * <em>lanes</em>).  It is the batched counterpart of
+ * {@link Expression#computeValue(SymbolEvaluator)}, for use when the
+ * same expression must be evaluated for an ensemble of states.
+ * <p>
+ * The symbols of the expression that are to have a separate value
+ * in each lane must be bound to an element of one of the <em>lane
+ * arrays</em> passed to the constructor (see
+ * {@link Symbol#setArray(double[])}) when this object is constructed.
+ * A symbol that is not bound to an array is assumed to have the same
+ * value in every lane.  The lane values are supplied to
+ * {@link #computeValues(double[][], int, SymbolEvaluator, double[])}
+ * in a structure-of-arrays layout, as one row of lane values per
+ * element of the lane arrays; the rows of the first lane array come
+ * first, followed by the rows of the second lane array, and so on.
+ * For example, if the only lane array is the species values array,
+ * the lane values are laid out as
+ * <code>double[numSpecies][numLanes]</code>.  A symbol whose value
+ * is an expression that depends on the lane values is expanded in
+ * place; all other symbols have the same value in every lane, and
+ * are obtained once per batch from the {@link SymbolEvaluator}.
+ * <p>
+ * The expression is evaluated in postfix order (see
+ * {@link PostfixExpression}), where each operand on the stack is a
+ * row of lane values, so that each operation is a simple loop over
+ * the lanes, which the JIT compiler can vectorize.  Symbol values
+ * are not passed through a {@link SymbolEvaluationPostProcessor}.
+ * The postfix form is a snapshot of the expression and of the symbol
+ * bindings at the time it was constructed.  Since the operand stack
+ * is reused, a <code>BatchedExpression</code> must not be evaluated
+ * concurrently by more than one thread.
+ *
+ * @author Stephen Ramsey
+ */
+public final class BatchedExpression
+{
+    // element code for a symbol whose value differs from lane to lane
+    private static final int ELEMENT_CODE_LANE_SYMBOL = -1;
+
+    private final int []mCodes;
+    private final double []mNumericValues;
+    private final Symbol []mSymbols;
+    private final int []mLaneRows;
+    private final int mStackSize;
+    private double [][]mStack;
+
+    public BatchedExpression(Expression pExpression, double [][]pLaneArrays) throws IllegalStateException
+    {
+        Expression.Element rootElement = pExpression.getRootElement();
+        if(null == rootElement)
+        {
+            throw new IllegalStateException("attempted to batch a math expression object that has no expression defined");
+        }
+        int numLaneArrays = pLaneArrays.length;
+        int []laneArrayRowOffsets = new int[numLaneArrays];
+        int numRows = 0;
+        for(int k = 0; k < numLaneArrays; ++k)
+        {
+            laneArrayRowOffsets[k] = numRows;
+            numRows += pLaneArrays[k].length;
+        }
+
+        ArrayList elements = new ArrayList();
+        ArrayList laneRows = new ArrayList();
+        storeElements(rootElement, pLaneArrays, laneArrayRowOffsets, elements, laneRows, new IdentityHashMap());
+
+        int numElements = elements.size();
+        mCodes = new int[numElements];
+        mNumericValues = new double[numElements];
+        mSymbols = new Symbol[numElements];
+        mLaneRows = new int[numElements];
+        int stackSize = 0;
+        int top = 0;
+        for(int ctr = 0; ctr < numElements; ++ctr)
+        {
+            Expression.Element element = (Expression.Element) elements.get(ctr);
+            Integer laneRow = (Integer) laneRows.get(ctr);
+            if(null != laneRow)
+            {
+                mCodes[ctr] = ELEMENT_CODE_LANE_SYMBOL;
+                mLaneRows[ctr] = laneRow.intValue();
+                ++top;
+            }
+            else
+            {
+                int code = element.mCode.mIntCode;
+                mCodes[ctr] = code;
+                switch(code)
+                {
+                    case Expression.ElementCode.ELEMENT_CODE_SYMBOL:
+                        mSymbols[ctr] = element.mSymbol;
+                        ++top;
+                        break;
+
+                    case Expression.ElementCode.ELEMENT_CODE_NUMBER:
+                        mNumericValues[ctr] = element.mNumericValue;
+                        ++top;
+                        break;
+
+                    default:
+                        if(null != element.mSecondOperand)
+                        {
+                            --top;
+                        }
+                        break;
+                }
+            }
+            stackSize = Math.max(stackSize, top);
+        }
+        mStackSize = stackSize;
+        mStack = null;
+    }
+
+    // appends the elements of the subtree in postfix order, expanding the expression values
+    // of symbols that depend on the lane arrays
+    private static void storeElements(Expression.Element pElement,
+                                      double [][]pLaneArrays,
+                                      int []pLaneArrayRowOffsets,
+                                      ArrayList pElements,
+                                      ArrayList pLaneRows,
+                                      IdentityHashMap pExpandedValues) throws IllegalStateException
+    {
+        Symbol symbol = pElement.mSymbol;
+        if(null != symbol)
+        {
+            int arrayIndex = symbol.mArrayIndex;
+            if(Symbol.NULL_ARRAY_INDEX == arrayIndex)
+            {
+                pElements.add(pElement);
+                pLaneRows.add(null);
+                return;
+            }
+            double []doubleArray = symbol.mDoubleArray;
+            if(null != doubleArray)
+            {
+                Integer laneRow = null;
+                for(int k = pLaneArrays.length; --k >= 0; )
+                {
+                    if(doubleArray == pLaneArrays[k])
+                    {
+                        laneRow = new Integer(pLaneArrayRowOffsets[k] + arrayIndex);
+                        break;
+                    }
+                }
+                pElements.add(pElement);
+                pLaneRows.add(laneRow);
+                return;
+            }
+            Value value = symbol.mValueArray[arrayIndex];
+            if(value.isExpression() && dependsOnLaneArrays(value.getExpressionValue().getRootElement(), pLaneArrays, new IdentityHashMap()))
+            {
+                if(pExpandedValues.containsKey(value))
+                {
+                    throw new IllegalStateException("circular expression value for symbol: " + symbol.getName());
+                }
+                pExpandedValues.put(value, value);
+                storeElements(value.getExpressionValue().getRootElement(), pLaneArrays, pLaneArrayRowOffsets, pElements, pLaneRows, pExpandedValues);
+                pExpandedValues.remove(value);
+                return;
+            }
+            pElements.add(pElement);
+            pLaneRows.add(null);
+            return;
+        }
+        if(null != pElement.mFirstOperand)
+        {
+            storeElements(pElement.mFirstOperand, pLaneArrays, pLaneArrayRowOffsets, pElements, pLaneRows, pExpandedValues);
+            if(null != pElement.mSecondOperand)
+            {
+                storeElements(pElement.mSecondOperand, pLaneArrays, pLaneArrayRowOffsets, pElements, pLaneRows, pExpandedValues);
+            }
+        }
+        pElements.add(pElement);
+        pLaneRows.add(null);
+    }
+
+    private static boolean dependsOnLaneArrays(Expression.Element pElement,
+                                               double [][]pLaneArrays,
+                                               IdentityHashMap pVisitedValues)
+    {
+        Symbol symbol = pElement.mSymbol;
+        if(null != symbol)
+        {
+            int arrayIndex = symbol.mArrayIndex;
+            if(Symbol.NULL_ARRAY_INDEX == arrayIndex)
+            {
+                return(false);
+            }
+            double []doubleArray = symbol.mDoubleArray;
+            if(null != doubleArray)
+            {
+                for(int k = pLaneArrays.length; --k >= 0; )
+                {
+                    if(doubleArray == pLaneArrays[k])
+                    {
+                        return(true);
+                    }
+                }
+                return(false);
+            }
+            Value value = symbol.mValueArray[arrayIndex];
+            if(! value.isExpression() || pVisitedValues.containsKey(value))
+            {
+                return(false);
+            }
+            pVisitedValues.put(value, value);
+            return(dependsOnLaneArrays(value.getExpressionValue().getRootElement(), pLaneArrays, pVisitedValues));
+        }
+        if(null != pElement.mFirstOperand)
+        {
+            if(dependsOnLaneArrays(pElement.mFirstOperand, pLaneArrays, pVisitedValues))
+            {
+                return(true);
+            }
+            if(null != pElement.mSecondOperand)
+            {
+                return(dependsOnLaneArrays(pElement.mSecondOperand, pLaneArrays, pVisitedValues));
+            }
+        }
+        return(false);
+    }
+
+    /**
+     * Returns true if the value of the expression differs from lane to
+     * lane, or false if it is the same in every lane.
+     */
+    public boolean dependsOnLanes()
+    {
+        int []codes = mCodes;
+        for(int ctr = codes.length; --ctr >= 0; )
+        {
+            if(ELEMENT_CODE_LANE_SYMBOL == codes[ctr])
+            {
+                return(true);
+            }
+        }
+        return(false);
+    }
+
+    private static void fill(double []pLane, int pNumLanes, double pValue)
+    {
+        for(int i = 0; i < pNumLanes; ++i)
+        {
+            pLane[i] = pValue;
+        }
+    }
+
+    /**
+     * Computes the value of the expression in each of the first
+     * <code>pNumLanes</code> lanes, and stores it in the corresponding
+     * element of <code>pRetValues</code>.  Row <code>r</code> of
+     * <code>pLaneValues</code> contains the value, in each lane, of
+     * element <code>r</code> of the (concatenated) lane arrays.  The
+     * values of all other symbols are obtained from
+     * <code>pSymbolEvaluator</code>.  For each lane, the result is
+     * computed with the same operations, in the same order, as by
+     * {@link Expression#computeValue(SymbolEvaluator)} with the lane
+     * arrays containing the values of that lane; it agrees with that
+     * result exactly, except that the transcendental functions of
+     * <code>Math</code> may differ from it in the last bit.
+     */
+    /*
+     * IMPORTANT:  this method contains PERFORMANCE-CRITICAL code.
+     */
+    public void computeValues(double [][]pLaneValues,
+                              int pNumLanes,
+                              SymbolEvaluator pSymbolEvaluator,
+                              double []pRetValues) throws DataNotFoundException
+    {
+        double [][]stack = mStack;
+        if(null == stack || stack[0].length < pNumLanes)
+        {
+            stack = new double[mStackSize][pNumLanes];
+            mStack = stack;
+        }
+        int []codes = mCodes;
+        int numElements = codes.length;
+        int n = pNumLanes;
+        int top = -1;
+        double []a = null;
+        double []b = null;
+        for(int ctr = 0; ctr < numElements; ++ctr)
+        {
+            switch(codes[ctr])
+            {
+                case ELEMENT_CODE_LANE_SYMBOL:
+                    System.arraycopy(pLaneValues[mLaneRows[ctr]], 0, stack[++top], 0, n);
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_SYMBOL:
+                    fill(stack[++top], n, pSymbolEvaluator.getValue(mSymbols[ctr]));
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_NUMBER:
+                    fill(stack[++top], n, mNumericValues[ctr]);
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_MULT:
+                    b = stack[top];
+                    a = stack[--top];
+                    for(int i = 0; i < n; ++i)
+                    {
+                        a[i] = a[i] * b[i];
+                    }
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_ADD:
+                    b = stack[top];
+                    a = stack[--top];
+                    for(int i = 0; i < n; ++i)
+                    {
+                        a[i] = a[i] + b[i];
+                    }
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_DIV:
+                    b = stack[top];
+                    a = stack[--top];
+                    for(int i = 0; i < n; ++i)
+                    {
+                        a[i] = a[i] / b[i];
+                    }
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_SUBT:
+                    b = stack[top];
+                    a = stack[--top];
+                    for(int i = 0; i < n; ++i)
+                    {
+                        a[i] = a[i] - b[i];
+                    }
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_POW:
+                    b = stack[top];
+                    a = stack[--top];
+                    for(int i = 0; i < n; ++i)
+                    {
+                        a[i] = Math.pow(a[i], b[i]);
+                    }
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_MOD:
+                    b = stack[top];
+                    a = stack[--top];
+                    for(int i = 0; i < n; ++i)
+                    {
+                        a[i] = a[i] % b[i];
+                    }
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_MIN:
+                    b = stack[top];
+                    a = stack[--top];
+                    for(int i = 0; i < n; ++i)
+                    {
+                        a[i] = Math.min(a[i], b[i]);
+                    }
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_MAX:
+                    b = stack[top];
+                    a = stack[--top];
+                    for(int i = 0; i < n; ++i)
+                    {
+                        a[i] = Math.max(a[i], b[i]);
+                    }
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_NEG:
+                    a = stack[top];
+                    for(int i = 0; i < n; ++i)
+                    {
+                        a[i] = -a[i];
+                    }
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_EXP:
+                    a = stack[top];
+                    for(int i = 0; i < n; ++i)
+                    {
+                        a[i] = Math.exp(a[i]);
+                    }
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_LN:
+                    a = stack[top];
+                    for(int i = 0; i < n; ++i)
+                    {
+                        a[i] = Math.log(a[i]);
+                    }
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_SIN:
+                    a = stack[top];
+                    for(int i = 0; i < n; ++i)
+                    {
+                        a[i] = Math.sin(a[i]);
+                    }
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_COS:
+                    a = stack[top];
+                    for(int i = 0; i < n; ++i)
+                    {
+                        a[i] = Math.cos(a[i]);
+                    }
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_TAN:
+                    a = stack[top];
+                    for(int i = 0; i < n; ++i)
+                    {
+                        a[i] = Math.tan(a[i]);
+                    }
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_ASIN:
+                    a = stack[top];
+                    for(int i = 0; i < n; ++i)
+                    {
+                        a[i] = Math.asin(a[i]);
+                    }
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_ACOS:
+                    a = stack[top];
+                    for(int i = 0; i < n; ++i)
+                    {
+                        a[i] = Math.acos(a[i]);
+                    }
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_ATAN:
+                    a = stack[top];
+                    for(int i = 0; i < n; ++i)
+                    {
+                        a[i] = Math.atan(a[i]);
+                    }
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_ABS:
+                    a = stack[top];
+                    for(int i = 0; i < n; ++i)
+                    {
+                        a[i] = Math.abs(a[i]);
+                    }
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_FLOOR:
+                    a = stack[top];
+                    for(int i = 0; i < n; ++i)
+                    {
+                        a[i] = Math.floor(a[i]);
+                    }
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_CEIL:
+                    a = stack[top];
+                    for(int i = 0; i < n; ++i)
+                    {
+                        a[i] = Math.ceil(a[i]);
+                    }
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_SQRT:
+                    a = stack[top];
+                    for(int i = 0; i < n; ++i)
+                    {
+                        a[i] = Math.sqrt(a[i]);
+                    }
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_THETA:
+                    a = stack[top];
+                    for(int i = 0; i < n; ++i)
+                    {
+                        a[i] = MathFunctions.thetaFunction(a[i]);
+                    }
+                    break;
+
+                default:
+                    throw new IllegalStateException("unknown function code: " + codes[ctr]);
+            }
+        }
+        System.arraycopy(stack[0], 0, pRetValues, 0, n);
+    }
+}
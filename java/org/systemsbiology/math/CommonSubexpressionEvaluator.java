@@ -0,0 +1,435 @@
+package org.systemsbiology.math;
+/*
+ * Copyright (C) 2003 by Institute for Systems Biology,
+ * Seattle, Washington, USA.  All rights reserved.
+ *
+ * This source code is distributed under the GNU Lesser
+ * General Public License, the text of which is available at:
+ *   http://www.gnu.org/copyleft/lesser.html
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.systemsbiology.util.DataNotFoundException;
+
+/**
+ * Evaluates a set of {@link Expression} objects together, computing
+ * each distinct subexpression only once.  The expressions are merged
+ * into a single directed acyclic graph of nodes, in which identical
+ * subtrees (the same operator applied to the same operands) are
+ * represented by a single node, even if they occur in different
+ * expressions.  A symbol whose value is a constant number is replaced
+ * by the number, and any subtree whose operands are all constant is
+ * replaced by its value when the graph is built ("constant folding").
+ * A symbol whose value is itself an expression is merged into the
+ * graph in line, so that its subexpressions are shared as well.
+ * <p>
+ * Symbols are identified by their binding (the array and array index
+ * in which the symbol value is stored), so the symbols of the
+ * expressions should already be bound to their values (as they
+ * are after each expression has been evaluated once).  An unbound
+ * symbol (such as a reserved symbol, like the time) is evaluated
+ * by calling {@link SymbolEvaluator#getValue(Symbol)}.  Because
+ * the values of the symbols are not post-processed, this class must
+ * not be used with a {@link SymbolEvaluator} that has a
+ * {@link SymbolEvaluationPostProcessor}.  The values of constant
+ * symbols must not change while this object is in use.
+ * <p>
+ * The values are computed in the same order, and with the same
+ * operations, as by {@link Expression#computeValue(SymbolEvaluator)},
+ * so the results are identical.
+ *
+ * @author Stephen Ramsey
+ */
+public final class CommonSubexpressionEvaluator
+{
+    private static final int DEFAULT_INITIAL_CAPACITY = 64;
+    private static final int NO_OPERAND = -1;
+
+    private int []mCodes;
+    private int []mFirstOperands;
+    private int []mSecondOperands;
+    private Symbol []mSymbols;
+    private double []mValues;
+    private int mNumNodes;
+    private int mNumElementsAdded;
+
+    // the following fields are used only when expressions are added
+    private final HashMap mNodeIndices;
+    private final ArrayList mExpressionsBeingAdded;
+
+    private static final class NodeKey
+    {
+        private final int mCode;
+        private final int mFirstOperand;
+        private final int mSecondOperand;
+        private final long mBits;
+        private final Object mReference;
+
+        public NodeKey(int pCode, int pFirstOperand, int pSecondOperand, long pBits, Object pReference)
+        {
+            mCode = pCode;
+            mFirstOperand = pFirstOperand;
+            mSecondOperand = pSecondOperand;
+            mBits = pBits;
+            mReference = pReference;
+        }
+
+        public boolean equals(Object pObject)
+        {
+            if(! (pObject instanceof NodeKey))
+            {
+                return(false);
+            }
+            NodeKey key = (NodeKey) pObject;
+            if(mCode != key.mCode ||
+               mFirstOperand != key.mFirstOperand ||
+               mSecondOperand != key.mSecondOperand ||
+               mBits != key.mBits)
+            {
+                return(false);
+            }
+            // an array is identified by reference; a symbol name, by value
+            return(mReference == key.mReference ||
+                   (mReference instanceof String && mReference.equals(key.mReference)));
+        }
+
+        public int hashCode()
+        {
+            int hashCode = mCode;
+            hashCode = 31 * hashCode + mFirstOperand;
+            hashCode = 31 * hashCode + mSecondOperand;
+            hashCode = 31 * hashCode + (int) (mBits ^ (mBits >>> 32));
+            if(mReference instanceof String)
+            {
+                hashCode = 31 * hashCode + mReference.hashCode();
+            }
+            else if(null != mReference)
+            {
+                hashCode = 31 * hashCode + System.identityHashCode(mReference);
+            }
+            return(hashCode);
+        }
+    }
+
+    public CommonSubexpressionEvaluator()
+    {
+        mCodes = new int[DEFAULT_INITIAL_CAPACITY];
+        mFirstOperands = new int[DEFAULT_INITIAL_CAPACITY];
+        mSecondOperands = new int[DEFAULT_INITIAL_CAPACITY];
+        mSymbols = new Symbol[DEFAULT_INITIAL_CAPACITY];
+        mValues = new double[DEFAULT_INITIAL_CAPACITY];
+        mNumNodes = 0;
+        mNumElementsAdded = 0;
+        mNodeIndices = new HashMap();
+        mExpressionsBeingAdded = new ArrayList();
+    }
+
+    /**
+     * Adds the expression <code>pExpression</code> to the graph, and
+     * returns the index of the node whose value is the value of the
+     * expression; this index is to be passed to {@link #getValue(int)}.
+     */
+    public int addExpression(Expression pExpression) throws IllegalArgumentException
+    {
+        Expression.Element rootElement = pExpression.getRootElement();
+        if(null == rootElement)
+        {
+            throw new IllegalStateException("attempted to add a math expression object that has no expression defined");
+        }
+        mExpressionsBeingAdded.add(pExpression);
+        try
+        {
+            return(addElement(rootElement));
+        }
+        finally
+        {
+            mExpressionsBeingAdded.clear();
+        }
+    }
+
+    /**
+     * Returns the number of distinct nodes in the graph (including constants).
+     */
+    public int getNumNodes()
+    {
+        return(mNumNodes);
+    }
+
+    /**
+     * Returns the number of parse-tree elements of all of the expressions
+     * that have been added (counting each expression symbol as the
+     * elements of its expression), which is the number of nodes that
+     * would be evaluated without sharing or constant folding.
+     */
+    public int getNumElementsAdded()
+    {
+        return(mNumElementsAdded);
+    }
+
+    /**
+     * Computes the values of all of the nodes in the graph, using the
+     * symbol values obtained from <code>pSymbolEvaluator</code>.  After
+     * this method returns, the value of each expression is available
+     * from {@link #getValue(int)}.
+     */
+    /*
+     * IMPORTANT:  this method contains PERFORMANCE-CRITICAL code.
+     */
+    public void computeValues(SymbolEvaluator pSymbolEvaluator) throws DataNotFoundException
+    {
+        int []codes = mCodes;
+        int []firstOperands = mFirstOperands;
+        int []secondOperands = mSecondOperands;
+        double []values = mValues;
+        int numNodes = mNumNodes;
+        for(int nodeCtr = 0; nodeCtr < numNodes; ++nodeCtr)
+        {
+            int code = codes[nodeCtr];
+            switch(code)
+            {
+                case Expression.ElementCode.ELEMENT_CODE_NUMBER:
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_SYMBOL:
+                    values[nodeCtr] = pSymbolEvaluator.getValue(mSymbols[nodeCtr]);
+                    break;
+
+                default:
+                    int secondOperand = secondOperands[nodeCtr];
+                    values[nodeCtr] = computeNodeValue(code,
+                                                       values[firstOperands[nodeCtr]],
+                                                       NO_OPERAND == secondOperand ? 0.0 : values[secondOperand]);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Returns the value of the node with index <code>pNodeIndex</code>,
+     * as of the most recent call to {@link #computeValues(SymbolEvaluator)}.
+     */
+    public double getValue(int pNodeIndex)
+    {
+        return(mValues[pNodeIndex]);
+    }
+
+    static double computeNodeValue(int pCode, double pFirstValue, double pSecondValue)
+    {
+        switch(pCode)
+        {
+            case Expression.ElementCode.ELEMENT_CODE_MULT:
+                return(pFirstValue * pSecondValue);
+
+            case Expression.ElementCode.ELEMENT_CODE_ADD:
+                return(pFirstValue + pSecondValue);
+
+            case Expression.ElementCode.ELEMENT_CODE_DIV:
+                return(pFirstValue / pSecondValue);
+
+            case Expression.ElementCode.ELEMENT_CODE_SUBT:
+                return(pFirstValue - pSecondValue);
+
+            case Expression.ElementCode.ELEMENT_CODE_POW:
+                return(Math.pow(pFirstValue, pSecondValue));
+
+            case Expression.ElementCode.ELEMENT_CODE_MOD:
+                return(pFirstValue % pSecondValue);
+
+            case Expression.ElementCode.ELEMENT_CODE_MIN:
+                return(Math.min(pFirstValue, pSecondValue));
+
+            case Expression.ElementCode.ELEMENT_CODE_MAX:
+                return(Math.max(pFirstValue, pSecondValue));
+
+            case Expression.ElementCode.ELEMENT_CODE_NEG:
+                return(-pFirstValue);
+
+            case Expression.ElementCode.ELEMENT_CODE_EXP:
+                return(Math.exp(pFirstValue));
+
+            case Expression.ElementCode.ELEMENT_CODE_LN:
+                return(Math.log(pFirstValue));
+
+            case Expression.ElementCode.ELEMENT_CODE_SIN:
+                return(Math.sin(pFirstValue));
+
+            case Expression.ElementCode.ELEMENT_CODE_COS:
+                return(Math.cos(pFirstValue));
+
+            case Expression.ElementCode.ELEMENT_CODE_TAN:
+                return(Math.tan(pFirstValue));
+
+            case Expression.ElementCode.ELEMENT_CODE_ASIN:
+                return(Math.asin(pFirstValue));
+
+            case Expression.ElementCode.ELEMENT_CODE_ACOS:
+                return(Math.acos(pFirstValue));
+
+            case Expression.ElementCode.ELEMENT_CODE_ATAN:
+                return(Math.atan(pFirstValue));
+
+            case Expression.ElementCode.ELEMENT_CODE_ABS:
+                return(Math.abs(pFirstValue));
+
+            case Expression.ElementCode.ELEMENT_CODE_FLOOR:
+                return(Math.floor(pFirstValue));
+
+            case Expression.ElementCode.ELEMENT_CODE_CEIL:
+                return(Math.ceil(pFirstValue));
+
+            case Expression.ElementCode.ELEMENT_CODE_SQRT:
+                return(Math.sqrt(pFirstValue));
+
+            case Expression.ElementCode.ELEMENT_CODE_THETA:
+                return(MathFunctions.thetaFunction(pFirstValue));
+
+            default:
+                throw new IllegalStateException("unknown function code: " + pCode);
+        }
+    }
+
+    private int addElement(Expression.Element pElement) throws IllegalArgumentException
+    {
+        ++mNumElementsAdded;
+        int code = pElement.mCode.mIntCode;
+        switch(code)
+        {
+            case Expression.ElementCode.ELEMENT_CODE_NUMBER:
+                return(addConstant(pElement.mNumericValue));
+
+            case Expression.ElementCode.ELEMENT_CODE_SYMBOL:
+                return(addSymbol(pElement.mSymbol));
+
+            default:
+                break;
+        }
+
+        int firstOperand = addElement(pElement.mFirstOperand);
+        int secondOperand = NO_OPERAND;
+        if(null != pElement.mSecondOperand)
+        {
+            secondOperand = addElement(pElement.mSecondOperand);
+        }
+
+        double []values = mValues;
+        int []codes = mCodes;
+        if(Expression.ElementCode.ELEMENT_CODE_NUMBER == codes[firstOperand] &&
+           (NO_OPERAND == secondOperand || Expression.ElementCode.ELEMENT_CODE_NUMBER == codes[secondOperand]))
+        {
+            double secondValue = 0.0;
+            if(NO_OPERAND != secondOperand)
+            {
+                secondValue = values[secondOperand];
+            }
+            return(addConstant(computeNodeValue(code, values[firstOperand], secondValue)));
+        }
+
+        NodeKey key = new NodeKey(code, firstOperand, secondOperand, 0L, null);
+        Integer nodeIndex = (Integer) mNodeIndices.get(key);
+        if(null != nodeIndex)
+        {
+            return(nodeIndex.intValue());
+        }
+        int newNodeIndex = addNode(key, code, null);
+        mFirstOperands[newNodeIndex] = firstOperand;
+        mSecondOperands[newNodeIndex] = secondOperand;
+        return(newNodeIndex);
+    }
+
+    private int addConstant(double pValue)
+    {
+        long bits = Double.doubleToLongBits(pValue);
+        NodeKey key = new NodeKey(Expression.ElementCode.ELEMENT_CODE_NUMBER, NO_OPERAND, NO_OPERAND, bits, null);
+        Integer nodeIndex = (Integer) mNodeIndices.get(key);
+        if(null != nodeIndex)
+        {
+            return(nodeIndex.intValue());
+        }
+        int newNodeIndex = addNode(key, Expression.ElementCode.ELEMENT_CODE_NUMBER, null);
+        mValues[newNodeIndex] = pValue;
+        return(newNodeIndex);
+    }
+
+    private int addSymbol(Symbol pSymbol) throws IllegalArgumentException
+    {
+        int arrayIndex = pSymbol.mArrayIndex;
+        NodeKey key = null;
+        if(Symbol.NULL_ARRAY_INDEX == arrayIndex)
+        {
+            key = new NodeKey(Expression.ElementCode.ELEMENT_CODE_SYMBOL, NO_OPERAND, NO_OPERAND, 0L, pSymbol.getName());
+        }
+        else if(null != pSymbol.mDoubleArray)
+        {
+            key = new NodeKey(Expression.ElementCode.ELEMENT_CODE_SYMBOL, arrayIndex, NO_OPERAND, 0L, pSymbol.mDoubleArray);
+        }
+        else
+        {
+            Value value = pSymbol.mValueArray[arrayIndex];
+            if(! value.isExpression())
+            {
+                return(addConstant(value.getValue()));
+            }
+            Expression expression = value.getExpressionValue();
+            ArrayList expressionsBeingAdded = mExpressionsBeingAdded;
+            int numExpressionsBeingAdded = expressionsBeingAdded.size();
+            for(int ctr = 0; ctr < numExpressionsBeingAdded; ++ctr)
+            {
+                if(expressionsBeingAdded.get(ctr) == expression)
+                {
+                    throw new IllegalArgumentException("circular expression encountered while attempting to add expression: " + expression.toString());
+                }
+            }
+            // the identical subtrees of the expression are merged, each time it is used
+            expressionsBeingAdded.add(expression);
+            int nodeIndex = addElement(expression.getRootElement());
+            expressionsBeingAdded.remove(numExpressionsBeingAdded);
+            return(nodeIndex);
+        }
+
+        Integer nodeIndex = (Integer) mNodeIndices.get(key);
+        if(null != nodeIndex)
+        {
+            return(nodeIndex.intValue());
+        }
+        return(addNode(key, Expression.ElementCode.ELEMENT_CODE_SYMBOL, pSymbol));
+    }
+
+    private int addNode(NodeKey pKey, int pCode, Symbol pSymbol)
+    {
+        int nodeIndex = mNumNodes;
+        if(nodeIndex == mCodes.length)
+        {
+            grow();
+        }
+        mCodes[nodeIndex] = pCode;
+        mFirstOperands[nodeIndex] = NO_OPERAND;
+        mSecondOperands[nodeIndex] = NO_OPERAND;
+        mSymbols[nodeIndex] = pSymbol;
+        mNodeIndices.put(pKey, new Integer(nodeIndex));
+        mNumNodes = nodeIndex + 1;
+        return(nodeIndex);
+    }
+
+    private void grow()
+    {
+        int capacity = 2 * mCodes.length;
+        int numNodes = mNumNodes;
+        int []codes = new int[capacity];
+        int []firstOperands = new int[capacity];
+        int []secondOperands = new int[capacity];
+        Symbol []symbols = new Symbol[capacity];
+        double []values = new double[capacity];
+        System.arraycopy(mCodes, 0, codes, 0, numNodes);
+        System.arraycopy(mFirstOperands, 0, firstOperands, 0, numNodes);
+        System.arraycopy(mSecondOperands, 0, secondOperands, 0, numNodes);
+        System.arraycopy(mSymbols, 0, symbols, 0, numNodes);
+        System.arraycopy(mValues, 0, values, 0, numNodes);
+        mCodes = codes;
+        mFirstOperands = firstOperands;
+        mSecondOperands = secondOperands;
+        mSymbols = symbols;
+        mValues = values;
+    }
+}
@@ -0,0 +1,46 @@
+package org.systemsbiology.math;
+/*
+ * Copyright (C) 2003 by Institute for Systems Biology,
+ * Seattle, Washington, USA.  All rights reserved.
+ *
+ * This source code is distributed under the GNU Lesser
+ * General Public License, the text of which is available at:
+ *   http://www.gnu.org/copyleft/lesser.html
+ */
+
+import org.systemsbiology.util.DataNotFoundException;
+
+/**
+ * Base class of the classes generated by the {@link ExpressionCompiler}.
+ * Each generated class computes the value of one {@link Expression},
+ * with the symbol values that are stored in the state array read
+ * directly from that array; all other symbol values are obtained
+ * from the {@link SymbolEvaluator}.
+ *
+ * @author Stephen Ramsey
+ */
+public abstract class CompiledExpression
+{
+    // the symbols whose values are obtained from the symbol evaluator
+    protected final Symbol []mSymbols;
+
+    protected CompiledExpression(Symbol []pSymbols)
+    {
+        mSymbols = pSymbols;
+    }
+
+    /**
+     * Returns the value of the expression.  The array
+     * <code>pStateArray</code> must be the array that was
+     * supplied to {@link ExpressionCompiler#compile(Expression, Symbol)}
+     * (or an array of the same length whose elements correspond to it).
+     */
+    public abstract double computeValue(double []pStateArray,
+                                        SymbolEvaluator pSymbolEvaluator) throws DataNotFoundException;
+
+    // called by the generated code, when the value of the expression is the value of a symbol that must be post-processed
+    protected final double postProcess(SymbolEvaluator pSymbolEvaluator, int pSymbolIndex, double pValue) throws DataNotFoundException
+    {
+        return(pSymbolEvaluator.getSymbolEvaluationPostProcessor().modifyResult(mSymbols[pSymbolIndex], pSymbolEvaluator, pValue));
+    }
+}
@@ -166,6 +166,7 @@ public class Expression implements Cloneable
 
     private static final String TOKEN_DELIMITERS = " *+-/^(),";
     private static final String TOKEN_RESERVED = "!@#$[]|&><{}=";
+    private static final Pattern SCIENTIFIC_NOTATION_PATTERN = Pattern.compile("(\\d+(\\.\\d*)?)[eE]");
 
     public static final Expression ZERO = new Expression("0.0");
     public static final Expression ONE = new Expression("1.0");
@@ -704,12 +705,12 @@ public class Expression implements Cloneable
     /*========================================*
      * accessor/mutator methods
      *========================================*/
-    private void setRootElement(Element pRootElement)
+    void setRootElement(Element pRootElement)
     {
         mRootElement = pRootElement;
     }
 
-    private Element getRootElement()
+    Element getRootElement()
     {
         return(mRootElement);
     }
@@ -782,6 +783,15 @@ public class Expression implements Cloneable
     private Double parseDoubleSafe(String pString)
     {
         Double retVal = null;
+        if(pString.length() > 0)
+        {
+            // a symbol name cannot be a number; this avoids the cost of a parse exception
+            char firstChar = pString.charAt(0);
+            if(Character.isLetter(firstChar) && 'N' != firstChar && 'I' != firstChar)
+            {
+                return(retVal);
+            }
+        }
         try
         {
             retVal = new Double(pString);
@@ -842,7 +852,7 @@ public class Expression implements Cloneable
         boolean returnDelims = true;
         StringTokenizer stringTokenizer = new StringTokenizer(pFormula, TOKEN_DELIMITERS, returnDelims);
         
-        Pattern scientificNotationPattern = Pattern.compile("(\\d+(\\.\\d*)?)[eE]");
+        Pattern scientificNotationPattern = SCIENTIFIC_NOTATION_PATTERN;
         
         while(stringTokenizer.hasMoreTokens())
         {
@@ -1865,8 +1875,7 @@ public class Expression implements Cloneable
             throw new IllegalArgumentException("circular expression encountered while attempting to parse expression: " + toString());
         }
 
-
-        return(valueOfSubtree(rootElement, pSymbolEvaluator));
+        return(retVal);
     }
 
     public Object clone()
@@ -2611,11 +2620,18 @@ public class Expression implements Cloneable
         return(retElement);
     }
 
+    /**
+     * Returns the partial derivative of this expression with respect
+     * to the symbol <code>pSymbol</code>, simplified using the
+     * {@link ExpressionSimplifier}.  If the partial derivative is
+     * identically zero, the returned expression is the number zero
+     * (see {@link #isZero()}).
+     */
     public Expression computePartialDerivative(Symbol pSymbol, SymbolEvaluator pSymbolEvaluator) throws DataNotFoundException
     {
         Expression expression = new Expression();
         expression.mRootElement = computePartialDerivative(mRootElement, pSymbol, pSymbolEvaluator);
-        return(expression);
+        return(ExpressionSimplifier.simplify(expression));
     }
 
     public Expression computePartialDerivative(Symbol pSymbol, HashMap pSymbolsMap) throws DataNotFoundException
@@ -2623,7 +2639,7 @@ public class Expression implements Cloneable
         SymbolEvaluator symbolEvaluator = getSymbolEvaluator(pSymbolsMap);
         Expression expression = new Expression();
         expression.mRootElement = computePartialDerivative(mRootElement, pSymbol, symbolEvaluator);
-        return(expression);
+        return(ExpressionSimplifier.simplify(expression));
     }
 
     public boolean isSimpleNumber()
@@ -2631,6 +2647,14 @@ public class Expression implements Cloneable
         return(mRootElement.mCode == ElementCode.NUMBER);
     }
 
+    /**
+     * Returns true if the expression is the number zero.
+     */
+    public boolean isZero()
+    {
+        return(isSimpleNumber() && 0.0 == mRootElement.mNumericValue);
+    }
+
     public double getSimpleNumberValue() throws IllegalStateException
     {
         if(! isSimpleNumber())
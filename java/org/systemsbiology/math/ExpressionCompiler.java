@@ -0,0 +1,704 @@
+package org.systemsbiology.math;
+/*
+ * Copyright (C) 2003 by Institute for Systems Biology,
+ * Seattle, Washington, USA.  All rights reserved.
+ *
+ * This source code is distributed under the GNU Lesser
+ * General Public License, the text of which is available at:
+ *   http://www.gnu.org/copyleft/lesser.html
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.systemsbiology.util.DataNotFoundException;
+
+/**
+ * Compiles an {@link Expression} into a class of JVM bytecode, that
+ * extends {@link CompiledExpression}.  The generated code is a
+ * straight-line sequence of arithmetic instructions and calls to the
+ * methods of <code>java.lang.Math</code>, so the JIT compiler can
+ * compile it into the same machine code as a hand-written Java
+ * method.  A symbol whose value is stored in the state array that
+ * is supplied to the constructor is read directly from that array
+ * (by index); a symbol with a constant numeric value is replaced by
+ * the value; and a symbol whose value is itself an expression is
+ * compiled in line.  Any other symbol (such as the reserved symbol
+ * for the time) is evaluated by calling
+ * {@link SymbolEvaluator#getValue(Symbol)}.  If the symbol evaluator
+ * has a {@link SymbolEvaluationPostProcessor}, every symbol is
+ * evaluated by calling the symbol evaluator, so that its value is
+ * post-processed exactly as it would be by the interpreter
+ * in {@link Expression#computeValue(SymbolEvaluator)}.
+ * <p>
+ * Symbols are bound to their values when the expression is compiled,
+ * so the values of the constant symbols must not change while the
+ * compiled expression is in use.  The classes that are generated by
+ * one instance of this class are defined in a class loader that is
+ * private to that instance, so that they can be garbage-collected
+ * when they are no longer in use.
+ *
+ * @author Stephen Ramsey
+ */
+public final class ExpressionCompiler
+{
+    private static final int NULL_ARRAY_INDEX = Symbol.NULL_ARRAY_INDEX;
+
+    private static final int CLASS_FILE_MAGIC = 0xCAFEBABE;
+    private static final int CLASS_FILE_MAJOR_VERSION = 48;
+    private static final int MAX_CODE_LENGTH = 65535;
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    private static final int OP_ICONST_0 = 0x03;
+    private static final int OP_DCONST_0 = 0x0e;
+    private static final int OP_DCONST_1 = 0x0f;
+    private static final int OP_BIPUSH = 0x10;
+    private static final int OP_SIPUSH = 0x11;
+    private static final int OP_LDC_W = 0x13;
+    private static final int OP_LDC2_W = 0x14;
+    private static final int OP_ALOAD_0 = 0x2a;
+    private static final int OP_ALOAD_1 = 0x2b;
+    private static final int OP_ALOAD_2 = 0x2c;
+    private static final int OP_ALOAD_3 = 0x2d;
+    private static final int OP_DALOAD = 0x31;
+    private static final int OP_AALOAD = 0x32;
+    private static final int OP_ASTORE_3 = 0x4e;
+    private static final int OP_DADD = 0x63;
+    private static final int OP_DSUB = 0x67;
+    private static final int OP_DMUL = 0x6b;
+    private static final int OP_DDIV = 0x6f;
+    private static final int OP_DREM = 0x73;
+    private static final int OP_DNEG = 0x77;
+    private static final int OP_DRETURN = 0xaf;
+    private static final int OP_RETURN = 0xb1;
+    private static final int OP_GETFIELD = 0xb4;
+    private static final int OP_INVOKEVIRTUAL = 0xb6;
+    private static final int OP_INVOKESPECIAL = 0xb7;
+    private static final int OP_INVOKESTATIC = 0xb8;
+
+    private static final String GENERATED_CLASS_NAME_PREFIX = "org/systemsbiology/math/GeneratedExpression";
+    private static final String SUPER_CLASS_NAME = "org/systemsbiology/math/CompiledExpression";
+    private static final String SYMBOL_CLASS_DESC = "Lorg/systemsbiology/math/Symbol;";
+    private static final String SYMBOL_EVALUATOR_CLASS_NAME = "org/systemsbiology/math/SymbolEvaluator";
+    private static final String SYMBOL_EVALUATOR_CLASS_DESC = "L" + SYMBOL_EVALUATOR_CLASS_NAME + ";";
+    private static final String MATH_CLASS_NAME = "java/lang/Math";
+    private static final String MATH_FUNCTIONS_CLASS_NAME = "org/systemsbiology/math/MathFunctions";
+    private static final String UNARY_FUNCTION_DESC = "(D)D";
+    private static final String BINARY_FUNCTION_DESC = "(DD)D";
+
+    private final double []mStateArray;
+    private final SymbolEvaluator mSymbolEvaluator;
+    private final boolean mPostProcessSymbols;
+    private final GeneratedClassLoader mClassLoader;
+    private int mNumClasses;
+
+    // the state of the compilation that is in progress
+    private ConstantPool mConstantPool;
+    private ByteArrayOutputStream mCode;
+    private int mStackDepth;
+    private int mMaxStackDepth;
+    private ArrayList mSymbols;
+    private HashMap mSymbolIndices;
+    private ArrayList mExpressionsBeingCompiled;
+
+    private static final class GeneratedClassLoader extends ClassLoader
+    {
+        public GeneratedClassLoader(ClassLoader pParent)
+        {
+            super(pParent);
+        }
+
+        public Class defineGeneratedClass(String pClassName, byte []pClassBytes)
+        {
+            return(defineClass(pClassName, pClassBytes, 0, pClassBytes.length));
+        }
+    }
+
+    private static final class ConstantPool
+    {
+        private final ByteArrayOutputStream mBytes;
+        private final DataOutputStream mOut;
+        private final HashMap mIndices;
+        private int mCount;
+
+        public ConstantPool()
+        {
+            mBytes = new ByteArrayOutputStream();
+            mOut = new DataOutputStream(mBytes);
+            mIndices = new HashMap();
+            mCount = 1;
+        }
+
+        public int getCount()
+        {
+            return(mCount);
+        }
+
+        public byte []toByteArray()
+        {
+            return(mBytes.toByteArray());
+        }
+
+        private int addEntry(String pKey, int pNumSlots)
+        {
+            Integer index = new Integer(mCount);
+            mIndices.put(pKey, index);
+            mCount += pNumSlots;
+            return(index.intValue());
+        }
+
+        private Integer getIndex(String pKey)
+        {
+            return((Integer) mIndices.get(pKey));
+        }
+
+        public int utf8(String pString) throws IOException
+        {
+            String key = "U" + pString;
+            Integer index = getIndex(key);
+            if(null != index)
+            {
+                return(index.intValue());
+            }
+            mOut.writeByte(CONSTANT_UTF8);
+            mOut.writeUTF(pString);
+            return(addEntry(key, 1));
+        }
+
+        public int integer(int pValue) throws IOException
+        {
+            String key = "I" + pValue;
+            Integer index = getIndex(key);
+            if(null != index)
+            {
+                return(index.intValue());
+            }
+            mOut.writeByte(CONSTANT_INTEGER);
+            mOut.writeInt(pValue);
+            return(addEntry(key, 1));
+        }
+
+        public int doubleConstant(double pValue) throws IOException
+        {
+            long bits = Double.doubleToLongBits(pValue);
+            String key = "D" + bits;
+            Integer index = getIndex(key);
+            if(null != index)
+            {
+                return(index.intValue());
+            }
+            mOut.writeByte(CONSTANT_DOUBLE);
+            mOut.writeLong(bits);
+            // a double constant occupies two entries of the constant pool
+            return(addEntry(key, 2));
+        }
+
+        public int classRef(String pClassName) throws IOException
+        {
+            String key = "C" + pClassName;
+            Integer index = getIndex(key);
+            if(null != index)
+            {
+                return(index.intValue());
+            }
+            int nameIndex = utf8(pClassName);
+            mOut.writeByte(CONSTANT_CLASS);
+            mOut.writeShort(nameIndex);
+            return(addEntry(key, 1));
+        }
+
+        private int nameAndType(String pName, String pDescriptor) throws IOException
+        {
+            String key = "N" + pName + " " + pDescriptor;
+            Integer index = getIndex(key);
+            if(null != index)
+            {
+                return(index.intValue());
+            }
+            int nameIndex = utf8(pName);
+            int descriptorIndex = utf8(pDescriptor);
+            mOut.writeByte(CONSTANT_NAME_AND_TYPE);
+            mOut.writeShort(nameIndex);
+            mOut.writeShort(descriptorIndex);
+            return(addEntry(key, 1));
+        }
+
+        private int memberRef(int pTag, String pClassName, String pName, String pDescriptor) throws IOException
+        {
+            String key = pTag + pClassName + "." + pName + " " + pDescriptor;
+            Integer index = getIndex(key);
+            if(null != index)
+            {
+                return(index.intValue());
+            }
+            int classIndex = classRef(pClassName);
+            int nameAndTypeIndex = nameAndType(pName, pDescriptor);
+            mOut.writeByte(pTag);
+            mOut.writeShort(classIndex);
+            mOut.writeShort(nameAndTypeIndex);
+            return(addEntry(key, 1));
+        }
+
+        public int fieldRef(String pClassName, String pName, String pDescriptor) throws IOException
+        {
+            return(memberRef(CONSTANT_FIELDREF, pClassName, pName, pDescriptor));
+        }
+
+        public int methodRef(String pClassName, String pName, String pDescriptor) throws IOException
+        {
+            return(memberRef(CONSTANT_METHODREF, pClassName, pName, pDescriptor));
+        }
+    }
+
+    /**
+     * Creates a compiler for expressions that are to be evaluated with
+     * the symbol evaluator <code>pSymbolEvaluator</code>, for which
+     * the values of some symbols (typically, the dynamical species)
+     * are stored in the array <code>pStateArray</code>.
+     */
+    public ExpressionCompiler(double []pStateArray, SymbolEvaluator pSymbolEvaluator)
+    {
+        mStateArray = pStateArray;
+        mSymbolEvaluator = pSymbolEvaluator;
+        mPostProcessSymbols = (null != pSymbolEvaluator.getSymbolEvaluationPostProcessor());
+        mClassLoader = new GeneratedClassLoader(CompiledExpression.class.getClassLoader());
+        mNumClasses = 0;
+    }
+
+    /**
+     * Compiles the expression <code>pExpression</code>.  If the expression
+     * is the value of the symbol <code>pResultSymbol</code> (which may be
+     * null), the value is post-processed as the value of that symbol would be.
+     * Any symbol of the expression that has not yet been bound to its value
+     * is bound by the symbol evaluator, so the symbol evaluator must be
+     * able to find the values of all of the symbols of the expression.
+     * Returns null if the expression is too large to be compiled into
+     * a single method.
+     */
+    public CompiledExpression compile(Expression pExpression, Symbol pResultSymbol) throws DataNotFoundException, IllegalArgumentException
+    {
+        Expression.Element rootElement = pExpression.getRootElement();
+        if(null == rootElement)
+        {
+            throw new IllegalStateException("attempted to compile a math expression object that has no expression defined");
+        }
+        try
+        {
+            return(compileRootElement(pExpression, rootElement, pResultSymbol));
+        }
+        catch(IOException e)
+        {
+            // cannot happen, since the class is written to memory
+            throw new IllegalStateException("unable to write class file: " + e.toString());
+        }
+        finally
+        {
+            mConstantPool = null;
+            mCode = null;
+            mSymbols = null;
+            mSymbolIndices = null;
+            mExpressionsBeingCompiled = null;
+        }
+    }
+
+    private CompiledExpression compileRootElement(Expression pExpression,
+                                                  Expression.Element pRootElement,
+                                                  Symbol pResultSymbol) throws DataNotFoundException, IOException
+    {
+        mConstantPool = new ConstantPool();
+        mCode = new ByteArrayOutputStream();
+        mStackDepth = 0;
+        mMaxStackDepth = 0;
+        mSymbols = new ArrayList();
+        mSymbolIndices = new HashMap();
+        mExpressionsBeingCompiled = new ArrayList();
+        ConstantPool constantPool = mConstantPool;
+
+        // local variables:  0 = this, 1 = state array, 2 = symbol evaluator, 3 = symbols array
+        emitOpcode(OP_ALOAD_0, 1);
+        emitOpcode(OP_GETFIELD, 0);
+        emitShort(constantPool.fieldRef(SUPER_CLASS_NAME, "mSymbols", "[" + SYMBOL_CLASS_DESC));
+        emitOpcode(OP_ASTORE_3, -1);
+
+        boolean postProcessResult = (mPostProcessSymbols && null != pResultSymbol);
+        if(postProcessResult)
+        {
+            emitOpcode(OP_ALOAD_0, 1);
+            emitOpcode(OP_ALOAD_2, 1);
+            emitInt(getSymbolIndex(pResultSymbol));
+        }
+
+        mExpressionsBeingCompiled.add(pExpression);
+        emitElement(pRootElement);
+
+        if(postProcessResult)
+        {
+            emitOpcode(OP_INVOKEVIRTUAL, -2);
+            emitShort(constantPool.methodRef(SUPER_CLASS_NAME,
+                                             "postProcess",
+                                             "(" + SYMBOL_EVALUATOR_CLASS_DESC + "ID)D"));
+        }
+        emitOpcode(OP_DRETURN, -2);
+
+        byte []code = mCode.toByteArray();
+        if(code.length > MAX_CODE_LENGTH || mMaxStackDepth > MAX_CODE_LENGTH)
+        {
+            return(null);
+        }
+
+        String className = GENERATED_CLASS_NAME_PREFIX + mNumClasses;
+        ++mNumClasses;
+        byte []classBytes = writeClass(className, code);
+        Class generatedClass = mClassLoader.defineGeneratedClass(className.replace('/', '.'), classBytes);
+        Symbol []symbols = (Symbol []) mSymbols.toArray(new Symbol[0]);
+        try
+        {
+            return((CompiledExpression) generatedClass.getConstructor(new Class[] { Symbol[].class }).newInstance(new Object[] { symbols }));
+        }
+        catch(Exception e)
+        {
+            throw new IllegalStateException("unable to instantiate compiled expression class: " + e.toString());
+        }
+    }
+
+    private byte []writeClass(String pClassName, byte []pCode) throws IOException
+    {
+        ConstantPool constantPool = mConstantPool;
+        int thisClassIndex = constantPool.classRef(pClassName);
+        int superClassIndex = constantPool.classRef(SUPER_CLASS_NAME);
+        int superConstructorIndex = constantPool.methodRef(SUPER_CLASS_NAME, "<init>", "([" + SYMBOL_CLASS_DESC + ")V");
+        int constructorNameIndex = constantPool.utf8("<init>");
+        int constructorDescriptorIndex = constantPool.utf8("([" + SYMBOL_CLASS_DESC + ")V");
+        int methodNameIndex = constantPool.utf8("computeValue");
+        int methodDescriptorIndex = constantPool.utf8("([D" + SYMBOL_EVALUATOR_CLASS_DESC + ")D");
+        int codeAttributeNameIndex = constantPool.utf8("Code");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(CLASS_FILE_MAGIC);
+        out.writeShort(0);
+        out.writeShort(CLASS_FILE_MAJOR_VERSION);
+        out.writeShort(constantPool.getCount());
+        out.write(constantPool.toByteArray());
+        out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+        out.writeShort(thisClassIndex);
+        out.writeShort(superClassIndex);
+        out.writeShort(0);          // interfaces
+        out.writeShort(0);          // fields
+        out.writeShort(2);          // methods
+
+        // the constructor passes the symbols array to the superclass constructor
+        byte []constructorCode = new byte[] { (byte) OP_ALOAD_0,
+                                              (byte) OP_ALOAD_1,
+                                              (byte) OP_INVOKESPECIAL,
+                                              (byte) (superConstructorIndex >> 8),
+                                              (byte) superConstructorIndex,
+                                              (byte) OP_RETURN };
+        writeMethod(out, ACC_PUBLIC, constructorNameIndex, constructorDescriptorIndex, codeAttributeNameIndex, 2, 2, constructorCode);
+        writeMethod(out, ACC_PUBLIC | ACC_FINAL, methodNameIndex, methodDescriptorIndex, codeAttributeNameIndex, mMaxStackDepth, 4, pCode);
+
+        out.writeShort(0);          // class attributes
+        out.flush();
+        return(bytes.toByteArray());
+    }
+
+    private static void writeMethod(DataOutputStream pOut,
+                                    int pAccessFlags,
+                                    int pNameIndex,
+                                    int pDescriptorIndex,
+                                    int pCodeAttributeNameIndex,
+                                    int pMaxStack,
+                                    int pMaxLocals,
+                                    byte []pCode) throws IOException
+    {
+        pOut.writeShort(pAccessFlags);
+        pOut.writeShort(pNameIndex);
+        pOut.writeShort(pDescriptorIndex);
+        pOut.writeShort(1);         // attributes
+        pOut.writeShort(pCodeAttributeNameIndex);
+        pOut.writeInt(12 + pCode.length);
+        pOut.writeShort(pMaxStack);
+        pOut.writeShort(pMaxLocals);
+        pOut.writeInt(pCode.length);
+        pOut.write(pCode);
+        pOut.writeShort(0);         // exception table
+        pOut.writeShort(0);         // code attributes
+    }
+
+    private void emitOpcode(int pOpcode, int pStackChange)
+    {
+        mCode.write(pOpcode);
+        mStackDepth += pStackChange;
+        if(mStackDepth > mMaxStackDepth)
+        {
+            mMaxStackDepth = mStackDepth;
+        }
+    }
+
+    private void emitShort(int pValue)
+    {
+        mCode.write(pValue >> 8);
+        mCode.write(pValue);
+    }
+
+    private void emitInt(int pValue) throws IOException
+    {
+        if(pValue >= -1 && pValue <= 5)
+        {
+            emitOpcode(OP_ICONST_0 + pValue, 1);
+        }
+        else if(pValue >= Byte.MIN_VALUE && pValue <= Byte.MAX_VALUE)
+        {
+            emitOpcode(OP_BIPUSH, 1);
+            mCode.write(pValue);
+        }
+        else if(pValue >= Short.MIN_VALUE && pValue <= Short.MAX_VALUE)
+        {
+            emitOpcode(OP_SIPUSH, 1);
+            emitShort(pValue);
+        }
+        else
+        {
+            emitOpcode(OP_LDC_W, 1);
+            emitShort(mConstantPool.integer(pValue));
+        }
+    }
+
+    private void emitDouble(double pValue) throws IOException
+    {
+        long bits = Double.doubleToLongBits(pValue);
+        if(0L == bits)
+        {
+            emitOpcode(OP_DCONST_0, 2);
+        }
+        else if(Double.doubleToLongBits(1.0) == bits)
+        {
+            emitOpcode(OP_DCONST_1, 2);
+        }
+        else
+        {
+            emitOpcode(OP_LDC2_W, 2);
+            emitShort(mConstantPool.doubleConstant(pValue));
+        }
+    }
+
+    private void emitInvokeStatic(String pClassName, String pMethodName, String pDescriptor, int pStackChange) throws IOException
+    {
+        emitOpcode(OP_INVOKESTATIC, pStackChange);
+        emitShort(mConstantPool.methodRef(pClassName, pMethodName, pDescriptor));
+    }
+
+    private int getSymbolIndex(Symbol pSymbol)
+    {
+        // symbols are compared by identity, since each Symbol object carries its own binding
+        Integer index = (Integer) mSymbolIndices.get(pSymbol);
+        if(null == index)
+        {
+            index = new Integer(mSymbols.size());
+            mSymbols.add(pSymbol);
+            mSymbolIndices.put(pSymbol, index);
+        }
+        return(index.intValue());
+    }
+
+    private void emitSymbolEvaluatorCall(Symbol pSymbol) throws IOException
+    {
+        emitOpcode(OP_ALOAD_2, 1);
+        emitOpcode(OP_ALOAD_3, 1);
+        emitInt(getSymbolIndex(pSymbol));
+        emitOpcode(OP_AALOAD, -1);
+        emitOpcode(OP_INVOKEVIRTUAL, 0);
+        emitShort(mConstantPool.methodRef(SYMBOL_EVALUATOR_CLASS_NAME, "getValue", "(" + SYMBOL_CLASS_DESC + ")D"));
+    }
+
+    private void emitSymbol(Symbol pSymbol) throws DataNotFoundException, IOException
+    {
+        if(NULL_ARRAY_INDEX == pSymbol.mArrayIndex)
+        {
+            // bind the symbol to its value, as the interpreter would on its first evaluation
+            mSymbolEvaluator.getValue(pSymbol);
+        }
+        int arrayIndex = pSymbol.mArrayIndex;
+        if(mPostProcessSymbols || NULL_ARRAY_INDEX == arrayIndex)
+        {
+            emitSymbolEvaluatorCall(pSymbol);
+        }
+        else if(null != pSymbol.mDoubleArray)
+        {
+            if(pSymbol.mDoubleArray == mStateArray)
+            {
+                emitOpcode(OP_ALOAD_1, 1);
+                emitInt(arrayIndex);
+                emitOpcode(OP_DALOAD, 0);
+            }
+            else
+            {
+                emitSymbolEvaluatorCall(pSymbol);
+            }
+        }
+        else
+        {
+            Value value = pSymbol.mValueArray[arrayIndex];
+            if(! value.isExpression())
+            {
+                emitDouble(value.getValue());
+            }
+            else
+            {
+                Expression expression = value.getExpressionValue();
+                int numExpressionsBeingCompiled = mExpressionsBeingCompiled.size();
+                for(int ctr = 0; ctr < numExpressionsBeingCompiled; ++ctr)
+                {
+                    if(mExpressionsBeingCompiled.get(ctr) == expression)
+                    {
+                        throw new IllegalArgumentException("circular expression encountered while attempting to compile expression: " + expression.toString());
+                    }
+                }
+                mExpressionsBeingCompiled.add(expression);
+                emitElement(expression.getRootElement());
+                mExpressionsBeingCompiled.remove(numExpressionsBeingCompiled);
+            }
+        }
+    }
+
+    private void emitElement(Expression.Element pElement) throws DataNotFoundException, IOException
+    {
+        int elementCode = pElement.mCode.mIntCode;
+        switch(elementCode)
+        {
+            case Expression.ElementCode.ELEMENT_CODE_SYMBOL:
+                emitSymbol(pElement.mSymbol);
+                return;
+
+            case Expression.ElementCode.ELEMENT_CODE_NUMBER:
+                emitDouble(pElement.mNumericValue);
+                return;
+
+            default:
+                break;
+        }
+
+        emitElement(pElement.mFirstOperand);
+        if(null != pElement.mSecondOperand)
+        {
+            emitElement(pElement.mSecondOperand);
+            switch(elementCode)
+            {
+                case Expression.ElementCode.ELEMENT_CODE_MULT:
+                    emitOpcode(OP_DMUL, -2);
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_ADD:
+                    emitOpcode(OP_DADD, -2);
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_DIV:
+                    emitOpcode(OP_DDIV, -2);
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_SUBT:
+                    emitOpcode(OP_DSUB, -2);
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_MOD:
+                    emitOpcode(OP_DREM, -2);
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_POW:
+                    emitInvokeStatic(MATH_CLASS_NAME, "pow", BINARY_FUNCTION_DESC, -2);
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_MIN:
+                    emitInvokeStatic(MATH_CLASS_NAME, "min", BINARY_FUNCTION_DESC, -2);
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_MAX:
+                    emitInvokeStatic(MATH_CLASS_NAME, "max", BINARY_FUNCTION_DESC, -2);
+                    break;
+
+                default:
+                    throw new IllegalStateException("unknown function code: " + pElement.mCode);
+            }
+        }
+        else
+        {
+            String functionName = null;
+            switch(elementCode)
+            {
+                case Expression.ElementCode.ELEMENT_CODE_NEG:
+                    emitOpcode(OP_DNEG, 0);
+                    return;
+
+                case Expression.ElementCode.ELEMENT_CODE_THETA:
+                    emitInvokeStatic(MATH_FUNCTIONS_CLASS_NAME, "thetaFunction", UNARY_FUNCTION_DESC, 0);
+                    return;
+
+                case Expression.ElementCode.ELEMENT_CODE_EXP:
+                    functionName = "exp";
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_LN:
+                    functionName = "log";
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_SIN:
+                    functionName = "sin";
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_COS:
+                    functionName = "cos";
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_TAN:
+                    functionName = "tan";
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_ASIN:
+                    functionName = "asin";
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_ACOS:
+                    functionName = "acos";
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_ATAN:
+                    functionName = "atan";
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_ABS:
+                    functionName = "abs";
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_FLOOR:
+                    functionName = "floor";
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_CEIL:
+                    functionName = "ceil";
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_SQRT:
+                    functionName = "sqrt";
+                    break;
+
+                default:
+                    throw new IllegalStateException("unknown function code: " + pElement.mCode);
+            }
+            emitInvokeStatic(MATH_CLASS_NAME, functionName, UNARY_FUNCTION_DESC, 0);
+        }
+    }
+}
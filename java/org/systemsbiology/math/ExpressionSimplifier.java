@@ -0,0 +1,694 @@
+package org.systemsbiology.math;
+/*
+ * Copyright (C) 2003 by Institute for Systems Biology,
+ * Seattle, Washington, USA.  All rights reserved.
+ *
+ * This source code is distributed under the GNU Lesser
+ * General Public License, the text of which is available at:
+ *   http://www.gnu.org/copyleft/lesser.html
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * Algebraic simplifier for {@link Expression} parse trees.  It is
+ * intended for the trees produced by symbolic differentiation
+ * (see {@link Expression#computePartialDerivative(Symbol, SymbolEvaluator)}),
+ * which contain many trivial subexpressions such as <code>0*x</code>,
+ * <code>1*x</code>, <code>x+0</code> and repeated factors.  The
+ * simplifier performs:
+ * <ul>
+ * <li>constant folding (any operation whose operands are all numbers
+ * is replaced by its value)</li>
+ * <li>identity elimination (<code>x*1</code>, <code>x+0</code>,
+ * <code>x-0</code>, <code>x/1</code>, <code>x^1</code>, <code>x*0</code>,
+ * <code>x^0</code>, <code>--x</code>)</li>
+ * <li>collection of like terms in sums (<code>2*x + 3*x</code> becomes
+ * <code>5*x</code>) and of like factors in products (<code>x*x/y</code>
+ * becomes <code>x^2/y</code>)</li>
+ * <li>canonical ordering of the operands of commutative operators,
+ * so that equivalent subexpressions have the same form</li>
+ * <li>structural sharing (identical subtrees of the result are
+ * represented by a single {@link Expression.Element} object)</li>
+ * </ul>
+ * An expression that is identically zero is always simplified to
+ * the number zero, so the sparsity of a set of partial derivatives
+ * can be determined with {@link Expression#isZero()}.
+ * <p>
+ * The simplified expression is mathematically equivalent to the
+ * original, but because the operations are reordered, its computed
+ * value may differ from that of the original expression in the
+ * last few bits.  Like terms are collected under the usual algebraic
+ * rules, so (for example) <code>x/x</code> simplifies to <code>1</code>
+ * even though the original expression is undefined at <code>x = 0</code>.
+ * Symbols are identified by name.
+ *
+ * @author Stephen Ramsey
+ */
+public final class ExpressionSimplifier
+{
+    private final HashMap mElements;
+    private final IdentityHashMap mSimplifiedElements;
+    private final Comparator mComparator;
+
+    private static final class ElementKey
+    {
+        private final int mCode;
+        private final Expression.Element mFirstOperand;
+        private final Expression.Element mSecondOperand;
+        private final long mBits;
+        private final String mSymbolName;
+
+        public ElementKey(int pCode, Expression.Element pFirstOperand, Expression.Element pSecondOperand, long pBits, String pSymbolName)
+        {
+            mCode = pCode;
+            mFirstOperand = pFirstOperand;
+            mSecondOperand = pSecondOperand;
+            mBits = pBits;
+            mSymbolName = pSymbolName;
+        }
+
+        public boolean equals(Object pObject)
+        {
+            if(! (pObject instanceof ElementKey))
+            {
+                return(false);
+            }
+            ElementKey key = (ElementKey) pObject;
+            // operands are already shared, so they are compared by reference
+            return(mCode == key.mCode &&
+                   mFirstOperand == key.mFirstOperand &&
+                   mSecondOperand == key.mSecondOperand &&
+                   mBits == key.mBits &&
+                   (mSymbolName == key.mSymbolName ||
+                    (null != mSymbolName && mSymbolName.equals(key.mSymbolName))));
+        }
+
+        public int hashCode()
+        {
+            int hashCode = mCode;
+            hashCode = 31 * hashCode + System.identityHashCode(mFirstOperand);
+            hashCode = 31 * hashCode + System.identityHashCode(mSecondOperand);
+            hashCode = 31 * hashCode + (int) (mBits ^ (mBits >>> 32));
+            if(null != mSymbolName)
+            {
+                hashCode = 31 * hashCode + mSymbolName.hashCode();
+            }
+            return(hashCode);
+        }
+    }
+
+    // a sum of terms, each multiplied by a coefficient, plus a constant
+    private static final class Sum
+    {
+        final ArrayList mTerms;
+        final ArrayList mCoefficients;
+        double mConstant;
+
+        public Sum()
+        {
+            mTerms = new ArrayList();
+            mCoefficients = new ArrayList();
+            mConstant = 0.0;
+        }
+
+        public void addTerm(Expression.Element pTerm, double pCoefficient)
+        {
+            int numTerms = mTerms.size();
+            for(int ctr = 0; ctr < numTerms; ++ctr)
+            {
+                if(mTerms.get(ctr) == pTerm)
+                {
+                    double coefficient = ((Double) mCoefficients.get(ctr)).doubleValue();
+                    mCoefficients.set(ctr, new Double(coefficient + pCoefficient));
+                    return;
+                }
+            }
+            mTerms.add(pTerm);
+            mCoefficients.add(new Double(pCoefficient));
+        }
+    }
+
+    // a product of factors, each raised to a constant exponent, times a coefficient
+    private static final class Product
+    {
+        final ArrayList mFactors;
+        final ArrayList mExponents;
+        double mCoefficient;
+
+        public Product()
+        {
+            mFactors = new ArrayList();
+            mExponents = new ArrayList();
+            mCoefficient = 1.0;
+        }
+
+        public void addFactor(Expression.Element pFactor, double pExponent)
+        {
+            int numFactors = mFactors.size();
+            for(int ctr = 0; ctr < numFactors; ++ctr)
+            {
+                if(mFactors.get(ctr) == pFactor)
+                {
+                    double exponent = ((Double) mExponents.get(ctr)).doubleValue();
+                    mExponents.set(ctr, new Double(exponent + pExponent));
+                    return;
+                }
+            }
+            mFactors.add(pFactor);
+            mExponents.add(new Double(pExponent));
+        }
+    }
+
+    private ExpressionSimplifier()
+    {
+        mElements = new HashMap();
+        mSimplifiedElements = new IdentityHashMap();
+        mComparator = new Comparator()
+        {
+            public int compare(Object p1, Object p2)
+            {
+                return(compareElements((Expression.Element) p1, (Expression.Element) p2));
+            }
+        };
+    }
+
+    /**
+     * Returns a simplified copy of <code>pExpression</code>.  The
+     * expression <code>pExpression</code> is not modified.
+     */
+    public static Expression simplify(Expression pExpression) throws IllegalStateException
+    {
+        Expression.Element rootElement = pExpression.getRootElement();
+        if(null == rootElement)
+        {
+            throw new IllegalStateException("attempted to simplify a math expression object that has no expression defined");
+        }
+        ExpressionSimplifier simplifier = new ExpressionSimplifier();
+        Expression retVal = new Expression();
+        retVal.setRootElement(simplifier.simplifyElement(rootElement));
+        return(retVal);
+    }
+
+    /*
+     * ordering used to put the operands of commutative operators into canonical
+     * order:  numbers first, then symbols (by name), then other elements (by
+     * element code, and then by operands)
+     */
+    private static int compareElements(Expression.Element p1, Expression.Element p2)
+    {
+        if(p1 == p2)
+        {
+            return(0);
+        }
+        if(null == p1 || null == p2)
+        {
+            return(null == p1 ? -1 : 1);
+        }
+        int code1 = p1.mCode.mIntCode;
+        int code2 = p2.mCode.mIntCode;
+        int rank1 = getRank(code1);
+        int rank2 = getRank(code2);
+        if(rank1 != rank2)
+        {
+            return(rank1 - rank2);
+        }
+        switch(code1)
+        {
+            case Expression.ElementCode.ELEMENT_CODE_NUMBER:
+                return(Double.compare(p1.mNumericValue, p2.mNumericValue));
+
+            case Expression.ElementCode.ELEMENT_CODE_SYMBOL:
+                return(p1.mSymbol.getName().compareTo(p2.mSymbol.getName()));
+
+            default:
+                if(code1 != code2)
+                {
+                    return(code1 - code2);
+                }
+                int firstOperandComparison = compareElements(p1.mFirstOperand, p2.mFirstOperand);
+                if(0 != firstOperandComparison)
+                {
+                    return(firstOperandComparison);
+                }
+                return(compareElements(p1.mSecondOperand, p2.mSecondOperand));
+        }
+    }
+
+    private static int getRank(int pCode)
+    {
+        switch(pCode)
+        {
+            case Expression.ElementCode.ELEMENT_CODE_NUMBER:
+                return(0);
+
+            case Expression.ElementCode.ELEMENT_CODE_SYMBOL:
+                return(1);
+
+            default:
+                return(2);
+        }
+    }
+
+    private static boolean isNumber(Expression.Element pElement)
+    {
+        return(pElement.mCode.mIntCode == Expression.ElementCode.ELEMENT_CODE_NUMBER);
+    }
+
+    private static boolean isNumber(Expression.Element pElement, double pValue)
+    {
+        return(isNumber(pElement) && pElement.mNumericValue == pValue);
+    }
+
+    private void putElement(ElementKey pKey, Expression.Element pElement)
+    {
+        mElements.put(pKey, pElement);
+        // an element of the simplified tree is already in simplest form
+        mSimplifiedElements.put(pElement, pElement);
+    }
+
+    private Expression.Element getNumber(double pValue)
+    {
+        // normalize negative zero, so that it is identified with zero
+        if(pValue == 0.0)
+        {
+            pValue = 0.0;
+        }
+        ElementKey key = new ElementKey(Expression.ElementCode.ELEMENT_CODE_NUMBER, null, null, Double.doubleToLongBits(pValue), null);
+        Expression.Element element = (Expression.Element) mElements.get(key);
+        if(null == element)
+        {
+            element = new Expression.Element(pValue);
+            putElement(key, element);
+        }
+        return(element);
+    }
+
+    private Expression.Element getSymbol(Symbol pSymbol)
+    {
+        String name = pSymbol.getName();
+        ElementKey key = new ElementKey(Expression.ElementCode.ELEMENT_CODE_SYMBOL, null, null, 0, name);
+        Expression.Element element = (Expression.Element) mElements.get(key);
+        if(null == element)
+        {
+            element = new Expression.Element(Expression.ElementCode.SYMBOL);
+            element.mSymbol = pSymbol;
+            putElement(key, element);
+        }
+        return(element);
+    }
+
+    // returns the shared element for the operation; the operands must be shared elements
+    private Expression.Element getOperation(Expression.ElementCode pCode, Expression.Element pFirstOperand, Expression.Element pSecondOperand)
+    {
+        if(isNumber(pFirstOperand) && (null == pSecondOperand || isNumber(pSecondOperand)))
+        {
+            return(getNumber(CommonSubexpressionEvaluator.computeNodeValue(pCode.mIntCode,
+                                                                           pFirstOperand.mNumericValue,
+                                                                           null == pSecondOperand ? 0.0 : pSecondOperand.mNumericValue)));
+        }
+        ElementKey key = new ElementKey(pCode.mIntCode, pFirstOperand, pSecondOperand, 0, null);
+        Expression.Element element = (Expression.Element) mElements.get(key);
+        if(null == element)
+        {
+            element = new Expression.Element(pCode);
+            element.mFirstOperand = pFirstOperand;
+            element.mSecondOperand = pSecondOperand;
+            putElement(key, element);
+        }
+        return(element);
+    }
+
+    private Expression.Element simplifyElement(Expression.Element pElement)
+    {
+        Expression.Element retVal = (Expression.Element) mSimplifiedElements.get(pElement);
+        if(null != retVal)
+        {
+            return(retVal);
+        }
+
+        switch(pElement.mCode.mIntCode)
+        {
+            case Expression.ElementCode.ELEMENT_CODE_NUMBER:
+                retVal = getNumber(pElement.mNumericValue);
+                break;
+
+            case Expression.ElementCode.ELEMENT_CODE_SYMBOL:
+                retVal = getSymbol(pElement.mSymbol);
+                break;
+
+            case Expression.ElementCode.ELEMENT_CODE_ADD:
+            case Expression.ElementCode.ELEMENT_CODE_SUBT:
+            case Expression.ElementCode.ELEMENT_CODE_NEG:
+                Sum sum = new Sum();
+                addTerms(sum, pElement, 1.0);
+                retVal = buildSum(sum);
+                break;
+
+            case Expression.ElementCode.ELEMENT_CODE_MULT:
+            case Expression.ElementCode.ELEMENT_CODE_DIV:
+                Product product = new Product();
+                addFactors(product, pElement, 1.0);
+                retVal = buildProduct(product, true);
+                break;
+
+            case Expression.ElementCode.ELEMENT_CODE_POW:
+                retVal = simplifyPower(pElement);
+                break;
+
+            case Expression.ElementCode.ELEMENT_CODE_MIN:
+            case Expression.ElementCode.ELEMENT_CODE_MAX:
+                Expression.Element firstOperand = simplifyElement(pElement.mFirstOperand);
+                Expression.Element secondOperand = simplifyElement(pElement.mSecondOperand);
+                if(compareElements(firstOperand, secondOperand) > 0)
+                {
+                    Expression.Element temp = firstOperand;
+                    firstOperand = secondOperand;
+                    secondOperand = temp;
+                }
+                retVal = getOperation(pElement.mCode, firstOperand, secondOperand);
+                break;
+
+            default:
+                if(null == pElement.mFirstOperand)
+                {
+                    throw new IllegalStateException("invalid element in expression tree: " + pElement.mCode);
+                }
+                retVal = getOperation(pElement.mCode,
+                                      simplifyElement(pElement.mFirstOperand),
+                                      null != pElement.mSecondOperand ? simplifyElement(pElement.mSecondOperand) : null);
+                break;
+        }
+
+        mSimplifiedElements.put(pElement, retVal);
+        return(retVal);
+    }
+
+    private Expression.Element simplifyPower(Expression.Element pElement)
+    {
+        Expression.Element base = simplifyElement(pElement.mFirstOperand);
+        Expression.Element exponent = simplifyElement(pElement.mSecondOperand);
+        if(isNumber(exponent) && ! isNumber(base))
+        {
+            // x^c is a single factor with a constant exponent, so that x^0 and x^1 are eliminated
+            Product product = new Product();
+            product.addFactor(base, exponent.mNumericValue);
+            return(buildProduct(product, true));
+        }
+        if(isNumber(base, 1.0))
+        {
+            return(base);
+        }
+        return(getOperation(Expression.ElementCode.POW, base, exponent));
+    }
+
+    // adds the terms of the (unsimplified) element to the sum, each multiplied by pCoefficient
+    private void addTerms(Sum pSum, Expression.Element pElement, double pCoefficient)
+    {
+        switch(pElement.mCode.mIntCode)
+        {
+            case Expression.ElementCode.ELEMENT_CODE_ADD:
+                addTerms(pSum, pElement.mFirstOperand, pCoefficient);
+                addTerms(pSum, pElement.mSecondOperand, pCoefficient);
+                break;
+
+            case Expression.ElementCode.ELEMENT_CODE_SUBT:
+                addTerms(pSum, pElement.mFirstOperand, pCoefficient);
+                addTerms(pSum, pElement.mSecondOperand, -pCoefficient);
+                break;
+
+            case Expression.ElementCode.ELEMENT_CODE_NEG:
+                addTerms(pSum, pElement.mFirstOperand, -pCoefficient);
+                break;
+
+            default:
+                Expression.Element term = simplifyElement(pElement);
+                int code = term.mCode.mIntCode;
+                if(code == Expression.ElementCode.ELEMENT_CODE_NUMBER)
+                {
+                    pSum.mConstant += pCoefficient * term.mNumericValue;
+                }
+                else if(code == Expression.ElementCode.ELEMENT_CODE_ADD ||
+                        code == Expression.ElementCode.ELEMENT_CODE_SUBT ||
+                        code == Expression.ElementCode.ELEMENT_CODE_NEG)
+                {
+                    // a simplified power can be a sum (e.g., (x+y)^1)
+                    addTerms(pSum, term, pCoefficient);
+                }
+                else if(code == Expression.ElementCode.ELEMENT_CODE_MULT ||
+                        code == Expression.ElementCode.ELEMENT_CODE_DIV)
+                {
+                    // separate the numeric coefficient of the product from the rest of the term
+                    Product product = new Product();
+                    addFactors(product, term, 1.0);
+                    Expression.Element monomial = buildProduct(product, false);
+                    if(null == monomial)
+                    {
+                        pSum.mConstant += pCoefficient * product.mCoefficient;
+                    }
+                    else
+                    {
+                        pSum.addTerm(monomial, pCoefficient * product.mCoefficient);
+                    }
+                }
+                else
+                {
+                    pSum.addTerm(term, pCoefficient);
+                }
+                break;
+        }
+    }
+
+    private Expression.Element buildSum(Sum pSum)
+    {
+        ArrayList terms = new ArrayList();
+        HashMap coefficients = new HashMap();
+        int numTerms = pSum.mTerms.size();
+        for(int ctr = 0; ctr < numTerms; ++ctr)
+        {
+            Double coefficient = (Double) pSum.mCoefficients.get(ctr);
+            if(coefficient.doubleValue() != 0.0)
+            {
+                Expression.Element term = (Expression.Element) pSum.mTerms.get(ctr);
+                terms.add(term);
+                coefficients.put(term, coefficient);
+            }
+        }
+        Collections.sort(terms, mComparator);
+
+        Expression.Element retVal = null;
+        if(pSum.mConstant != 0.0)
+        {
+            retVal = getNumber(pSum.mConstant);
+        }
+        numTerms = terms.size();
+        for(int ctr = 0; ctr < numTerms; ++ctr)
+        {
+            Expression.Element term = (Expression.Element) terms.get(ctr);
+            double coefficient = ((Double) coefficients.get(term)).doubleValue();
+            if(null == retVal)
+            {
+                if(coefficient == -1.0)
+                {
+                    retVal = getOperation(Expression.ElementCode.NEG, term, null);
+                }
+                else
+                {
+                    retVal = scaleTerm(term, coefficient);
+                }
+            }
+            else if(coefficient > 0.0)
+            {
+                retVal = getOperation(Expression.ElementCode.ADD, retVal, scaleTerm(term, coefficient));
+            }
+            else
+            {
+                retVal = getOperation(Expression.ElementCode.SUBT, retVal, scaleTerm(term, -coefficient));
+            }
+        }
+        if(null == retVal)
+        {
+            retVal = getNumber(0.0);
+        }
+        return(retVal);
+    }
+
+    private Expression.Element scaleTerm(Expression.Element pTerm, double pCoefficient)
+    {
+        if(pCoefficient == 1.0)
+        {
+            return(pTerm);
+        }
+        if(pTerm.mCode.mIntCode == Expression.ElementCode.ELEMENT_CODE_DIV && isNumber(pTerm.mFirstOperand, 1.0))
+        {
+            // c * (1/y) is written as c/y
+            return(getOperation(Expression.ElementCode.DIV, getNumber(pCoefficient), pTerm.mSecondOperand));
+        }
+        return(getOperation(Expression.ElementCode.MULT, getNumber(pCoefficient), pTerm));
+    }
+
+    // adds the factors of the (unsimplified) element to the product, each raised to pExponent (which is 1 or -1)
+    private void addFactors(Product pProduct, Expression.Element pElement, double pExponent)
+    {
+        switch(pElement.mCode.mIntCode)
+        {
+            case Expression.ElementCode.ELEMENT_CODE_MULT:
+                addFactors(pProduct, pElement.mFirstOperand, pExponent);
+                addFactors(pProduct, pElement.mSecondOperand, pExponent);
+                break;
+
+            case Expression.ElementCode.ELEMENT_CODE_DIV:
+                addFactors(pProduct, pElement.mFirstOperand, pExponent);
+                addFactors(pProduct, pElement.mSecondOperand, -pExponent);
+                break;
+
+            default:
+                Expression.Element factor = simplifyElement(pElement);
+                switch(factor.mCode.mIntCode)
+                {
+                    case Expression.ElementCode.ELEMENT_CODE_NUMBER:
+                        if(pExponent > 0.0)
+                        {
+                            pProduct.mCoefficient *= factor.mNumericValue;
+                        }
+                        else
+                        {
+                            pProduct.mCoefficient /= factor.mNumericValue;
+                        }
+                        break;
+
+                    case Expression.ElementCode.ELEMENT_CODE_NEG:
+                        pProduct.mCoefficient = -pProduct.mCoefficient;
+                        addFactors(pProduct, factor.mFirstOperand, pExponent);
+                        break;
+
+                    case Expression.ElementCode.ELEMENT_CODE_MULT:
+                    case Expression.ElementCode.ELEMENT_CODE_DIV:
+                        addFactors(pProduct, factor, pExponent);
+                        break;
+
+                    case Expression.ElementCode.ELEMENT_CODE_POW:
+                        if(isNumber(factor.mSecondOperand))
+                        {
+                            pProduct.addFactor(factor.mFirstOperand, pExponent * factor.mSecondOperand.mNumericValue);
+                        }
+                        else
+                        {
+                            pProduct.addFactor(factor, pExponent);
+                        }
+                        break;
+
+                    default:
+                        pProduct.addFactor(factor, pExponent);
+                        break;
+                }
+                break;
+        }
+    }
+
+    private Expression.Element buildPower(Expression.Element pFactor, double pExponent)
+    {
+        if(pExponent == 1.0)
+        {
+            return(pFactor);
+        }
+        return(getOperation(Expression.ElementCode.POW, pFactor, getNumber(pExponent)));
+    }
+
+    /*
+     * Builds the product; if pIncludeCoefficient is false, the coefficient is
+     * omitted, and null is returned if there are no non-numeric factors.
+     */
+    private Expression.Element buildProduct(Product pProduct, boolean pIncludeCoefficient)
+    {
+        double coefficient = pProduct.mCoefficient;
+        if(pIncludeCoefficient && coefficient == 0.0)
+        {
+            return(getNumber(0.0));
+        }
+
+        ArrayList numeratorFactors = new ArrayList();
+        ArrayList denominatorFactors = new ArrayList();
+        int numFactors = pProduct.mFactors.size();
+        for(int ctr = 0; ctr < numFactors; ++ctr)
+        {
+            Expression.Element factor = (Expression.Element) pProduct.mFactors.get(ctr);
+            double exponent = ((Double) pProduct.mExponents.get(ctr)).doubleValue();
+            if(exponent > 0.0)
+            {
+                numeratorFactors.add(buildPower(factor, exponent));
+            }
+            else if(exponent < 0.0)
+            {
+                denominatorFactors.add(buildPower(factor, -exponent));
+            }
+        }
+        Expression.Element numerator = buildChain(numeratorFactors);
+        Expression.Element denominator = buildChain(denominatorFactors);
+
+        if(! pIncludeCoefficient || coefficient == 1.0 || coefficient == -1.0)
+        {
+            Expression.Element retVal = null;
+            if(null != denominator)
+            {
+                retVal = getOperation(Expression.ElementCode.DIV, null != numerator ? numerator : getNumber(1.0), denominator);
+            }
+            else
+            {
+                retVal = numerator;
+            }
+            if(! pIncludeCoefficient)
+            {
+                return(retVal);
+            }
+            if(null == retVal)
+            {
+                return(getNumber(coefficient));
+            }
+            if(coefficient == -1.0)
+            {
+                retVal = getOperation(Expression.ElementCode.NEG, retVal, null);
+            }
+            return(retVal);
+        }
+
+        Expression.Element coefficientElement = getNumber(coefficient);
+        if(null != numerator)
+        {
+            numerator = getOperation(Expression.ElementCode.MULT, coefficientElement, numerator);
+        }
+        else
+        {
+            numerator = coefficientElement;
+        }
+        if(null != denominator)
+        {
+            return(getOperation(Expression.ElementCode.DIV, numerator, denominator));
+        }
+        return(numerator);
+    }
+
+    private Expression.Element buildChain(ArrayList pFactors)
+    {
+        Collections.sort(pFactors, mComparator);
+        Expression.Element retVal = null;
+        int numFactors = pFactors.size();
+        for(int ctr = 0; ctr < numFactors; ++ctr)
+        {
+            Expression.Element factor = (Expression.Element) pFactors.get(ctr);
+            if(null == retVal)
+            {
+                retVal = factor;
+            }
+            else
+            {
+                retVal = getOperation(Expression.ElementCode.MULT, retVal, factor);
+            }
+        }
+        return(retVal);
+    }
+}
@@ -0,0 +1,240 @@
+package org.systemsbiology.math;
+/*
+ * Copyright (C) 2003 by Institute for Systems Biology,
+ * Seattle, Washington, USA.  All rights reserved.
+ *
+ * This source code is distributed under the GNU Lesser
+ * General Public License, the text of which is available at:
+ *   http://www.gnu.org/copyleft/lesser.html
+ */
+
+import org.systemsbiology.util.DataNotFoundException;
+
+/**
+ * A linearized (postfix) form of an {@link Expression}, for fast
+ * repeated evaluation.  The parse tree of the expression is flattened
+ * into an array of element codes in postfix order, with a parallel
+ * array of operands (the numeric value of each number element, and the
+ * {@link Symbol} of each symbol element).  The expression is evaluated
+ * in a single loop over these arrays, using a preallocated array as the
+ * operand stack, so that evaluation requires no recursion (and hence
+ * cannot overflow the Java call stack, no matter how deeply nested the
+ * expression is) and no traversal of the parse tree.
+ * <p>
+ * The postfix form is a snapshot of the expression at the time it was
+ * constructed; subsequent changes to the <code>Expression</code> object
+ * are not reflected in it.  Since the operand stack is reused, a
+ * <code>PostfixExpression</code> must not be evaluated concurrently
+ * by more than one thread.
+ *
+ * @author Stephen Ramsey
+ */
+public final class PostfixExpression
+{
+    private final int []mCodes;
+    private final double []mNumericValues;
+    private final Symbol []mSymbols;
+    private final double []mStack;
+
+    public PostfixExpression(Expression pExpression) throws IllegalStateException
+    {
+        Expression.Element rootElement = pExpression.getRootElement();
+        if(null == rootElement)
+        {
+            throw new IllegalStateException("attempted to linearize a math expression object that has no expression defined");
+        }
+        int numElements = countElements(rootElement);
+        mCodes = new int[numElements];
+        mNumericValues = new double[numElements];
+        mSymbols = new Symbol[numElements];
+        int numElementsStored = storeElements(rootElement, 0);
+        assert (numElementsStored == numElements) : "inconsistent number of elements";
+        mStack = new double[computeStackSize(rootElement)];
+    }
+
+    private static int countElements(Expression.Element pElement)
+    {
+        int numElements = 1;
+        if(null != pElement.mFirstOperand)
+        {
+            numElements += countElements(pElement.mFirstOperand);
+            if(null != pElement.mSecondOperand)
+            {
+                numElements += countElements(pElement.mSecondOperand);
+            }
+        }
+        return(numElements);
+    }
+
+    // returns the maximum number of operands on the stack during the evaluation of the subtree
+    private static int computeStackSize(Expression.Element pElement)
+    {
+        int stackSize = 1;
+        if(null != pElement.mFirstOperand)
+        {
+            stackSize = computeStackSize(pElement.mFirstOperand);
+            if(null != pElement.mSecondOperand)
+            {
+                stackSize = Math.max(stackSize, 1 + computeStackSize(pElement.mSecondOperand));
+            }
+        }
+        return(stackSize);
+    }
+
+    // stores the subtree in postfix order, starting at pIndex; returns the index after the subtree
+    private int storeElements(Expression.Element pElement, int pIndex)
+    {
+        int index = pIndex;
+        int code = pElement.mCode.mIntCode;
+        switch(code)
+        {
+            case Expression.ElementCode.ELEMENT_CODE_SYMBOL:
+                mSymbols[index] = pElement.mSymbol;
+                break;
+
+            case Expression.ElementCode.ELEMENT_CODE_NUMBER:
+                mNumericValues[index] = pElement.mNumericValue;
+                break;
+
+            default:
+                index = storeElements(pElement.mFirstOperand, index);
+                if(null != pElement.mSecondOperand)
+                {
+                    index = storeElements(pElement.mSecondOperand, index);
+                }
+                break;
+        }
+        mCodes[index] = code;
+        return(index + 1);
+    }
+
+    /**
+     * Returns the computed value of the expression, using the
+     * symbol values obtained from <code>pSymbolEvaluator</code>.
+     * The result is identical to the result of
+     * {@link Expression#computeValue(SymbolEvaluator)}.
+     */
+    /*
+     * IMPORTANT:  this method contains PERFORMANCE-CRITICAL code.
+     */
+    public double computeValue(SymbolEvaluator pSymbolEvaluator) throws DataNotFoundException
+    {
+        int []codes = mCodes;
+        double []stack = mStack;
+        int numElements = codes.length;
+        int top = -1;
+        for(int ctr = 0; ctr < numElements; ++ctr)
+        {
+            switch(codes[ctr])
+            {
+                case Expression.ElementCode.ELEMENT_CODE_SYMBOL:
+                    stack[++top] = pSymbolEvaluator.getValue(mSymbols[ctr]);
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_NUMBER:
+                    stack[++top] = mNumericValues[ctr];
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_MULT:
+                    --top;
+                    stack[top] = stack[top] * stack[top + 1];
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_ADD:
+                    --top;
+                    stack[top] = stack[top] + stack[top + 1];
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_DIV:
+                    --top;
+                    stack[top] = stack[top] / stack[top + 1];
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_SUBT:
+                    --top;
+                    stack[top] = stack[top] - stack[top + 1];
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_POW:
+                    --top;
+                    stack[top] = Math.pow(stack[top], stack[top + 1]);
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_MOD:
+                    --top;
+                    stack[top] = stack[top] % stack[top + 1];
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_MIN:
+                    --top;
+                    stack[top] = Math.min(stack[top], stack[top + 1]);
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_MAX:
+                    --top;
+                    stack[top] = Math.max(stack[top], stack[top + 1]);
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_NEG:
+                    stack[top] = -stack[top];
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_EXP:
+                    stack[top] = Math.exp(stack[top]);
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_LN:
+                    stack[top] = Math.log(stack[top]);
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_SIN:
+                    stack[top] = Math.sin(stack[top]);
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_COS:
+                    stack[top] = Math.cos(stack[top]);
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_TAN:
+                    stack[top] = Math.tan(stack[top]);
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_ASIN:
+                    stack[top] = Math.asin(stack[top]);
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_ACOS:
+                    stack[top] = Math.acos(stack[top]);
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_ATAN:
+                    stack[top] = Math.atan(stack[top]);
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_ABS:
+                    stack[top] = Math.abs(stack[top]);
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_FLOOR:
+                    stack[top] = Math.floor(stack[top]);
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_CEIL:
+                    stack[top] = Math.ceil(stack[top]);
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_SQRT:
+                    stack[top] = Math.sqrt(stack[top]);
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_THETA:
+                    stack[top] = MathFunctions.thetaFunction(stack[top]);
+                    break;
+
+                default:
+                    throw new IllegalStateException("unknown function code: " + codes[ctr]);
+            }
+        }
+        return(stack[0]);
+    }
+}
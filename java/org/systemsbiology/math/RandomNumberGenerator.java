@@ -0,0 +1,249 @@
+package org.systemsbiology.math;
+/*
+ * Copyright (C) 2003 by Institute for Systems Biology,
+ * Seattle, Washington, USA.  All rights reserved.
+ *
+ * This source code is distributed under the GNU Lesser
+ * General Public License, the text of which is available at:
+ *   http://www.gnu.org/copyleft/lesser.html
+ */
+
+import edu.cornell.lassp.houle.RngPack.RandomElement;
+
+/**
+ * Abstract source of pseudorandom numbers for the stochastic simulators.
+ * A subclass need only supply a stream of uniformly distributed 64-bit
+ * integers (the {@link #nextLong()} method), and a way to split off
+ * an independent stream (the {@link #split()} method).  This class
+ * supplies uniform, exponential, and Poisson deviates computed from
+ * that stream.  Since this class extends <code>RandomElement</code>,
+ * it can also be used with the distributions in the
+ * <code>cern.jet.random</code> package.
+ * <p>
+ * Exponential deviates are obtained with the "ziggurat" method of
+ * Marsaglia and Tsang, which requires a logarithm in only about one
+ * of every hundred draws.  Poisson deviates are obtained by multiplying
+ * uniform deviates for a small mean, and by the "transformed rejection with squeeze"
+ * method of H&ouml;rmann for a large mean; see:  W. H&ouml;rmann, "The
+ * transformed rejection method for generating Poisson random variables",
+ * <em>Insurance: Mathematics and Economics</em> <b>12</b>, 39-45 (1993).
+ *
+ * @author Stephen Ramsey
+ */
+public abstract class RandomNumberGenerator extends RandomElement
+{
+    // RandomElement is serializable
+    private static final long serialVersionUID = 1L;
+
+    private static final double UNIFORM_DOUBLE_MULTIPLIER = 1.0 / ((double) (1L << 53));
+
+    private static final int NUM_ZIGGURAT_LAYERS = 256;
+    private static final int ZIGGURAT_LAYER_MASK = NUM_ZIGGURAT_LAYERS - 1;
+    private static final double ZIGGURAT_TAIL_START = 7.69711747013104972;
+    private static final double ZIGGURAT_LAYER_AREA = 3.94965982258155719e-3;
+
+    // right edges of the ziggurat layers (decreasing), and the exponential density at each edge
+    private static final double []ZIGGURAT_EDGES;
+    private static final double []ZIGGURAT_DENSITIES;
+
+    private static final double POISSON_MIN_MEAN_FOR_REJECTION = 10.0;
+    private static final int NUM_TABULATED_LOG_FACTORIALS = 256;
+    private static final double []LOG_FACTORIALS;
+    private static final double HALF_LOG_TWO_PI = 0.5 * Math.log(2.0 * Math.PI);
+
+    static
+    {
+        double []edges = new double[NUM_ZIGGURAT_LAYERS + 1];
+        double []densities = new double[NUM_ZIGGURAT_LAYERS + 1];
+        edges[0] = ZIGGURAT_LAYER_AREA / Math.exp(-ZIGGURAT_TAIL_START);
+        edges[1] = ZIGGURAT_TAIL_START;
+        for(int i = 1; i < NUM_ZIGGURAT_LAYERS - 1; ++i)
+        {
+            edges[i + 1] = -Math.log(Math.exp(-edges[i]) + ZIGGURAT_LAYER_AREA / edges[i]);
+        }
+        edges[NUM_ZIGGURAT_LAYERS] = 0.0;
+        for(int i = 0; i <= NUM_ZIGGURAT_LAYERS; ++i)
+        {
+            densities[i] = Math.exp(-edges[i]);
+        }
+        ZIGGURAT_EDGES = edges;
+        ZIGGURAT_DENSITIES = densities;
+
+        double []logFactorials = new double[NUM_TABULATED_LOG_FACTORIALS];
+        logFactorials[0] = 0.0;
+        for(int k = 1; k < NUM_TABULATED_LOG_FACTORIALS; ++k)
+        {
+            logFactorials[k] = logFactorials[k - 1] + Math.log((double) k);
+        }
+        LOG_FACTORIALS = logFactorials;
+    }
+
+    /**
+     * Returns the next 64-bit integer in the stream; all 64 bits
+     * must be uniformly distributed.
+     */
+    public abstract long nextLong();
+
+    /**
+     * Returns a new generator whose stream is (for all practical
+     * purposes) independent of the stream of this generator.  This is
+     * used to give each worker thread of a simulation its own stream,
+     * in a reproducible way.
+     */
+    public abstract RandomNumberGenerator split();
+
+    /**
+     * Returns a uniform deviate in the open interval (0,1).
+     */
+    public double raw()
+    {
+        return((((double) (nextLong() >>> 11)) + 0.5) * UNIFORM_DOUBLE_MULTIPLIER);
+    }
+
+    /**
+     * Returns an exponential deviate with unit mean.
+     */
+    public final double nextExponential()
+    {
+        double []edges = ZIGGURAT_EDGES;
+        while(true)
+        {
+            long bits = nextLong();
+            int layer = (int) (bits & ZIGGURAT_LAYER_MASK);
+            double x = ((double) (bits >>> 11)) * UNIFORM_DOUBLE_MULTIPLIER * edges[layer];
+            if(x < edges[layer + 1])
+            {
+                // the point lies within the part of the layer that is entirely under the density
+                return(x);
+            }
+            if(0 == layer)
+            {
+                // the exponential distribution is memoryless, so the tail is a shifted exponential
+                return(ZIGGURAT_TAIL_START - Math.log(raw()));
+            }
+            double lowerDensity = ZIGGURAT_DENSITIES[layer];
+            double y = lowerDensity + raw() * (ZIGGURAT_DENSITIES[layer + 1] - lowerDensity);
+            if(y < Math.exp(-x))
+            {
+                return(x);
+            }
+        }
+    }
+
+    /**
+     * Returns a gamma deviate with shape parameter <code>pShape</code>
+     * and rate parameter <code>pRate</code> (so that the mean is
+     * <code>pShape/pRate</code>), using the method of Marsaglia and Tsang;
+     * see:  G. Marsaglia and W. Tsang, "A simple method for generating gamma
+     * variables", <em>ACM Trans. Math. Softw.</em> <b>26</b>, 363-372 (2000).
+     */
+    public final double nextGamma(double pShape, double pRate)
+    {
+        if(! (pShape > 0.0 && pRate > 0.0))
+        {
+            throw new IllegalArgumentException("invalid gamma parameters; shape: " + pShape + "; rate: " + pRate);
+        }
+        double shape = pShape;
+        double scale = 1.0 / pRate;
+        if(shape < 1.0)
+        {
+            // boost the shape parameter above 1, and correct with a uniform deviate
+            scale *= Math.pow(raw(), 1.0 / shape);
+            shape += 1.0;
+        }
+        double d = shape - 1.0/3.0;
+        double c = 1.0 / Math.sqrt(9.0 * d);
+        while(true)
+        {
+            double x = gaussian();
+            double v = 1.0 + c * x;
+            if(v <= 0.0)
+            {
+                continue;
+            }
+            v = v * v * v;
+            double u = raw();
+            double xSquared = x * x;
+            if(u < 1.0 - 0.0331 * xSquared * xSquared ||
+               Math.log(u) < 0.5 * xSquared + d * (1.0 - v + Math.log(v)))
+            {
+                return(d * v * scale);
+            }
+        }
+    }
+
+    /**
+     * Returns a Poisson deviate with mean <code>pMean</code>,
+     * which must be non-negative and finite.
+     */
+    public final long nextPoisson(double pMean)
+    {
+        // the rejection loop would never terminate for a mean that is NaN or infinite
+        if(! (pMean >= 0.0) || Double.isInfinite(pMean))
+        {
+            throw new IllegalArgumentException("invalid Poisson mean: " + pMean);
+        }
+        if(pMean < POISSON_MIN_MEAN_FOR_REJECTION)
+        {
+            return(nextPoissonMultiplication(pMean));
+        }
+        return(nextPoissonRejection(pMean));
+    }
+
+    // Knuth's method:  the number of uniform deviates whose product exceeds exp(-pMean)
+    private long nextPoissonMultiplication(double pMean)
+    {
+        double limit = Math.exp(-pMean);
+        double product = raw();
+        long k = 0;
+        while(product > limit)
+        {
+            ++k;
+            product *= raw();
+        }
+        return(k);
+    }
+
+    private long nextPoissonRejection(double pMean)
+    {
+        double sqrtMean = Math.sqrt(pMean);
+        double logMean = Math.log(pMean);
+        double b = 0.931 + 2.53 * sqrtMean;
+        double a = -0.059 + 0.02483 * b;
+        double inverseAlpha = 1.1239 + 1.1328 / (b - 3.4);
+        double vr = 0.9277 - 3.6224 / (b - 2.0);
+
+        while(true)
+        {
+            double u = raw() - 0.5;
+            double v = raw();
+            double us = 0.5 - Math.abs(u);
+            double k = Math.floor((2.0 * a / us + b) * u + pMean + 0.43);
+            if(us >= 0.07 && v <= vr)
+            {
+                return((long) k);
+            }
+            if(k < 0.0 || (us < 0.013 && v > us))
+            {
+                continue;
+            }
+            if(Math.log(v * inverseAlpha / (a / (us * us) + b)) <= -pMean + k * logMean - logFactorial(k))
+            {
+                return((long) k);
+            }
+        }
+    }
+
+    private static double logFactorial(double pK)
+    {
+        if(pK < NUM_TABULATED_LOG_FACTORIALS)
+        {
+            return(LOG_FACTORIALS[(int) pK]);
+        }
+        // Stirling's series, which is accurate to double precision in this range
+        double kInv = 1.0 / pK;
+        double kInvSquared = kInv * kInv;
+        return((pK + 0.5) * Math.log(pK) - pK + HALF_LOG_TWO_PI +
+               kInv * (1.0/12.0 - kInvSquared * (1.0/360.0 - kInvSquared / 1260.0)));
+    }
+}
@@ -0,0 +1,147 @@
+package org.systemsbiology.math;
+/*
+ * Copyright (C) 2003 by Institute for Systems Biology,
+ * Seattle, Washington, USA.  All rights reserved.
+ *
+ * This source code is distributed under the GNU Lesser
+ * General Public License, the text of which is available at:
+ *   http://www.gnu.org/copyleft/lesser.html
+ */
+
+/**
+ * Implementation of the "xoroshiro128++" pseudorandom number generator
+ * of Blackman and Vigna, which has a period of 2<sup>128</sup>-1 and
+ * passes the standard statistical test suites.  The 64-bit outputs are
+ * generated in blocks, so that the generator state stays in registers
+ * while a block is being filled.  The {@link #split()} method uses the
+ * "jump" function of the generator, which advances the state by
+ * 2<sup>64</sup> steps; thus the streams returned by successive calls
+ * to <code>split()</code> cannot overlap, unless more than 2<sup>64</sup>
+ * numbers are drawn from one of them.  See:  D. Blackman and S. Vigna,
+ * "Scrambled linear pseudorandom number generators",
+ * <em>ACM Trans. Math. Softw.</em> <b>47</b>, 36 (2021).
+ *
+ * @author Stephen Ramsey
+ */
+public final class RandomNumberGeneratorXoroshiro extends RandomNumberGenerator
+{
+    private static final long serialVersionUID = 1L;
+    private static final int BLOCK_SIZE = 256;
+    private static final long []JUMP = { 0x2bd7a6a6e99c2ddcL, 0x0992ccaf6a6fca05L };
+
+    private long mState0;
+    private long mState1;
+    private long []mBlock;
+    private int mBlockIndex;
+
+    /**
+     * Creates a generator whose state is derived from the
+     * seed <code>pSeed</code> (which may be any value) using
+     * the "splitmix64" generator, so that similar seeds
+     * give unrelated streams.
+     */
+    public RandomNumberGeneratorXoroshiro(long pSeed)
+    {
+        long x = pSeed;
+        x += 0x9e3779b97f4a7c15L;
+        mState0 = mixSplit(x);
+        x += 0x9e3779b97f4a7c15L;
+        mState1 = mixSplit(x);
+        if(0 == mState0 && 0 == mState1)
+        {
+            mState1 = 1;
+        }
+        mBlock = new long[BLOCK_SIZE];
+        mBlockIndex = BLOCK_SIZE;
+    }
+
+    private RandomNumberGeneratorXoroshiro(long pState0, long pState1)
+    {
+        mState0 = pState0;
+        mState1 = pState1;
+        mBlock = new long[BLOCK_SIZE];
+        mBlockIndex = BLOCK_SIZE;
+    }
+
+    private static long mixSplit(long pValue)
+    {
+        long z = pValue;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return(z ^ (z >>> 31));
+    }
+
+    private void fillBlock()
+    {
+        long s0 = mState0;
+        long s1 = mState1;
+        long []block = mBlock;
+        for(int ctr = 0; ctr < BLOCK_SIZE; ++ctr)
+        {
+            long sum = s0 + s1;
+            block[ctr] = ((sum << 17) | (sum >>> 47)) + s0;
+            s1 ^= s0;
+            s0 = ((s0 << 49) | (s0 >>> 15)) ^ s1 ^ (s1 << 21);
+            s1 = (s1 << 28) | (s1 >>> 36);
+        }
+        mState0 = s0;
+        mState1 = s1;
+        mBlockIndex = 0;
+    }
+
+    public long nextLong()
+    {
+        if(mBlockIndex >= BLOCK_SIZE)
+        {
+            fillBlock();
+        }
+        return(mBlock[mBlockIndex++]);
+    }
+
+    // advances the state (not counting any numbers remaining in the block) by 2^64 steps
+    private void jump()
+    {
+        long s0 = mState0;
+        long s1 = mState1;
+        long j0 = 0;
+        long j1 = 0;
+        for(int i = 0; i < JUMP.length; ++i)
+        {
+            long jump = JUMP[i];
+            for(int b = 0; b < 64; ++b)
+            {
+                if(0 != (jump & (1L << b)))
+                {
+                    j0 ^= s0;
+                    j1 ^= s1;
+                }
+                s1 ^= s0;
+                s0 = ((s0 << 49) | (s0 >>> 15)) ^ s1 ^ (s1 << 21);
+                s1 = (s1 << 28) | (s1 >>> 36);
+            }
+        }
+        mState0 = j0;
+        mState1 = j1;
+    }
+
+    /**
+     * Returns a generator that continues from the current state
+     * of this generator, and then advances this generator by
+     * 2<sup>64</sup> steps.
+     */
+    public RandomNumberGenerator split()
+    {
+        RandomNumberGeneratorXoroshiro child = new RandomNumberGeneratorXoroshiro(mState0, mState1);
+        jump();
+        mBlockIndex = BLOCK_SIZE;
+        return(child);
+    }
+
+    public Object clone()
+    {
+        RandomNumberGeneratorXoroshiro copy = new RandomNumberGeneratorXoroshiro(mState0, mState1);
+        System.arraycopy(mBlock, 0, copy.mBlock, 0, BLOCK_SIZE);
+        copy.mBlockIndex = mBlockIndex;
+        return(copy);
+    }
+}
@@ -0,0 +1,407 @@
+package org.systemsbiology.math;
+/*
+ * Copyright (C) 2003 by Institute for Systems Biology,
+ * Seattle, Washington, USA.  All rights reserved.
+ *
+ * This source code is distributed under the GNU Lesser
+ * General Public License, the text of which is available at:
+ *   http://www.gnu.org/copyleft/lesser.html
+ */
+
+import java.util.*;
+
+/**
+ * LU decomposition of a square {@link SparseMatrix}, in which the
+ * symbolic factorization is separated from the numeric factorization.
+ * The constructor analyzes the sparsity pattern of the matrix:  it
+ * selects a (symmetric) elimination order using the minimum degree
+ * heuristic on the pattern of <code>A + A<sup>T</sup></code>, and
+ * determines the pattern of the factors, including fill-in.  The
+ * {@link #factor(double[])} method may then be called any number of
+ * times, for matrices that have the same sparsity pattern as the
+ * analyzed matrix but different values, and each call performs
+ * only the numeric elimination.  The pivots are taken from the
+ * diagonal in the elimination order (there is no pivoting for
+ * stability), so this class is intended for matrices such as
+ * <code>I - c*J</code> that are diagonally dominant for small
+ * <code>c</code>; if a pivot is found to be too small,
+ * {@link #factor(double[])} returns false.
+ *
+ * @author Stephen Ramsey
+ */
+public final class SparseLUDecomposition
+{
+    private static final double PIVOT_TOLERANCE = 1.0e-12;
+
+    private final int mSize;
+
+    // mPermutation[r] is the original index of the row (and column) eliminated at step r
+    private final int []mPermutation;
+
+    // the unit lower triangular factor L (below the diagonal) and the upper
+    // triangular factor U (on and above the diagonal), stored together in
+    // compressed sparse row form, in permuted indices
+    private final int []mRowPointers;
+    private final int []mColumnIndices;
+    private final int []mDiagonalPositions;
+    private final double []mFactors;
+
+    // position in mFactors of each element of the analyzed matrix
+    private final int []mMatrixPositions;
+
+    private final double []mWork;
+    private boolean mFactored;
+
+    /**
+     * Performs the symbolic factorization of the square matrix
+     * <code>pMatrix</code>; only its sparsity pattern is used.
+     */
+    public SparseLUDecomposition(SparseMatrix pMatrix)
+    {
+        int size = pMatrix.getNumRows();
+        if(pMatrix.getNumColumns() != size)
+        {
+            throw new IllegalArgumentException("the matrix must be square");
+        }
+        mSize = size;
+
+        int []matrixRowPointers = pMatrix.getRowPointers();
+        int []matrixColumnIndices = pMatrix.getColumnIndices();
+
+        // adjacency sets of the (symmetrized) graph of the matrix
+        HashSet []adjacency = new HashSet[size];
+        for(int i = 0; i < size; ++i)
+        {
+            adjacency[i] = new HashSet();
+        }
+        for(int i = 0; i < size; ++i)
+        {
+            int rowEnd = matrixRowPointers[i + 1];
+            for(int k = matrixRowPointers[i]; k < rowEnd; ++k)
+            {
+                int j = matrixColumnIndices[k];
+                if(j != i)
+                {
+                    adjacency[i].add(new Integer(j));
+                    adjacency[j].add(new Integer(i));
+                }
+            }
+        }
+
+        // the nodes with each degree are kept in a doubly linked list
+        int []degreeHeads = new int[size + 1];
+        int []nextNode = new int[size];
+        int []prevNode = new int[size];
+        int []degrees = new int[size];
+        Arrays.fill(degreeHeads, -1);
+        for(int i = size; --i >= 0; )
+        {
+            degrees[i] = adjacency[i].size();
+            insertNode(i, degrees[i], degreeHeads, nextNode, prevNode);
+        }
+
+        int []permutation = new int[size];
+        int []inversePermutation = new int[size];
+        Object []eliminatedNeighbors = new Object[size];
+        int minDegree = 0;
+        for(int r = 0; r < size; ++r)
+        {
+            while(-1 == degreeHeads[minDegree])
+            {
+                ++minDegree;
+            }
+            int node = degreeHeads[minDegree];
+            removeNode(node, degrees[node], degreeHeads, nextNode, prevNode);
+            permutation[r] = node;
+            inversePermutation[node] = r;
+
+            // eliminating the node connects all of its (not yet eliminated) neighbors
+            HashSet neighborSet = adjacency[node];
+            int numNeighbors = neighborSet.size();
+            int []neighbors = new int[numNeighbors];
+            Iterator neighborIter = neighborSet.iterator();
+            for(int k = 0; k < numNeighbors; ++k)
+            {
+                neighbors[k] = ((Integer) neighborIter.next()).intValue();
+            }
+            eliminatedNeighbors[r] = neighbors;
+            adjacency[node] = null;
+            Integer nodeObj = new Integer(node);
+            for(int k = 0; k < numNeighbors; ++k)
+            {
+                int neighbor = neighbors[k];
+                HashSet neighborAdjacency = adjacency[neighbor];
+                neighborAdjacency.remove(nodeObj);
+                for(int kp = 0; kp < numNeighbors; ++kp)
+                {
+                    if(kp != k)
+                    {
+                        neighborAdjacency.add(new Integer(neighbors[kp]));
+                    }
+                }
+                int degree = neighborAdjacency.size();
+                if(degree != degrees[neighbor])
+                {
+                    removeNode(neighbor, degrees[neighbor], degreeHeads, nextNode, prevNode);
+                    degrees[neighbor] = degree;
+                    insertNode(neighbor, degree, degreeHeads, nextNode, prevNode);
+                    if(degree < minDegree)
+                    {
+                        minDegree = degree;
+                    }
+                }
+            }
+        }
+        mPermutation = permutation;
+
+        // row r of the factors contains the diagonal, the neighbors of node r at the
+        // time of its elimination (U), and each earlier node of which r was such a neighbor (L)
+        int []rowCounts = new int[size];
+        for(int r = 0; r < size; ++r)
+        {
+            int []neighbors = (int []) eliminatedNeighbors[r];
+            rowCounts[r] += neighbors.length + 1;
+            for(int k = neighbors.length; --k >= 0; )
+            {
+                ++rowCounts[inversePermutation[neighbors[k]]];
+            }
+        }
+        int []rowPointers = new int[size + 1];
+        for(int r = 0; r < size; ++r)
+        {
+            rowPointers[r + 1] = rowPointers[r] + rowCounts[r];
+        }
+        int numFactorNonzeros = rowPointers[size];
+        int []columnIndices = new int[numFactorNonzeros];
+        int []rowFill = new int[size];
+        System.arraycopy(rowPointers, 0, rowFill, 0, size);
+        for(int r = 0; r < size; ++r)
+        {
+            int []neighbors = (int []) eliminatedNeighbors[r];
+            columnIndices[rowFill[r]++] = r;
+            for(int k = neighbors.length; --k >= 0; )
+            {
+                int c = inversePermutation[neighbors[k]];
+                columnIndices[rowFill[r]++] = c;
+                columnIndices[rowFill[c]++] = r;
+            }
+        }
+        int []diagonalPositions = new int[size];
+        for(int r = 0; r < size; ++r)
+        {
+            Arrays.sort(columnIndices, rowPointers[r], rowPointers[r + 1]);
+            diagonalPositions[r] = findPosition(columnIndices, rowPointers[r], rowPointers[r + 1], r);
+        }
+        mRowPointers = rowPointers;
+        mColumnIndices = columnIndices;
+        mDiagonalPositions = diagonalPositions;
+        mFactors = new double[numFactorNonzeros];
+
+        int []matrixPositions = new int[pMatrix.getNumNonzeros()];
+        for(int i = 0; i < size; ++i)
+        {
+            int r = inversePermutation[i];
+            int rowEnd = matrixRowPointers[i + 1];
+            for(int k = matrixRowPointers[i]; k < rowEnd; ++k)
+            {
+                int c = inversePermutation[matrixColumnIndices[k]];
+                matrixPositions[k] = findPosition(columnIndices, rowPointers[r], rowPointers[r + 1], c);
+            }
+        }
+        mMatrixPositions = matrixPositions;
+
+        mWork = new double[size];
+        mFactored = false;
+    }
+
+    private static void insertNode(int pNode, int pDegree, int []pHeads, int []pNext, int []pPrev)
+    {
+        int head = pHeads[pDegree];
+        pNext[pNode] = head;
+        pPrev[pNode] = -1;
+        if(-1 != head)
+        {
+            pPrev[head] = pNode;
+        }
+        pHeads[pDegree] = pNode;
+    }
+
+    private static void removeNode(int pNode, int pDegree, int []pHeads, int []pNext, int []pPrev)
+    {
+        int next = pNext[pNode];
+        int prev = pPrev[pNode];
+        if(-1 != prev)
+        {
+            pNext[prev] = next;
+        }
+        else
+        {
+            pHeads[pDegree] = next;
+        }
+        if(-1 != next)
+        {
+            pPrev[next] = prev;
+        }
+    }
+
+    // binary search for the column pColumn, in the sorted range [pStart, pEnd) of pColumnIndices
+    private static int findPosition(int []pColumnIndices, int pStart, int pEnd, int pColumn)
+    {
+        int low = pStart;
+        int high = pEnd - 1;
+        while(low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            int column = pColumnIndices[mid];
+            if(column < pColumn)
+            {
+                low = mid + 1;
+            }
+            else if(column > pColumn)
+            {
+                high = mid - 1;
+            }
+            else
+            {
+                return(mid);
+            }
+        }
+        throw new IllegalStateException("column " + pColumn + " is not in the pattern of the factors");
+    }
+
+    public int getSize()
+    {
+        return(mSize);
+    }
+
+    /**
+     * Returns the number of nonzero elements in the pattern of the
+     * factors (L and U together), including fill-in.
+     */
+    public int getNumFactorNonzeros()
+    {
+        return(mRowPointers[mSize]);
+    }
+
+    /**
+     * Computes the numeric factorization of the matrix whose nonzero
+     * elements are <code>pValues</code>, in the order of the
+     * {@link SparseMatrix#getValues()} array of the analyzed matrix.
+     * Returns false (and leaves the decomposition unusable) if a
+     * pivot is zero, or too small relative to the elements of its row.
+     */
+    public boolean factor(double []pValues)
+    {
+        int []rowPointers = mRowPointers;
+        int []columnIndices = mColumnIndices;
+        int []diagonalPositions = mDiagonalPositions;
+        double []factors = mFactors;
+        double []work = mWork;
+        int []matrixPositions = mMatrixPositions;
+
+        mFactored = false;
+
+        DoubleVector.zeroElements(factors);
+        for(int k = matrixPositions.length; --k >= 0; )
+        {
+            factors[matrixPositions[k]] += pValues[k];
+        }
+
+        for(int r = 0; r < mSize; ++r)
+        {
+            int rowStart = rowPointers[r];
+            int rowEnd = rowPointers[r + 1];
+            int diagonalPosition = diagonalPositions[r];
+            double rowMax = 0.0;
+            for(int p = rowStart; p < rowEnd; ++p)
+            {
+                double value = factors[p];
+                work[columnIndices[p]] = value;
+                if(Math.abs(value) > rowMax)
+                {
+                    rowMax = Math.abs(value);
+                }
+            }
+
+            // eliminate using each earlier row, in increasing order; the pattern of
+            // the factors guarantees that every updated element is in row r
+            for(int p = rowStart; p < diagonalPosition; ++p)
+            {
+                int c = columnIndices[p];
+                double multiplier = work[c] / factors[diagonalPositions[c]];
+                work[c] = multiplier;
+                if(0.0 != multiplier)
+                {
+                    int upperEnd = rowPointers[c + 1];
+                    for(int q = diagonalPositions[c] + 1; q < upperEnd; ++q)
+                    {
+                        work[columnIndices[q]] -= multiplier * factors[q];
+                    }
+                }
+            }
+
+            for(int p = rowStart; p < rowEnd; ++p)
+            {
+                factors[p] = work[columnIndices[p]];
+            }
+
+            double pivot = factors[diagonalPosition];
+            if(! (Math.abs(pivot) > PIVOT_TOLERANCE * rowMax))
+            {
+                return(false);
+            }
+        }
+
+        mFactored = true;
+        return(true);
+    }
+
+    /**
+     * Solves <code>A x = b</code> using the most recent numeric
+     * factorization.  On entry <code>pVector</code> contains
+     * <code>b</code>; on exit, it contains <code>x</code>.
+     */
+    public void solve(double []pVector)
+    {
+        if(! mFactored)
+        {
+            throw new IllegalStateException("the matrix has not been successfully factored");
+        }
+
+        int []permutation = mPermutation;
+        int []rowPointers = mRowPointers;
+        int []columnIndices = mColumnIndices;
+        int []diagonalPositions = mDiagonalPositions;
+        double []factors = mFactors;
+        double []x = mWork;
+        int size = mSize;
+
+        for(int r = 0; r < size; ++r)
+        {
+            double sum = pVector[permutation[r]];
+            int diagonalPosition = diagonalPositions[r];
+            for(int p = rowPointers[r]; p < diagonalPosition; ++p)
+            {
+                sum -= factors[p] * x[columnIndices[p]];
+            }
+            x[r] = sum;
+        }
+
+        for(int r = size; --r >= 0; )
+        {
+            double sum = x[r];
+            int diagonalPosition = diagonalPositions[r];
+            int rowEnd = rowPointers[r + 1];
+            for(int p = diagonalPosition + 1; p < rowEnd; ++p)
+            {
+                sum -= factors[p] * x[columnIndices[p]];
+            }
+            x[r] = sum / factors[diagonalPosition];
+        }
+
+        for(int r = size; --r >= 0; )
+        {
+            pVector[permutation[r]] = x[r];
+        }
+    }
+}
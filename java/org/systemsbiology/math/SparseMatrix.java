@@ -0,0 +1,165 @@
+package org.systemsbiology.math;
+/*
+ * Copyright (C) 2003 by Institute for Systems Biology,
+ * Seattle, Washington, USA.  All rights reserved.
+ *
+ * This source code is distributed under the GNU Lesser
+ * General Public License, the text of which is available at:
+ *   http://www.gnu.org/copyleft/lesser.html
+ */
+
+/**
+ * A matrix of doubles stored in compressed sparse row (CSR) form.
+ * The nonzero elements of row <code>i</code> are stored in positions
+ * <code>getRowPointers()[i]</code> (inclusive) through
+ * <code>getRowPointers()[i+1]</code> (exclusive) of the arrays
+ * returned by {@link #getColumnIndices()} and {@link #getValues()};
+ * within each row, the column indices are in increasing order.
+ * The arrays are exposed directly, so that inner loops over the
+ * nonzero elements need no method calls; they must not be modified.
+ *
+ * @author Stephen Ramsey
+ */
+public final class SparseMatrix
+{
+    private final int mNumRows;
+    private final int mNumColumns;
+    private final int []mRowPointers;
+    private final int []mColumnIndices;
+    private final double []mValues;
+
+    /**
+     * Constructs a matrix from its compressed sparse row arrays, which
+     * are used directly (not copied).  The array <code>pRowPointers</code>
+     * must have length equal to the number of rows plus one.
+     */
+    public SparseMatrix(int pNumColumns, int []pRowPointers, int []pColumnIndices, double []pValues)
+    {
+        if(pRowPointers.length < 1)
+        {
+            throw new IllegalArgumentException("the row pointer array must have at least one element");
+        }
+        int numNonzeros = pRowPointers[pRowPointers.length - 1];
+        if(pColumnIndices.length < numNonzeros || pValues.length < numNonzeros)
+        {
+            throw new IllegalArgumentException("the column index and value arrays must have at least " + numNonzeros + " elements");
+        }
+        mNumRows = pRowPointers.length - 1;
+        mNumColumns = pNumColumns;
+        mRowPointers = pRowPointers;
+        mColumnIndices = pColumnIndices;
+        mValues = pValues;
+    }
+
+    public int getNumRows()
+    {
+        return(mNumRows);
+    }
+
+    public int getNumColumns()
+    {
+        return(mNumColumns);
+    }
+
+    public int getNumNonzeros()
+    {
+        return(mRowPointers[mNumRows]);
+    }
+
+    public int []getRowPointers()
+    {
+        return(mRowPointers);
+    }
+
+    public int []getColumnIndices()
+    {
+        return(mColumnIndices);
+    }
+
+    public double []getValues()
+    {
+        return(mValues);
+    }
+
+    /**
+     * Returns the position (in the arrays returned by {@link #getColumnIndices()}
+     * and {@link #getValues()}) of the element in row <code>pRow</code> and
+     * column <code>pColumn</code>, or -1 if that element is not stored.
+     */
+    public int getPosition(int pRow, int pColumn)
+    {
+        int low = mRowPointers[pRow];
+        int high = mRowPointers[pRow + 1] - 1;
+        while(low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            int column = mColumnIndices[mid];
+            if(column < pColumn)
+            {
+                low = mid + 1;
+            }
+            else if(column > pColumn)
+            {
+                high = mid - 1;
+            }
+            else
+            {
+                return(mid);
+            }
+        }
+        return(-1);
+    }
+
+    /**
+     * Returns the specified row as a dense array.
+     */
+    public double []getDenseRow(int pRow)
+    {
+        double []row = new double[mNumColumns];
+        int rowEnd = mRowPointers[pRow + 1];
+        for(int k = mRowPointers[pRow]; k < rowEnd; ++k)
+        {
+            row[mColumnIndices[k]] = mValues[k];
+        }
+        return(row);
+    }
+
+    /**
+     * Returns the rows of the matrix as an array of dense
+     * <code>double []</code> arrays.
+     */
+    public Object []getDenseRows()
+    {
+        Object []rows = new Object[mNumRows];
+        for(int i = 0; i < mNumRows; ++i)
+        {
+            rows[i] = getDenseRow(i);
+        }
+        return(rows);
+    }
+
+    /**
+     * Computes the product of the transpose of this matrix with the
+     * vector <code>pVector</code> (of length equal to the number of rows),
+     * and stores it in <code>pRetVector</code> (of length equal to the
+     * number of columns).  The rows are accumulated in decreasing order.
+     */
+    public void multiplyTranspose(double []pVector, double []pRetVector)
+    {
+        int []rowPointers = mRowPointers;
+        int []columnIndices = mColumnIndices;
+        double []values = mValues;
+
+        DoubleVector.zeroElements(pRetVector);
+
+        for(int i = mNumRows; --i >= 0; )
+        {
+            double vectorElement = pVector[i];
+            int rowEnd = rowPointers[i + 1];
+            for(int k = rowPointers[i]; k < rowEnd; ++k)
+            {
+                pRetVector[columnIndices[k]] += values[k] * vectorElement;
+            }
+        }
+    }
+}
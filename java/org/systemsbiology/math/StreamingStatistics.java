@@ -0,0 +1,487 @@
+package org.systemsbiology.math;
+/*
+ * Copyright (C) 2003 by Institute for Systems Biology,
+ * Seattle, Washington, USA.  All rights reserved.
+ *
+ * This source code is distributed under the GNU Lesser
+ * General Public License, the text of which is available at:
+ *   http://www.gnu.org/copyleft/lesser.html
+ */
+
+import java.util.Arrays;
+
+/**
+ * Accumulates the sample mean, sample variance, and (optionally)
+ * a set of quantiles, of each element of a stream of fixed-length
+ * vectors of observations.  The storage required is independent
+ * of the number of observations.  The mean and variance are
+ * accumulated using the algorithm of Welford, which does not
+ * suffer from the round-off error of the "sum of squares" formula.
+ * Each quantile is estimated using the P<sup>2</sup> algorithm, which
+ * maintains five markers whose heights are adjusted by piecewise-parabolic
+ * interpolation as observations arrive.  See:  R. Jain and I. Chlamtac,
+ * "The P<sup>2</sup> algorithm for dynamic calculation of quantiles and
+ * histograms without storing observations", <em>Comm. ACM</em> <b>28</b>,
+ * 1076-1085 (1985).  Accumulators of separate streams of observations
+ * may be combined with {@link #merge(StreamingStatistics)}.
+ *
+ * @author Stephen Ramsey
+ */
+public final class StreamingStatistics
+{
+    private static final int NUM_MARKERS = 5;
+
+    private final int mNumElements;
+    private final double []mQuantileProbabilities;
+    private int mNumObservations;
+
+    private final double []mMeans;
+    private final double []mSumSquaredDeviations;
+
+    // marker heights and positions, for each element and each quantile;
+    // the markers for element i and quantile k begin at index (i*numQuantiles + k)*NUM_MARKERS
+    private final double []mMarkerHeights;
+    private final int []mMarkerPositions;
+
+    // desired marker positions after the first NUM_MARKERS observations, and their
+    // increments per observation, for each quantile
+    private final double []mInitialDesiredPositions;
+    private final double []mDesiredPositionIncrements;
+
+    /**
+     * Creates an accumulator for vectors of <code>pNumElements</code>
+     * observations.  The array <code>pQuantileProbabilities</code> contains
+     * the probabilities (each in the open interval (0,1)) of the quantiles
+     * to be estimated; it may be null, if no quantiles are needed.
+     */
+    public StreamingStatistics(int pNumElements, double []pQuantileProbabilities)
+    {
+        if(pNumElements < 0)
+        {
+            throw new IllegalArgumentException("invalid number of elements: " + pNumElements);
+        }
+        int numQuantiles = 0;
+        if(null != pQuantileProbabilities)
+        {
+            numQuantiles = pQuantileProbabilities.length;
+            for(int k = 0; k < numQuantiles; ++k)
+            {
+                double p = pQuantileProbabilities[k];
+                if(! (p > 0.0 && p < 1.0))
+                {
+                    throw new IllegalArgumentException("invalid quantile probability: " + p);
+                }
+            }
+        }
+        mNumElements = pNumElements;
+        mQuantileProbabilities = new double[numQuantiles];
+        mNumObservations = 0;
+        mMeans = new double[pNumElements];
+        mSumSquaredDeviations = new double[pNumElements];
+        mMarkerHeights = new double[pNumElements * numQuantiles * NUM_MARKERS];
+        mMarkerPositions = new int[pNumElements * numQuantiles * NUM_MARKERS];
+        mInitialDesiredPositions = new double[numQuantiles * NUM_MARKERS];
+        mDesiredPositionIncrements = new double[numQuantiles * NUM_MARKERS];
+        for(int k = 0; k < numQuantiles; ++k)
+        {
+            double p = pQuantileProbabilities[k];
+            mQuantileProbabilities[k] = p;
+            int offset = k * NUM_MARKERS;
+            mInitialDesiredPositions[offset] = 1.0;
+            mInitialDesiredPositions[offset + 1] = 1.0 + 2.0*p;
+            mInitialDesiredPositions[offset + 2] = 1.0 + 4.0*p;
+            mInitialDesiredPositions[offset + 3] = 3.0 + 2.0*p;
+            mInitialDesiredPositions[offset + 4] = 5.0;
+            mDesiredPositionIncrements[offset] = 0.0;
+            mDesiredPositionIncrements[offset + 1] = p/2.0;
+            mDesiredPositionIncrements[offset + 2] = p;
+            mDesiredPositionIncrements[offset + 3] = (1.0 + p)/2.0;
+            mDesiredPositionIncrements[offset + 4] = 1.0;
+        }
+    }
+
+    public int getNumElements()
+    {
+        return(mNumElements);
+    }
+
+    public int getNumObservations()
+    {
+        return(mNumObservations);
+    }
+
+    public double []getQuantileProbabilities()
+    {
+        return(mQuantileProbabilities);
+    }
+
+    /**
+     * Adds one observation of each element; the array <code>pValues</code>
+     * must have a length equal to the number of elements.
+     */
+    public void addObservations(double []pValues)
+    {
+        int numElements = mNumElements;
+        if(pValues.length != numElements)
+        {
+            throw new IllegalArgumentException("invalid array size: " + pValues.length);
+        }
+        int numObservations = mNumObservations + 1;
+        mNumObservations = numObservations;
+
+        double []means = mMeans;
+        double []sumSquaredDeviations = mSumSquaredDeviations;
+        double countInv = 1.0 / ((double) numObservations);
+        for(int i = numElements; --i >= 0; )
+        {
+            double value = pValues[i];
+            double deviation = value - means[i];
+            means[i] += deviation * countInv;
+            sumSquaredDeviations[i] += deviation * (value - means[i]);
+        }
+
+        int numQuantiles = mQuantileProbabilities.length;
+        for(int i = numElements; --i >= 0; )
+        {
+            double value = pValues[i];
+            for(int k = numQuantiles; --k >= 0; )
+            {
+                addQuantileObservation((i * numQuantiles + k) * NUM_MARKERS,
+                                       k * NUM_MARKERS,
+                                       value,
+                                       numObservations);
+            }
+        }
+    }
+
+    private void addQuantileObservation(int pOffset,
+                                        int pQuantileOffset,
+                                        double pValue,
+                                        int pNumObservations)
+    {
+        double []q = mMarkerHeights;
+        int []n = mMarkerPositions;
+
+        if(pNumObservations <= NUM_MARKERS)
+        {
+            // insertion sort of the first observations into the marker heights
+            int pos = pOffset + pNumObservations - 1;
+            while(pos > pOffset && q[pos - 1] > pValue)
+            {
+                q[pos] = q[pos - 1];
+                --pos;
+            }
+            q[pos] = pValue;
+            n[pOffset + pNumObservations - 1] = pNumObservations;
+            return;
+        }
+
+        // find the cell containing the new observation, and adjust the extreme markers
+        int cell = 0;
+        if(pValue < q[pOffset])
+        {
+            q[pOffset] = pValue;
+            cell = 0;
+        }
+        else if(pValue >= q[pOffset + 4])
+        {
+            q[pOffset + 4] = pValue;
+            cell = 3;
+        }
+        else
+        {
+            cell = 0;
+            while(cell < 3 && pValue >= q[pOffset + cell + 1])
+            {
+                ++cell;
+            }
+        }
+
+        for(int m = cell + 1; m < NUM_MARKERS; ++m)
+        {
+            ++n[pOffset + m];
+        }
+
+        // adjust the heights of the three middle markers, if necessary
+        double numExtraObservations = (double) (pNumObservations - NUM_MARKERS);
+        for(int m = 1; m <= 3; ++m)
+        {
+            int idx = pOffset + m;
+            double desiredPosition = mInitialDesiredPositions[pQuantileOffset + m] +
+                                     numExtraObservations * mDesiredPositionIncrements[pQuantileOffset + m];
+            double d = desiredPosition - (double) n[idx];
+            if((d >= 1.0 && n[idx + 1] - n[idx] > 1) ||
+               (d <= -1.0 && n[idx - 1] - n[idx] < -1))
+            {
+                int sign = (d > 0.0 ? 1 : -1);
+                double height = parabolicHeight(q, n, idx, sign);
+                if(q[idx - 1] < height && height < q[idx + 1])
+                {
+                    q[idx] = height;
+                }
+                else
+                {
+                    q[idx] = q[idx] + ((double) sign) * (q[idx + sign] - q[idx]) / ((double) (n[idx + sign] - n[idx]));
+                }
+                n[idx] += sign;
+            }
+        }
+    }
+
+    /**
+     * Adds the observations accumulated by <code>pStatistics</code> (which must
+     * have the same number of elements, and the same quantile probabilities)
+     * to this accumulator.  The mean and variance are combined exactly, using
+     * the pairwise form of the algorithm of Welford (Chan, Golub and LeVeque).
+     * The quantile markers are combined by interpolating the observation counts
+     * of the two sets of markers; like the P<sup>2</sup> estimates themselves,
+     * the result depends on the order in which accumulators are merged, so a
+     * reproducible result requires that they always be merged in the same order.
+     */
+    public void merge(StreamingStatistics pStatistics)
+    {
+        int numElements = mNumElements;
+        int numQuantiles = mQuantileProbabilities.length;
+        if(pStatistics.mNumElements != numElements || pStatistics.mQuantileProbabilities.length != numQuantiles)
+        {
+            throw new IllegalArgumentException("the statistics to be merged have a different number of elements or quantiles");
+        }
+        for(int k = numQuantiles; --k >= 0; )
+        {
+            if(pStatistics.mQuantileProbabilities[k] != mQuantileProbabilities[k])
+            {
+                throw new IllegalArgumentException("the statistics to be merged have different quantile probabilities");
+            }
+        }
+        int numObservationsOther = pStatistics.mNumObservations;
+        if(0 == numObservationsOther)
+        {
+            return;
+        }
+        int numObservationsThis = mNumObservations;
+        int numObservations = numObservationsThis + numObservationsOther;
+
+        double []means = mMeans;
+        double []sumSquaredDeviations = mSumSquaredDeviations;
+        double []meansOther = pStatistics.mMeans;
+        double []sumSquaredDeviationsOther = pStatistics.mSumSquaredDeviations;
+        double fractionOther = ((double) numObservationsOther) / ((double) numObservations);
+        double productCount = ((double) numObservationsThis) * fractionOther;
+        for(int i = numElements; --i >= 0; )
+        {
+            double delta = meansOther[i] - means[i];
+            means[i] += delta * fractionOther;
+            sumSquaredDeviations[i] += sumSquaredDeviationsOther[i] + delta * delta * productCount;
+        }
+
+        double []savedHeights = new double[NUM_MARKERS];
+        for(int i = numElements; --i >= 0; )
+        {
+            for(int k = numQuantiles; --k >= 0; )
+            {
+                int offset = (i * numQuantiles + k) * NUM_MARKERS;
+                int quantileOffset = k * NUM_MARKERS;
+                if(numObservationsOther < NUM_MARKERS)
+                {
+                    // the other marker heights are just its sorted observations
+                    for(int m = 0; m < numObservationsOther; ++m)
+                    {
+                        addQuantileObservation(offset, quantileOffset, pStatistics.mMarkerHeights[offset + m], numObservationsThis + m + 1);
+                    }
+                }
+                else if(numObservationsThis < NUM_MARKERS)
+                {
+                    // start from the other markers, and add the observations of this accumulator to them
+                    System.arraycopy(mMarkerHeights, offset, savedHeights, 0, numObservationsThis);
+                    System.arraycopy(pStatistics.mMarkerHeights, offset, mMarkerHeights, offset, NUM_MARKERS);
+                    System.arraycopy(pStatistics.mMarkerPositions, offset, mMarkerPositions, offset, NUM_MARKERS);
+                    for(int m = 0; m < numObservationsThis; ++m)
+                    {
+                        addQuantileObservation(offset, quantileOffset, savedHeights[m], numObservationsOther + m + 1);
+                    }
+                }
+                else
+                {
+                    mergeMarkers(offset, quantileOffset, pStatistics, numObservations);
+                }
+            }
+        }
+
+        mNumObservations = numObservations;
+    }
+
+    /*
+     * Merges two full sets of markers.  Each set of markers defines a piecewise-linear
+     * approximation to the number of observations no greater than a given value; the
+     * new markers are placed at the desired positions for the combined number of
+     * observations, with heights found by inverting the sum of the two approximations.
+     */
+    private void mergeMarkers(int pOffset,
+                              int pQuantileOffset,
+                              StreamingStatistics pStatistics,
+                              int pNumObservations)
+    {
+        double []q = mMarkerHeights;
+        int []n = mMarkerPositions;
+        double []qOther = pStatistics.mMarkerHeights;
+        int []nOther = pStatistics.mMarkerPositions;
+
+        double []heights = new double[2 * NUM_MARKERS];
+        System.arraycopy(q, pOffset, heights, 0, NUM_MARKERS);
+        System.arraycopy(qOther, pOffset, heights, NUM_MARKERS, NUM_MARKERS);
+        Arrays.sort(heights);
+
+        double []newHeights = new double[NUM_MARKERS];
+        int []newPositions = new int[NUM_MARKERS];
+        newHeights[0] = heights[0];
+        newPositions[0] = 1;
+        newHeights[NUM_MARKERS - 1] = heights[heights.length - 1];
+        newPositions[NUM_MARKERS - 1] = pNumObservations;
+        double numExtraObservations = (double) (pNumObservations - NUM_MARKERS);
+        for(int m = 1; m < NUM_MARKERS - 1; ++m)
+        {
+            int position = (int) Math.round(mInitialDesiredPositions[pQuantileOffset + m] +
+                                            numExtraObservations * mDesiredPositionIncrements[pQuantileOffset + m]);
+            position = Math.max(position, newPositions[m - 1] + 1);
+            position = Math.min(position, pNumObservations - (NUM_MARKERS - 1 - m));
+            newPositions[m] = position;
+
+            // find the value at which the combined count reaches the position
+            double count = (double) position;
+            double height = heights[heights.length - 1];
+            double lowerHeight = heights[0];
+            double lowerCount = countObservations(q, n, pOffset, lowerHeight, true) +
+                                countObservations(qOther, nOther, pOffset, lowerHeight, true);
+            if(lowerCount >= count)
+            {
+                height = lowerHeight;
+            }
+            else
+            {
+                for(int j = 1; j < heights.length; ++j)
+                {
+                    double upperHeight = heights[j];
+                    double upperCount = countObservations(q, n, pOffset, upperHeight, false) +
+                                        countObservations(qOther, nOther, pOffset, upperHeight, false);
+                    if(upperCount >= count)
+                    {
+                        height = lowerHeight + (upperHeight - lowerHeight) * (count - lowerCount) / (upperCount - lowerCount);
+                        break;
+                    }
+                    double upperCountInclusive = countObservations(q, n, pOffset, upperHeight, true) +
+                                                 countObservations(qOther, nOther, pOffset, upperHeight, true);
+                    if(upperCountInclusive >= count)
+                    {
+                        height = upperHeight;
+                        break;
+                    }
+                    lowerHeight = upperHeight;
+                    lowerCount = upperCountInclusive;
+                }
+            }
+            newHeights[m] = Math.max(height, newHeights[m - 1]);
+        }
+
+        System.arraycopy(newHeights, 0, q, pOffset, NUM_MARKERS);
+        System.arraycopy(newPositions, 0, n, pOffset, NUM_MARKERS);
+    }
+
+    /*
+     * Returns the approximate number of observations less than (or, if pInclusive
+     * is true, no greater than) pValue, by linear interpolation between the markers.
+     */
+    private static double countObservations(double []q, int []n, int pOffset, double pValue, boolean pInclusive)
+    {
+        if(pValue < q[pOffset] || (! pInclusive && pValue == q[pOffset]))
+        {
+            return(0.0);
+        }
+        int last = pOffset + NUM_MARKERS - 1;
+        if(pValue >= q[last])
+        {
+            return((double) n[last]);
+        }
+        int idx = pOffset;
+        while(pValue >= q[idx + 1])
+        {
+            ++idx;
+        }
+        double lowerCount = (double) n[idx];
+        if(q[idx + 1] == q[idx])
+        {
+            return(lowerCount);
+        }
+        return(lowerCount + (pValue - q[idx]) * ((double) (n[idx + 1] - n[idx])) / (q[idx + 1] - q[idx]));
+    }
+
+    private static double parabolicHeight(double []q, int []n, int pIndex, int pSign)
+    {
+        double d = (double) pSign;
+        double nm = (double) n[pIndex - 1];
+        double ni = (double) n[pIndex];
+        double np = (double) n[pIndex + 1];
+        return(q[pIndex] + d/(np - nm) * ((ni - nm + d) * (q[pIndex + 1] - q[pIndex]) / (np - ni) +
+                                          (np - ni - d) * (q[pIndex] - q[pIndex - 1]) / (ni - nm)));
+    }
+
+    public double getMean(int pElementIndex)
+    {
+        return(mMeans[pElementIndex]);
+    }
+
+    /**
+     * Returns the sample variance (with denominator one less than the
+     * number of observations) of the element <code>pElementIndex</code>;
+     * at least two observations are required.
+     */
+    public double getVariance(int pElementIndex)
+    {
+        if(mNumObservations < 2)
+        {
+            throw new IllegalStateException("at least two observations are required, to compute the variance");
+        }
+        return(mSumSquaredDeviations[pElementIndex] / ((double) (mNumObservations - 1)));
+    }
+
+    public double getStandardDeviation(int pElementIndex)
+    {
+        return(Math.sqrt(getVariance(pElementIndex)));
+    }
+
+    /**
+     * Returns the estimate of the quantile with index <code>pQuantileIndex</code>
+     * (in the array of quantile probabilities passed to the constructor), of the
+     * element <code>pElementIndex</code>.  While there are fewer than five observations,
+     * the quantile is obtained by linear interpolation between the sorted observations.
+     */
+    public double getQuantile(int pElementIndex, int pQuantileIndex)
+    {
+        int numObservations = mNumObservations;
+        if(0 == numObservations)
+        {
+            throw new IllegalStateException("no observations have been added");
+        }
+        int offset = (pElementIndex * mQuantileProbabilities.length + pQuantileIndex) * NUM_MARKERS;
+        double []q = mMarkerHeights;
+        double quantile = 0.0;
+        if(numObservations >= NUM_MARKERS)
+        {
+            quantile = q[offset + 2];
+        }
+        else
+        {
+            double position = mQuantileProbabilities[pQuantileIndex] * ((double) (numObservations - 1));
+            int lower = (int) Math.floor(position);
+            if(lower >= numObservations - 1)
+            {
+                quantile = q[offset + numObservations - 1];
+            }
+            else
+            {
+                double frac = position - (double) lower;
+                quantile = (1.0 - frac) * q[offset + lower] + frac * q[offset + lower + 1];
+            }
+        }
+        return(quantile);
+    }
+}
@@ -0,0 +1,307 @@
+package org.systemsbiology.math;
+/*
+ * Copyright (C) 2003 by Institute for Systems Biology,
+ * Seattle, Washington, USA.  All rights reserved.
+ *
+ * This source code is distributed under the GNU Lesser
+ * General Public License, the text of which is available at:
+ *   http://www.gnu.org/copyleft/lesser.html
+ */
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+import org.systemsbiology.util.DataNotFoundException;
+
+/**
+ * Removes the discontinuities from a set of {@link Expression} objects,
+ * so that the expressions can be integrated by an ODE solver.  Each
+ * occurrence of one of the discontinuous functions <code>theta()</code>,
+ * <code>abs()</code>, <code>floor()</code>, <code>ceil()</code>,
+ * <code>min()</code> and <code>max()</code> is replaced (in place) by
+ * an expression that is smooth, in which the branch of the function is
+ * selected by a <b>mode</b>:
+ * <blockquote><pre>
+ * theta(x)   becomes  m              (m is 0 or 1)
+ * abs(x)     becomes  m*x            (m is -1 or 1)
+ * floor(x)   becomes  m              (m is an integer)
+ * ceil(x)    becomes  m              (m is an integer)
+ * min(a, b)  becomes  a + m*(b - a)  (m is 0 or 1)
+ * max(a, b)  becomes  a + m*(b - a)  (m is 0 or 1)
+ * </pre></blockquote>
+ * Each mode is stored in an array that belongs to this object, and is
+ * changed only by {@link #updateModes(SymbolEvaluator)}, which selects
+ * the branch that is correct for the current symbol values.  Each
+ * occurrence also has a <b>switching function</b> (see
+ * {@link #computeValue(int, SymbolEvaluator)}), which is non-negative
+ * as long as the branch selected by its mode is correct, and becomes
+ * negative when the argument of the function crosses a discontinuity.
+ * An ODE solver can thus integrate a smooth right-hand side over each
+ * step, and locate the crossings within the step by finding the roots
+ * of the switching functions.
+ * <p>
+ * The replacement expressions refer to the original arguments, so the
+ * symbols of the arguments remain bound to their values.  The symbols
+ * of the modes are bound to the array of modes when they are created.
+ *
+ * @author Stephen Ramsey
+ */
+public final class SwitchingFunctions
+{
+    private static final String MODE_SYMBOL_NAME_SEPARATOR = "#";
+
+    private static final class SwitchingFunction
+    {
+        final int mCode;
+        final Expression mFirstArgument;
+        final Expression mSecondArgument;
+        final Symbol mModeSymbol;
+
+        SwitchingFunction(int pCode, Expression.Element pFirstArgument, Expression.Element pSecondArgument, Symbol pModeSymbol)
+        {
+            mCode = pCode;
+            mFirstArgument = new Expression();
+            mFirstArgument.setRootElement(pFirstArgument);
+            if(null != pSecondArgument)
+            {
+                mSecondArgument = new Expression();
+                mSecondArgument.setRootElement(pSecondArgument);
+            }
+            else
+            {
+                mSecondArgument = null;
+            }
+            mModeSymbol = pModeSymbol;
+        }
+    }
+
+    // the switching functions, in the order in which they were found; the
+    // switching function of a function nested within the argument of another
+    // function precedes that of the enclosing function
+    private final ArrayList mSwitchingFunctionsList;
+    private SwitchingFunction []mSwitchingFunctions;
+    private double []mModes;
+
+    // the expressions that have been processed, and the replacement of each element processed
+    private final IdentityHashMap mProcessedExpressions;
+    private final IdentityHashMap mReplacedElements;
+
+    public SwitchingFunctions()
+    {
+        mSwitchingFunctionsList = new ArrayList();
+        mSwitchingFunctions = new SwitchingFunction[0];
+        mModes = new double[0];
+        mProcessedExpressions = new IdentityHashMap();
+        mReplacedElements = new IdentityHashMap();
+    }
+
+    /**
+     * Replaces, in place, each discontinuous function in the expression
+     * <code>pExpression</code> as described above.  An expression that
+     * has already been processed is left unchanged.
+     */
+    public void addExpression(Expression pExpression)
+    {
+        if(mProcessedExpressions.containsKey(pExpression))
+        {
+            return;
+        }
+        mProcessedExpressions.put(pExpression, pExpression);
+        Expression.Element rootElement = pExpression.getRootElement();
+        if(null == rootElement)
+        {
+            throw new IllegalStateException("attempted to process a math expression object that has no expression defined");
+        }
+        int numSwitchingFunctions = mSwitchingFunctionsList.size();
+        pExpression.setRootElement(replaceDiscontinuousFunctions(rootElement));
+        if(mSwitchingFunctionsList.size() > numSwitchingFunctions)
+        {
+            updateSwitchingFunctionsArray();
+        }
+    }
+
+    /**
+     * Returns the number of switching functions, which is the number
+     * of discontinuous functions replaced so far.
+     */
+    public int getNumSwitchingFunctions()
+    {
+        return(mSwitchingFunctions.length);
+    }
+
+    /**
+     * Sets each mode to select the branch of its function that is correct
+     * for the symbol values given by <code>pSymbolEvaluator</code>.  After
+     * this call, every switching function is non-negative.
+     */
+    public void updateModes(SymbolEvaluator pSymbolEvaluator) throws DataNotFoundException
+    {
+        SwitchingFunction []switchingFunctions = mSwitchingFunctions;
+        double []modes = mModes;
+        int numSwitchingFunctions = switchingFunctions.length;
+        // the modes of the nested functions are updated first, since the arguments
+        // of the enclosing functions depend on them
+        for(int ctr = 0; ctr < numSwitchingFunctions; ++ctr)
+        {
+            SwitchingFunction switchingFunction = switchingFunctions[ctr];
+            double x = switchingFunction.mFirstArgument.computeValue(pSymbolEvaluator);
+            double mode = 0.0;
+            switch(switchingFunction.mCode)
+            {
+                case Expression.ElementCode.ELEMENT_CODE_THETA:
+                    mode = MathFunctions.thetaFunction(x);
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_ABS:
+                    mode = (x < 0.0) ? -1.0 : 1.0;
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_FLOOR:
+                    mode = Math.floor(x);
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_CEIL:
+                    mode = Math.ceil(x);
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_MIN:
+                    mode = (switchingFunction.mSecondArgument.computeValue(pSymbolEvaluator) < x) ? 1.0 : 0.0;
+                    break;
+
+                case Expression.ElementCode.ELEMENT_CODE_MAX:
+                    mode = (switchingFunction.mSecondArgument.computeValue(pSymbolEvaluator) > x) ? 1.0 : 0.0;
+                    break;
+
+                default:
+                    throw new IllegalStateException("unknown function code: " + switchingFunction.mCode);
+            }
+            modes[ctr] = mode;
+        }
+    }
+
+    /**
+     * Returns the value of the switching function with index
+     * <code>pIndex</code> for the symbol values given by
+     * <code>pSymbolEvaluator</code>, and the current modes.  The value
+     * is the distance of the argument of the function from the nearest
+     * discontinuity that bounds the branch selected by the mode, with
+     * a negative sign if the argument is outside of that branch.
+     */
+    public double computeValue(int pIndex, SymbolEvaluator pSymbolEvaluator) throws DataNotFoundException
+    {
+        SwitchingFunction switchingFunction = mSwitchingFunctions[pIndex];
+        double mode = mModes[pIndex];
+        double x = switchingFunction.mFirstArgument.computeValue(pSymbolEvaluator);
+        switch(switchingFunction.mCode)
+        {
+            case Expression.ElementCode.ELEMENT_CODE_THETA:
+                return((mode > 0.0) ? x : -x);
+
+            case Expression.ElementCode.ELEMENT_CODE_ABS:
+                return(mode * x);
+
+            case Expression.ElementCode.ELEMENT_CODE_FLOOR:
+                return(Math.min(x - mode, mode + 1.0 - x));
+
+            case Expression.ElementCode.ELEMENT_CODE_CEIL:
+                return(Math.min(x - mode + 1.0, mode - x));
+
+            case Expression.ElementCode.ELEMENT_CODE_MIN:
+            {
+                double difference = switchingFunction.mSecondArgument.computeValue(pSymbolEvaluator) - x;
+                return((mode > 0.0) ? -difference : difference);
+            }
+
+            case Expression.ElementCode.ELEMENT_CODE_MAX:
+            {
+                double difference = switchingFunction.mSecondArgument.computeValue(pSymbolEvaluator) - x;
+                return((mode > 0.0) ? difference : -difference);
+            }
+
+            default:
+                throw new IllegalStateException("unknown function code: " + switchingFunction.mCode);
+        }
+    }
+
+    // returns the element that replaces pElement, after replacing the discontinuous functions within its operands
+    private Expression.Element replaceDiscontinuousFunctions(Expression.Element pElement)
+    {
+        Expression.Element replacement = (Expression.Element) mReplacedElements.get(pElement);
+        if(null != replacement)
+        {
+            return(replacement);
+        }
+        if(null != pElement.mFirstOperand)
+        {
+            pElement.mFirstOperand = replaceDiscontinuousFunctions(pElement.mFirstOperand);
+        }
+        if(null != pElement.mSecondOperand)
+        {
+            pElement.mSecondOperand = replaceDiscontinuousFunctions(pElement.mSecondOperand);
+        }
+        Expression.Element firstOperand = pElement.mFirstOperand;
+        Expression.Element secondOperand = pElement.mSecondOperand;
+        Expression.ElementCode code = pElement.mCode;
+        switch(code.mIntCode)
+        {
+            case Expression.ElementCode.ELEMENT_CODE_THETA:
+            case Expression.ElementCode.ELEMENT_CODE_FLOOR:
+            case Expression.ElementCode.ELEMENT_CODE_CEIL:
+                replacement = createModeElement(code, firstOperand, null);
+                break;
+
+            case Expression.ElementCode.ELEMENT_CODE_ABS:
+                replacement = new Expression.Element(Expression.ElementCode.MULT);
+                replacement.mFirstOperand = createModeElement(code, firstOperand, null);
+                replacement.mSecondOperand = firstOperand;
+                break;
+
+            case Expression.ElementCode.ELEMENT_CODE_MIN:
+            case Expression.ElementCode.ELEMENT_CODE_MAX:
+                Expression.Element difference = new Expression.Element(Expression.ElementCode.SUBT);
+                difference.mFirstOperand = secondOperand;
+                difference.mSecondOperand = firstOperand;
+                Expression.Element selectedDifference = new Expression.Element(Expression.ElementCode.MULT);
+                selectedDifference.mFirstOperand = createModeElement(code, firstOperand, secondOperand);
+                selectedDifference.mSecondOperand = difference;
+                replacement = new Expression.Element(Expression.ElementCode.ADD);
+                replacement.mFirstOperand = firstOperand;
+                replacement.mSecondOperand = selectedDifference;
+                break;
+
+            default:
+                replacement = pElement;
+                break;
+        }
+        mReplacedElements.put(pElement, replacement);
+        return(replacement);
+    }
+
+    // adds a switching function, and returns a new symbol element for its mode
+    private Expression.Element createModeElement(Expression.ElementCode pCode, Expression.Element pFirstArgument, Expression.Element pSecondArgument)
+    {
+        int index = mSwitchingFunctionsList.size();
+        // the separator cannot occur in the name of a symbol of a model, so the name is unique
+        Symbol modeSymbol = new Symbol(pCode.toString() + MODE_SYMBOL_NAME_SEPARATOR + index);
+        modeSymbol.setArrayIndex(index);
+        mSwitchingFunctionsList.add(new SwitchingFunction(pCode.mIntCode, pFirstArgument, pSecondArgument, modeSymbol));
+        Expression.Element modeElement = new Expression.Element(Expression.ElementCode.SYMBOL);
+        modeElement.mSymbol = modeSymbol;
+        return(modeElement);
+    }
+
+    // enlarges the array of modes (keeping the existing modes), and binds the mode symbols to it
+    private void updateSwitchingFunctionsArray()
+    {
+        SwitchingFunction []switchingFunctions = (SwitchingFunction []) mSwitchingFunctionsList.toArray(new SwitchingFunction[0]);
+        int numSwitchingFunctions = switchingFunctions.length;
+        double []modes = new double[numSwitchingFunctions];
+        System.arraycopy(mModes, 0, modes, 0, mModes.length);
+        for(int ctr = 0; ctr < numSwitchingFunctions; ++ctr)
+        {
+            switchingFunctions[ctr].mModeSymbol.setArray(modes);
+        }
+        mSwitchingFunctions = switchingFunctions;
+        mModes = modes;
+    }
+}
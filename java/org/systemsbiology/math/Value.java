@@ -8,6 +8,9 @@ package org.systemsbiology.math;
  *   http://www.gnu.org/copyleft/lesser.html
  */
 
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
 import org.systemsbiology.util.DataNotFoundException;
 
 /**
@@ -15,6 +18,15 @@ import org.systemsbiology.util.DataNotFoundException;
  * or an expression representing a floating point value.
  * An object of this class always contains either an 
  * {@link Expression} object or a {@link MutableDouble} object.  
+ * <p>
+ * The value of an expression can be cached (see
+ * {@link #getValueWithCaching(SymbolEvaluator)}).  The cached value
+ * records the elements of the <code>double</code> arrays (such as the
+ * species values, and the time) that the expression reads, either
+ * directly or through the expression values of the symbols that it
+ * refers to, and it is recomputed only when one of those elements
+ * has changed.  Values stored in {@link Value} objects (other than
+ * expressions) are assumed not to change while the cache is in use.
  * 
  * @author Stephen Ramsey
  */
@@ -24,6 +36,16 @@ public final class Value
     private boolean mExpressionValueCached;
     private MutableDouble mNumericValue;
 
+    private static final int []UNKNOWN_DEPENDENCIES = new int[0];
+
+    // the array elements on which the value of the expression depends; null
+    // if not yet determined, or UNKNOWN_DEPENDENCIES if the expression refers
+    // to a symbol that is not bound to an array element
+    private double [][]mDependencyArrays;
+    private int []mDependencyIndices;
+    // the values of those array elements when the cached value was computed
+    private double []mDependencyValues;
+
     /**
      * Constructs a {@link Value} composed of the 
      * specified {@link Expression}.
@@ -61,7 +83,7 @@ public final class Value
             mNumericValue.setValue(pValue);
         }
         mExpressionValue = null;
-        mExpressionValueCached = false;
+        clearExpressionValueCache();
     }
 
     /**
@@ -76,7 +98,7 @@ public final class Value
             throw new IllegalArgumentException("null expression object");
         }
         mExpressionValue = pExpressionValue;
-        mExpressionValueCached = false;
+        clearExpressionValueCache();
         mNumericValue = new MutableDouble(0.0);
     }
 
@@ -107,11 +129,21 @@ public final class Value
     }
 
     /**
-     * If this object contains an {@link Expression}, computes
-     * the value of the Expression using the supplied 
+     * If this object contains an {@link Expression}, returns
+     * the value of the Expression, computed using the supplied 
      * {@link SymbolEvaluator}; otherwise it returns the
      * floating-point value stored in the internal 
-     * MutableDouble object within this object.
+     * MutableDouble object within this object.  The computed
+     * value of the Expression is cached, and is only recomputed
+     * if one of the array elements on which it depends has 
+     * changed since the value was cached.  The symbols in the
+     * Expression must be bound to their arrays (see 
+     * {@link Symbol#setArray(double[])}) before the first call 
+     * to this method, or after the last call to 
+     * {@link #clearExpressionValueCache()}.
+     */
+    /*
+     * IMPORTANT:  this method contains PERFORMANCE-CRITICAL code.
      */
     public double getValueWithCaching(SymbolEvaluator pSymbolValueMap) throws DataNotFoundException
     {
@@ -120,20 +152,130 @@ public final class Value
         {
             if(mExpressionValueCached)
             {
-                return(mNumericValue.mDouble);
+                double [][]dependencyArrays = mDependencyArrays;
+                int []dependencyIndices = mDependencyIndices;
+                double []dependencyValues = mDependencyValues;
+                int ctr = dependencyIndices.length;
+                while(--ctr >= 0 && dependencyArrays[ctr][dependencyIndices[ctr]] == dependencyValues[ctr])
+                {
+                    // the array element is unchanged
+                }
+                if(ctr < 0)
+                {
+                    return(mNumericValue.mDouble);
+                }
             }
-            else
+            double value = expression.computeValue(pSymbolValueMap);
+            mNumericValue.setValue(value);
+            mExpressionValueCached = storeDependencyValues();
+            return(value);
+        }
+        else
+        {
+            return(mNumericValue.mDouble);
+        }
+    }
+
+    // records the current values of the array elements on which the expression
+    // depends; returns false if the dependencies of the expression are unknown
+    private boolean storeDependencyValues()
+    {
+        if(null == mDependencyIndices)
+        {
+            findDependencies();
+        }
+        int []dependencyIndices = mDependencyIndices;
+        if(UNKNOWN_DEPENDENCIES == dependencyIndices)
+        {
+            return(false);
+        }
+        double [][]dependencyArrays = mDependencyArrays;
+        double []dependencyValues = mDependencyValues;
+        for(int ctr = dependencyIndices.length; --ctr >= 0; )
+        {
+            dependencyValues[ctr] = dependencyArrays[ctr][dependencyIndices[ctr]];
+        }
+        return(true);
+    }
+
+    private void findDependencies()
+    {
+        ArrayList arrays = new ArrayList();
+        ArrayList indices = new ArrayList();
+        IdentityHashMap visitedValues = new IdentityHashMap();
+        visitedValues.put(this, this);
+        if(findDependencies(mExpressionValue.getRootElement(), arrays, indices, visitedValues))
+        {
+            int numDependencies = arrays.size();
+            mDependencyArrays = (double [][]) arrays.toArray(new double[numDependencies][]);
+            int []dependencyIndices = new int[numDependencies];
+            for(int ctr = 0; ctr < numDependencies; ++ctr)
             {
-                double value = expression.computeValue(pSymbolValueMap);
-                mExpressionValueCached = true;
-                mNumericValue.setValue(value);
-                return(value);
+                dependencyIndices[ctr] = ((Integer) indices.get(ctr)).intValue();
             }
+            mDependencyIndices = dependencyIndices;
+            mDependencyValues = new double[numDependencies];
         }
         else
         {
-            return(mNumericValue.mDouble);
+            mDependencyArrays = null;
+            mDependencyIndices = UNKNOWN_DEPENDENCIES;
+            mDependencyValues = null;
+        }
+    }
+
+    private static boolean findDependencies(Expression.Element pElement,
+                                            ArrayList pArrays,
+                                            ArrayList pIndices,
+                                            IdentityHashMap pVisitedValues)
+    {
+        if(null == pElement)
+        {
+            return(false);
+        }
+        Symbol symbol = pElement.mSymbol;
+        if(null != symbol)
+        {
+            int arrayIndex = symbol.mArrayIndex;
+            if(Symbol.NULL_ARRAY_INDEX == arrayIndex)
+            {
+                return(false);
+            }
+            double []doubleArray = symbol.mDoubleArray;
+            if(null != doubleArray)
+            {
+                int numDependencies = pArrays.size();
+                for(int ctr = 0; ctr < numDependencies; ++ctr)
+                {
+                    if(doubleArray == pArrays.get(ctr) && arrayIndex == ((Integer) pIndices.get(ctr)).intValue())
+                    {
+                        return(true);
+                    }
+                }
+                pArrays.add(doubleArray);
+                pIndices.add(new Integer(arrayIndex));
+                return(true);
+            }
+            Value value = symbol.mValueArray[arrayIndex];
+            if(null == value || null == value.mExpressionValue || pVisitedValues.containsKey(value))
+            {
+                return(null != value);
+            }
+            pVisitedValues.put(value, value);
+            return(findDependencies(value.mExpressionValue.getRootElement(), pArrays, pIndices, pVisitedValues));
+        }
+        if(null != pElement.mFirstOperand)
+        {
+            if(! findDependencies(pElement.mFirstOperand, pArrays, pIndices, pVisitedValues))
+            {
+                return(false);
+            }
+            if(null != pElement.mSecondOperand)
+            {
+                return(findDependencies(pElement.mSecondOperand, pArrays, pIndices, pVisitedValues));
+            }
         }
+        return(true);
     }
 
     public double getValue(SymbolEvaluator pSymbolValueMap) throws DataNotFoundException
@@ -190,9 +332,16 @@ public final class Value
         return(sb.toString());
     }
 
+    /**
+     * Discards the cached value of the expression, and the
+     * array elements on which it was found to depend.
+     */
     public void clearExpressionValueCache()
     {
         mExpressionValueCached = false;
+        mDependencyArrays = null;
+        mDependencyIndices = null;
+        mDependencyValues = null;
     }
 
     public Object clone()
@@ -0,0 +1,230 @@
+package org.systemsbiology.math.tp;
+/*
+ * Copyright (C) 2003 by Institute for Systems Biology,
+ * Seattle, Washington, USA.  All rights reserved.
+ *
+ * This source code is distributed under the GNU Lesser
+ * General Public License, the text of which is available at:
+ *   http://www.gnu.org/copyleft/lesser.html
+ */
+
+import java.util.HashMap;
+import java.util.Random;
+
+import org.systemsbiology.math.BatchedExpression;
+import org.systemsbiology.math.CompiledExpression;
+import org.systemsbiology.math.Expression;
+import org.systemsbiology.math.ExpressionCompiler;
+import org.systemsbiology.math.PostfixExpression;
+import org.systemsbiology.math.Symbol;
+import org.systemsbiology.math.SymbolEvaluator;
+import org.systemsbiology.math.Value;
+import org.systemsbiology.util.DataNotFoundException;
+
+/**
+ * Checks that an expression compiled by the {@link ExpressionCompiler},
+ * the {@link PostfixExpression} form of the expression, and (in each
+ * lane) the {@link BatchedExpression} form of the expression, each
+ * compute the same value as the interpreter in
+ * {@link Expression#computeValue(SymbolEvaluator)}, to within a few
+ * units in the last place, for expressions that use every operator and
+ * built-in function, with symbols bound to a state array, to constant
+ * values, to other expressions, and to an unindexed value (the time).
+ * The arithmetic is carried out in the same order by each form, but
+ * the results of the transcendental functions of <code>Math</code> may
+ * differ in the last bit, depending on which implementation the JIT
+ * compiler selects for each call site.
+ * Usage:  <code>TestExpressionCompiler [numTrials]</code>
+ */
+public class TestExpressionCompiler
+{
+    private static final int DEFAULT_NUM_TRIALS = 10000;
+    private static final int NUM_LANES = 5;
+    // the maximum difference, in units in the last place of the larger of the values (or of 1.0, if it is larger)
+    private static final double MAX_NUM_ULPS = 8.0;
+
+    private static final String []EXPRESSIONS = { "k1 * x * y",
+                                                   "x + y - z / k2 % 7",
+                                                   "-x^2 + exp(-y) + ln(z + 1)",
+                                                   "sin(x) * cos(y) + tan(z) - atan(x)",
+                                                   "asin(x / 10) + acos(y / 10) + sqrt(z)",
+                                                   "abs(x - y) + floor(z) + ceil(x)",
+                                                   "theta(x - y) * min(y, z) + max(x, k1)",
+                                                   "f * g + time",
+                                                   "k1 * x^n / (f^n + x^n) + 1.0 + 0.0 - 12345.678" };
+
+    private static final class TestSymbolEvaluator extends SymbolEvaluator
+    {
+        private final HashMap mSymbolsMap;
+        private double mTime;
+
+        public TestSymbolEvaluator(HashMap pSymbolsMap)
+        {
+            mSymbolsMap = pSymbolsMap;
+        }
+
+        public void setTime(double pTime)
+        {
+            mTime = pTime;
+        }
+
+        public double getUnindexedValue(Symbol pSymbol) throws DataNotFoundException
+        {
+            if(pSymbol.getName().equals("time"))
+            {
+                return(mTime);
+            }
+            Symbol indexedSymbol = (Symbol) mSymbolsMap.get(pSymbol.getName());
+            if(null == indexedSymbol)
+            {
+                throw new DataNotFoundException("unable to obtain value for symbol: " + pSymbol.getName());
+            }
+            pSymbol.copyIndexInfo(indexedSymbol);
+            return(getValue(pSymbol));
+        }
+
+        public boolean hasValue(Symbol pSymbol)
+        {
+            return(pSymbol.getName().equals("time") || null != mSymbolsMap.get(pSymbol.getName()));
+        }
+
+        public Expression getExpressionValue(Symbol pSymbol) throws DataNotFoundException
+        {
+            Symbol indexedSymbol = (Symbol) mSymbolsMap.get(pSymbol.getName());
+            if(null == indexedSymbol)
+            {
+                throw new DataNotFoundException("unable to find symbol: " + pSymbol.getName());
+            }
+            Value value = indexedSymbol.getValueArray()[indexedSymbol.getArrayIndex()];
+            return(value.isExpression() ? value.getExpressionValue() : null);
+        }
+    }
+
+    private static boolean valuesAgree(double pValue1, double pValue2)
+    {
+        if(Double.doubleToLongBits(pValue1) == Double.doubleToLongBits(pValue2))
+        {
+            return(true);
+        }
+        double scale = Math.max(1.0, Math.max(Math.abs(pValue1), Math.abs(pValue2)));
+        return(Math.abs(pValue1 - pValue2) <= MAX_NUM_ULPS * Math.ulp(scale));
+    }
+
+    private static void addSymbol(HashMap pSymbolsMap, String pName, double []pArray, int pIndex)
+    {
+        Symbol symbol = new Symbol(pName);
+        symbol.setArray(pArray);
+        symbol.setArrayIndex(pIndex);
+        pSymbolsMap.put(pName, symbol);
+    }
+
+    private static void addSymbol(HashMap pSymbolsMap, String pName, Value []pArray, int pIndex, Value pValue)
+    {
+        Symbol symbol = new Symbol(pName);
+        pArray[pIndex] = pValue;
+        symbol.setArray(pArray);
+        symbol.setArrayIndex(pIndex);
+        pSymbolsMap.put(pName, symbol);
+    }
+
+    public static final void main(String []pArgs)
+    {
+        try
+        {
+            int numTrials = DEFAULT_NUM_TRIALS;
+            if(pArgs.length > 0)
+            {
+                numTrials = Integer.parseInt(pArgs[0]);
+            }
+
+            HashMap symbolsMap = new HashMap();
+            double []state = new double[3];
+            addSymbol(symbolsMap, "x", state, 0);
+            addSymbol(symbolsMap, "y", state, 1);
+            addSymbol(symbolsMap, "z", state, 2);
+            Value []values = new Value[5];
+            addSymbol(symbolsMap, "k1", values, 0, new Value(2.5));
+            addSymbol(symbolsMap, "k2", values, 1, new Value(0.75));
+            addSymbol(symbolsMap, "n", values, 2, new Value(4.0));
+            addSymbol(symbolsMap, "g", values, 3, new Value(new Expression("k1 * z + time")));
+            addSymbol(symbolsMap, "f", values, 4, new Value(new Expression("x / (g + 1)")));
+
+            TestSymbolEvaluator evaluator = new TestSymbolEvaluator(symbolsMap);
+            ExpressionCompiler compiler = new ExpressionCompiler(state, evaluator);
+            int numExpressions = EXPRESSIONS.length;
+            Expression []expressions = new Expression[numExpressions];
+            CompiledExpression []compiledExpressions = new CompiledExpression[numExpressions];
+            PostfixExpression []postfixExpressions = new PostfixExpression[numExpressions];
+            for(int i = 0; i < numExpressions; ++i)
+            {
+                expressions[i] = new Expression(EXPRESSIONS[i]);
+                compiledExpressions[i] = compiler.compile(expressions[i], null);
+                postfixExpressions[i] = new PostfixExpression(expressions[i]);
+            }
+
+            // the lanes vary the state array; the batched form requires the symbols to be bound
+            double [][]laneArrays = { state };
+            double [][]laneValues = new double[state.length][NUM_LANES];
+            double []batchedValues = new double[NUM_LANES];
+            BatchedExpression []batchedExpressions = new BatchedExpression[numExpressions];
+            for(int i = 0; i < numExpressions; ++i)
+            {
+                expressions[i].computeValue(evaluator);
+                batchedExpressions[i] = new BatchedExpression(expressions[i], laneArrays);
+            }
+
+            Random random = new Random(1);
+            for(int trialCtr = 0; trialCtr < numTrials; ++trialCtr)
+            {
+                state[0] = 10.0 * random.nextDouble();
+                state[1] = 10.0 * random.nextDouble();
+                state[2] = 10.0 * random.nextDouble();
+                evaluator.setTime(100.0 * random.nextDouble());
+                for(int i = 0; i < numExpressions; ++i)
+                {
+                    double interpretedValue = expressions[i].computeValue(evaluator);
+                    double compiledValue = compiledExpressions[i].computeValue(state, evaluator);
+                    if(! valuesAgree(interpretedValue, compiledValue))
+                    {
+                        throw new IllegalStateException("compiled value " + compiledValue + " differs from interpreted value " + interpretedValue + " for expression: " + EXPRESSIONS[i]);
+                    }
+                    double postfixValue = postfixExpressions[i].computeValue(evaluator);
+                    if(! valuesAgree(interpretedValue, postfixValue))
+                    {
+                        throw new IllegalStateException("postfix value " + postfixValue + " differs from interpreted value " + interpretedValue + " for expression: " + EXPRESSIONS[i]);
+                    }
+                }
+
+                for(int laneCtr = 0; laneCtr < NUM_LANES; ++laneCtr)
+                {
+                    for(int j = 0; j < state.length; ++j)
+                    {
+                        laneValues[j][laneCtr] = 10.0 * random.nextDouble();
+                    }
+                }
+                for(int i = 0; i < numExpressions; ++i)
+                {
+                    batchedExpressions[i].computeValues(laneValues, NUM_LANES, evaluator, batchedValues);
+                    for(int laneCtr = 0; laneCtr < NUM_LANES; ++laneCtr)
+                    {
+                        for(int j = 0; j < state.length; ++j)
+                        {
+                            state[j] = laneValues[j][laneCtr];
+                        }
+                        double interpretedValue = expressions[i].computeValue(evaluator);
+                        if(! valuesAgree(interpretedValue, batchedValues[laneCtr]))
+                        {
+                            throw new IllegalStateException("batched value " + batchedValues[laneCtr] + " differs from interpreted value " + interpretedValue + " for expression: " + EXPRESSIONS[i]);
+                        }
+                    }
+                }
+            }
+
+            System.out.println("expression compiler check passed; expressions: " + numExpressions + "; trials: " + numTrials);
+        }
+        catch(Exception e)
+        {
+            e.printStackTrace(System.err);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package org.systemsbiology.math.tp;
+/*
+ * Copyright (C) 2003 by Institute for Systems Biology,
+ * Seattle, Washington, USA.  All rights reserved.
+ *
+ * This source code is distributed under the GNU Lesser
+ * General Public License, the text of which is available at:
+ *   http://www.gnu.org/copyleft/lesser.html
+ */
+
+import java.util.HashMap;
+import java.util.Random;
+
+import org.systemsbiology.math.Expression;
+import org.systemsbiology.math.ExpressionSimplifier;
+import org.systemsbiology.math.Symbol;
+import org.systemsbiology.math.SymbolValue;
+import org.systemsbiology.math.Value;
+
+/**
+ * Checks the {@link ExpressionSimplifier}:  that a set of expressions
+ * with known simplified forms simplify to those forms, and that the
+ * simplified form of each expression has the same value as the
+ * original expression, to within roundoff error.  The (simplified)
+ * partial derivatives of each expression are checked against
+ * central finite-difference estimates.
+ * Usage:  <code>TestExpressionSimplifier [numTrials]</code>
+ */
+public class TestExpressionSimplifier
+{
+    private static final int DEFAULT_NUM_TRIALS = 1000;
+    private static final double TOLERANCE = 1.0e-10;
+    private static final double DERIVATIVE_STEP_SIZE = 1.0e-5;
+    private static final double DERIVATIVE_TOLERANCE = 1.0e-6;
+
+    private static final String [][]SIMPLIFICATIONS = { { "0*x + y*1 - 0", "y" },
+                                                         { "x*x/y", "x^2/y" },
+                                                         { "2*x + 3*x - x", "4*x" },
+                                                         { "x - x + y/y", "1" },
+                                                         { "-(-x)", "x" },
+                                                         { "x^1 + y^0 + 0^2", "1+x" },
+                                                         { "(2+3)*x*y*0.5", "2.5*(x*y)" },
+                                                         { "y*x + x*y", "2*(x*y)" },
+                                                         { "max(y, x) - max(x, y)", "0" } };
+
+    private static final String []EXPRESSIONS = { "k * x * y / (K + x)",
+                                                   "k * x^n / (K^n + x^n)",
+                                                   "exp(-x * y) + ln(x + y) * sin(x) - cos(y)",
+                                                   "x * (x + y) * (x - y) / sqrt(1 + x * y)",
+                                                   "atan(x / y) + asin(x / (x + y + 1)) - acos(y / (x + y + 1))",
+                                                   "x^y + y^x - 3 * x * x * x + tan(0.1 * y)" };
+
+    private static final String []DERIVATIVE_SYMBOLS = { "x", "y", "k" };
+
+    private static void checkValues(Expression pExpression, Expression pSimplifiedExpression, HashMap pSymbolsMap) throws Exception
+    {
+        double value = pExpression.computeValue(pSymbolsMap);
+        double simplifiedValue = pSimplifiedExpression.computeValue(pSymbolsMap);
+        if(Math.abs(value - simplifiedValue) > TOLERANCE * Math.max(1.0, Math.abs(value)))
+        {
+            throw new IllegalStateException("simplified value " + simplifiedValue + " differs from value " + value + " for expression: " + pExpression + "; simplified expression: " + pSimplifiedExpression);
+        }
+    }
+
+    private static void checkDerivative(Expression pExpression, Expression pDerivative, String pSymbolName, HashMap pSymbolsMap) throws Exception
+    {
+        double derivativeValue = pDerivative.computeValue(pSymbolsMap);
+        double symbolValue = ((SymbolValue) pSymbolsMap.get(pSymbolName)).getValue().getValue();
+        setSymbolValue(pSymbolsMap, pSymbolName, symbolValue + DERIVATIVE_STEP_SIZE);
+        double upperValue = pExpression.computeValue(pSymbolsMap);
+        setSymbolValue(pSymbolsMap, pSymbolName, symbolValue - DERIVATIVE_STEP_SIZE);
+        double lowerValue = pExpression.computeValue(pSymbolsMap);
+        setSymbolValue(pSymbolsMap, pSymbolName, symbolValue);
+        double estimatedValue = (upperValue - lowerValue) / (2.0 * DERIVATIVE_STEP_SIZE);
+        if(Math.abs(derivativeValue - estimatedValue) > DERIVATIVE_TOLERANCE * Math.max(1.0, Math.abs(estimatedValue)))
+        {
+            throw new IllegalStateException("derivative value " + derivativeValue + " differs from estimate " + estimatedValue + " for expression: " + pExpression + "; symbol: " + pSymbolName + "; derivative: " + pDerivative);
+        }
+    }
+
+    private static void setSymbolValue(HashMap pSymbolsMap, String pName, double pValue)
+    {
+        pSymbolsMap.put(pName, new SymbolValue(pName, new Value(pValue)));
+    }
+
+    public static final void main(String []pArgs)
+    {
+        try
+        {
+            int numTrials = DEFAULT_NUM_TRIALS;
+            if(pArgs.length > 0)
+            {
+                numTrials = Integer.parseInt(pArgs[0]);
+            }
+
+            for(int i = 0; i < SIMPLIFICATIONS.length; ++i)
+            {
+                Expression expression = new Expression(SIMPLIFICATIONS[i][0]);
+                String simplified = ExpressionSimplifier.simplify(expression).toString();
+                String expected = new Expression(SIMPLIFICATIONS[i][1]).toString();
+                if(! simplified.equals(expected))
+                {
+                    throw new IllegalStateException("expression " + SIMPLIFICATIONS[i][0] + " simplified to " + simplified + "; expected: " + expected);
+                }
+            }
+
+            HashMap symbolsMap = new HashMap();
+            setSymbolValue(symbolsMap, "k", 2.5);
+            setSymbolValue(symbolsMap, "K", 0.75);
+            setSymbolValue(symbolsMap, "n", 3.0);
+            setSymbolValue(symbolsMap, "x", 1.0);
+            setSymbolValue(symbolsMap, "y", 1.0);
+
+            int numExpressions = EXPRESSIONS.length;
+            int numDerivativeSymbols = DERIVATIVE_SYMBOLS.length;
+            Expression []expressions = new Expression[numExpressions];
+            Expression []simplifiedExpressions = new Expression[numExpressions];
+            Expression [][]derivatives = new Expression[numExpressions][numDerivativeSymbols];
+
+            for(int i = 0; i < numExpressions; ++i)
+            {
+                expressions[i] = new Expression(EXPRESSIONS[i]);
+                simplifiedExpressions[i] = ExpressionSimplifier.simplify(expressions[i]);
+                for(int j = 0; j < numDerivativeSymbols; ++j)
+                {
+                    derivatives[i][j] = expressions[i].computePartialDerivative(new Symbol(DERIVATIVE_SYMBOLS[j]), symbolsMap);
+                }
+            }
+
+            Random random = new Random(1);
+            for(int trialCtr = 0; trialCtr < numTrials; ++trialCtr)
+            {
+                setSymbolValue(symbolsMap, "x", 0.1 + random.nextDouble());
+                setSymbolValue(symbolsMap, "y", 0.1 + random.nextDouble());
+                for(int i = 0; i < numExpressions; ++i)
+                {
+                    checkValues(expressions[i], simplifiedExpressions[i], symbolsMap);
+                    for(int j = 0; j < numDerivativeSymbols; ++j)
+                    {
+                        checkDerivative(expressions[i], derivatives[i][j], DERIVATIVE_SYMBOLS[j], symbolsMap);
+                    }
+                }
+            }
+
+            System.out.println("expression simplifier check passed; expressions: " + numExpressions + "; trials: " + numTrials);
+        }
+        catch(Exception e)
+        {
+            e.printStackTrace(System.err);
+        }
+    }
+}
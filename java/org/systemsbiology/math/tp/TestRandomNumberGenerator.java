@@ -0,0 +1,162 @@
+package org.systemsbiology.math.tp;
+/*
+ * Copyright (C) 2003 by Institute for Systems Biology,
+ * Seattle, Washington, USA.  All rights reserved.
+ *
+ * This source code is distributed under the GNU Lesser
+ * General Public License, the text of which is available at:
+ *   http://www.gnu.org/copyleft/lesser.html
+ */
+
+import org.systemsbiology.math.RandomNumberGenerator;
+import org.systemsbiology.math.RandomNumberGeneratorXoroshiro;
+import edu.cornell.lassp.houle.RngPack.Ranmar;
+import cern.jet.random.Poisson;
+
+/**
+ * Checks that the sample mean and variance of the exponential and Poisson
+ * deviates of the {@link RandomNumberGeneratorXoroshiro} are within a few
+ * standard errors of their expected values, checks that a seed reproduces
+ * the stream, checks that an invalid Poisson mean is rejected, and
+ * compares the speed of the deviates with that of the <code>Ranmar</code>
+ * generator and the <code>cern.jet.random.Poisson</code> distribution.
+ * Usage:  <code>TestRandomNumberGenerator [numSamples]</code>
+ */
+public class TestRandomNumberGenerator
+{
+    private static final int DEFAULT_NUM_SAMPLES = 10000000;
+    private static final double []POISSON_MEANS = { 0.1, 3.0, 9.9, 10.0, 50.0, 1000.0, 1.0e6 };
+
+    // the maximum allowed difference between a sample moment and its expected value, in standard errors
+    private static final double MAX_NUM_STANDARD_ERRORS = 5.0;
+
+    // the sums are of the deviations from the expected mean, to avoid a loss of precision for a large mean
+    private static void checkMoments(String pName, double pSum, double pSumSquares, int pNumSamples,
+                                     double pMean, double pVariance, double pFourthCentralMoment)
+    {
+        double n = (double) pNumSamples;
+        double meanDeviation = pSum / n;
+        double mean = pMean + meanDeviation;
+        double variance = (pSumSquares - n * meanDeviation * meanDeviation) / (n - 1.0);
+        double meanStandardError = Math.sqrt(pVariance / n);
+        double varianceStandardError = Math.sqrt((pFourthCentralMoment - pVariance * pVariance) / n);
+        System.out.println(pName + "; mean: " + mean + " (expected: " + pMean + "); variance: " + variance + " (expected: " + pVariance + ")");
+        if(Math.abs(mean - pMean) > MAX_NUM_STANDARD_ERRORS * meanStandardError)
+        {
+            throw new IllegalStateException(pName + " sample mean " + mean + " differs from the expected value " + pMean + " by more than " + MAX_NUM_STANDARD_ERRORS + " standard errors");
+        }
+        if(Math.abs(variance - pVariance) > MAX_NUM_STANDARD_ERRORS * varianceStandardError)
+        {
+            throw new IllegalStateException(pName + " sample variance " + variance + " differs from the expected value " + pVariance + " by more than " + MAX_NUM_STANDARD_ERRORS + " standard errors");
+        }
+    }
+
+    public static final void main(String []pArgs)
+    {
+        try
+        {
+            int numSamples = DEFAULT_NUM_SAMPLES;
+            if(pArgs.length > 0)
+            {
+                numSamples = Integer.parseInt(pArgs[0]);
+            }
+
+            RandomNumberGenerator first = new RandomNumberGeneratorXoroshiro(12345);
+            RandomNumberGenerator second = new RandomNumberGeneratorXoroshiro(12345);
+            RandomNumberGenerator firstSplit = first.split();
+            RandomNumberGenerator secondSplit = second.split();
+            for(int ctr = 0; ctr < 1000; ++ctr)
+            {
+                if(first.nextLong() != second.nextLong() || firstSplit.nextLong() != secondSplit.nextLong())
+                {
+                    throw new IllegalStateException("generators with the same seed produced different streams");
+                }
+            }
+            System.out.println("reproducibility check passed");
+
+            RandomNumberGenerator random = new RandomNumberGeneratorXoroshiro(1);
+            double sum = 0.0;
+            double sumSquares = 0.0;
+            for(int ctr = 0; ctr < numSamples; ++ctr)
+            {
+                double x = random.nextExponential() - 1.0;
+                sum += x;
+                sumSquares += x * x;
+            }
+            checkMoments("exponential", sum, sumSquares, numSamples, 1.0, 1.0, 9.0);
+
+            for(int k = 0; k < POISSON_MEANS.length; ++k)
+            {
+                double poissonMean = POISSON_MEANS[k];
+                sum = 0.0;
+                sumSquares = 0.0;
+                for(int ctr = 0; ctr < numSamples; ++ctr)
+                {
+                    double x = ((double) random.nextPoisson(poissonMean)) - poissonMean;
+                    sum += x;
+                    sumSquares += x * x;
+                }
+                checkMoments("Poisson(" + poissonMean + ")", sum, sumSquares, numSamples, poissonMean, poissonMean,
+                             poissonMean * (1.0 + 3.0 * poissonMean));
+            }
+            System.out.println("moments check passed");
+
+            double []invalidMeans = { -1.0, Double.NaN, Double.POSITIVE_INFINITY };
+            for(int k = 0; k < invalidMeans.length; ++k)
+            {
+                try
+                {
+                    random.nextPoisson(invalidMeans[k]);
+                    throw new IllegalStateException("no exception for an invalid Poisson mean: " + invalidMeans[k]);
+                }
+                catch(IllegalArgumentException e)
+                {
+                    // expected
+                }
+            }
+            System.out.println("invalid Poisson mean check passed");
+
+            long startTime = System.currentTimeMillis();
+            sum = 0.0;
+            for(int ctr = 0; ctr < numSamples; ++ctr)
+            {
+                sum += random.nextExponential();
+            }
+            long generatorTime = System.currentTimeMillis() - startTime;
+            Ranmar ranmar = new Ranmar(1);
+            startTime = System.currentTimeMillis();
+            for(int ctr = 0; ctr < numSamples; ++ctr)
+            {
+                sum += Math.log(1.0 / (1.0 - ranmar.raw()));
+            }
+            long ranmarTime = System.currentTimeMillis() - startTime;
+            System.out.println("exponential deviates: " + generatorTime + " ms; Ranmar with logarithm: " + ranmarTime + " ms");
+
+            for(int k = 0; k < POISSON_MEANS.length; ++k)
+            {
+                double poissonMean = POISSON_MEANS[k];
+                // the mean is varied slightly from one deviate to the next, as in a tau-leap simulation
+                double []means = { poissonMean, poissonMean * 1.001 };
+                startTime = System.currentTimeMillis();
+                for(int ctr = 0; ctr < numSamples; ++ctr)
+                {
+                    sum += (double) random.nextPoisson(means[ctr & 1]);
+                }
+                generatorTime = System.currentTimeMillis() - startTime;
+                Poisson poisson = new Poisson(1.0, new Ranmar(1));
+                startTime = System.currentTimeMillis();
+                for(int ctr = 0; ctr < numSamples; ++ctr)
+                {
+                    sum += (double) poisson.nextInt(means[ctr & 1]);
+                }
+                ranmarTime = System.currentTimeMillis() - startTime;
+                System.out.println("Poisson(" + poissonMean + ") deviates: " + generatorTime + " ms; cern.jet.random.Poisson with Ranmar: " + ranmarTime + " ms");
+            }
+            System.out.println("(checksum: " + sum + ")");
+        }
+        catch(Exception e)
+        {
+            e.printStackTrace(System.err);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package org.systemsbiology.math.tp;
+/*
+ * Copyright (C) 2003 by Institute for Systems Biology,
+ * Seattle, Washington, USA.  All rights reserved.
+ *
+ * This source code is distributed under the GNU Lesser
+ * General Public License, the text of which is available at:
+ *   http://www.gnu.org/copyleft/lesser.html
+ */
+
+import java.util.Random;
+
+import org.systemsbiology.math.SparseLUDecomposition;
+import org.systemsbiology.math.SparseMatrix;
+
+/**
+ * Checks the {@link SparseLUDecomposition} against a dense Gaussian
+ * elimination with partial pivoting, for random sparse matrices with
+ * unsymmetric patterns and values.  Each pattern is factored several
+ * times with different values, to check the numeric refactorization;
+ * a matrix with a zero row is checked to be reported as singular.
+ * The matrices are diagonally dominant, since the decomposition takes
+ * its pivots from the diagonal.
+ * Usage:  <code>TestSparseLUDecomposition [numTrials]</code>
+ */
+public class TestSparseLUDecomposition
+{
+    private static final int DEFAULT_NUM_TRIALS = 1000;
+    private static final int MAX_SIZE = 40;
+    private static final int NUM_FACTORIZATIONS_PER_PATTERN = 3;
+    private static final double MAX_RELATIVE_ERROR = 1.0e-10;
+
+    // solves the dense system pMatrix x = pVector, overwriting both arguments; x is returned in pVector
+    private static void solveDense(double [][]pMatrix, double []pVector)
+    {
+        int size = pVector.length;
+        for(int k = 0; k < size; ++k)
+        {
+            int pivotRow = k;
+            for(int i = k + 1; i < size; ++i)
+            {
+                if(Math.abs(pMatrix[i][k]) > Math.abs(pMatrix[pivotRow][k]))
+                {
+                    pivotRow = i;
+                }
+            }
+            double []row = pMatrix[k];
+            pMatrix[k] = pMatrix[pivotRow];
+            pMatrix[pivotRow] = row;
+            double value = pVector[k];
+            pVector[k] = pVector[pivotRow];
+            pVector[pivotRow] = value;
+
+            for(int i = k + 1; i < size; ++i)
+            {
+                double multiplier = pMatrix[i][k] / pMatrix[k][k];
+                for(int j = k; j < size; ++j)
+                {
+                    pMatrix[i][j] -= multiplier * pMatrix[k][j];
+                }
+                pVector[i] -= multiplier * pVector[k];
+            }
+        }
+        for(int k = size; --k >= 0; )
+        {
+            double sum = pVector[k];
+            for(int j = k + 1; j < size; ++j)
+            {
+                sum -= pMatrix[k][j] * pVector[j];
+            }
+            pVector[k] = sum / pMatrix[k][k];
+        }
+    }
+
+    // returns a random pattern (in compressed sparse row form, with sorted columns) that includes the diagonal
+    private static SparseMatrix createRandomPattern(Random pRandom, int pSize, double pDensity)
+    {
+        int []rowPointers = new int[pSize + 1];
+        int []columnIndices = new int[pSize * pSize];
+        int numNonzeros = 0;
+        for(int i = 0; i < pSize; ++i)
+        {
+            rowPointers[i] = numNonzeros;
+            for(int j = 0; j < pSize; ++j)
+            {
+                if(j == i || pRandom.nextDouble() < pDensity)
+                {
+                    columnIndices[numNonzeros++] = j;
+                }
+            }
+        }
+        rowPointers[pSize] = numNonzeros;
+        return(new SparseMatrix(pSize, rowPointers, columnIndices, new double[numNonzeros]));
+    }
+
+    // fills the values of pMatrix with random values that make it (row) diagonally dominant
+    private static void setRandomValues(Random pRandom, SparseMatrix pMatrix)
+    {
+        int []rowPointers = pMatrix.getRowPointers();
+        int []columnIndices = pMatrix.getColumnIndices();
+        double []values = pMatrix.getValues();
+        for(int i = 0; i < pMatrix.getNumRows(); ++i)
+        {
+            double offDiagonalSum = 0.0;
+            int diagonalPosition = -1;
+            for(int k = rowPointers[i]; k < rowPointers[i + 1]; ++k)
+            {
+                if(columnIndices[k] == i)
+                {
+                    diagonalPosition = k;
+                }
+                else
+                {
+                    values[k] = 2.0 * pRandom.nextDouble() - 1.0;
+                    offDiagonalSum += Math.abs(values[k]);
+                }
+            }
+            double diagonal = offDiagonalSum + 0.1 + pRandom.nextDouble();
+            values[diagonalPosition] = pRandom.nextBoolean() ? diagonal : -diagonal;
+        }
+    }
+
+    private static double maxAbs(double []pVector)
+    {
+        double maxAbs = 0.0;
+        for(int i = pVector.length; --i >= 0; )
+        {
+            maxAbs = Math.max(maxAbs, Math.abs(pVector[i]));
+        }
+        return(maxAbs);
+    }
+
+    public static final void main(String []pArgs)
+    {
+        try
+        {
+            int numTrials = DEFAULT_NUM_TRIALS;
+            if(pArgs.length > 0)
+            {
+                numTrials = Integer.parseInt(pArgs[0]);
+            }
+
+            Random random = new Random(1);
+            double maxRelativeError = 0.0;
+            long numFactorNonzeros = 0;
+            long numMatrixNonzeros = 0;
+            for(int trialCtr = 0; trialCtr < numTrials; ++trialCtr)
+            {
+                int size = 1 + random.nextInt(MAX_SIZE);
+                double density = 0.3 * random.nextDouble();
+                SparseMatrix matrix = createRandomPattern(random, size, density);
+                SparseLUDecomposition decomposition = new SparseLUDecomposition(matrix);
+                numMatrixNonzeros += matrix.getNumNonzeros();
+                numFactorNonzeros += decomposition.getNumFactorNonzeros();
+                for(int factorCtr = 0; factorCtr < NUM_FACTORIZATIONS_PER_PATTERN; ++factorCtr)
+                {
+                    setRandomValues(random, matrix);
+                    if(! decomposition.factor(matrix.getValues()))
+                    {
+                        throw new IllegalStateException("a diagonally dominant matrix of size " + size + " was reported as singular");
+                    }
+                    double []rightHandSide = new double[size];
+                    for(int i = 0; i < size; ++i)
+                    {
+                        rightHandSide[i] = 2.0 * random.nextDouble() - 1.0;
+                    }
+                    double []sparseSolution = (double []) rightHandSide.clone();
+                    decomposition.solve(sparseSolution);
+                    double []denseSolution = (double []) rightHandSide.clone();
+                    double [][]denseMatrix = new double[size][];
+                    for(int i = 0; i < size; ++i)
+                    {
+                        denseMatrix[i] = matrix.getDenseRow(i);
+                    }
+                    solveDense(denseMatrix, denseSolution);
+
+                    double maxDifference = 0.0;
+                    for(int i = 0; i < size; ++i)
+                    {
+                        maxDifference = Math.max(maxDifference, Math.abs(sparseSolution[i] - denseSolution[i]));
+                    }
+                    double relativeError = maxDifference / maxAbs(denseSolution);
+                    maxRelativeError = Math.max(maxRelativeError, relativeError);
+                    if(relativeError > MAX_RELATIVE_ERROR)
+                    {
+                        throw new IllegalStateException("sparse solution differs from the dense solution by " + relativeError + " (relative), for a matrix of size " + size);
+                    }
+                }
+            }
+            System.out.println("sparse LU check passed; trials: " + numTrials + "; max relative error: " + maxRelativeError +
+                               "; fill-in ratio: " + (((double) numFactorNonzeros) / ((double) numMatrixNonzeros)));
+
+            // a matrix with a zero row is singular
+            SparseMatrix singularMatrix = createRandomPattern(random, 10, 0.3);
+            setRandomValues(random, singularMatrix);
+            int []rowPointers = singularMatrix.getRowPointers();
+            double []values = singularMatrix.getValues();
+            for(int k = rowPointers[3]; k < rowPointers[4]; ++k)
+            {
+                values[k] = 0.0;
+            }
+            SparseLUDecomposition singularDecomposition = new SparseLUDecomposition(singularMatrix);
+            if(singularDecomposition.factor(values))
+            {
+                throw new IllegalStateException("a singular matrix was not reported as singular");
+            }
+            System.out.println("singular matrix check passed");
+        }
+        catch(Exception e)
+        {
+            e.printStackTrace(System.err);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.systemsbiology.math.tp;
+/*
+ * Copyright (C) 2003 by Institute for Systems Biology,
+ * Seattle, Washington, USA.  All rights reserved.
+ *
+ * This source code is distributed under the GNU Lesser
+ * General Public License, the text of which is available at:
+ *   http://www.gnu.org/copyleft/lesser.html
+ */
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.systemsbiology.math.StreamingStatistics;
+
+/**
+ * Checks the mean, variance, and quantile estimates of the
+ * {@link StreamingStatistics} against the exact values computed
+ * from the stored observations, both for a single accumulator and
+ * for separate accumulators of parts of the observations, combined
+ * with {@link StreamingStatistics#merge(StreamingStatistics)}.
+ * Usage:  <code>TestStreamingStatistics [numObservations]</code>
+ */
+public class TestStreamingStatistics
+{
+    private static final int DEFAULT_NUM_OBSERVATIONS = 10000;
+    private static final double []QUANTILES = { 0.05, 0.5, 0.95 };
+    private static final int NUM_PARTS = 4;
+
+    public static final void main(String []pArgs)
+    {
+        try
+        {
+            int numObservations = DEFAULT_NUM_OBSERVATIONS;
+            if(pArgs.length > 0)
+            {
+                numObservations = Integer.parseInt(pArgs[0]);
+            }
+
+            Random random = new Random(1);
+            StreamingStatistics statistics = new StreamingStatistics(2, QUANTILES);
+            double []gaussianValues = new double[numObservations];
+            double []exponentialValues = new double[numObservations];
+            double []observation = new double[2];
+            // the last part gets only three observations, to check merging a part with unsorted markers
+            StreamingStatistics []partStatistics = new StreamingStatistics[NUM_PARTS];
+            for(int k = 0; k < NUM_PARTS; ++k)
+            {
+                partStatistics[k] = new StreamingStatistics(2, QUANTILES);
+            }
+            int partSize = (numObservations - 3) / (NUM_PARTS - 1) + 1;
+            for(int ctr = 0; ctr < numObservations; ++ctr)
+            {
+                observation[0] = 1.0e6 + random.nextGaussian();
+                observation[1] = -Math.log(random.nextDouble());
+                gaussianValues[ctr] = observation[0];
+                exponentialValues[ctr] = observation[1];
+                statistics.addObservations(observation);
+                int part = (ctr >= numObservations - 3) ? NUM_PARTS - 1 : ctr / partSize;
+                partStatistics[part].addObservations(observation);
+            }
+            StreamingStatistics mergedStatistics = partStatistics[0];
+            for(int k = 1; k < NUM_PARTS; ++k)
+            {
+                mergedStatistics.merge(partStatistics[k]);
+            }
+            if(mergedStatistics.getNumObservations() != numObservations)
+            {
+                throw new IllegalStateException("merged number of observations: " + mergedStatistics.getNumObservations());
+            }
+
+            Object []valuesArrays = { gaussianValues, exponentialValues };
+            for(int i = 0; i < valuesArrays.length; ++i)
+            {
+                double []values = (double []) valuesArrays[i];
+                double sum = 0.0;
+                for(int ctr = 0; ctr < numObservations; ++ctr)
+                {
+                    sum += values[ctr];
+                }
+                double mean = sum / ((double) numObservations);
+                double sumSquares = 0.0;
+                for(int ctr = 0; ctr < numObservations; ++ctr)
+                {
+                    double deviation = values[ctr] - mean;
+                    sumSquares += deviation * deviation;
+                }
+                double variance = sumSquares / ((double) (numObservations - 1));
+                System.out.println("element: " + i + "; mean: " + mean + " (estimate: " + statistics.getMean(i) +
+                                   "); variance: " + variance + " (estimate: " + statistics.getVariance(i) + ")");
+                System.out.println("  merged mean estimate: " + mergedStatistics.getMean(i) +
+                                   "; merged variance estimate: " + mergedStatistics.getVariance(i));
+
+                Arrays.sort(values);
+                for(int k = 0; k < QUANTILES.length; ++k)
+                {
+                    double quantile = values[(int) (QUANTILES[k] * ((double) (numObservations - 1)))];
+                    System.out.println("  quantile: " + QUANTILES[k] + "; value: " + quantile +
+                                       " (estimate: " + statistics.getQuantile(i, k) +
+                                       "; merged estimate: " + mergedStatistics.getQuantile(i, k) + ")");
+                }
+            }
+        }
+        catch(Exception e)
+        {
+            e.printStackTrace(System.err);
+        }
+    }
+}